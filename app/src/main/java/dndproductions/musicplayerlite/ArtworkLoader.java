@@ -0,0 +1,509 @@
+package dndproductions.musicplayerlite;
+
+import android.content.ComponentCallbacks2;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.os.Process;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads album artwork into the rows of the song list, keyed by the MediaStore album ID.
+ *
+ * <p>Artwork is decoded on background threads and cropped to a square thumbnail of the row's
+ * size, which is kept in a memory cache bounded by bytes and written to a disk cache, so that an
+ * album's full-size artwork is only decoded once. Thumbnails read back from the disk are decoded
+ * into bitmaps that are no longer shown nor cached, so scrolling doesn't keep allocating them.
+ *
+ * <p>Rebinding an {@link ImageView} cancels its pending request, and the newest requests are
+ * served first, so that a fling only loads the rows it ends on. All of the public methods must
+ * be called on the UI thread.
+ */
+public class ArtworkLoader {
+
+    // Log tag constant.
+    private static final String LOG_TAG = ArtworkLoader.class.getSimpleName();
+
+    // MediaStore URI of the album artwork, which is followed by an album ID.
+    private static final Uri ALBUM_ART_URI = Uri.parse("content://media/external/audio/albumart");
+
+    // Disk cache directory, its size bound, and the size it's trimmed down to once over it.
+    private static final String DISK_CACHE_DIR = "artwork";
+    private static final long MAX_DISK_BYTES = 32 * 1024 * 1024;
+    private static final long TRIMMED_DISK_BYTES = MAX_DISK_BYTES * 3 / 4;
+
+    // Quality of the thumbnails written to the disk, and the amount of bitmaps kept for reuse.
+    private static final int JPEG_QUALITY = 85;
+    private static final int POOL_SIZE = 16;
+
+    // Amount of threads decoding artwork.
+    private static final int THREADS = 2;
+
+    private final ContentResolver mResolver;
+    private final File mDiskDir;
+    private final int mSize;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final ThreadPoolExecutor mExecutor;
+
+    // Memory cache of the thumbnails, bounded by their bytes.
+    private final LruCache<Long, Bitmap> mMemoryCache;
+
+    // Bitmaps that can be decoded into, which are all mutable thumbnails of the same size.
+    private final ArrayDeque<Bitmap> mPool = new ArrayDeque<>(POOL_SIZE);
+
+    // Fields used on the UI thread for keeping track with the views: the pending request of each
+    // view, the bitmap each view shows, how many views show each bitmap, and the bitmaps that
+    // were evicted while shown, which are reused once no view shows them anymore.
+    private final Map<ImageView, Request> mRequests = new WeakHashMap<>();
+    private final Map<ImageView, Bitmap> mShown = new WeakHashMap<>();
+    private final Map<Bitmap, Integer> mShowCounts = new IdentityHashMap<>();
+    private final Set<Bitmap> mEvicted =
+            Collections.newSetFromMap(new IdentityHashMap<Bitmap, Boolean>());
+
+    // Albums known to have no artwork.
+    private final Set<Long> mMissing = new HashSet<>();
+
+    // Requests held back while loading is paused, e.g. during a fling.
+    private final List<Request> mPaused = new ArrayList<>();
+    private boolean mPausedFlag;
+
+    // Approximate size of the disk cache, which is only known once it's been measured.
+    private long mDiskBytes = -1;
+
+    /**
+     * Creates an {@link ArtworkLoader} object.
+     *
+     * @param context is the context whose cache directory and ContentResolver are used.
+     * @param size is the width and height of the thumbnails in pixels.
+     */
+    public ArtworkLoader(Context context, int size) {
+        mResolver = context.getContentResolver();
+        mDiskDir = new File(new File(context.getCacheDir(), DISK_CACHE_DIR),
+                String.valueOf(size));
+        mSize = size;
+
+        // Uses an eighth of the heap for thumbnails, which is several screens' worth of rows.
+        mMemoryCache = new LruCache<Long, Bitmap>((int) (Runtime.getRuntime().maxMemory() / 8)) {
+            @Override
+            protected int sizeOf(Long albumId, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, Long albumId, Bitmap oldValue,
+                    Bitmap newValue) {
+                onRemoved(oldValue);
+            }
+        };
+
+        // Runs the requests at background priority, newest first.
+        mExecutor = new ThreadPoolExecutor(THREADS, THREADS, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingDeque<Runnable>() {
+                    @Override
+                    public boolean offer(Runnable runnable) {
+                        return offerFirst(runnable);
+                    }
+                }, new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable runnable) {
+                        return new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                runnable.run();
+                            }
+                        }, "ArtworkLoader");
+                    }
+                });
+
+        // Measures the disk cache left by previous launches, trimming it if it is over its bound.
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                trimDiskCache(MAX_DISK_BYTES);
+            }
+        });
+    }
+
+    /**
+     * Shows an album's artwork in a view, cancelling the request the view had pending. Cached
+     * artwork is shown right away, and otherwise the view is cleared until it's loaded.
+     *
+     * @param view is the view.
+     * @param albumId is the album's ID, or -1 if unknown.
+     */
+    public void bind(ImageView view, long albumId) {
+        Request pending = mRequests.remove(view);
+        if (pending != null) {
+            if (pending.mAlbumId == albumId) {
+                mRequests.put(view, pending);
+                return;
+            }
+            cancel(pending);
+        }
+
+        Bitmap bitmap = albumId != -1 ? mMemoryCache.get(albumId) : null;
+        show(view, bitmap);
+        if (bitmap != null || albumId == -1 || mMissing.contains(albumId)) return;
+
+        Request request = new Request(view, albumId);
+        mRequests.put(view, request);
+        if (mPausedFlag) {
+            mPaused.add(request);
+        } else {
+            mExecutor.execute(request);
+        }
+    }
+
+    /**
+     * Holds back new requests, e.g. while the list is flung, or submits the ones held back.
+     * Requests of views that were rebound meanwhile are dropped.
+     *
+     * @param paused is whether to hold back new requests.
+     */
+    public void setPaused(boolean paused) {
+        mPausedFlag = paused;
+        if (paused) return;
+
+        for (Request request : mPaused) {
+            if (!request.mCancelled) mExecutor.execute(request);
+        }
+        mPaused.clear();
+    }
+
+    /**
+     * Releases memory as requested by the system.
+     *
+     * @param level is the level passed to {@code onTrimMemory()}.
+     */
+    public void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            mMemoryCache.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            mMemoryCache.trimToSize(mMemoryCache.maxSize() / 2);
+        }
+
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            synchronized (mPool) {
+                mPool.clear();
+            }
+        }
+    }
+
+    /**
+     * Cancels all of the requests and stops the threads. The loader can't be used afterwards.
+     */
+    public void close() {
+        for (Request request : mRequests.values()) {
+            request.mCancelled = true;
+        }
+        mRequests.clear();
+        mPaused.clear();
+        mExecutor.shutdownNow();
+    }
+
+    // Helper method that cancels a request, dropping it if it hasn't started yet.
+    private void cancel(Request request) {
+        request.mCancelled = true;
+        mExecutor.remove(request);
+    }
+
+    // Helper method that shows a bitmap in a view, or clears it, keeping count of the views that
+    // show each bitmap.
+    private void show(ImageView view, Bitmap bitmap) {
+        Bitmap previous = mShown.put(view, bitmap);
+        if (previous == bitmap) return;
+
+        if (bitmap != null) {
+            Integer count = mShowCounts.get(bitmap);
+            mShowCounts.put(bitmap, count != null ? count + 1 : 1);
+        }
+        view.setImageBitmap(bitmap);
+
+        if (previous != null) {
+            int count = mShowCounts.get(previous) - 1;
+            if (count > 0) {
+                mShowCounts.put(previous, count);
+            } else {
+                mShowCounts.remove(previous);
+                if (mEvicted.remove(previous)) recycle(previous);
+            }
+        }
+    }
+
+    // Helper method that reuses a bitmap that left the memory cache, once no view shows it.
+    private void onRemoved(Bitmap bitmap) {
+        if (mShowCounts.containsKey(bitmap)) {
+            mEvicted.add(bitmap);
+        } else {
+            recycle(bitmap);
+        }
+    }
+
+    // Helper method that keeps a bitmap that's neither shown nor cached for decoding into.
+    private void recycle(Bitmap bitmap) {
+        if (!bitmap.isMutable() || bitmap.getWidth() != mSize || bitmap.getHeight() != mSize) {
+            return;
+        }
+
+        synchronized (mPool) {
+            if (mPool.size() < POOL_SIZE) mPool.push(bitmap);
+        }
+    }
+
+    // Helper method that delivers the result of a request on the UI thread.
+    private void deliver(Request request, Bitmap bitmap) {
+
+        // The thumbnail is cached even if its view moved on, since it's likely to be shown again.
+        if (bitmap != null) {
+            mMemoryCache.put(request.mAlbumId, bitmap);
+        } else if (!request.mCancelled) {
+            mMissing.add(request.mAlbumId);
+        }
+
+        if (mRequests.get(request.mView) != request) return;
+
+        mRequests.remove(request.mView);
+        show(request.mView, bitmap);
+    }
+
+    /**
+     * Loads an album's thumbnail from the disk cache, or creates it from the album's artwork.
+     *
+     * @return the thumbnail, or null if the album has no artwork or the request was cancelled.
+     */
+    private Bitmap load(Request request) {
+        File file = new File(mDiskDir, request.mAlbumId + ".jpg");
+        if (file.exists()) {
+
+            // An empty file marks an album without artwork.
+            if (file.length() == 0) return null;
+
+            file.setLastModified(System.currentTimeMillis()); // Keeps it in the disk cache
+            Bitmap bitmap = decodeThumbnail(file);
+            if (bitmap != null) return bitmap;
+        }
+
+        if (request.mCancelled) return null;
+
+        Bitmap bitmap = createThumbnail(request);
+        if (!request.mCancelled || bitmap != null) writeThumbnail(file, bitmap);
+
+        return bitmap;
+    }
+
+    // Helper method that decodes a thumbnail from the disk cache into a pooled bitmap if there's
+    // one, which works on all API levels since the thumbnails all have the same size.
+    private Bitmap decodeThumbnail(File file) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        options.inMutable = true;
+        synchronized (mPool) {
+            options.inBitmap = mPool.poll();
+        }
+
+        try {
+            return BitmapFactory.decodeFile(file.getPath(), options);
+        } catch (IllegalArgumentException e) {
+
+            // The pooled bitmap couldn't be reused, so a new one is allocated instead.
+            options.inBitmap = null;
+            return BitmapFactory.decodeFile(file.getPath(), options);
+        }
+    }
+
+    // Helper method that decodes an album's artwork, downsampled close to the thumbnail size,
+    // and then crops its center into a thumbnail.
+    private Bitmap createThumbnail(Request request) {
+        ParcelFileDescriptor descriptor;
+        try {
+            descriptor = mResolver.openFileDescriptor(
+                    ContentUris.withAppendedId(ALBUM_ART_URI, request.mAlbumId), "r");
+        } catch (FileNotFoundException | SecurityException e) {
+            return null;
+        }
+        if (descriptor == null) return null;
+
+        Bitmap source;
+        try {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeFileDescriptor(descriptor.getFileDescriptor(), null, options);
+            if (options.outWidth <= 0 || options.outHeight <= 0 || request.mCancelled) {
+                return null;
+            }
+
+            options.inJustDecodeBounds = false;
+            options.inSampleSize = sampleSize(options.outWidth, options.outHeight, mSize);
+            options.inPreferredConfig = Bitmap.Config.RGB_565;
+            source = BitmapFactory.decodeFileDescriptor(descriptor.getFileDescriptor(), null,
+                    options);
+        } finally {
+            try {
+                descriptor.close();
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Unable to close artwork", e);
+            }
+        }
+        if (source == null) return null;
+
+        Bitmap thumbnail;
+        synchronized (mPool) {
+            thumbnail = mPool.poll();
+        }
+        if (thumbnail == null) thumbnail = Bitmap.createBitmap(mSize, mSize, Bitmap.Config.RGB_565);
+
+        int side = Math.min(source.getWidth(), source.getHeight());
+        int left = (source.getWidth() - side) / 2;
+        int top = (source.getHeight() - side) / 2;
+        new Canvas(thumbnail).drawBitmap(source, new Rect(left, top, left + side, top + side),
+                new Rect(0, 0, mSize, mSize), new Paint(Paint.FILTER_BITMAP_FLAG));
+        source.recycle();
+
+        return thumbnail;
+    }
+
+    /**
+     * Returns the largest power of two that an image can be downsampled by while still covering
+     * a square of the given size.
+     *
+     * @param width is the image's width.
+     * @param height is the image's height.
+     * @param size is the square's width and height.
+     */
+    static int sampleSize(int width, int height, int size) {
+        int sampleSize = 1;
+        while (Math.min(width, height) / (sampleSize * 2) >= size) {
+            sampleSize *= 2;
+        }
+
+        return sampleSize;
+    }
+
+    // Helper method that writes a thumbnail to the disk cache, or an empty file if there's none.
+    // The file is written under a temporary name, so a reader never sees a partial thumbnail.
+    private void writeThumbnail(File file, Bitmap bitmap) {
+        File temp = new File(mDiskDir, file.getName() + "." + Thread.currentThread().getId());
+        try {
+            if (!mDiskDir.isDirectory() && !mDiskDir.mkdirs()) {
+                throw new IOException("Unable to create " + mDiskDir);
+            }
+
+            OutputStream out = new FileOutputStream(temp);
+            try {
+                if (bitmap != null) bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out);
+            } finally {
+                out.close();
+            }
+
+            if (!temp.renameTo(file)) throw new IOException("Unable to rename " + temp);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Unable to write thumbnail", e);
+            temp.delete();
+            return;
+        }
+
+        boolean trim;
+        synchronized (this) {
+            if (mDiskBytes != -1) mDiskBytes += file.length();
+            trim = mDiskBytes > MAX_DISK_BYTES;
+        }
+        if (trim) trimDiskCache(TRIMMED_DISK_BYTES);
+    }
+
+    // Helper method that measures the disk cache, and deletes the least recently used
+    // thumbnails until it fits within a size.
+    private synchronized void trimDiskCache(long maxBytes) {
+        File[] files = mDiskDir.listFiles();
+        if (files == null) return;
+
+        long bytes = 0;
+        for (File file : files) {
+            bytes += file.length();
+        }
+
+        if (bytes > maxBytes) {
+            final long[] modified = new long[files.length];
+            for (int i = 0; i < files.length; i++) {
+                modified[i] = files[i].lastModified();
+            }
+            Integer[] indexes = new Integer[files.length];
+            for (int i = 0; i < indexes.length; i++) {
+                indexes[i] = i;
+            }
+            Arrays.sort(indexes, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return modified[a] < modified[b] ? -1 : (modified[a] == modified[b] ? 0 : 1);
+                }
+            });
+
+            for (int i = 0; i < indexes.length && bytes > maxBytes; i++) {
+                File file = files[indexes[i]];
+                long length = file.length();
+                if (file.delete()) bytes -= length;
+            }
+        }
+
+        mDiskBytes = bytes;
+    }
+
+    /**
+     * Request for an album's thumbnail on behalf of a view.
+     */
+    private final class Request implements Runnable {
+        final ImageView mView;
+        final long mAlbumId;
+        volatile boolean mCancelled;
+
+        Request(ImageView view, long albumId) {
+            mView = view;
+            mAlbumId = albumId;
+        }
+
+        @Override
+        public void run() {
+            if (mCancelled) return;
+
+            final Bitmap bitmap = load(this);
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    deliver(Request.this, bitmap);
+                }
+            });
+        }
+    }
+}
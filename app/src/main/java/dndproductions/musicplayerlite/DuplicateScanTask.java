@@ -0,0 +1,124 @@
+package dndproductions.musicplayerlite;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.os.AsyncTask;
+import android.provider.MediaStore;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A subclass of {@link AsyncTask} that finds the songs whose files hold the same audio in the
+ * background, via a {@link DuplicateDetector}. What was learned about each file is kept in a
+ * {@link ContentHashStore}, so that later scans only read the files that changed since.
+ */
+public class DuplicateScanTask extends AsyncTask<Void, Void, DuplicateDetector.Result> {
+
+    // Log tag constant.
+    private static final String LOG_TAG = DuplicateScanTask.class.getSimpleName();
+
+    // Amount of workers, which is kept low since the files are read while the app is in use.
+    private static final int WORKERS = 2;
+
+    private static final String[] PROJECTION = {
+            MediaStore.Audio.Media._ID,
+            MediaStore.Audio.Media.DATA,
+            MediaStore.Audio.Media.DATE_MODIFIED
+    };
+
+    private final ContentResolver mResolver;
+    private final File mStoreFile;
+    private final Listener mListener;
+
+    /**
+     * Interface that's notified on the UI thread once the duplicates were found.
+     */
+    public interface Listener {
+
+        /**
+         * Invoked when the task is complete.
+         *
+         * @param result is the results of the detection, or null if it failed.
+         */
+        void onDuplicatesFound(DuplicateDetector.Result result);
+    }
+
+    /**
+     * Creates a {@link DuplicateScanTask} object.
+     *
+     * @param resolver is the ContentResolver used for locating the music files.
+     * @param storeFile is the file of the store the lengths and hashes are kept in.
+     * @param listener is the listener that's notified once the duplicates were found.
+     */
+    public DuplicateScanTask(ContentResolver resolver, File storeFile, Listener listener) {
+        mResolver = resolver;
+        mStoreFile = storeFile;
+        mListener = listener;
+    }
+
+    @Override
+    protected DuplicateDetector.Result doInBackground(Void... params) {
+        Cursor cursor = mResolver.query(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, PROJECTION,
+                null, null, null);
+        if (cursor == null) return null;
+
+        // Lists the files of all the songs.
+        long[] ids;
+        String[] paths;
+        long[] modified;
+        int count = 0;
+        try {
+            ids = new long[cursor.getCount()];
+            paths = new String[ids.length];
+            modified = new long[ids.length];
+            while (cursor.moveToNext() && count < ids.length) {
+                if (isCancelled()) return null;
+
+                String path = cursor.getString(1);
+                if (path == null) continue;
+
+                ids[count] = cursor.getLong(0);
+                paths[count] = path;
+                modified[count] = cursor.getLong(2);
+                count++;
+            }
+        } finally {
+            cursor.close();
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(WORKERS);
+        ContentHashStore store = null;
+        try {
+            store = ContentHashStore.open(mStoreFile);
+            return new DuplicateDetector(executor, WORKERS).detect(Arrays.copyOf(ids, count),
+                    Arrays.copyOf(paths, count), Arrays.copyOf(modified, count), store);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Unable to open " + mStoreFile, e);
+            return null;
+        } catch (InterruptedException e) {
+            Log.w(LOG_TAG, "Duplicate scan interrupted", e);
+            return null;
+        } finally {
+            executor.shutdownNow();
+            if (store != null) {
+                try {
+                    store.close();
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "Unable to close " + mStoreFile, e);
+                }
+            }
+        }
+    }
+
+    @Override
+    protected void onPostExecute(DuplicateDetector.Result result) {
+        if (result != null) Log.d(LOG_TAG, "onPostExecute(): " + result);
+
+        mListener.onDuplicatesFound(result);
+    }
+}
@@ -0,0 +1,165 @@
+package dndproductions.musicplayerlite;
+
+import android.content.ContentResolver;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.provider.MediaStore;
+import android.util.Log;
+
+/**
+ * A subclass of {@link ContentObserver} that collects the changes of the music files into
+ * {@link LibraryChanges}, and reports them once a burst of notifications has settled down.
+ *
+ * <p>Copying a folder of songs over notifies each file separately, so the changes are only
+ * reported once no notification came in for a moment, or once they've been held back for a few
+ * seconds while the notifications keep coming. Notifications that name a song (API 16 and above)
+ * add its ID, while the others mark the whole library as changed.
+ */
+public class LibraryObserver extends ContentObserver {
+
+    // Log tag constant.
+    private static final String LOG_TAG = LibraryObserver.class.getSimpleName();
+
+    // Quiet time after which a burst counts as settled, and the longest a change is held back.
+    private static final long SETTLE_MS = 1000;
+    private static final long MAX_DELAY_MS = 5000;
+
+    // Largest gap between the IDs that share a range, and the amount of ranges above which the
+    // whole library is reconciled instead.
+    private static final int MAX_GAP = 32;
+    private static final int MAX_RANGES = 64;
+
+    private final ContentResolver mResolver;
+    private final Handler mHandler;
+    private final Listener mListener;
+
+    // Changes collected so far, and the time the first of them came in.
+    private LibraryChanges mChanges;
+    private long mFirstChangeTime;
+    private boolean mSettled;
+
+    /**
+     * Interface that's notified on the handler's thread when changes are ready.
+     */
+    public interface Listener {
+
+        /**
+         * Invoked when a burst of changes settled down. The changes are taken via
+         * {@link #takeChanges()}, which may also be done later, e.g. once a scan is complete.
+         */
+        void onChangesSettled();
+    }
+
+    // Reports the changes collected once the burst settled.
+    private final Runnable mSettleTask = new Runnable() {
+        @Override
+        public void run() {
+            mSettled = true;
+            Log.d(LOG_TAG, "Changes settled: " + mChanges);
+
+            mListener.onChangesSettled();
+        }
+    };
+
+    /**
+     * Creates a {@link LibraryObserver} object.
+     *
+     * @param resolver is the ContentResolver the observer registers with.
+     * @param handler is the handler of the thread that collects the changes.
+     * @param listener is the listener of the changes.
+     */
+    public LibraryObserver(ContentResolver resolver, Handler handler, Listener listener) {
+        super(handler);
+
+        mResolver = resolver;
+        mHandler = handler;
+        mListener = listener;
+    }
+
+    /**
+     * Starts observing the music files.
+     */
+    public void register() {
+        mResolver.registerContentObserver(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, true,
+                this);
+    }
+
+    /**
+     * Stops observing the music files, and drops the changes collected.
+     */
+    public void unregister() {
+        mResolver.unregisterContentObserver(this);
+        mHandler.removeCallbacks(mSettleTask);
+        mChanges = null;
+    }
+
+    /**
+     * Returns whether changes settled down and haven't been taken yet.
+     */
+    public boolean hasSettledChanges() {
+        return mSettled && mChanges != null;
+    }
+
+    /**
+     * Takes the changes that settled down, which are no longer collected into.
+     *
+     * @return the changes, or null if none settled down.
+     */
+    public LibraryChanges takeChanges() {
+        if (!hasSettledChanges()) return null;
+
+        LibraryChanges changes = mChanges;
+        mChanges = null;
+        mSettled = false;
+
+        return changes;
+    }
+
+    @Override
+    public void onChange(boolean selfChange) {
+        onChange(selfChange, null);
+    }
+
+    @Override
+    public void onChange(boolean selfChange, Uri uri) {
+        long now = SystemClock.uptimeMillis();
+        if (mChanges == null) {
+            mChanges = new LibraryChanges(MAX_GAP, MAX_RANGES);
+            mFirstChangeTime = now;
+        }
+
+        // Only a URI that ends with a song's ID names the song that changed.
+        long id = parseId(uri);
+        if (id != -1) {
+            mChanges.add(id);
+        } else {
+            mChanges.addAll();
+        }
+
+        // Pushes the report back while the burst goes on, but not beyond the longest delay.
+        mSettled = false;
+        mHandler.removeCallbacks(mSettleTask);
+        long delay = Math.min(SETTLE_MS, mFirstChangeTime + MAX_DELAY_MS - now);
+        mHandler.postDelayed(mSettleTask, Math.max(0, delay));
+    }
+
+    // Helper method that returns the song ID a URI ends with, or -1 if none.
+    private static long parseId(Uri uri) {
+        if (uri == null) return -1;
+
+        String segment = uri.getLastPathSegment();
+        if (segment == null || segment.isEmpty()) return -1;
+
+        for (int i = 0; i < segment.length(); i++) {
+            if (!Character.isDigit(segment.charAt(i))) return -1;
+        }
+
+        try {
+            return Long.parseLong(segment);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -1,31 +1,39 @@
 package dndproductions.musicplayerlite;
 
 import android.Manifest;
-import android.content.ContentResolver;
 import android.content.pm.PackageManager;
-import android.database.Cursor;
-import android.net.Uri;
 import android.os.Build;
+import android.support.v4.view.MenuItemCompat;
+import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.PopupMenu;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.text.format.DateUtils;
 import android.util.Log;
 import android.view.Menu;
-import android.widget.AdapterView;
-import android.widget.ListView;
 import android.view.View;
+import android.view.ViewTreeObserver;
 import android.widget.Toast;
 import android.os.IBinder;
 import android.content.ComponentName;
 import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.ServiceConnection;
 import android.view.MenuItem;
 import android.view.View;
 import android.widget.MediaController.MediaPlayerControl;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
 
 import dndproductions.musicplayerlite.MusicService.MusicBinder;
@@ -42,9 +50,60 @@ public class MainActivity extends AppCompatActivity implements MediaPlayerContro
     // Constant used as a parameter to assist with the permission requesting process.
     private final int PERMISSION_CODE = 1;
 
+    // Name of the file that holds the library snapshot between launches.
+    private static final String LIBRARY_SNAPSHOT_FILE = "library.snapshot";
+
+    // Name of the file that keeps the lengths and hashes of the songs' audio between scans.
+    private static final String CONTENT_HASH_FILE = "content-hashes.store";
+
+    // Name of the file the playback metrics are exported to.
+    private static final String METRICS_FILE = "playback-metrics.txt";
+
+    // Smart playlists offered in the menu.
+    private static final long DAY_MS = 24 * 60 * 60 * 1000L;
+    private static final SmartPlaylist RECENTLY_ADDED = new SmartPlaylist("Recently added")
+            .withAddedWithin(30 * DAY_MS);
+    private static final SmartPlaylist LONG_SONGS = new SmartPlaylist("Long songs")
+            .withDurationBetween(8 * 60 * 1000, Long.MAX_VALUE);
+
+    // Amount of songs listed from the play history.
+    private static final int HISTORY_SONGS = 50;
+
+    // Longest time the first frame waits for the Service to restore the session.
+    private static final long SESSION_RESTORE_TIMEOUT_MS = 500;
+
     // Fields used to assist with a song list UI.
-    private List<Song> mSongList;
-    private ListView mSongView;
+    private SongTable mSongTable;
+    private RecyclerView mSongView;
+    private SongAdapter mSongAdapter;
+    private SongOrder mSongOrder = SongOrder.TITLE;
+    private ArtworkLoader mArtworkLoader;
+
+    // Fields used for searching the song list, where the index is null until it's been built.
+    private SongSearchIndex mSearchIndex;
+    private String mSearchQuery = "";
+
+    // Smart playlist shown while there's no search, or null, and the changes being applied to
+    // the library that it's carried over through.
+    private SmartPlaylistQuery mSmartQuery;
+    private LibraryChanges mSyncChanges;
+
+    // Background task that retrieves the songs from the user's music library, or that applies
+    // the changes observed since, and the highest DATE_MODIFIED value seen by the last one.
+    private SongScanTask mScanTask;
+    private long mWatermark;
+
+    // Observer of the changes to the music library while the app is running.
+    private LibraryObserver mLibraryObserver;
+
+    // Tags read from the music files, the background task that reads them, and whether it
+    // should run again since songs were added while it ran.
+    private final TagStore mTagStore = new TagStore();
+    private TagScanTask mTagScanTask;
+    private boolean mTagScanPending;
+
+    // Background task that looks for duplicate songs.
+    private DuplicateScanTask mDuplicateScanTask;
 
     // Fields used for binding the interaction between the Activity and the Service class - the
     // music will be played in the Service class, but be controlled from the Activity.
@@ -55,15 +114,29 @@ public class MainActivity extends AppCompatActivity implements MediaPlayerContro
     // Field used for setting the controller up.
     private static MusicController mController;
 
-    // Boolean flag that's used to address when the user interacts with the controls while playback
-    // is paused since the MediaPlayer object may behave strangely.
-    private boolean mPlaybackPaused = false;
-
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
+        // Holds the first frame until the session is restored, so that it already shows the
+        // restored song rather than an idle controller.
+        final long deadline = SystemClock.elapsedRealtime() + SESSION_RESTORE_TIMEOUT_MS;
+        final View content = findViewById(android.R.id.content);
+        content.getViewTreeObserver().addOnPreDrawListener(
+                new ViewTreeObserver.OnPreDrawListener() {
+                    @Override
+                    public boolean onPreDraw() {
+                        if ((mMusicService == null || !mMusicService.isSessionRestored())
+                                && SystemClock.elapsedRealtime() < deadline) {
+                            return false; // Cancels this frame, and schedules another one
+                        }
+
+                        content.getViewTreeObserver().removeOnPreDrawListener(this);
+                        return true;
+                    }
+                });
+
         // Requests permission for devices with versions Marshmallow (M)/API 23 or above.
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
             if (checkSelfPermission(Manifest.permission.READ_EXTERNAL_STORAGE)
@@ -80,19 +153,8 @@ public class MainActivity extends AppCompatActivity implements MediaPlayerContro
         // the in-app permission for the next sessions.
         init();
 
-        // Invokes the iteration for adding songs.
-        getSongList();
-
-        // Sorts the data so that the song titles are presented alphabetically.
-        Collections.sort(mSongList, new Comparator<Song>(){
-            public int compare(Song a, Song b){
-                return a.getTitle().compareTo(b.getTitle());
-            }
-        });
-
-        // Custom adapter instantiation that displays the songs via the ListView.
-        SongAdapter songAdapter = new SongAdapter(this, mSongList);
-        mSongView.setAdapter(songAdapter);
+        // Invokes the background scan for adding songs.
+        loadSongs();
 
         // Invokes the controller setup.
         setController();
@@ -121,9 +183,62 @@ public class MainActivity extends AppCompatActivity implements MediaPlayerContro
         super.onStop();
     }
 
+    @Override
+    protected void onDestroy() {
+
+        // Stops the library scan since its results are no longer needed.
+        if (mScanTask != null) {
+            Log.d(LOG_TAG, "onDestroy(): Cancelling library scan");
+
+            mScanTask.cancel(false);
+            mScanTask = null;
+        }
+
+        if (mTagScanTask != null) {
+            mTagScanTask.cancel(true);
+            mTagScanTask = null;
+        }
+
+        if (mDuplicateScanTask != null) {
+            mDuplicateScanTask.cancel(true);
+            mDuplicateScanTask = null;
+        }
+
+        if (mLibraryObserver != null) mLibraryObserver.unregister();
+
+        if (mArtworkLoader != null) mArtworkLoader.close();
+
+        super.onDestroy();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+
+        if (mArtworkLoader != null) mArtworkLoader.trimMemory(level);
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate(R.menu.song_options, menu);
+
+        // Refines the song list as each character is typed in the search view.
+        SearchView searchView = (SearchView) MenuItemCompat.getActionView(
+                menu.findItem(R.id.option_search));
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                if (!newText.isEmpty()) mSmartQuery = null;
+                search(newText);
+                return true;
+            }
+        });
+
         return super.onCreateOptionsMenu(menu);
     }
 
@@ -132,13 +247,63 @@ public class MainActivity extends AppCompatActivity implements MediaPlayerContro
 
         // Performs the following for the respective item.
         switch (item.getItemId()) {
+            case R.id.option_browse_songs:
+                mSmartQuery = null;
+                search(mSearchQuery);
+                break;
+            case R.id.option_browse_artists:
+                browse(mSongTable.getArtistGroups(), SongOrder.ARTIST, true);
+                break;
+            case R.id.option_browse_albums:
+                browse(mSongTable.getAlbumGroups(), SongOrder.ALBUM, false);
+                break;
+            case R.id.option_smart_recent:
+                showSmartPlaylist(RECENTLY_ADDED);
+                break;
+            case R.id.option_smart_long:
+                showSmartPlaylist(LONG_SONGS);
+                break;
+            case R.id.option_smart_most_played:
+            case R.id.option_smart_recently_played:
+                showHistory(item.getItemId() == R.id.option_smart_most_played);
+                break;
             case R.id.option_shuffle:
                 mMusicService.setShuffle();
                 break;
+            case R.id.option_sort_title:
+                setSongOrder(SongOrder.TITLE);
+                item.setChecked(true);
+                break;
+            case R.id.option_sort_artist:
+                setSongOrder(SongOrder.ARTIST);
+                item.setChecked(true);
+                break;
+            case R.id.option_sort_album:
+                setSongOrder(SongOrder.ALBUM);
+                item.setChecked(true);
+                break;
+            case R.id.option_export_metrics:
+                exportMetrics();
+                break;
+            case R.id.option_find_duplicates:
+                findDuplicates();
+                break;
             case R.id.option_end:
+
+                // Exits once the session was written, which happens off the UI thread.
+                Runnable exit = new Runnable() {
+                    @Override
+                    public void run() {
+                        System.exit(0);
+                    }
+                };
+                if (mMusicService != null) {
+                    mMusicService.saveSession(exit);
+                } else {
+                    exit.run();
+                }
                 stopService(mPlayIntent);
                 mMusicService = null;
-                System.exit(0);
                 break;
         }
 
@@ -155,23 +320,12 @@ public class MainActivity extends AppCompatActivity implements MediaPlayerContro
             if (grantResults.length > 0 && grantResults[0] == PackageManager.PERMISSION_GRANTED) {
                 init();
 
-                // Invokes the iteration for adding songs.
-                getSongList();
-
-                // Sorts the data so that the song titles are presented alphabetically.
-                Collections.sort(mSongList, new Comparator<Song>(){
-                    public int compare(Song a, Song b){
-                        return a.getTitle().compareTo(b.getTitle());
-                    }
-                });
-
-                // Custom adapter instantiation that displays the songs via the ListView.
-                SongAdapter songAdapter = new SongAdapter(this, mSongList);
-                mSongView.setAdapter(songAdapter);
+                // Invokes the background scan for adding songs.
+                loadSongs();
 
                 // Manually passes the song list since the ServiceConnection instance was binded
                 // before the song list was formed.
-                mMusicService.setList(mSongList);
+                if (mMusicService != null) mMusicService.setList(mSongTable, mSongOrder);
 
                 // Invokes the controller setup.
                 setController();
@@ -201,31 +355,100 @@ public class MainActivity extends AppCompatActivity implements MediaPlayerContro
      * Initializing/instantiating method.
      */
     private void init() {
-        mSongList = new ArrayList<>();
-        mSongView = (ListView) findViewById(R.id.song_list);
+        mSongTable = new SongTable();
+        mSongView = (RecyclerView) findViewById(R.id.song_list);
+
+        // Rows all have the same height, and the layout manager binds the rows that are about to
+        // scroll in while the UI thread is idle between frames.
+        LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        layoutManager.setItemPrefetchEnabled(true);
+        mSongView.setLayoutManager(layoutManager);
+        mSongView.setHasFixedSize(true);
+
+        // Custom adapter instantiation that displays the songs via the RecyclerView. The adapter
+        // is set right away and then filled in as the songs are retrieved.
+        mArtworkLoader = new ArtworkLoader(this,
+                getResources().getDimensionPixelSize(R.dimen.artwork_size));
+        mSongAdapter = new SongAdapter(this, mSongTable, mArtworkLoader,
+                new SongAdapter.Listener() {
+                    @Override
+                    public void onSongClick(long songId) {
+                        playSong(songId);
+                    }
+
+                    @Override
+                    public void onSongLongClick(View view, long songId) {
+                        showSongMenu(view, songId);
+                    }
+                });
+        mSongView.setAdapter(mSongAdapter);
 
-        // Sets each song with a functionality.
-        mSongView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        // Holds back artwork requests during a fling, since those rows are only passed through.
+        mSongView.addOnScrollListener(new RecyclerView.OnScrollListener() {
             @Override
-            public void onItemClick(AdapterView<?> adapterView, View view, int position, long l) {
-                Log.d(LOG_TAG, "Song item clicked");
+            public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+                mArtworkLoader.setPaused(newState == RecyclerView.SCROLL_STATE_SETTLING);
+            }
+        });
+    }
+
+    /**
+     * Plays a song that was clicked via the Service class.
+     *
+     * @param songId is the song's ID.
+     */
+    private void playSong(long songId) {
+        if (mMusicService == null) return;
+
+        mMusicService.getMetrics().markRequest(SystemClock.elapsedRealtime());
 
-                // Sets the respective song in the Service, and then plays it.
-                mMusicService.setSong(position);
-                mMusicService.playSong();
+        // Sets the respective song in the Service, and then plays it. The position is looked up
+        // in the whole list, since the one clicked may be in search results.
+        int row = mSongTable.indexOfId(songId);
+        if (row == -1) return;
 
-                // Sets the flag to false for the controller's duration and position purposes.
-                if (mPlaybackPaused) mPlaybackPaused = false;
+        mMusicService.setSong(mSongTable.positionOf(mSongOrder, row));
+        mMusicService.playSong();
+    }
+
+    /**
+     * Shows the menu of a long pressed song, which offers to queue it.
+     *
+     * @param view is the song's row view.
+     * @param songId is the song's ID.
+     */
+    private void showSongMenu(View view, final long songId) {
+        PopupMenu menu = new PopupMenu(this, view);
+        menu.getMenuInflater().inflate(R.menu.song_context, menu.getMenu());
+        menu.setOnMenuItemClickListener(new PopupMenu.OnMenuItemClickListener() {
+            @Override
+            public boolean onMenuItemClick(MenuItem item) {
+                if (mMusicService == null) return false;
+
+                switch (item.getItemId()) {
+                    case R.id.context_play_next:
+                        mMusicService.enqueueNext(songId);
+                        return true;
+                    case R.id.context_enqueue:
+                        mMusicService.enqueue(songId);
+                        return true;
+                }
+
+                return false;
             }
         });
+        menu.show();
     }
 
     /**
      * Shows the controller accordingly.
+     *
+     * @param waveform is the waveform of the song that's playing, or null if there's none yet.
      */
-    public static void showController() {
+    public static void showController(Waveform waveform) {
         Log.d(LOG_TAG, "showController()");
 
+        mController.setWaveform(waveform);
         mController.show(0);
     }
 
@@ -242,7 +465,7 @@ public class MainActivity extends AppCompatActivity implements MediaPlayerContro
             mMusicService = binder.getService();
 
             // Passes the song list.
-            mMusicService.setList(mSongList);
+            mMusicService.setList(mSongTable, mSongOrder);
 
             // Sets the boolean flag accordingly.
             mMusicBound = true;
@@ -284,58 +507,403 @@ public class MainActivity extends AppCompatActivity implements MediaPlayerContro
         mController.setEnabled(true);
     }
 
+    /**
+     * Switches the order the songs are shown and played in.
+     *
+     * @param songOrder is the new song order.
+     */
+    private void setSongOrder(SongOrder songOrder) {
+        mSongOrder = songOrder;
+        mSongAdapter.setOrder(songOrder);
+        if (mMusicService != null) mMusicService.setList(mSongTable, songOrder);
+
+        // Runs the current search again so that its results follow the new order.
+        if (mSearchIndex != null) {
+            mSearchIndex.setOrder(songOrder);
+            search(mSearchQuery);
+        } else if (mSmartQuery != null && mSearchQuery.isEmpty()) {
+            showSmartQuery();
+        }
+    }
+
+    /**
+     * Filters the song list down to the songs whose title or artist contain the query. Each
+     * keystroke only refines the previous results, which are pushed straight into the adapter.
+     *
+     * @param query is the text typed by the user.
+     */
+    private void search(String query) {
+        mSearchQuery = query;
+
+        // The adapter may still show the previous table while a new one's index is built.
+        if (query.isEmpty()) {
+            if (mSmartQuery != null) {
+                showSmartQuery();
+            } else if (mSongAdapter.getTable() != mSongTable) {
+                mSongAdapter.setTable(mSongTable);
+            } else {
+                mSongAdapter.clearFilter();
+            }
+        } else if (mSearchIndex != null) {
+            int count = mSearchIndex.search(query);
+            mSongAdapter.setFilter(mSearchIndex.getTable(), mSearchIndex.getResults(), count);
+        }
+    }
+
+    /**
+     * Shows only the songs of a smart playlist, which is kept up to date as the library changes.
+     *
+     * @param playlist is the smart playlist.
+     */
+    private void showSmartPlaylist(SmartPlaylist playlist) {
+        mSmartQuery = playlist.compile(mSongTable, getPlayCounts(), System.currentTimeMillis());
+        showSmartQuery();
+    }
+
+    // Helper method that returns the play counts of the Service's history, or null until it's
+    // been opened.
+    private SmartPlaylist.PlayCounts getPlayCounts() {
+        return mMusicService != null ? mMusicService.getPlayHistory() : null;
+    }
+
+    /**
+     * Shows only the most played or the most recently played songs, in the order they're ranked
+     * in by the play history rather than in the list's order.
+     *
+     * @param mostPlayed is whether the most played songs are shown, rather than the most
+     * recently played ones.
+     */
+    private void showHistory(boolean mostPlayed) {
+        PlayHistory history = mMusicService != null ? mMusicService.getPlayHistory() : null;
+        if (history == null) return;
+
+        long[] songIds = mostPlayed ? history.getMostPlayed(HISTORY_SONGS)
+                : history.getRecentlyPlayed(HISTORY_SONGS);
+
+        // Songs that were removed from the library since are left out.
+        int[] found = findRows(songIds);
+        int[] rows = new int[songIds.length];
+        int count = 0;
+        for (int row : found) {
+            if (row != -1) rows[count++] = row;
+        }
+
+        mSmartQuery = null;
+        mSongAdapter.setFilter(mSongTable, rows, count);
+    }
+
+    /**
+     * Finds the rows of a few songs in one pass over the table, where each row looks its ID up
+     * among the ones that are listed.
+     *
+     * @param songIds is the IDs of the songs.
+     * @return the row of each song, or -1 for the ones that aren't in the table.
+     */
+    private int[] findRows(long[] songIds) {
+        long[] sortedIds = songIds.clone();
+        Arrays.sort(sortedIds);
+        int[] sortedRows = new int[sortedIds.length];
+        Arrays.fill(sortedRows, -1);
+        for (int row = 0; row < mSongTable.size(); row++) {
+            int index = Arrays.binarySearch(sortedIds, mSongTable.getId(row));
+            if (index >= 0) sortedRows[index] = row;
+        }
+
+        int[] rows = new int[songIds.length];
+        for (int i = 0; i < songIds.length; i++) {
+            rows[i] = sortedRows[Arrays.binarySearch(sortedIds, songIds[i])];
+        }
+
+        return rows;
+    }
+
+    // Helper method that shows the songs of the smart playlist in the current order.
+    private void showSmartQuery() {
+        int[] rows = mSmartQuery.getRows(mSongOrder);
+        mSongAdapter.setFilter(mSmartQuery.getTable(), rows, rows.length);
+    }
+
+    /**
+     * Lists the artists or the albums with their song count and total duration, which are read
+     * from the table's aggregation index, and then shows only the songs of the one picked.
+     *
+     * @param groups is the artist or album index of the song table.
+     * @param groupOrder is the order the groups are listed in.
+     * @param byArtist is whether the groups are artists rather than albums.
+     */
+    private void browse(final SongGroupIndex groups, SongOrder groupOrder, boolean byArtist) {
+        final SongTable table = mSongTable;
+        final int[] order = groups.getGroupOrder(groupOrder);
+        CharSequence[] items = new CharSequence[order.length];
+        for (int i = 0; i < order.length; i++) {
+            int group = order[i];
+            int row = groups.getFirstRow(group);
+            String name = byArtist ? table.getArtist(row) : table.getAlbum(row);
+            if (name == null || groups.getKey(group) == SongGroupIndex.UNKNOWN_KEY) {
+                name = getString(R.string.browse_unknown);
+            }
+
+            items[i] = getString(R.string.browse_group, name, groups.getCount(group),
+                    DateUtils.formatElapsedTime(groups.getDuration(group) / 1000));
+        }
+
+        new AlertDialog.Builder(this)
+                .setTitle(byArtist ? R.string.option_browse_artists
+                        : R.string.option_browse_albums)
+                .setItems(items, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        if (table != mSongTable) return;
+
+                        mSmartQuery = null;
+                        int[] rows = groups.getRows(order[which], mSongOrder);
+                        mSongAdapter.setFilter(table, rows, rows.length);
+                    }
+                })
+                .show();
+    }
+
     /**
      * Plays the next song via the Service class.
      */
     private void playNext(){
+        mMusicService.getMetrics().markRequest(SystemClock.elapsedRealtime());
         mMusicService.playNext();
-
-        // Sets the flag to false for the controller's duration and position purposes.
-        if (mPlaybackPaused) mPlaybackPaused = false;
     }
 
     /**
      * Plays the previous song via the Service class.
      */
     private void playPrevious(){
+        mMusicService.getMetrics().markRequest(SystemClock.elapsedRealtime());
         mMusicService.playPrevious();
+    }
 
-        // Sets the flag to false for the controller's duration and position purposes.
-        if (mPlaybackPaused) mPlaybackPaused = false;
+    /**
+     * Exports the playback metrics to the app's external files directory in the background, so
+     * that they can be pulled from the device for analysis.
+     */
+    private void exportMetrics() {
+        if (mMusicService == null) return;
+
+        final MusicService musicService = mMusicService;
+        // Falls back to the internal files directory when the external storage isn't mounted.
+        File directory = getExternalFilesDir(null);
+        if (directory == null) directory = getFilesDir();
+        final File file = new File(directory, METRICS_FILE);
+        new Thread() {
+            @Override
+            public void run() {
+                String message;
+                try {
+                    musicService.exportMetrics(file);
+                    message = "Metrics exported to " + file;
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "Unable to export metrics", e);
+                    message = "Unable to export metrics";
+                }
+
+                final String result = message;
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Toast.makeText(MainActivity.this, result, Toast.LENGTH_SHORT).show();
+                    }
+                });
+            }
+        }.start();
     }
 
-    // Helper method used for retrieving audio file information.
-    public void getSongList() {
-        ContentResolver musicResolver = getContentResolver();
+    /**
+     * Looks for the songs whose files hold the same audio in the background, and lists them in a
+     * dialog once they were found.
+     */
+    private void findDuplicates() {
+        if (mDuplicateScanTask != null) return;
 
-        // Retrieves the URI for external music files.
-        Uri musicUri = android.provider.MediaStore.Audio.Media.EXTERNAL_CONTENT_URI;
+        Toast.makeText(this, R.string.duplicates_searching, Toast.LENGTH_SHORT).show();
+        mDuplicateScanTask = new DuplicateScanTask(getContentResolver(),
+                new File(getFilesDir(), CONTENT_HASH_FILE), new DuplicateScanTask.Listener() {
+                    @Override
+                    public void onDuplicatesFound(DuplicateDetector.Result result) {
+                        mDuplicateScanTask = null;
+                        showDuplicates(result);
+                    }
+                });
+        mDuplicateScanTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
 
-        // Queries the music files.
-        Cursor musicCursor = musicResolver.query(musicUri, null, null, null, null);
+    // Helper method that lists each group of duplicates, one song per line.
+    private void showDuplicates(DuplicateDetector.Result result) {
+        if (result == null || result.getGroups().isEmpty()) {
+            Toast.makeText(this, result == null ? R.string.duplicates_failed
+                    : R.string.duplicates_none, Toast.LENGTH_SHORT).show();
+            return;
+        }
 
-        // Initially checks to see if the data is valid.
-        if (musicCursor != null && musicCursor.moveToFirst()) {
+        // Finds the rows of all the duplicates at once, rather than looking each one up.
+        List<long[]> groups = result.getGroups();
+        int songs = 0;
+        for (long[] group : groups) {
+            songs += group.length;
+        }
+        long[] songIds = new long[songs];
+        songs = 0;
+        for (long[] group : groups) {
+            System.arraycopy(group, 0, songIds, songs, group.length);
+            songs += group.length;
+        }
+        int[] rows = findRows(songIds);
+
+        CharSequence[] items = new CharSequence[groups.size()];
+        int index = 0;
+        for (int i = 0; i < items.length; i++) {
+            StringBuilder item = new StringBuilder();
+            for (int j = 0; j < groups.get(i).length; j++) {
+                int row = rows[index++];
+                if (row < 0) continue;
+
+                if (item.length() > 0) item.append('\n');
+                item.append(mSongTable.getTitle(row)).append(" - ")
+                        .append(mSongTable.getArtist(row));
+            }
+            items[i] = item;
+        }
 
-            // Column indexes used for retrieval purposes.
-            int idColumn = musicCursor.getColumnIndex
-                    (android.provider.MediaStore.Audio.Media._ID);
-            int titleColumn = musicCursor.getColumnIndex
-                    (android.provider.MediaStore.Audio.Media.TITLE);
-            int artistColumn = musicCursor.getColumnIndex
-                    (android.provider.MediaStore.Audio.Media.ARTIST);
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.duplicates_title)
+                .setItems(items, null)
+                .setPositiveButton(android.R.string.ok, null)
+                .show();
+    }
 
-            // Iterates and adds new Song objects to the list, accordingly..
-            do {
-                long thisId = musicCursor.getLong(idColumn);
-                String thisTitle = musicCursor.getString(titleColumn);
-                String thisArtist = musicCursor.getString(artistColumn);
-                mSongList.add(new Song(thisId, thisTitle, thisArtist));
-            }
-            while (musicCursor.moveToNext());
+    /**
+     * Starts retrieving the songs from the user's music library in the background. Songs are
+     * appended to the list in title order as each batch arrives, so the list is shown without
+     * waiting for the whole library to be scanned. The songs saved by the previous scan are shown
+     * first, and then brought up to date with the MediaStore.
+     *
+     * <p>Changes to the library are observed from then on, and applied by another task once the
+     * scan is complete.
+     */
+    private void loadSongs() {
+        mLibraryObserver = new LibraryObserver(getContentResolver(),
+                new Handler(Looper.getMainLooper()), new LibraryObserver.Listener() {
+                    @Override
+                    public void onChangesSettled() {
+                        if (mScanTask == null) syncSongs();
+                    }
+                });
+        mLibraryObserver.register();
+
+        mScanTask = new SongScanTask(getContentResolver(), getSnapshotFile(), mScanListener);
+        mScanTask.execute();
+    }
+
+    /**
+     * Applies the changes to the music library observed since the last scan in the background.
+     * Only the songs within the ranges of IDs that changed are read, and the list and the
+     * Service's queue are then updated in place, so that the current song keeps playing.
+     */
+    private void syncSongs() {
+        LibraryChanges changes = mLibraryObserver.takeChanges();
+        if (changes == null) return;
+
+        Log.d(LOG_TAG, "syncSongs(): " + changes);
+
+        mSyncChanges = changes;
+        mScanTask = new SongScanTask(getContentResolver(), getSnapshotFile(), mSongTable,
+                mWatermark, changes, mScanListener);
+        mScanTask.execute();
+    }
+
+    /**
+     * Reads the tags of the songs whose tags weren't read yet in the background, or once the
+     * read that's running is complete.
+     */
+    private void readTags() {
+        if (mTagScanTask != null) {
+            mTagScanPending = true;
+            return;
         }
+
+        mTagScanPending = false;
+        mTagScanTask = new TagScanTask(getContentResolver(), mTagStore,
+                new TagScanTask.Listener() {
+                    @Override
+                    public void onTagsRead(TagExtractor.Result result) {
+                        mTagScanTask = null;
+                        if (mTagScanPending) readTags();
+                    }
+                });
+        mTagScanTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
     }
 
+    // Helper method that returns the file that holds the library snapshot between launches.
+    private File getSnapshotFile() {
+        return new File(getFilesDir(), LIBRARY_SNAPSHOT_FILE);
+    }
+
+    // Receives the songs of the scan, and then of each sync.
+    private final SongScanTask.Listener mScanListener = new SongScanTask.Listener() {
+        @Override
+        public void onSongsLoaded(List<Song> songs) {
+
+            // Appends to the table that's shared with the adapter and the Service.
+            mSongAdapter.addAll(songs);
+        }
+
+        @Override
+        public void onLibraryChanged(SongTable table) {
+
+            // Swaps in the sorted table, which replaces the songs shown so far. The search
+            // index of the previous table no longer applies, so while a search is shown, the
+            // table is only shown along with its results rather than in full in between.
+            // A smart playlist is carried over to the table through the changes that were
+            // applied to the previous one, so only the songs within them are evaluated again.
+            if (mSmartQuery != null) {
+                mSmartQuery = mSyncChanges != null && mSmartQuery.getTable() == mSongTable
+                        ? mSmartQuery.rebase(table, mSyncChanges, System.currentTimeMillis())
+                        : mSmartQuery.getPlaylist().compile(table, getPlayCounts(),
+                                System.currentTimeMillis());
+            }
+
+            mSongTable = table;
+            mSearchIndex = null;
+            if (mSearchQuery.isEmpty()) {
+                if (mSmartQuery != null) {
+                    showSmartQuery();
+                } else {
+                    mSongAdapter.setTable(table);
+                }
+            }
+            if (mMusicService != null) mMusicService.setList(table, mSongOrder);
+        }
+
+        @Override
+        public void onSearchIndexReady(SongSearchIndex index) {
+            if (index.getTable() != mSongTable) return;
+
+            // Applies the search typed while the index was being built, if any.
+            mSearchIndex = index;
+            mSearchIndex.setOrder(mSongOrder);
+            if (!mSearchQuery.isEmpty()) search(mSearchQuery);
+        }
+
+        @Override
+        public void onScanComplete(int count) {
+            Log.d(LOG_TAG, "onScanComplete(): " + count + " songs");
+
+            mWatermark = mScanTask.getWatermark();
+            mScanTask = null;
+            mSyncChanges = null;
+            readTags();
+
+            // Applies the changes that came in meanwhile.
+            if (mLibraryObserver.hasSettledChanges()) syncSongs();
+        }
+    };
+
     // The following are MediaPlayerControl interface methods.
     @Override
     public void start() {
@@ -348,44 +916,41 @@ public class MainActivity extends AppCompatActivity implements MediaPlayerContro
     public void pause() {
         Log.d(LOG_TAG, "pause()");
 
-        mPlaybackPaused = true;
         mMusicService.pausePlayer(); // Executes when the user pauses the current song
     }
 
     /**
-     * Getter interface method for the song's total length.
+     * Getter interface method for the song's total length. The controller calls this many times
+     * per second, so it only reads the state published by the Service.
      */
     @Override
     public int getDuration() {
-        Log.d(LOG_TAG, "getDuration()");
-
-        // Returns the song's current duration as it is currently playing. Otherwise, returns 0
-        // with the exception of it being paused (so return its duration).
-        if (mMusicService != null && mMusicBound && mMusicService.isPlaying()) {
-            return mMusicService.getDuration();
-        } else {
-            if (mPlaybackPaused) return mMusicService.getDuration();
 
-            return 0;
+        // Returns the song's duration as it is currently playing or paused. Otherwise, returns 0.
+        PlaybackState state = getPlaybackState();
+        if (state.getState() == PlaybackState.State.PLAYING
+                || state.getState() == PlaybackState.State.PAUSED) {
+            return state.getDuration();
         }
+
+        return 0;
     }
 
     /**
-     * Getter interface method for the song's current position at the minute-mark.
+     * Getter interface method for the song's current position at the minute-mark, which is
+     * extrapolated from the state published by the Service.
      */
     @Override
     public int getCurrentPosition() {
-        Log.d(LOG_TAG, "getCurrentPosition()");
-
-        // Returns the song's current position as it is currently playing. Otherwise, returns 0
-        // with the exception of it being paused (so return its position).
-        if (mMusicService != null && mMusicBound && mMusicService.isPlaying()) {
-            return mMusicService.getPosition();
-        } else {
-            if (mPlaybackPaused) return mMusicService.getPosition();
 
-            return 0;
+        // Returns the song's position as it is currently playing or paused. Otherwise, returns 0.
+        PlaybackState state = getPlaybackState();
+        if (state.getState() == PlaybackState.State.PLAYING
+                || state.getState() == PlaybackState.State.PAUSED) {
+            return state.getPosition(SystemClock.elapsedRealtime());
         }
+
+        return 0;
     }
 
     @Override
@@ -395,9 +960,14 @@ public class MainActivity extends AppCompatActivity implements MediaPlayerContro
 
     @Override
     public boolean isPlaying() {
-        if (mMusicService != null && mMusicBound) return mMusicService.isPlaying();
+        return getPlaybackState().isPlaying();
+    }
+
+    // Helper method that returns the latest state published by the Service.
+    private PlaybackState getPlaybackState() {
+        if (mMusicService != null && mMusicBound) return mMusicService.getPlaybackState();
 
-        return false;
+        return PlaybackState.IDLE;
     }
 
     @Override
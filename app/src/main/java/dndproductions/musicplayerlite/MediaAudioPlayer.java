@@ -0,0 +1,180 @@
+package dndproductions.musicplayerlite;
+
+import android.annotation.TargetApi;
+import android.content.ContentUris;
+import android.content.Context;
+import android.media.AudioManager;
+import android.media.MediaPlayer;
+import android.net.Uri;
+import android.os.Build;
+import android.util.Log;
+
+/**
+ * {@link AudioPlayer} that plays songs of the MediaStore on a {@link MediaPlayer}, which is what
+ * the {@link PlaybackEngine} runs on in the app.
+ */
+public class MediaAudioPlayer implements AudioPlayer, MediaPlayer.OnPreparedListener,
+        MediaPlayer.OnErrorListener, MediaPlayer.OnCompletionListener,
+        MediaPlayer.OnInfoListener {
+
+    // Log tag constant.
+    private static final String LOG_TAG = MediaAudioPlayer.class.getSimpleName();
+
+    private final Context mContext;
+    private final Listener mListener;
+    private final MediaPlayer mPlayer;
+    private Uri mUri;
+
+    /**
+     * Factory of players that play songs of the MediaStore.
+     */
+    public static class Factory implements AudioPlayer.Factory {
+        private final Context mContext;
+
+        /**
+         * Creates a {@link Factory} object.
+         *
+         * @param context is the context the songs are resolved with.
+         */
+        public Factory(Context context) {
+            mContext = context.getApplicationContext();
+        }
+
+        @Override
+        public AudioPlayer create(Listener listener) {
+            return new MediaAudioPlayer(mContext, listener);
+        }
+    }
+
+    private MediaAudioPlayer(Context context, Listener listener) {
+        mContext = context;
+        mListener = listener;
+        mPlayer = new MediaPlayer();
+
+        // Sets the stream type to music.
+        mPlayer.setAudioStreamType(AudioManager.STREAM_MUSIC);
+
+        // Sets the following to their respective listener.
+        mPlayer.setOnPreparedListener(this); // When the MediaPlayer instance is prepared.
+        mPlayer.setOnCompletionListener(this); // When a song has completed playback.
+        mPlayer.setOnErrorListener(this); // When an error is thrown.
+        mPlayer.setOnInfoListener(this); // When the chained player starts.
+    }
+
+    @Override
+    public void setSource(long songId) {
+        mUri = ContentUris.withAppendedId(
+                android.provider.MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, songId);
+
+        // Tries setting up the URI as the data source for the MediaPlayer.
+        try {
+            mPlayer.setDataSource(mContext, mUri);
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "Error setting data source.", e);
+        }
+    }
+
+    @Override
+    public void prepareAsync() {
+        mPlayer.prepareAsync();
+    }
+
+    @Override
+    public void setVolume(float volume) {
+        mPlayer.setVolume(volume, volume);
+    }
+
+    @Override
+    public void start() {
+        mPlayer.start();
+    }
+
+    @Override
+    public void pause() {
+        mPlayer.pause();
+    }
+
+    @Override
+    public void stop() {
+        mPlayer.stop();
+    }
+
+    @Override
+    public void seekTo(int position) {
+        mPlayer.seekTo(position);
+    }
+
+    @Override
+    public void reset() {
+        mPlayer.reset();
+        mUri = null;
+    }
+
+    @Override
+    public void release() {
+        mPlayer.release();
+        mUri = null;
+    }
+
+    @Override
+    public boolean isPlaying() {
+        return mPlayer.isPlaying();
+    }
+
+    @Override
+    public int getDuration() {
+        return mPlayer.getDuration();
+    }
+
+    @Override
+    public int getCurrentPosition() {
+        return mPlayer.getCurrentPosition();
+    }
+
+    @Override
+    public String getMimeType() {
+        return mUri != null ? mContext.getContentResolver().getType(mUri) : null;
+    }
+
+    @Override
+    public boolean supportsNext() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN;
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    @Override
+    public void setNext(AudioPlayer next) {
+        mPlayer.setNextMediaPlayer(next != null ? ((MediaAudioPlayer) next).mPlayer : null);
+    }
+
+    @Override
+    public void onPrepared(MediaPlayer mediaPlayer) {
+        Log.d(LOG_TAG, "onPrepared()");
+        mListener.onPrepared(this);
+    }
+
+    // The error is always handled by the listener, so that it's not followed by a completion.
+    @Override
+    public boolean onError(MediaPlayer mediaPlayer, int what, int extra) {
+        Log.d(LOG_TAG, "onError(" + what + ", " + extra + ")");
+        mListener.onError(this, what, extra);
+        return true;
+    }
+
+    @Override
+    public boolean onInfo(MediaPlayer mediaPlayer, int what, int extra) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN
+                && what == MediaPlayer.MEDIA_INFO_STARTED_AS_NEXT) {
+            mListener.onStartedAsNext(this);
+            return true;
+        }
+
+        return false;
+    }
+
+    // Invoked when a song is complete.
+    @Override
+    public void onCompletion(MediaPlayer mediaPlayer) {
+        mListener.onCompletion(this);
+    }
+}
@@ -0,0 +1,195 @@
+package dndproductions.musicplayerlite;
+
+import android.annotation.TargetApi;
+import android.content.ContentUris;
+import android.content.Context;
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.net.Uri;
+import android.os.Build;
+import android.provider.MediaStore;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+/**
+ * {@link LoudnessAnalyzer.PcmDecoder} that decodes songs of the MediaStore with a
+ * {@link MediaExtractor} and a {@link MediaCodec}, whose 16-bit output is converted to floats.
+ * The codec's output buffers are read in place rather than copied.
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+public class MediaCodecDecoder implements LoudnessAnalyzer.PcmDecoder {
+
+    // Time the codec is waited for at a time, in microseconds.
+    private static final long TIMEOUT_US = 10000;
+
+    private final MediaExtractor mExtractor;
+    private final MediaCodec mCodec;
+    private final MediaCodec.BufferInfo mInfo = new MediaCodec.BufferInfo();
+    private ByteBuffer[] mInputBuffers;
+    private ByteBuffer[] mOutputBuffers;
+    private final int mSampleRate;
+    private final int mChannelCount;
+
+    // Output buffer being read, if any, and whether the input and output reached their end.
+    private int mOutputIndex = -1;
+    private ShortBuffer mOutput;
+    private boolean mInputDone;
+    private boolean mOutputDone;
+
+    /**
+     * Factory of decoders for songs of the MediaStore, which need API 16.
+     */
+    public static class Factory implements LoudnessAnalyzer.DecoderFactory {
+        private final Context mContext;
+
+        /**
+         * Creates a {@link Factory} object.
+         *
+         * @param context is the context the songs are resolved with.
+         */
+        public Factory(Context context) {
+            mContext = context.getApplicationContext();
+        }
+
+        @Override
+        public LoudnessAnalyzer.PcmDecoder open(long songId) throws IOException {
+            if (!isSupported()) return null;
+
+            Uri uri = ContentUris.withAppendedId(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
+                    songId);
+            MediaExtractor extractor = new MediaExtractor();
+            try {
+                extractor.setDataSource(mContext, uri, null);
+                for (int i = 0; i < extractor.getTrackCount(); i++) {
+                    MediaFormat format = extractor.getTrackFormat(i);
+                    String mime = format.getString(MediaFormat.KEY_MIME);
+                    if (mime == null || !mime.startsWith("audio/")) continue;
+
+                    extractor.selectTrack(i);
+                    MediaCodec codec = MediaCodec.createDecoderByType(mime);
+                    return new MediaCodecDecoder(extractor, codec, format);
+                }
+            } catch (IOException | RuntimeException e) {
+                extractor.release();
+                throw new IOException("Unable to decode song " + songId, e);
+            }
+
+            extractor.release();
+            return null;
+        }
+    }
+
+    private MediaCodecDecoder(MediaExtractor extractor, MediaCodec codec, MediaFormat format) {
+        mExtractor = extractor;
+        mCodec = codec;
+        mSampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+        mChannelCount = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+
+        codec.configure(format, null, null, 0);
+        codec.start();
+        mInputBuffers = codec.getInputBuffers();
+        mOutputBuffers = codec.getOutputBuffers();
+    }
+
+    /**
+     * Returns whether songs can be decoded on this device, as from API 16 on.
+     */
+    public static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN;
+    }
+
+    @Override
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    @Override
+    public int getChannelCount() {
+        return mChannelCount;
+    }
+
+    @Override
+    public int read(float[] samples) throws IOException {
+        while (mOutput == null) {
+            if (mOutputDone) return -1;
+
+            feedInput();
+            dequeueOutput();
+        }
+
+        // Copies whole frames from the output buffer, and hands it back once it's read.
+        int count = Math.min(mOutput.remaining(), samples.length);
+        count -= count % mChannelCount;
+        for (int i = 0; i < count; i++) {
+            samples[i] = mOutput.get() / 32768f;
+        }
+        if (mOutput.remaining() < mChannelCount) {
+            mCodec.releaseOutputBuffer(mOutputIndex, false);
+            mOutputIndex = -1;
+            mOutput = null;
+        }
+
+        return count;
+    }
+
+    @Override
+    public void close() {
+        try {
+            mCodec.stop();
+        } catch (IllegalStateException e) {
+            // The codec failed, and is released all the same.
+        }
+        mCodec.release();
+        mExtractor.release();
+    }
+
+    // Helper method that queues the next compressed sample, if the codec has room for it.
+    private void feedInput() {
+        if (mInputDone) return;
+
+        int index = mCodec.dequeueInputBuffer(TIMEOUT_US);
+        if (index < 0) return;
+
+        int size = mExtractor.readSampleData(mInputBuffers[index], 0);
+        if (size < 0) {
+            mCodec.queueInputBuffer(index, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+            mInputDone = true;
+        } else {
+            mCodec.queueInputBuffer(index, 0, size, mExtractor.getSampleTime(), 0);
+            mExtractor.advance();
+        }
+    }
+
+    // Helper method that takes the next decoded buffer, if there's one.
+    private void dequeueOutput() throws IOException {
+        int index = mCodec.dequeueOutputBuffer(mInfo, TIMEOUT_US);
+        if (index == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
+            mOutputBuffers = mCodec.getOutputBuffers();
+        } else if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+            MediaFormat format = mCodec.getOutputFormat();
+
+            // The meter was set up for the track's format, which the codec may not keep.
+            if (format.getInteger(MediaFormat.KEY_SAMPLE_RATE) != mSampleRate
+                    || format.getInteger(MediaFormat.KEY_CHANNEL_COUNT) != mChannelCount) {
+                throw new IOException("Decoded format differs from the track's: " + format);
+            }
+        } else if (index >= 0) {
+            if ((mInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) mOutputDone = true;
+
+            if (mInfo.size == 0) {
+                mCodec.releaseOutputBuffer(index, false);
+                return;
+            }
+
+            ByteBuffer buffer = mOutputBuffers[index];
+            buffer.limit(mInfo.offset + mInfo.size);
+            buffer.position(mInfo.offset);
+            mOutput = buffer.slice().order(ByteOrder.nativeOrder()).asShortBuffer();
+            mOutputIndex = index;
+        }
+    }
+}
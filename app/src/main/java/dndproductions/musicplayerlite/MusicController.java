@@ -1,16 +1,21 @@
 package dndproductions.musicplayerlite;
 
 import android.content.Context;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.LinearLayout;
 import android.widget.MediaController;
 
 /**
  * A subclass of {@link MediaController} that presents a widget with song functionality including
  * play/pause, fast-forward/rewind, and etc. The widget also contains a seek bar, which updates as
  * the song plays and contains text indicating the duration of the song and the player's current
- * position.
+ * position, and a {@link WaveformView} of the song above it.
  */
 public class MusicController extends MediaController {
 
+    private final WaveformView mWaveformView;
+
     /**
      * Creates a {@link MusicController} object.
      *
@@ -18,6 +23,47 @@ public class MusicController extends MediaController {
      */
     public MusicController(Context context){
         super(context);
+
+        mWaveformView = new WaveformView(context);
+    }
+
+    @Override
+    public void setMediaPlayer(MediaPlayerControl player){
+        super.setMediaPlayer(player);
+
+        mWaveformView.setPlayer(player);
+    }
+
+    /**
+     * Overrides the following to stack the waveform above the controls that the superclass
+     * creates for the anchor view.
+     */
+    @Override
+    public void setAnchorView(View view){
+        super.setAnchorView(view);
+
+        View controls = getChildAt(0);
+        if (controls == null) return;
+
+        ViewGroup parent = (ViewGroup) mWaveformView.getParent();
+        if (parent != null) parent.removeView(mWaveformView);
+        removeView(controls);
+
+        LinearLayout column = new LinearLayout(getContext());
+        column.setOrientation(LinearLayout.VERTICAL);
+        column.addView(mWaveformView, LinearLayout.LayoutParams.MATCH_PARENT,
+                getResources().getDimensionPixelSize(R.dimen.waveform_height));
+        column.addView(controls);
+        addView(column, LayoutParams.MATCH_PARENT, LayoutParams.WRAP_CONTENT);
+    }
+
+    /**
+     * Setter method for the waveform of the song that's playing.
+     *
+     * @param waveform is the waveform, or null if it wasn't built yet.
+     */
+    public void setWaveform(Waveform waveform){
+        mWaveformView.setWaveform(waveform);
     }
 
     /**
@@ -1,88 +1,641 @@
 package dndproductions.musicplayerlite;
 
 import android.app.Service;
-import android.content.Intent;
-import android.media.MediaPlayer;
-import android.os.IBinder;
 import android.content.ContentUris;
-import android.media.AudioManager;
-import android.media.MediaPlayer;
-import android.net.Uri;
+import android.content.Intent;
 import android.os.Binder;
-import android.os.PowerManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.os.Process;
+import android.os.SystemClock;
+import android.provider.MediaStore;
 import android.util.Log;
 import android.widget.Toast;
 
-import java.util.List;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * A subclass of {@link Service} that assists with executing music playback continuously even when
  * the app is minimized.
+ *
+ * <p>Playback is run by a {@link PlaybackEngine} on {@link MediaAudioPlayer}s, whose commands run
+ * on a dedicated player thread. This class only turns the song list the Activity shows into song
+ * IDs for the engine, and updates the UI when songs start.
+ *
+ * <p>Latencies and errors are recorded into {@link PlaybackMetrics}, which are written by
+ * {@code adb shell dumpsys activity service dndproductions.musicplayerlite/.MusicService}
+ * (add {@code --buckets} for the histograms' buckets) and can be exported to a file.
+ *
+ * <p>The songs of the list are measured in the background by a {@link LoudnessAnalyzer} into a
+ * {@link LoudnessStore}, and each song plays at the volume that brings it to
+ * {@link Loudness#TARGET_LUFS}. Since a MediaPlayer can't amplify, quiet songs aren't raised.
+ * The same pass writes each song's {@link Waveform} into a {@link WaveformCache}, which the
+ * controller draws as a seek bar.
+ *
+ * <p>The session (queue, current song, position and shuffle history) is persisted by a
+ * {@link SessionJournal} on a background thread, and restored when the Service is created, with
+ * the song prepared and paused at its position. The songs started, completed and skipped are
+ * recorded on the same thread into a {@link PlayHistory}, which the Activity lists the most and
+ * the most recently played songs from.
+ *
+ * <p>The files of the next few songs are read ahead by a {@link FilePrefetcher} on a
+ * low-priority thread, since preparing a song from an SD card or USB storage otherwise waits on
+ * its first reads. The prepare times with and without reading ahead are dumped separately.
  */
-public class MusicService extends Service implements MediaPlayer.OnPreparedListener,
-        MediaPlayer.OnErrorListener, MediaPlayer.OnCompletionListener {
+public class MusicService extends Service {
 
     // Log tag constant.
     private static final String LOG_TAG = MusicService.class.getSimpleName();
 
-    // MediaPlayer field.
-    private MediaPlayer mPlayer;
+    // Clock of the device's elapsed realtime.
+    private static final Clock ELAPSED_REALTIME = new Clock() {
+        @Override
+        public long elapsedRealtime() {
+            return SystemClock.elapsedRealtime();
+        }
+    };
+
+    // Thread that the players are confined to, the engine whose commands run on it, and a
+    // handler used for updating the UI from it.
+    private HandlerThread mPlayerThread;
+    private PlaybackEngine mEngine;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // Song table field, the order the songs are shown in, and the IDs of the songs in that order.
+    // These are only used on the UI thread, since the table may still be filled in there.
+    private SongTable mSongTable;
+    private SongOrder mSongOrder = SongOrder.TITLE;
+    private long[] mListIds;
+
+    // Fields used for the loudness analysis: the store, which is opened on the driver thread that
+    // runs the analyses one after the other, the workers, and the song IDs left to analyze.
+    private static final String LOUDNESS_FILE_NAME = "loudness.store";
+    private volatile LoudnessStore mLoudnessStore;
+    private LoudnessAnalyzer mLoudnessAnalyzer;
+    private ExecutorService mAnalysisDriver;
+    private ExecutorService mAnalysisWorkers;
+    private final AtomicReference<long[]> mPendingAnalysis = new AtomicReference<>();
+
+    // Cache of the songs' waveforms, which are built along with their loudness.
+    private static final String WAVEFORM_DIRECTORY_NAME = "waveforms";
+    private WaveformCache mWaveformCache;
+
+    // Fields used for persisting the session: the thread the journal is written on, the journal,
+    // which is opened on that thread, and whether the session was restored, or there was none.
+    private static final String SESSION_FILE_NAME = "session.journal";
+    private HandlerThread mSessionThread;
+    private Handler mSessionHandler;
+    private volatile SessionJournal mSessionJournal;
+    private volatile boolean mSessionRestored;
+
+    // History of the songs played, which is opened and written on the session's thread.
+    private static final String HISTORY_FILE_NAME = "play.history";
+    private volatile PlayHistory mPlayHistory;
+
+    // Interval between the positions recorded while a song plays, and the delay before recording
+    // the position after a pause or seek, which lets the command run first.
+    private static final long POSITION_INTERVAL_MS = 5000;
+    private static final long POSITION_SETTLE_MS = 200;
+
+    // Records the position while a song plays, every few seconds and once it stops playing.
+    private final Runnable mSavePositionTask = new Runnable() {
+        @Override
+        public void run() {
+            if (mSessionJournal == null) return;
+
+            PlaybackState state = mEngine.getPlaybackState();
+            if (state.getState() == PlaybackState.State.PLAYING
+                    || state.getState() == PlaybackState.State.PAUSED) {
+                mSessionJournal.setPosition(state.getSongId(),
+                        state.getPosition(SystemClock.elapsedRealtime()));
+            }
+
+            // The history only keeps where a song was paused, rather than its progress.
+            if (state.getState() == PlaybackState.State.PAUSED && mPlayHistory != null) {
+                mPlayHistory.recordPosition(state.getSongId(),
+                        state.getPosition(SystemClock.elapsedRealtime()),
+                        System.currentTimeMillis());
+            }
 
-    // Song list field.
-    private List<Song> mSongList;
+            if (state.isPlaying()) mSessionHandler.postDelayed(this, POSITION_INTERVAL_MS);
+        }
+    };
 
-    // Int field used for keeping track with the current position.
-    private int mSongPosition;
+    // Prefetcher of the upcoming songs' files, the thread it reads on, and how far it reads ahead.
+    private static final int PREFETCH_SONGS = 3;
+    private static final long PREFETCH_BUDGET_BYTES = 4 * 1024 * 1024;
+    private FilePrefetcher mPrefetcher;
+    private ExecutorService mPrefetchExecutor;
 
     // Initialization used to assist with the binding process.
     private final IBinder mMusicBinder = new MusicBinder();
 
-    // Fields used for implementing shuffle functionality.
+    // Shuffle flag, which is toggled on the UI thread.
     private boolean mShuffle;
-    private Random mRandom;
 
     @Override
     public void onCreate(){
         super.onCreate();
 
-        // Initializations.
-        mSongPosition = 0;
-        initMusicPlayer();
-        mRandom = new Random();
+        // Starts the player thread, and then creates the engine, whose players are created on it.
+        mPlayerThread = new HandlerThread("MusicPlayer", Process.THREAD_PRIORITY_AUDIO);
+        mPlayerThread.start();
+        final Handler playerHandler = new Handler(mPlayerThread.getLooper());
+        CommandExecutor.Dispatcher dispatcher = new CommandExecutor.Dispatcher() {
+            @Override
+            public void dispatch(Runnable task) {
+                playerHandler.post(task);
+            }
+
+            @Override
+            public void dispatchDelayed(Runnable task, long delayMillis) {
+                playerHandler.postDelayed(task, delayMillis);
+            }
+        };
+
+        mEngine = new PlaybackEngine(dispatcher, new MediaAudioPlayer.Factory(this),
+                ELAPSED_REALTIME, new Random(), new PlaybackEngine.Listener() {
+                    @Override
+                    public void onPlaybackStarted() {
+                        showController();
+                        savePosition(0);
+                    }
+
+                    @Override
+                    public void onPlaybackRestored() {
+                        mSessionRestored = true;
+                        showController();
+                    }
+                });
+
+        // Plays each song at the volume that normalizes it, once it was measured.
+        mEngine.setGainSource(new PlaybackEngine.GainSource() {
+            @Override
+            public float getVolume(long songId) {
+                LoudnessStore store = mLoudnessStore;
+                Loudness loudness = store != null ? store.get(songId) : null;
+                if (loudness == null) return 1f;
+
+                float gain = loudness.getGain(Loudness.TARGET_LUFS);
+                return (float) Math.min(1, Math.pow(10, gain / 20));
+            }
+        });
+
+        // Analyzes on low-priority threads, leaving a core for the UI and the playback.
+        ThreadFactory backgroundThreads = new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable task) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        task.run();
+                    }
+                }, "LoudnessAnalyzer");
+            }
+        };
+        int workers = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+        mAnalysisDriver = Executors.newSingleThreadExecutor(backgroundThreads);
+        mAnalysisWorkers = Executors.newFixedThreadPool(workers, backgroundThreads);
+        mLoudnessAnalyzer = new LoudnessAnalyzer(mAnalysisWorkers, workers);
+        mWaveformCache = new WaveformCache(new File(getFilesDir(), WAVEFORM_DIRECTORY_NAME));
+        mLoudnessAnalyzer.setWaveformCache(mWaveformCache);
+
+        // Reads the upcoming songs ahead on a low-priority thread of its own.
+        mPrefetchExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable task) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_LOWEST);
+                        task.run();
+                    }
+                }, "FilePrefetcher");
+            }
+        });
+        mPrefetcher = new FilePrefetcher(new FilePrefetcher.Opener() {
+            @Override
+            public FileChannel open(long songId) throws IOException {
+                ParcelFileDescriptor descriptor = getContentResolver().openFileDescriptor(
+                        ContentUris.withAppendedId(
+                                MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, songId), "r");
+                if (descriptor == null) throw new IOException("No file for song " + songId);
+
+                // Closing the channel closes the stream, which closes the descriptor.
+                return new ParcelFileDescriptor.AutoCloseInputStream(descriptor).getChannel();
+            }
+        }, mPrefetchExecutor, PREFETCH_BUDGET_BYTES);
+        mEngine.setPrefetcher(mPrefetcher, PREFETCH_SONGS);
+
+        restoreSession();
     }
 
     /**
-     * Initializing method for the MediaPlayer.
+     * Opens the session journal in the background, and then restores the session it holds and
+     * persists the session from then on.
      */
-    public void initMusicPlayer(){
-        mPlayer = new MediaPlayer();
+    private void restoreSession(){
+        mSessionThread = new HandlerThread("PlaybackSession", Process.THREAD_PRIORITY_BACKGROUND);
+        mSessionThread.start();
+        mSessionHandler = new Handler(mSessionThread.getLooper());
+        final CommandExecutor.Dispatcher dispatcher = new CommandExecutor.Dispatcher() {
+            @Override
+            public void dispatch(Runnable task) {
+                mSessionHandler.post(task);
+            }
+
+            @Override
+            public void dispatchDelayed(Runnable task, long delayMillis) {
+                mSessionHandler.postDelayed(task, delayMillis);
+            }
+        };
+
+        mSessionHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                openPlayHistory(dispatcher);
+
+                File file = new File(getFilesDir(), SESSION_FILE_NAME);
+                try {
+                    mSessionJournal = SessionJournal.open(file, dispatcher);
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Error reading the session.", e);
+                    file.delete();
+                    try {
+                        mSessionJournal = SessionJournal.open(file, dispatcher);
+                    } catch (IOException e2) {
+                        Log.e(LOG_TAG, "Error creating the session.", e2);
+                        mSessionRestored = true;
+                        return;
+                    }
+                }
+
+                final PlaybackSession session = mSessionJournal.getRestoredSession();
+                Log.d(LOG_TAG, "restoreSession(): " + session);
+                if (session != null && !session.getQueue().isEmpty()) {
+                    mMainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            mShuffle = session.isShuffle();
+                        }
+                    });
+                    mEngine.restore(session);
+                } else {
+                    mSessionRestored = true;
+                }
+
+                mEngine.setSessionListener(new PlaybackEngine.SessionListener() {
+                    @Override
+                    public void onSessionChanged(PlaybackSession session) {
+                        mSessionJournal.setSession(session);
+                    }
+                });
+            }
+        });
+    }
+
+    // Helper method that opens the play history on the session's thread, and then records the
+    // songs played into it from then on.
+    private void openPlayHistory(CommandExecutor.Dispatcher dispatcher){
+        File file = new File(getFilesDir(), HISTORY_FILE_NAME);
+        try {
+            mPlayHistory = PlayHistory.open(file, dispatcher);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error reading the play history.", e);
+            file.delete();
+            try {
+                mPlayHistory = PlayHistory.open(file, dispatcher);
+            } catch (IOException e2) {
+                Log.e(LOG_TAG, "Error creating the play history.", e2);
+                return;
+            }
+        }
 
-        // Sets the stream type to music.
-        mPlayer.setAudioStreamType(AudioManager.STREAM_MUSIC);
+        final PlayHistory history = mPlayHistory;
+        mEngine.setHistoryListener(new PlaybackEngine.HistoryListener() {
+            @Override
+            public void onSongStarted(long songId) {
+                history.recordStart(songId, System.currentTimeMillis());
+            }
+
+            @Override
+            public void onSongCompleted(long songId) {
+                history.recordCompletion(songId, System.currentTimeMillis());
+            }
 
-        // Sets the following to their respective listener.
-        mPlayer.setOnPreparedListener(this); // When the MediaPlayer instance is prepared.
-        mPlayer.setOnCompletionListener(this); // When a song has completed playback.
-        mPlayer.setOnErrorListener(this); // When an error is thrown.
+            @Override
+            public void onSongSkipped(long songId, int position) {
+                history.recordSkip(songId, position, System.currentTimeMillis());
+            }
+        });
+    }
+
+    /**
+     * Returns the history of the songs played, or null until it's been opened. It can be read
+     * from any thread.
+     */
+    public PlayHistory getPlayHistory(){
+        return mPlayHistory;
+    }
+
+    /**
+     * Returns whether the session was restored, i.e. whether its song is prepared at its
+     * position, or whether there was no session to restore.
+     */
+    public boolean isSessionRestored(){
+        return mSessionRestored;
     }
 
     /**
-     * Setter method for retrieving the song list from the Activity.
+     * Writes the session and the play history in the background, and then runs a task on that
+     * thread, e.g. for exiting the process once the session is safe.
      *
-     * @param songs is the list of songs.
+     * @param then is the task.
      */
-    public void setList(List<Song> songs){
-        mSongList = songs;
+    public void saveSession(final Runnable then){
+        mSessionHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mSavePositionTask.run();
+                mSessionHandler.removeCallbacks(mSavePositionTask);
+                try {
+                    if (mSessionJournal != null) mSessionJournal.flush();
+                    if (mPlayHistory != null) mPlayHistory.flush();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Error writing the session.", e);
+                }
+
+                then.run();
+            }
+        });
+    }
+
+    // Helper method that records the position after a delay, e.g. once a command was applied.
+    private void savePosition(long delayMillis){
+        mSessionHandler.removeCallbacks(mSavePositionTask);
+        mSessionHandler.postDelayed(mSavePositionTask, delayMillis);
+    }
+
+    // Helper method that shows the controller with the waveform of the current song. The
+    // waveform is mapped here rather than on the UI thread, since its file may not be mapped yet.
+    private void showController(){
+        final Waveform waveform = getWaveform(mEngine.getPlaybackState().getSongId());
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                MainActivity.showController(waveform); // Updates the controller
+            }
+        });
+    }
+
+    @Override
+    public void onDestroy(){
+
+        // Stops the analysis, and closes the store once the driver is done with it.
+        mLoudnessAnalyzer.stop();
+        mAnalysisDriver.execute(new Runnable() {
+            @Override
+            public void run() {
+                mAnalysisWorkers.shutdown();
+                LoudnessStore store = mLoudnessStore;
+                if (store == null) return;
+
+                try {
+                    store.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Error closing the loudness store.", e);
+                }
+            }
+        });
+        mAnalysisDriver.shutdown();
+
+        mPrefetcher.cancel();
+        mPrefetchExecutor.shutdown();
+
+        // Writes the session and the play history, and then stops their thread.
+        mSessionHandler.removeCallbacks(mSavePositionTask);
+        mSessionHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mSavePositionTask.run();
+                mSessionHandler.removeCallbacks(mSavePositionTask);
+                try {
+                    if (mSessionJournal != null) mSessionJournal.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Error writing the session.", e);
+                }
+                try {
+                    if (mPlayHistory != null) mPlayHistory.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Error writing the play history.", e);
+                }
+                mSessionThread.quit();
+            }
+        });
+
+        // Stops the player thread once the commands submitted so far have run.
+        mEngine.execute(new Runnable() {
+            @Override
+            public void run() {
+                mPlayerThread.quit();
+            }
+        });
+
+        super.onDestroy();
     }
 
     /**
-     * Setter method for retrieving the respective song's position/index from the Activity.
+     * Setter method for retrieving the song table and the order it's shown in from the
+     * Activity. A queue that mirrors the list is built again, where the current song keeps
+     * playing at its new position if it's still in the table, while a queue the user edited
+     * stays as it is.
      *
-     * @param position is the position/index of the song being played.
+     * @param songs is the table of songs.
+     * @param order is the order the songs are shown in.
+     */
+    public void setList(SongTable songs, SongOrder order){
+        SongTable previousTable = mSongTable;
+        SongOrder previousOrder = mSongOrder;
+
+        mSongTable = songs;
+        mSongOrder = order;
+        mListIds = null;
+
+        if (songs != null) analyzeLoudness(getListIds());
+
+        if (!mEngine.isQueueFromList() || previousTable == null || songs == null) return;
+
+        // Finds where each song of the previous list ended up, while the tables can still be
+        // read safely on this thread.
+        int[] mapping = mapPositions(previousTable, previousOrder, songs, order);
+        mEngine.setList(getListIds(), mapping);
+    }
+
+    /**
+     * Measures the loudness of the songs that weren't measured yet in the background. The
+     * requests made while an analysis runs are coalesced into the latest one, which runs next.
+     *
+     * @param ids is the songs' IDs.
+     */
+    private void analyzeLoudness(long[] ids){
+        if (!MediaCodecDecoder.isSupported()) return;
+
+        mPendingAnalysis.set(ids);
+        mAnalysisDriver.execute(new Runnable() {
+            @Override
+            public void run() {
+                long[] pending = mPendingAnalysis.getAndSet(null);
+                if (pending == null) return;
+
+                try {
+                    if (mLoudnessStore == null) {
+                        mLoudnessStore = LoudnessStore.open(
+                                new File(getFilesDir(), LOUDNESS_FILE_NAME));
+                    }
+
+                    LoudnessAnalyzer.Result result = mLoudnessAnalyzer.analyze(pending,
+                            new MediaCodecDecoder.Factory(MusicService.this),
+                            mLoudnessStore, new LoudnessAnalyzer.Throttle() {
+                                @Override
+                                public boolean shouldThrottle() {
+                                    return mEngine.getPlaybackState().isPlaying();
+                                }
+                            });
+                    Log.d(LOG_TAG, "analyzeLoudness(): " + result);
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Error opening the loudness store.", e);
+                } catch (InterruptedException e) {
+                    Log.w(LOG_TAG, "Loudness analysis interrupted", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the waveform of a song.
+     *
+     * @param songId is the song's ID.
+     * @return the waveform, or null if it wasn't built yet or couldn't be read.
+     */
+    public Waveform getWaveform(long songId){
+        try {
+            return mWaveformCache.get(songId);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error reading the waveform of song " + songId + ".", e);
+            mWaveformCache.remove(songId);
+            return null;
+        }
+    }
+
+    /**
+     * Setter method for retrieving the respective song's position/index from the Activity. The
+     * queue is replaced with the song list unless it already mirrors it.
+     *
+     * @param position is the position/index of the song being played in the list.
      */
     public void setSong(int position){
-        mSongPosition = position;
+        mEngine.setSong(getListIds(), position);
+    }
+
+    /**
+     * Queues a song right after the current one.
+     *
+     * @param songId is the song's ID.
+     */
+    public void enqueueNext(long songId){
+        mEngine.enqueueNext(songId);
+    }
+
+    /**
+     * Queues a song at the end of the queue.
+     *
+     * @param songId is the song's ID.
+     */
+    public void enqueue(long songId){
+        mEngine.enqueue(songId);
+    }
+
+    /**
+     * Removes a song from the queue. If it's the current song, it keeps playing and the song that
+     * followed it plays next.
+     *
+     * @param index is the song's index in the queue.
+     */
+    public void removeFromQueue(int index){
+        mEngine.removeFromQueue(index);
+    }
+
+    /**
+     * Moves a song within the queue.
+     *
+     * @param from is the song's current index in the queue.
+     * @param to is the song's index afterwards.
+     */
+    public void moveInQueue(int from, int to){
+        mEngine.moveInQueue(from, to);
+    }
+
+    /**
+     * Returns the queue, which doesn't change afterwards and can be read from any thread.
+     */
+    public PlayQueue getQueue(){
+        return mEngine.getQueue();
+    }
+
+    public int getQueueIndex(){
+        return mEngine.getQueueIndex();
+    }
+
+    // Helper method that returns the IDs of the songs in the list, in the order they're shown in.
+    // The array isn't modified afterwards, so it's handed to the player thread as it is.
+    private long[] getListIds(){
+        if (mListIds == null || mListIds.length != mSongTable.size()) {
+            long[] ids = new long[mSongTable.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = mSongTable.getId(mSongTable.rowAt(mSongOrder, i));
+            }
+            mListIds = ids;
+        }
+
+        return mListIds;
+    }
+
+    /**
+     * Maps the positions of the songs in one list to their positions in another one.
+     *
+     * @return the new position of each position, or -1 if the song is gone.
+     */
+    private static int[] mapPositions(SongTable from, SongOrder fromOrder, SongTable to,
+            SongOrder toOrder){
+        int[] rows = from.mapRows(to);
+
+        int[] positions = new int[to.size()];
+        for (int i = 0; i < positions.length; i++) {
+            positions[to.rowAt(toOrder, i)] = i;
+        }
+
+        int[] mapping = new int[from.size()];
+        for (int i = 0; i < mapping.length; i++) {
+            int row = rows[from.rowAt(fromOrder, i)];
+            mapping[i] = row != -1 ? positions[row] : -1;
+        }
+
+        return mapping;
     }
 
     /**
@@ -96,6 +649,8 @@ public class MusicService extends Service implements MediaPlayer.OnPreparedListe
             Toast.makeText(this, "Shuffle ON", Toast.LENGTH_SHORT).show();
             mShuffle = true;
         }
+
+        mEngine.setShuffle(mShuffle);
     }
 
     /**
@@ -117,116 +672,96 @@ public class MusicService extends Service implements MediaPlayer.OnPreparedListe
         Log.d(LOG_TAG, "onUnbind()");
 
         // Releases MediaPlayer resources when the Service is unbound (e.g. user closing app).
-        mPlayer.stop();
-        mPlayer.release();
+        mEngine.release();
         return false;
     }
 
     /**
-     * Plays a song from the song list.
+     * Plays the current song of the queue.
      */
     public void playSong(){
-        mPlayer.reset(); // Used also when the user plays songs progressively.
-
-        // Retrieves the respective song.
-        Song song = mSongList.get(mSongPosition);
+        mEngine.playSong();
+    }
 
-        // Retrieves the song's ID.
-        long currentSong = song.getID();
+    /**
+     * Returns the gap between the end of the last song that completed and the start of the next
+     * one in milliseconds, or -1 if no transition was measured yet.
+     */
+    public long getLastTransitionGap(){
+        return mEngine.getLastTransitionGap();
+    }
 
-        // Sets up the URI.
-        Uri trackUri = ContentUris.withAppendedId(
-                android.provider.MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
-                currentSong);
+    /**
+     * Returns the playback metrics, which can be recorded into from any thread.
+     */
+    public PlaybackMetrics getMetrics(){
+        return mEngine.getMetrics();
+    }
 
-        // Tries setting up the URI as the data source for the MediaPlayer.
+    /**
+     * Writes the playback metrics to a file, including the histograms' buckets for analyzing
+     * them offline.
+     *
+     * @param file is the file.
+     */
+    public void exportMetrics(File file) throws IOException {
+        PrintWriter writer = new PrintWriter(new FileWriter(file));
         try {
-            mPlayer.setDataSource(getApplicationContext(), trackUri);
-        } catch (Exception e) {
-            Log.e(LOG_TAG, "Error setting data source.", e);
+            mEngine.getMetrics().dump(writer, SystemClock.elapsedRealtime(), true);
+            if (writer.checkError()) throw new IOException("Unable to write " + file);
+        } finally {
+            writer.close();
         }
-
-        mPlayer.prepareAsync(); // Prepares its asynchronous task.
     }
 
+    // Writes the playback state and metrics for dumpsys.
     @Override
-    public void onPrepared(MediaPlayer mediaPlayer) {
-        Log.d(LOG_TAG, "onPrepared()");
-
-        mediaPlayer.start(); // Begins playback
-
-        MainActivity.showController(); // Updates the controller accordingly
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        writer.println("State: " + mEngine.getPlaybackState());
+        writer.println("Queue: " + mEngine.getQueueIndex() + " of " + mEngine.getQueue().size());
+        writer.println("Transitions: " + mEngine.getTransitionCount());
+        writer.println("Read-ahead: " + mPrefetcher);
+        mEngine.getMetrics().dump(writer, SystemClock.elapsedRealtime(),
+                args != null && Arrays.asList(args).contains("--buckets"));
     }
 
-    @Override
-    public boolean onError(MediaPlayer mediaPlayer, int i, int i1) {
-        Log.d(LOG_TAG, "onError()");
-
-        mediaPlayer.reset();
-
-        return false;
-    }
-
-    // Invoked when a song is complete.
-    @Override
-    public void onCompletion(MediaPlayer mediaPlayer) {
-        if (mPlayer.getCurrentPosition() > 0){
-            mediaPlayer.reset();
-            playNext();
-        }
+    /**
+     * Returns the latest playback state. This is a plain field read, so it's cheap enough to be
+     * called on every frame.
+     */
+    public PlaybackState getPlaybackState(){
+        return mEngine.getPlaybackState();
     }
 
     // The following methods all apply to standard playback control functions that the user will
     // expect.
-    public int getPosition(){
-        return mPlayer.getCurrentPosition();
-    }
-
-    public int getDuration(){
-        return mPlayer.getDuration();
-    }
-
-    public boolean isPlaying(){
-        return mPlayer.isPlaying();
-    }
-
     public void pausePlayer(){
-        mPlayer.pause();
+        mEngine.pause();
+        savePosition(POSITION_SETTLE_MS);
     }
 
     public void seek(int position){
-        mPlayer.seekTo(position);
+        mEngine.seek(position);
+        savePosition(POSITION_SETTLE_MS);
     }
 
     public void go(){
-        mPlayer.start();
+        mEngine.go();
+        savePosition(POSITION_SETTLE_MS);
     }
 
     /**
      * Runs the following code for when the previous song is played.
      */
     public void playPrevious(){
-        mSongPosition--;
-        if (mSongPosition < 0) mSongPosition = mSongList.size() - 1;
-        playSong();
+        mEngine.playPrevious();
     }
 
     /**
-     * Runs the following code for when the next song is played. Shuffles by retrieving a random
-     * song from the list should the boolean flag be true.
+     * Runs the following code for when the next song is played. The upcoming song is used if
+     * it's already known, and played right away if it's already prepared.
      */
     public void playNext(){
-        if (mShuffle){
-            int newSong = mSongPosition;
-            while (newSong == mSongPosition){ // Loops until false so guaranteed random
-                newSong = mRandom.nextInt(mSongList.size());
-            }
-            mSongPosition = newSong;
-        } else {
-            mSongPosition++;
-            if (mSongPosition >= mSongList.size()) mSongPosition = 0;
-        }
-
-        playSong();
+        mEngine.playNext();
     }
 }
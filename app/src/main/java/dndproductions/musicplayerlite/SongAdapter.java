@@ -1,78 +1,354 @@
 package dndproductions.musicplayerlite;
 
-import android.view.View;
-import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
-import java.util.List;
-
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ImageView;
 import android.widget.TextView;
 
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 /**
- * Adapter that's used for displaying the songs to the ListView via MainActivity.
+ * Adapter that's used for displaying the songs to the RecyclerView via MainActivity. The songs are
+ * read straight from the {@link SongTable} columns, so binding a row doesn't create any objects,
+ * and are shown through the table's prebuilt permutation of the current {@link SongOrder}. Album
+ * artwork is loaded asynchronously by an {@link ArtworkLoader}.
+ *
+ * <p>When the table, the order or the search filter changes, the list shown is compared with the
+ * new one on a background thread via a {@link SongListDiff}, and only the rows that changed are
+ * then updated, which the RecyclerView animates. The rows keep showing the previous list until
+ * the diff is ready, and a diff that's superseded by a later change is dropped.
  */
-public class SongAdapter extends ArrayAdapter<Song> {
+public class SongAdapter extends RecyclerView.Adapter<SongAdapter.ViewHolder> {
+
+    // Amount of ranges above which the list is rebound as a whole instead of animated.
+    private static final int MAX_ANIMATED_UPDATES = 200;
+
+    // Thread that computes the diffs, shared by all adapters since only one is shown at a time.
+    private static final ExecutorService DIFF_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    private final LayoutInflater mInflater;
+    private final ArtworkLoader mArtworkLoader;
+    private final Listener mListener;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // List the rows show, and the one being diffed against it, if any.
+    private ListState mShown;
+    private ListState mPending;
+
+    // Table, order and filter the rows should show once the pending diff is applied.
+    private SongTable mSongTable;
+    private SongOrder mSongOrder = SongOrder.TITLE;
+    private int[] mFilterRows;
+
+    /**
+     * Interface that's notified when a row is clicked.
+     */
+    public interface Listener {
+
+        /**
+         * Invoked when a song is clicked.
+         *
+         * @param songId is the song's ID.
+         */
+        void onSongClick(long songId);
+
+        /**
+         * Invoked when a song is long pressed.
+         *
+         * @param view is the song's row view.
+         * @param songId is the song's ID.
+         */
+        void onSongLongClick(View view, long songId);
+    }
 
     /**
-     * Provides a view for an AdapterView (ListView, GridView, and etc.).
+     * Creates a {@link SongAdapter} object.
      *
      * @param context is an Activity context.
-     * @param songList is a song list.
+     * @param songTable is the song table.
+     * @param artworkLoader is the loader of the album artwork.
+     * @param listener is the listener of the clicks.
      */
-    public SongAdapter(Context context, List<Song> songList){
-        super(context, 0, songList);
+    public SongAdapter(Context context, SongTable songTable, ArtworkLoader artworkLoader,
+            Listener listener){
+        mInflater = LayoutInflater.from(context);
+        mArtworkLoader = artworkLoader;
+        mListener = listener;
+        mSongTable = songTable;
+        mShown = new ListState(songTable, mSongOrder, null);
+
+        // The song IDs identify the rows, so rows that only moved keep their views.
+        setHasStableIds(true);
     }
 
     /**
-     * Provides a view for an AdapterView (ListView, GridView, and etc.).
+     * Appends songs to the table, and then inserts their rows. This is only used while the table
+     * is being filled in, before it's ever sorted.
      *
+     * @param songs is the songs to append.
+     */
+    public void addAll(List<Song> songs) {
+        int position = mShown.mCount;
+        mSongTable.addAll(songs);
+        if (mShown.mTable != mSongTable || mShown.mFilterRows != null) {
+            update();
+            return;
+        }
+
+        mShown = new ListState(mSongTable, mSongOrder, null);
+        notifyItemRangeInserted(position, mShown.mCount - position);
+
+        // A pending diff was computed against the rows before they were appended.
+        if (mPending != null) update();
+    }
+
+    /**
+     * Replaces the song table. Only the songs that were added, removed or modified are updated.
+     *
+     * @param songTable is the new song table.
+     */
+    public void setTable(SongTable songTable) {
+        mSongTable = songTable;
+
+        // A filter's rows refer to the previous table.
+        mFilterRows = null;
+        update();
+    }
+
+    /**
+     * Switches the order the songs are shown in. The table isn't sorted again since each order
+     * is already built.
+     *
+     * @param songOrder is the new song order.
+     */
+    public void setOrder(SongOrder songOrder) {
+        mSongOrder = songOrder;
+        update();
+    }
+
+    /**
+     * Returns the song table the rows show once the pending diff is applied.
+     */
+    public SongTable getTable() {
+        return mSongTable;
+    }
+
+    /**
+     * Shows only the rows matched by a search, in the given order. The rows are copied, since
+     * the search reuses its array.
+     *
+     * @param songTable is the table the search ran on, which replaces the song table.
+     * @param rows is the array of matching rows.
+     * @param count is the amount of valid entries in the array.
+     */
+    public void setFilter(SongTable songTable, int[] rows, int count) {
+        mSongTable = songTable;
+        mFilterRows = Arrays.copyOf(rows, count);
+        update();
+    }
+
+    /**
+     * Shows all of the songs again.
+     */
+    public void clearFilter() {
+        if (mFilterRows == null) return;
+
+        mFilterRows = null;
+        update();
+    }
+
+    @Override
+    public int getItemCount() {
+        return mShown.mCount;
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return mShown.mIds[position];
+    }
+
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        return new ViewHolder(mInflater.inflate(R.layout.list_item, parent, false));
+    }
+
+    /**
+     * Binds a song to a row.
+     *
+     * @param holder is the holder of the row's views.
      * @param position is the position in the list of data that should be displayed in the
      *                 list item view.
-     * @param convertView is the recycled view to populate.
-     * @param parent is the parent ViewGroup that is used for inflation.
      */
     @Override
-    public View getView(int position, View convertView, ViewGroup parent) {
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        SongTable table = mShown.mTable;
+
+        // Sets the song's details as texts, accordingly. The title is set straight from the
+        // table's character column and the artist is a pooled string.
+        int row = mShown.getRow(position);
+        holder.song.setText(table.getTitleChars(), table.getTitleStart(row),
+                table.getTitleLength(row));
+        holder.artist.setText(table.getArtist(row));
+
+        // Shows the album's artwork, which replaces the request of the row this view showed.
+        mArtworkLoader.bind(holder.artwork, table.getAlbumId(row));
+    }
+
+    // Helper method that diffs the list shown against the one the rows should show, on the diff
+    // thread, and then applies the diff unless another change came in meanwhile.
+    private void update() {
+        final ListState from = mShown;
+        final ListState to = new ListState(mSongTable, mSongOrder, mFilterRows);
+        mPending = to;
+
+        DIFF_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                final SongListDiff diff = SongListDiff.compute(from.mIds, to.mIds,
+                        new SongListDiff.ContentComparator() {
+                            @Override
+                            public boolean areContentsTheSame(int oldPosition, int newPosition) {
+                                return from.looksLike(oldPosition, to, newPosition);
+                            }
+                        }, MAX_ANIMATED_UPDATES);
+
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mPending != to || mShown != from) return;
+
+                        mPending = null;
+                        mShown = to;
+                        if (diff.isTooLarge()) {
+                            notifyDataSetChanged();
+                        } else {
+                            diff.dispatchTo(mUpdateCallback);
+                        }
+                    }
+                });
+            }
+        });
+    }
 
-        // Initializes the following to hold child views later on.
-        ViewHolder holder;
+    // Callback that forwards the updates of a diff to the RecyclerView.
+    private final SongListDiff.Callback mUpdateCallback = new SongListDiff.Callback() {
+        @Override
+        public void onRemoved(int position, int count) {
+            notifyItemRangeRemoved(position, count);
+        }
+
+        @Override
+        public void onInserted(int position, int count) {
+            notifyItemRangeInserted(position, count);
+        }
 
-        // Checks if the existing view is being reused, otherwise inflates the view.
-        View listItemView = convertView;
-        if (listItemView == null) {
-            listItemView = LayoutInflater.from(getContext()).inflate(R.layout.list_item, parent,
-                    false);
+        @Override
+        public void onChanged(int position, int count) {
+            notifyItemRangeChanged(position, count);
+        }
+    };
 
-            // Initializes the rest of the child views for the sake of not looking them up
-            // repeatedly.
-            holder = new ViewHolder();
-            holder.song = (TextView) listItemView.findViewById(R.id.song_title);
-            holder.artist = (TextView) listItemView.findViewById(R.id.song_artist);
+    /**
+     * List of rows as shown at one point in time, with the song ID of each position read up
+     * front on the UI thread, so that it can be diffed on another thread.
+     */
+    private static final class ListState {
+        final SongTable mTable;
+        final SongOrder mOrder;
+        final int[] mFilterRows;
+        final int mCount;
+        final long[] mIds;
 
-            // Associates the holder with the view for later lookup.
-            listItemView.setTag(holder);
-        } else {
+        ListState(SongTable table, SongOrder order, int[] filterRows) {
+            mTable = table;
+            mOrder = order;
+            mFilterRows = filterRows;
+            mCount = filterRows != null ? filterRows.length : table.size();
 
-            // Otherwise, the view already exists so retrieve it.
-            holder = (ViewHolder) listItemView.getTag();
+            mIds = new long[mCount];
+            for (int i = 0; i < mCount; i++) {
+                mIds[i] = table.getId(getRow(i));
+            }
         }
 
-        // Retrieves each song in the array with the position/index parameter.
-        Song currentSong = getItem(position);
+        int getRow(int position) {
+            if (mFilterRows != null) return mFilterRows[position];
 
-        // Sets the song's details as texts, accordingly.
-        if (currentSong != null) {
-            holder.song.setText(currentSong.getTitle());
-            holder.artist.setText(currentSong.getArtist());
+            return mTable.rowAt(mOrder, position);
         }
 
-        return listItemView;
+        // Returns whether a song is shown the same way in another list. The artists and albums
+        // are pooled strings, so they're compared by reference first.
+        boolean looksLike(int position, ListState other, int otherPosition) {
+            if (mTable == other.mTable) return true;
+
+            int row = getRow(position);
+            int otherRow = other.getRow(otherPosition);
+
+            String artist = mTable.getArtist(row);
+            String otherArtist = other.mTable.getArtist(otherRow);
+            if (artist != otherArtist && (artist == null || !artist.equals(otherArtist))) {
+                return false;
+            }
+            if (mTable.getAlbumId(row) != other.mTable.getAlbumId(otherRow)) return false;
+
+            int length = mTable.getTitleLength(row);
+            if (length != other.mTable.getTitleLength(otherRow)) return false;
+
+            char[] chars = mTable.getTitleChars();
+            char[] otherChars = other.mTable.getTitleChars();
+            int start = mTable.getTitleStart(row);
+            int otherStart = other.mTable.getTitleStart(otherRow);
+            for (int i = 0; i < length; i++) {
+                if (chars[start + i] != otherChars[otherStart + i]) return false;
+            }
+
+            return true;
+        }
     }
 
-    // ViewHolder class used to hold the set of views.
-    private static class ViewHolder {
-        TextView song;
-        TextView artist;
+    /**
+     * Holds the set of views of a row, and forwards its clicks.
+     */
+    class ViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener,
+            View.OnLongClickListener {
+        final TextView song;
+        final TextView artist;
+        final ImageView artwork;
+
+        ViewHolder(View itemView) {
+            super(itemView);
+
+            // Initializes the child views for the sake of not looking them up repeatedly.
+            song = (TextView) itemView.findViewById(R.id.song_title);
+            artist = (TextView) itemView.findViewById(R.id.song_artist);
+            artwork = (ImageView) itemView.findViewById(R.id.song_artwork);
+
+            itemView.setOnClickListener(this);
+            itemView.setOnLongClickListener(this);
+        }
+
+        @Override
+        public void onClick(View view) {
+            int position = getAdapterPosition();
+            if (position != RecyclerView.NO_POSITION) mListener.onSongClick(getItemId());
+        }
+
+        @Override
+        public boolean onLongClick(View view) {
+            int position = getAdapterPosition();
+            if (position == RecyclerView.NO_POSITION) return false;
+
+            mListener.onSongLongClick(view, getItemId());
+            return true;
+        }
     }
 }
@@ -0,0 +1,509 @@
+package dndproductions.musicplayerlite;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.provider.MediaStore;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A subclass of {@link AsyncTask} that scans the user's music library in the background, and
+ * sorts it with a {@link SongSorter} so that the UI thread never has to.
+ *
+ * <p>When a {@link LibrarySnapshot} from a previous scan exists, its already sorted table is
+ * published first and the MediaStore is only queried afterwards for the rows that were added,
+ * removed or modified since the snapshot was written. Otherwise, the songs are published in
+ * batches as they're retrieved so that the list can be shown before the scan is complete.
+ *
+ * <p>A task can also bring a table that's already shown up to date with the {@link LibraryChanges}
+ * observed since, in which case only the ranges of IDs that changed are queried.
+ *
+ * <p>Each complete table is followed by its {@link SongSearchIndex}, which is built afterwards so
+ * that it doesn't delay showing the list.
+ */
+public class SongScanTask extends AsyncTask<Void, SongScanTask.Update, Integer> {
+
+    // Log tag constant.
+    private static final String LOG_TAG = SongScanTask.class.getSimpleName();
+
+    // The first batch is kept small so that the first screen of songs appears right away, while
+    // the following batches are larger to limit the amount of adapter updates.
+    private static final int FIRST_BATCH_SIZE = 32;
+    private static final int BATCH_SIZE = 500;
+
+    // Above this amount of new songs, a full scan is cheaper than listing their IDs in the query.
+    private static final int MAX_INLINE_IDS = 500;
+
+    // Only the columns that are actually used are requested from the provider.
+    private static final String[] PROJECTION = {
+            MediaStore.Audio.Media._ID,
+            MediaStore.Audio.Media.TITLE,
+            MediaStore.Audio.Media.ARTIST,
+            MediaStore.Audio.Media.ALBUM,
+            MediaStore.Audio.Media.ALBUM_ID,
+            MediaStore.Audio.Media.ARTIST_ID,
+            MediaStore.Audio.Media.DURATION,
+            MediaStore.Audio.Media.DATE_ADDED,
+            MediaStore.Audio.Media.DATE_MODIFIED
+    };
+    private static final String[] ID_PROJECTION = {MediaStore.Audio.Media._ID};
+
+    private final ContentResolver mResolver;
+    private final File mSnapshotFile;
+    private final Listener mListener;
+
+    // Table being brought up to date and the changes to apply, or null for a launch scan.
+    private final SongTable mBase;
+    private final LibraryChanges mChanges;
+
+    // Fields used for batching the songs published to the listener.
+    private List<Song> mBatch;
+    private int mBatchSize = FIRST_BATCH_SIZE;
+
+    // Highest DATE_MODIFIED value seen.
+    private long mWatermark;
+
+    /**
+     * Interface that receives the scan results on the UI thread.
+     */
+    public interface Listener {
+
+        /**
+         * Invoked for each batch of songs retrieved while no sorted table is available yet, in
+         * the provider's title order.
+         *
+         * @param songs is the batch of songs.
+         */
+        void onSongsLoaded(List<Song> songs);
+
+        /**
+         * Invoked with a complete and sorted song table that replaces the songs published so
+         * far. The table isn't modified by the task afterwards.
+         *
+         * @param table is the song table.
+         */
+        void onLibraryChanged(SongTable table);
+
+        /**
+         * Invoked when the search index of a table published via
+         * {@link #onLibraryChanged(SongTable)} is ready.
+         *
+         * @param index is the search index.
+         */
+        void onSearchIndexReady(SongSearchIndex index);
+
+        /**
+         * Invoked when the whole library has been scanned.
+         *
+         * @param count is the total amount of songs retrieved.
+         */
+        void onScanComplete(int count);
+    }
+
+    /**
+     * Progress update published by the task, holding one of a batch of songs, a complete table or
+     * a search index.
+     */
+    static final class Update {
+        final List<Song> mBatch;
+        final SongTable mTable;
+        final SongSearchIndex mIndex;
+
+        private Update(List<Song> batch, SongTable table, SongSearchIndex index) {
+            mBatch = batch;
+            mTable = table;
+            mIndex = index;
+        }
+    }
+
+    /**
+     * Creates a {@link SongScanTask} object.
+     *
+     * @param resolver is the ContentResolver used for querying the music files.
+     * @param snapshotFile is the file the library snapshot is read from and written to.
+     * @param listener is the listener that receives the songs.
+     */
+    public SongScanTask(ContentResolver resolver, File snapshotFile, Listener listener) {
+        mResolver = resolver;
+        mSnapshotFile = snapshotFile;
+        mListener = listener;
+        mBase = null;
+        mChanges = null;
+    }
+
+    /**
+     * Creates a {@link SongScanTask} object that applies changes of the music library to a
+     * table that's already shown.
+     *
+     * @param resolver is the ContentResolver used for querying the music files.
+     * @param snapshotFile is the file the library snapshot is written to.
+     * @param table is the table, which isn't modified.
+     * @param watermark is the highest DATE_MODIFIED value seen by the task that built the table.
+     * @param changes is the changes, which mustn't be modified afterwards.
+     * @param listener is the listener that receives the updated table.
+     */
+    public SongScanTask(ContentResolver resolver, File snapshotFile, SongTable table,
+            long watermark, LibraryChanges changes, Listener listener) {
+        mResolver = resolver;
+        mSnapshotFile = snapshotFile;
+        mListener = listener;
+        mBase = table;
+        mChanges = changes;
+        mWatermark = watermark;
+    }
+
+    /**
+     * Returns the highest DATE_MODIFIED value seen, which is final once the task completed.
+     */
+    public long getWatermark() {
+        return mWatermark;
+    }
+
+    @Override
+    protected Integer doInBackground(Void... params) {
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        SongSorter sorter = new SongSorter(Locale.getDefault(), executor, parallelism);
+
+        try {
+            SongTable table = null;
+            boolean changed = true;
+
+            // Publishes the table from the previous scan before the MediaStore is touched, unless
+            // a table is already shown.
+            if (mBase != null) {
+                table = mBase;
+                changed = false;
+            } else {
+                try {
+                    LibrarySnapshot snapshot = LibrarySnapshot.read(mSnapshotFile);
+                    if (snapshot != null) {
+                        table = snapshot.getTable();
+                        mWatermark = snapshot.getWatermark();
+
+                        // Sorts again only if the snapshot was sorted for another locale.
+                        changed = !Locale.getDefault().toString().equals(table.getKeyLocale());
+                        if (changed) sorter.sort(table);
+                        publishTable(table);
+                    }
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "Unable to read library snapshot", e);
+                }
+            }
+
+            if (isCancelled()) return 0;
+
+            if (table != null) {
+                SongTable reconciled = mBase != null
+                        ? sync(table, sorter) : reconcile(table, sorter);
+                if (reconciled != null) {
+                    table = reconciled;
+                    changed = true;
+                }
+            } else {
+                List<Song> songs = scan(null, null, true);
+                if (songs == null) return 0;
+
+                table = new SongTable(songs);
+                sorter.sort(table);
+                publishTable(table);
+            }
+
+            if (isCancelled()) return table.size();
+
+            // Persists the library for the next launch.
+            if (changed) {
+                try {
+                    LibrarySnapshot.write(mSnapshotFile, table, mWatermark);
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "Unable to write library snapshot", e);
+                }
+            }
+
+            Log.d(LOG_TAG, "doInBackground(): Scanned " + table.size() + " songs");
+
+            return table.size();
+        } catch (InterruptedException e) {
+            Log.w(LOG_TAG, "Library scan interrupted", e);
+            return 0;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Override
+    protected void onProgressUpdate(Update... updates) {
+        for (Update update : updates) {
+            if (update.mBatch != null) {
+                mListener.onSongsLoaded(update.mBatch);
+            } else if (update.mTable != null) {
+                mListener.onLibraryChanged(update.mTable);
+            } else {
+                mListener.onSearchIndexReady(update.mIndex);
+            }
+        }
+    }
+
+    @Override
+    protected void onPostExecute(Integer count) {
+        mListener.onScanComplete(count);
+    }
+
+    /**
+     * Queries the music files that match a selection.
+     *
+     * @param selection is the SQL selection, or null for all of the music files.
+     * @param selectionArgs is the selection's arguments.
+     * @param stream is whether the songs are published as they're retrieved.
+     * @return the songs in the provider's title order, or null if the scan was cancelled.
+     */
+    private List<Song> scan(String selection, String[] selectionArgs, boolean stream) {
+
+        // Retrieves the URI for external music files.
+        Uri musicUri = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI;
+
+        // Queries the music files, already sorted by title so that the batches can be appended
+        // to the list as they arrive.
+        Cursor musicCursor = mResolver.query(musicUri, PROJECTION, selection, selectionArgs,
+                MediaStore.Audio.Media.TITLE);
+
+        // Initially checks to see if the data is valid.
+        List<Song> songs = new ArrayList<>();
+        if (musicCursor == null) return songs;
+
+        try {
+
+            // Column indexes used for retrieval purposes.
+            int idColumn = musicCursor.getColumnIndex(MediaStore.Audio.Media._ID);
+            int titleColumn = musicCursor.getColumnIndex(MediaStore.Audio.Media.TITLE);
+            int artistColumn = musicCursor.getColumnIndex(MediaStore.Audio.Media.ARTIST);
+            int albumColumn = musicCursor.getColumnIndex(MediaStore.Audio.Media.ALBUM);
+            int albumIdColumn = musicCursor.getColumnIndex(MediaStore.Audio.Media.ALBUM_ID);
+            int artistIdColumn = musicCursor.getColumnIndex(MediaStore.Audio.Media.ARTIST_ID);
+            int durationColumn = musicCursor.getColumnIndex(MediaStore.Audio.Media.DURATION);
+            int addedColumn = musicCursor.getColumnIndex(MediaStore.Audio.Media.DATE_ADDED);
+            int modifiedColumn = musicCursor.getColumnIndex(MediaStore.Audio.Media.DATE_MODIFIED);
+
+            // Iterates through the cursor, which is filled by the provider a window at a time.
+            // The artist and album aggregates are updated as the songs are appended to a table,
+            // so the rows aren't gone through again for them.
+            while (musicCursor.moveToNext()) {
+                if (isCancelled()) return null;
+
+                Song song = new Song(musicCursor.getLong(idColumn),
+                        musicCursor.getString(titleColumn),
+                        musicCursor.getString(artistColumn),
+                        musicCursor.getString(albumColumn),
+                        musicCursor.getLong(albumIdColumn),
+                        musicCursor.getLong(artistIdColumn),
+                        musicCursor.getLong(durationColumn),
+                        musicCursor.getLong(addedColumn));
+                songs.add(song);
+                mWatermark = Math.max(mWatermark, musicCursor.getLong(modifiedColumn));
+
+                if (stream) publish(song);
+            }
+
+            if (stream) flush();
+        } finally {
+            musicCursor.close();
+        }
+
+        return songs;
+    }
+
+    /**
+     * Brings the table read from the snapshot up to date. Only the IDs of the music files are
+     * listed, and only the rows that are new or modified since the snapshot are read in full.
+     * The unchanged rows keep their collation keys, so only the new rows need new ones.
+     *
+     * @param snapshot is the table read from the snapshot.
+     * @param sorter is the sorter used for the updated table.
+     * @return the updated and sorted table, or null if nothing changed or the scan was
+     * cancelled.
+     */
+    private SongTable reconcile(SongTable snapshot, SongSorter sorter)
+            throws InterruptedException {
+        long[] snapshotIds = new long[snapshot.size()];
+        for (int i = 0; i < snapshotIds.length; i++) {
+            snapshotIds[i] = snapshot.getId(i);
+        }
+        Arrays.sort(snapshotIds);
+
+        long[] currentIds = queryIds();
+        if (currentIds == null || isCancelled()) return null;
+
+        // Walks both sorted ID lists to find the songs that were added or removed.
+        long[] added = new long[currentIds.length];
+        long[] removed = new long[snapshotIds.length];
+        int addedCount = 0;
+        int removedCount = 0;
+        int i = 0;
+        int j = 0;
+        while (i < snapshotIds.length || j < currentIds.length) {
+            if (j == currentIds.length
+                    || (i < snapshotIds.length && snapshotIds[i] < currentIds[j])) {
+                removed[removedCount++] = snapshotIds[i++];
+            } else if (i == snapshotIds.length || currentIds[j] < snapshotIds[i]) {
+                added[addedCount++] = currentIds[j++];
+            } else {
+                i++;
+                j++;
+            }
+        }
+
+        // Too many new songs, so the whole library is read again instead.
+        List<Song> changed;
+        if (addedCount > MAX_INLINE_IDS) {
+            Log.d(LOG_TAG, "reconcile(): " + addedCount + " new songs, rescanning");
+
+            changed = scan(null, null, false);
+            if (changed == null) return null;
+
+            SongTable table = new SongTable(changed);
+            sorter.sort(table);
+            publishTable(table);
+
+            return table;
+        }
+
+        // Reads the rows modified since the snapshot, plus the new ones in case their files kept
+        // an older modification date (e.g. copied over from another device). DATE_MODIFIED is in
+        // seconds, so the rows at the watermark are read again: a file modified within the same
+        // second as the last one seen would be missed otherwise.
+        StringBuilder selection = new StringBuilder(MediaStore.Audio.Media.DATE_MODIFIED)
+                .append(" >= ?");
+        if (addedCount > 0) {
+            selection.append(" OR ").append(MediaStore.Audio.Media._ID).append(" IN (");
+            for (int k = 0; k < addedCount; k++) {
+                if (k > 0) selection.append(',');
+                selection.append(added[k]);
+            }
+            selection.append(')');
+        }
+        changed = scan(selection.toString(), new String[]{String.valueOf(mWatermark)}, false);
+        if (changed == null) return null;
+
+        // The rows read again at the watermark that match the snapshot aren't changes.
+        int changedCount = 0;
+        for (int k = 0; k < changed.size(); k++) {
+            Song song = changed.get(k);
+            int row = snapshot.indexOfId(song.getID());
+            if (row < 0 || !song.equals(snapshot.get(row))) changed.set(changedCount++, song);
+        }
+        changed.subList(changedCount, changed.size()).clear();
+
+        if (removedCount == 0 && changed.isEmpty()) {
+            Log.d(LOG_TAG, "reconcile(): Library unchanged");
+            return null;
+        }
+
+        Log.d(LOG_TAG, "reconcile(): " + removedCount + " removed, " + changed.size()
+                + " added or modified");
+
+        // Drops the removed and modified songs from the snapshot, and then merges the rest.
+        long[] dropped = Arrays.copyOf(removed, removedCount + changed.size());
+        for (int k = 0; k < changed.size(); k++) {
+            dropped[removedCount + k] = changed.get(k).getID();
+        }
+        Arrays.sort(dropped);
+
+        int[] rows = new int[snapshot.size()];
+        int count = 0;
+        for (int row = 0; row < snapshot.size(); row++) {
+            if (Arrays.binarySearch(dropped, snapshot.getId(row)) < 0) rows[count++] = row;
+        }
+        SongTable table = new SongTable();
+        table.addRows(snapshot, rows, count);
+        table.addAll(changed);
+        sorter.sort(table);
+        publishTable(table);
+
+        return table;
+    }
+
+    /**
+     * Applies the observed changes to the table. Only the songs within the ranges of changed IDs
+     * are read, which replace the rows within them, unless the changes didn't name their songs.
+     *
+     * @param table is the table that's shown.
+     * @param sorter is the sorter used for the updated table.
+     * @return the updated and sorted table, or null if nothing changed or the sync was
+     * cancelled.
+     */
+    private SongTable sync(SongTable table, SongSorter sorter) throws InterruptedException {
+        if (mChanges.isAll()) return reconcile(table, sorter);
+
+        List<Song> songs = scan(mChanges.toSelection(MediaStore.Audio.Media._ID), null, false);
+        if (songs == null) return null;
+
+        SongTable synced = mChanges.applyTo(table, songs);
+        if (synced == table) {
+            Log.d(LOG_TAG, "sync(): Library unchanged");
+            return null;
+        }
+
+        Log.d(LOG_TAG, "sync(): " + songs.size() + " songs read within " + mChanges);
+
+        sorter.sort(synced);
+        publishTable(synced);
+
+        return synced;
+    }
+
+    // Helper method that lists the IDs of all of the music files in ascending order.
+    private long[] queryIds() {
+        Cursor idCursor = mResolver.query(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
+                ID_PROJECTION, null, null, MediaStore.Audio.Media._ID);
+        if (idCursor == null) return null;
+
+        try {
+            long[] ids = new long[idCursor.getCount()];
+            int count = 0;
+            while (idCursor.moveToNext() && count < ids.length) {
+                ids[count++] = idCursor.getLong(0);
+            }
+
+            return count == ids.length ? ids : Arrays.copyOf(ids, count);
+        } finally {
+            idCursor.close();
+        }
+    }
+
+    // Helper method that publishes a complete table, and then builds and publishes its index.
+    private void publishTable(SongTable table) {
+        publishProgress(new Update(null, table, null));
+
+        if (!isCancelled()) publishProgress(new Update(null, null, new SongSearchIndex(table)));
+    }
+
+    // Helper method that adds a song to the current batch, and publishes the batch once full.
+    private void publish(Song song) {
+        if (mBatch == null) mBatch = new ArrayList<>(mBatchSize);
+        mBatch.add(song);
+
+        if (mBatch.size() == mBatchSize) {
+            publishProgress(new Update(mBatch, null, null));
+            mBatchSize = BATCH_SIZE;
+            mBatch = null;
+        }
+    }
+
+    // Helper method that publishes the last, partially filled batch.
+    private void flush() {
+        if (mBatch != null && !mBatch.isEmpty() && !isCancelled()) {
+            publishProgress(new Update(mBatch, null, null));
+        }
+        mBatch = null;
+    }
+}
@@ -0,0 +1,115 @@
+package dndproductions.musicplayerlite;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.os.AsyncTask;
+import android.provider.MediaStore;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A subclass of {@link AsyncTask} that reads the tags embedded in the music files into a
+ * {@link TagStore} in the background, via a {@link TagExtractor}, for the songs whose tags
+ * weren't read yet or whose files were modified since. The files are located through the
+ * MediaStore's DATA column.
+ */
+public class TagScanTask extends AsyncTask<Void, Void, TagExtractor.Result> {
+
+    // Log tag constant.
+    private static final String LOG_TAG = TagScanTask.class.getSimpleName();
+
+    // Amount of workers, which is kept low since the files are read while the app is in use.
+    private static final int WORKERS = 2;
+
+    private static final String[] PROJECTION = {
+            MediaStore.Audio.Media._ID,
+            MediaStore.Audio.Media.DATA,
+            MediaStore.Audio.Media.DATE_MODIFIED
+    };
+
+    private final ContentResolver mResolver;
+    private final TagStore mStore;
+    private final Listener mListener;
+
+    /**
+     * Interface that's notified on the UI thread once the tags were read.
+     */
+    public interface Listener {
+
+        /**
+         * Invoked when the task is complete.
+         *
+         * @param result is the results of the extraction, or null if there was nothing to read.
+         */
+        void onTagsRead(TagExtractor.Result result);
+    }
+
+    /**
+     * Creates a {@link TagScanTask} object.
+     *
+     * @param resolver is the ContentResolver used for locating the music files.
+     * @param store is the store the tags are put into.
+     * @param listener is the listener that's notified once the tags were read.
+     */
+    public TagScanTask(ContentResolver resolver, TagStore store, Listener listener) {
+        mResolver = resolver;
+        mStore = store;
+        mListener = listener;
+    }
+
+    @Override
+    protected TagExtractor.Result doInBackground(Void... params) {
+        Cursor cursor = mResolver.query(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, PROJECTION,
+                null, null, null);
+        if (cursor == null) return null;
+
+        // Lists the files of the songs that aren't in the store for their modification time.
+        long[] ids;
+        long[] modified;
+        String[] paths;
+        int count = 0;
+        try {
+            ids = new long[cursor.getCount()];
+            modified = new long[ids.length];
+            paths = new String[ids.length];
+            while (cursor.moveToNext() && count < ids.length) {
+                if (isCancelled()) return null;
+
+                long id = cursor.getLong(0);
+                String path = cursor.getString(1);
+                long fileModified = cursor.getLong(2);
+                if (path == null || mStore.contains(id, fileModified)) continue;
+
+                ids[count] = id;
+                modified[count] = fileModified;
+                paths[count] = path;
+                count++;
+            }
+        } finally {
+            cursor.close();
+        }
+
+        if (count == 0) return null;
+
+        ExecutorService executor = Executors.newFixedThreadPool(WORKERS);
+        try {
+            return new TagExtractor(executor, WORKERS).extract(Arrays.copyOf(ids, count),
+                    Arrays.copyOf(modified, count), Arrays.copyOf(paths, count), mStore);
+        } catch (InterruptedException e) {
+            Log.w(LOG_TAG, "Tag scan interrupted", e);
+            return null;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Override
+    protected void onPostExecute(TagExtractor.Result result) {
+        if (result != null) Log.d(LOG_TAG, "onPostExecute(): " + result);
+
+        mListener.onTagsRead(result);
+    }
+}
@@ -0,0 +1,145 @@
+package dndproductions.musicplayerlite;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.support.v4.content.ContextCompat;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+import android.view.View;
+import android.widget.MediaController.MediaPlayerControl;
+
+/**
+ * A subclass of {@link View} that draws the {@link Waveform} of the song that's playing as a
+ * seek bar, with the part already played highlighted. Pinching zooms in around the position,
+ * and tapping seeks to the tapped position.
+ *
+ * <p>Each frame only reads as many peaks as the view has columns from the waveform's mapped
+ * file, into arrays that are reused, so drawing costs the same at any zoom.
+ */
+public class WaveformView extends View {
+
+    // Zoom bounds, and the delay between the frames drawn while the song plays.
+    private static final float MAX_ZOOM = 64f;
+    private static final long FRAME_DELAY_MS = 50;
+
+    private Waveform mWaveform;
+    private MediaPlayerControl mPlayer;
+    private float mZoom = 1f;
+
+    // Columns of the last frame drawn, and the part of the song they show, in milliseconds.
+    private byte[] mMins = new byte[0];
+    private byte[] mMaxes = new byte[0];
+    private long mStart;
+    private long mWindow;
+
+    private final Paint mPaint = new Paint();
+    private final Paint mPlayedPaint = new Paint();
+    private final ScaleGestureDetector mScaleDetector;
+    private final GestureDetector mGestureDetector;
+
+    /**
+     * Creates a {@link WaveformView} object.
+     *
+     * @param context is the Activity's context.
+     */
+    public WaveformView(Context context) {
+        super(context);
+
+        mPaint.setColor(ContextCompat.getColor(context, R.color.colorWaveform));
+        mPlayedPaint.setColor(ContextCompat.getColor(context, R.color.colorAccent));
+
+        mScaleDetector = new ScaleGestureDetector(context,
+                new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+                    @Override
+                    public boolean onScale(ScaleGestureDetector detector) {
+                        mZoom = Math.max(1f, Math.min(MAX_ZOOM,
+                                mZoom * detector.getScaleFactor()));
+                        invalidate();
+                        return true;
+                    }
+                });
+        mGestureDetector = new GestureDetector(context,
+                new GestureDetector.SimpleOnGestureListener() {
+                    @Override
+                    public boolean onDown(MotionEvent e) {
+                        return true;
+                    }
+
+                    @Override
+                    public boolean onSingleTapUp(MotionEvent e) {
+                        if (mPlayer == null || mWindow == 0) return false;
+
+                        mPlayer.seekTo((int) (mStart + mWindow * e.getX() / getWidth()));
+                        invalidate();
+                        return true;
+                    }
+                });
+    }
+
+    /**
+     * Setter method for the waveform of the song that's playing.
+     *
+     * @param waveform is the waveform, or null if it wasn't built yet.
+     */
+    public void setWaveform(Waveform waveform) {
+        mWaveform = waveform;
+        mZoom = 1f;
+        invalidate();
+    }
+
+    /**
+     * Setter method for the player whose position is shown and sought.
+     *
+     * @param player is the player.
+     */
+    public void setPlayer(MediaPlayerControl player) {
+        mPlayer = player;
+        invalidate();
+    }
+
+    @Override
+    protected void onSizeChanged(int width, int height, int oldWidth, int oldHeight) {
+        super.onSizeChanged(width, height, oldWidth, oldHeight);
+
+        mMins = new byte[width];
+        mMaxes = new byte[width];
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+
+        Waveform waveform = mWaveform;
+        int width = mMins.length;
+        if (waveform == null || mPlayer == null || width == 0) {
+            mWindow = 0;
+            return;
+        }
+
+        // Shows the part of the song around its position, within the song.
+        long duration = waveform.getDuration();
+        long position = mPlayer.getCurrentPosition();
+        mWindow = Math.max(1, (long) (duration / mZoom));
+        mStart = Math.max(0, Math.min(duration - mWindow, position - mWindow / 2));
+        waveform.render(mStart, mStart + mWindow, width, mMins, mMaxes);
+
+        float middle = getHeight() / 2f;
+        float scale = middle / 128f;
+        int played = (int) ((position - mStart) * width / mWindow);
+        for (int x = 0; x < width; x++) {
+            canvas.drawLine(x, middle - mMaxes[x] * scale, x, middle - mMins[x] * scale + 1,
+                    x < played ? mPlayedPaint : mPaint);
+        }
+
+        if (mPlayer.isPlaying()) postInvalidateDelayed(FRAME_DELAY_MS);
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        boolean handled = mScaleDetector.onTouchEvent(event);
+        if (!mScaleDetector.isInProgress()) handled |= mGestureDetector.onTouchEvent(event);
+        return handled || super.onTouchEvent(event);
+    }
+}
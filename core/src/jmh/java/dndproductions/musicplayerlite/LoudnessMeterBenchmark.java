@@ -0,0 +1,43 @@
+package dndproductions.musicplayerlite;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark for measuring a chunk of 4096 stereo frames at 44.1 kHz, i.e. about 93 ms of audio,
+ * so the ops/s divided by 10.8 gives how many times faster than real time a song is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class LoudnessMeterBenchmark {
+
+    private static final int FRAMES = 4096;
+
+    private LoudnessMeter mMeter;
+    private float[] mSamples;
+
+    @Setup
+    public void setUp() {
+        mMeter = new LoudnessMeter(44100, 2);
+        mSamples = new float[FRAMES * 2];
+        Random random = new Random(42);
+        for (int i = 0; i < mSamples.length; i++) {
+            mSamples[i] = (float) (random.nextGaussian() * 0.2);
+        }
+    }
+
+    @Benchmark
+    public float process() {
+        mMeter.process(mSamples, FRAMES);
+        return mMeter.getTruePeak();
+    }
+}
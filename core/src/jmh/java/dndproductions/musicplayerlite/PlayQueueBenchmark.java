@@ -0,0 +1,60 @@
+package dndproductions.musicplayerlite;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for building a {@link PlayQueue} from the song list and editing it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PlayQueueBenchmark {
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int mSize;
+
+    private final Random mRandom = new Random(1);
+    private long[] mIds;
+    private PlayQueue mQueue;
+
+    @Setup
+    public void setUp() {
+        mIds = SyntheticLibrary.ids(mSize);
+        mQueue = PlayQueue.of(mIds, 0, mIds.length);
+    }
+
+    @Benchmark
+    public PlayQueue build() {
+        return PlayQueue.of(mIds, 0, mIds.length);
+    }
+
+    @Benchmark
+    public long get() {
+        return mQueue.get(mRandom.nextInt(mSize));
+    }
+
+    @Benchmark
+    public PlayQueue insert() {
+        return mQueue.insert(mRandom.nextInt(mSize + 1), -1);
+    }
+
+    @Benchmark
+    public PlayQueue move() {
+        return mQueue.move(mRandom.nextInt(mSize), mRandom.nextInt(mSize));
+    }
+
+    @Benchmark
+    public PlayQueue remove() {
+        return mQueue.remove(mRandom.nextInt(mSize));
+    }
+}
@@ -0,0 +1,40 @@
+package dndproductions.musicplayerlite;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for replaying simulated sessions against the {@link PlaybackEngine}, which measure
+ * how many sessions of 50 user actions the state machine gets through per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PlaybackEngineBenchmark {
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int mSize;
+
+    private SessionSimulator mSimulator;
+    private long mSession;
+
+    @Setup
+    public void setUp() {
+        mSimulator = new SessionSimulator(1, mSize, 50, 20, 400, 0.01, 2000);
+    }
+
+    @Benchmark
+    public long session() {
+        SessionSimulator.Result result = mSimulator.run(mSession, mSession + 1);
+        mSession++;
+        return result.getTransitions();
+    }
+}
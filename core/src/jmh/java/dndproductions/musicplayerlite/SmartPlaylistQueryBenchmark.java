@@ -0,0 +1,64 @@
+package dndproductions.musicplayerlite;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for compiling a {@link SmartPlaylistQuery} over a library, and for carrying it over
+ * to the library once a few songs changed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SmartPlaylistQueryBenchmark {
+
+    private static final long NOW = 1500000000000L;
+
+    // Amount of songs that changed, spread over the library.
+    private static final int CHANGED = 16;
+
+    @Param({"1000", "10000", "100000"})
+    public int mSize;
+
+    private final SmartPlaylist mPlaylist = new SmartPlaylist("Artist 1")
+            .withArtistMatching("Artist 1");
+    private SmartPlaylistQuery mQuery;
+    private LibraryChanges mChanges;
+    private SongTable mSynced;
+
+    @Setup
+    public void setUp() {
+        List<Song> songs = SyntheticLibrary.songs(mSize);
+        SongTable table = new SongTable(songs);
+        mQuery = mPlaylist.compile(table, null, NOW);
+
+        mChanges = new LibraryChanges(0, CHANGED);
+        List<Song> changed = new ArrayList<>();
+        for (int i = 0; i < CHANGED; i++) {
+            Song song = songs.get(i * (mSize / CHANGED));
+            mChanges.add(song.getID());
+            changed.add(new Song(song.getID(), song.getTitle(), "Artist 1", song.getAlbum()));
+        }
+        mSynced = mChanges.applyTo(table, changed);
+    }
+
+    @Benchmark
+    public SmartPlaylistQuery compile() {
+        return mPlaylist.compile(mSynced, null, NOW);
+    }
+
+    @Benchmark
+    public SmartPlaylistQuery rebase() {
+        return mQuery.rebase(mSynced, mChanges, NOW);
+    }
+}
@@ -0,0 +1,65 @@
+package dndproductions.musicplayerlite;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for diffing the song list after a library refresh that changed a few songs, and
+ * after a change of sort order.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SongListDiffBenchmark {
+
+    // Amount of songs removed and added by a refresh.
+    private static final int EDITS = 20;
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int mSize;
+
+    private long[] mIds;
+    private long[] mRefreshedIds;
+    private long[] mReorderedIds;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        mIds = SyntheticLibrary.ids(mSize);
+
+        // Drops a few songs, and then inserts as many new ones.
+        long[] refreshed = Arrays.copyOf(mIds, mSize);
+        for (int i = 0; i < EDITS; i++) {
+            refreshed[random.nextInt(mSize)] = mSize + i;
+        }
+        mRefreshedIds = refreshed;
+
+        mReorderedIds = Arrays.copyOf(mIds, mSize);
+        for (int i = mSize - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            long id = mReorderedIds[i];
+            mReorderedIds[i] = mReorderedIds[j];
+            mReorderedIds[j] = id;
+        }
+    }
+
+    @Benchmark
+    public SongListDiff refresh() {
+        return SongListDiff.compute(mIds, mRefreshedIds, null, 200);
+    }
+
+    @Benchmark
+    public SongListDiff reorder() {
+        return SongListDiff.compute(mIds, mReorderedIds, null, 200);
+    }
+}
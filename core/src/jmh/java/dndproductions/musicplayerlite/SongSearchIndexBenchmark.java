@@ -0,0 +1,57 @@
+package dndproductions.musicplayerlite;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for building a {@link SongSearchIndex} and typing a query into it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SongSearchIndexBenchmark {
+
+    // Query typed a character at a time, as the search view reports it.
+    private static final String QUERY = "summer";
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int mSize;
+
+    private SongTable mTable;
+    private SongSearchIndex mIndex;
+
+    @Setup
+    public void setUp() throws InterruptedException {
+        mTable = SyntheticLibrary.sortedTable(mSize);
+        mIndex = new SongSearchIndex(mTable);
+        mIndex.setOrder(SongOrder.TITLE);
+    }
+
+    @Benchmark
+    public SongSearchIndex build() {
+        return new SongSearchIndex(mTable);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(6)
+    public int typeQuery() {
+        int count = 0;
+        for (int length = 1; length <= QUERY.length(); length++) {
+            count += mIndex.search(QUERY.subSequence(0, length));
+        }
+
+        // Clears the query, so the next invocation starts over.
+        mIndex.search("");
+
+        return count;
+    }
+}
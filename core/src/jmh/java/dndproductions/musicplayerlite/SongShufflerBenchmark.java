@@ -0,0 +1,62 @@
+package dndproductions.musicplayerlite;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for starting to shuffle a library and drawing songs from a {@link SongShuffler}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SongShufflerBenchmark {
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int mSize;
+
+    private final Random mRandom = new Random(1);
+    private SongShuffler mShuffler;
+    private int[] mMapping;
+
+    @Setup
+    public void setUp() {
+        mShuffler = new SongShuffler(mSize, mRandom);
+
+        // Mapping of a list that was sorted again, which moves every row.
+        mMapping = new int[mSize];
+        for (int i = 0; i < mSize; i++) {
+            mMapping[i] = mSize - 1 - i;
+        }
+    }
+
+    @Benchmark
+    public SongShuffler create() {
+        return new SongShuffler(mSize, mRandom);
+    }
+
+    @Benchmark
+    public int next() {
+        return mShuffler.next();
+    }
+
+    @Benchmark
+    public int nextAndPrevious() {
+        mShuffler.next();
+        return mShuffler.previous();
+    }
+
+    @Benchmark
+    public SongShuffler remap() {
+        mShuffler.remap(mMapping, mSize);
+        return mShuffler;
+    }
+}
@@ -0,0 +1,67 @@
+package dndproductions.musicplayerlite;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for sorting a freshly scanned {@link SongTable} with a {@link SongSorter}, on one
+ * thread and on all of the cores.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SongSorterBenchmark {
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int mSize;
+
+    @Param({"1", "0"})
+    public int mParallelism;
+
+    private List<Song> mSongs;
+    private ExecutorService mExecutor;
+    private SongSorter mSorter;
+    private SongTable mTable;
+
+    @Setup
+    public void setUp() {
+        mSongs = SyntheticLibrary.songs(mSize);
+
+        // A parallelism of 0 stands for all of the cores.
+        int parallelism = mParallelism > 0
+                ? mParallelism : Runtime.getRuntime().availableProcessors();
+        mExecutor = Executors.newFixedThreadPool(parallelism);
+        mSorter = new SongSorter(Locale.ENGLISH, mExecutor, parallelism);
+    }
+
+    // The table keeps its collation keys, so every sort starts from an unsorted copy.
+    @Setup(Level.Invocation)
+    public void setUpTable() {
+        mTable = new SongTable(mSongs);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mExecutor.shutdown();
+    }
+
+    @Benchmark
+    public SongTable sort() throws InterruptedException {
+        mSorter.sort(mTable);
+        return mTable;
+    }
+}
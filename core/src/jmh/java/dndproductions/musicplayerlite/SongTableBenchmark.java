@@ -0,0 +1,99 @@
+package dndproductions.musicplayerlite;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for filling a {@link SongTable} as the scan does, reading it back from a
+ * {@link LibrarySnapshot} on launch, and reading the rows the adapter binds.
+ *
+ * <p>With the allocation profiler, i.e. {@code -PjmhProfilers=gc}, the {@code gc.alloc.rate.norm}
+ * of {@link #fill()} and {@link #copySongs()} is what building the table and the
+ * {@code List<Song>} it replaces allocates. Their retained footprints are compared by
+ * {@code SongTableTest}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SongTableBenchmark {
+
+    // Amount of rows on a screen, which the adapter binds while the list is flung.
+    private static final int SCREEN_ROWS = 20;
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int mSize;
+
+    private List<Song> mSongs;
+    private SongTable mTable;
+    private File mSnapshotFile;
+    private int mFirstPosition;
+
+    @Setup
+    public void setUp() throws IOException, InterruptedException {
+        mSongs = SyntheticLibrary.songs(mSize);
+        mTable = SyntheticLibrary.sortedTable(mSize);
+
+        mSnapshotFile = File.createTempFile("library", ".snapshot");
+        LibrarySnapshot.write(mSnapshotFile, mTable, 0);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mSnapshotFile.delete();
+    }
+
+    @Benchmark
+    public SongTable fill() {
+        return new SongTable(mSongs);
+    }
+
+    /**
+     * Copies the songs with a new string per column, the way the scan reads them from a cursor.
+     */
+    @Benchmark
+    public List<Song> copySongs() {
+        List<Song> songs = new ArrayList<>(mSongs.size());
+        for (Song song : mSongs) {
+            songs.add(new Song(song.getID(), new String(song.getTitle()),
+                    new String(song.getArtist()), new String(song.getAlbum()),
+                    song.getAlbumID(), song.getArtistID(), song.getDuration(),
+                    song.getDateAdded()));
+        }
+
+        return songs;
+    }
+
+    @Benchmark
+    public LibrarySnapshot readSnapshot() throws IOException {
+        return LibrarySnapshot.read(mSnapshotFile);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SCREEN_ROWS)
+    public void bindScreen(Blackhole blackhole) {
+
+        // Scrolls a screen further each time, in the artist order.
+        mFirstPosition = (mFirstPosition + SCREEN_ROWS) % (mSize - SCREEN_ROWS);
+        for (int i = 0; i < SCREEN_ROWS; i++) {
+            int row = mTable.rowAt(SongOrder.ARTIST, mFirstPosition + i);
+            blackhole.consume(mTable.getTitleStart(row));
+            blackhole.consume(mTable.getTitleLength(row));
+            blackhole.consume(mTable.getArtist(row));
+        }
+    }
+}
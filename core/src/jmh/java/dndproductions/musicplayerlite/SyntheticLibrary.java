@@ -0,0 +1,88 @@
+package dndproductions.musicplayerlite;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Generates music libraries for the benchmarks, with about as many artists and albums per song as
+ * a typical library. The same size always generates the same library.
+ */
+final class SyntheticLibrary {
+
+    // Words the titles are made of, so that searching them finds realistic amounts of songs.
+    private static final String[] WORDS = {
+            "love", "night", "blue", "heart", "home", "light", "fire", "rain", "river", "dream",
+            "gold", "road", "song", "summer", "wild", "world", "young", "água", "café", "été",
+            "straße", "noche", "amor", "zeit", "lune", "cielo", "sol", "mar", "vida", "corazón"
+    };
+
+    private SyntheticLibrary() {
+    }
+
+    /**
+     * Generates the songs of a library, in no particular order.
+     *
+     * @param size is the amount of songs.
+     */
+    static List<Song> songs(int size) {
+        Random random = new Random(size);
+        int artists = Math.max(1, size / 12);
+        int albums = Math.max(1, size / 10);
+
+        List<Song> songs = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            String title = WORDS[random.nextInt(WORDS.length)] + " "
+                    + WORDS[random.nextInt(WORDS.length)] + " "
+                    + Integer.toString(random.nextInt(), 36);
+            int album = random.nextInt(albums);
+            songs.add(new Song(i, title, "Artist " + album % artists, "Album " + album));
+        }
+
+        return songs;
+    }
+
+    /**
+     * Generates an unsorted table of a library.
+     *
+     * @param size is the amount of songs.
+     */
+    static SongTable table(int size) {
+        return new SongTable(songs(size));
+    }
+
+    /**
+     * Generates a table of a library, sorted for the English locale.
+     *
+     * @param size is the amount of songs.
+     */
+    static SongTable sortedTable(int size) throws InterruptedException {
+        SongTable table = table(size);
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try {
+            new SongSorter(Locale.ENGLISH, executor, parallelism).sort(table);
+        } finally {
+            executor.shutdown();
+        }
+
+        return table;
+    }
+
+    /**
+     * Generates the song IDs of a library.
+     *
+     * @param size is the amount of songs.
+     */
+    static long[] ids(int size) {
+        long[] ids = new long[size];
+        for (int i = 0; i < size; i++) {
+            ids[i] = i;
+        }
+
+        return ids;
+    }
+}
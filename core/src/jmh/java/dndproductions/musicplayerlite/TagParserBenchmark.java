@@ -0,0 +1,90 @@
+package dndproductions.musicplayerlite;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for parsing typical tags from direct buffers, which stand in for the mapped files:
+ * an ID3v2.3 tag with a 200 KB cover picture, and FLAC metadata with a seek table and Vorbis
+ * comments. The ops/s times the tag sizes gives the MB/s, and ./gradlew :core:extractTags
+ * measures the same on a local corpus, including the mapping.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TagParserBenchmark {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private ByteBuffer mId3;
+    private ByteBuffer mFlac;
+
+    @Setup
+    public void setUp() {
+        ByteBuffer id3 = ByteBuffer.allocateDirect(256 * 1024);
+        id3.put(new byte[]{'I', 'D', '3', 3, 0, 0, 0, 0, 0, 0});
+        putFrame(id3, "TIT2", "Summer Nights (Extended Mix)");
+        putFrame(id3, "TPE1", "The Synthetic Band");
+        putFrame(id3, "TALB", "Benchmark Sessions");
+        putFrame(id3, "TRCK", "7/12");
+        putFrame(id3, "TBPM", "124");
+        id3.put("APIC".getBytes(UTF_8)).putInt(200 * 1024).putShort((short) 0);
+        id3.position(id3.position() + 200 * 1024);
+        putFrame(id3, "TXXX", "REPLAYGAIN_TRACK_GAIN\u0000-6.48 dB");
+        int size = id3.position() - 10;
+        id3.put(6, (byte) (size >> 21 & 0x7F)).put(7, (byte) (size >> 14 & 0x7F))
+                .put(8, (byte) (size >> 7 & 0x7F)).put(9, (byte) (size & 0x7F));
+        id3.limit(id3.position());
+        mId3 = id3;
+
+        ByteBuffer flac = ByteBuffer.allocateDirect(64 * 1024);
+        flac.put("fLaC".getBytes(UTF_8));
+        flac.putInt(34).position(flac.position() + 34);
+        flac.putInt(3 << 24 | 18 * 100).position(flac.position() + 18 * 100);
+        int start = flac.position();
+        flac.putInt(0);
+        putComment(flac, "reference libFLAC 1.3.2");
+        flac.putInt(Integer.reverseBytes(6));
+        putComment(flac, "TITLE=Summer Nights (Extended Mix)");
+        putComment(flac, "ARTIST=The Synthetic Band");
+        putComment(flac, "ALBUM=Benchmark Sessions");
+        putComment(flac, "TRACKNUMBER=7");
+        putComment(flac, "BPM=124");
+        putComment(flac, "REPLAYGAIN_TRACK_GAIN=-6.48 dB");
+        flac.putInt(start, 0x84 << 24 | flac.position() - start - 4);
+        flac.limit(flac.position());
+        mFlac = flac;
+    }
+
+    @Benchmark
+    public TrackTags id3() {
+        return TagParser.parse(mId3, false);
+    }
+
+    @Benchmark
+    public TrackTags flac() {
+        return TagParser.parse(mFlac, false);
+    }
+
+    // Helper method that writes an ID3v2.3 text frame in UTF-8.
+    private static void putFrame(ByteBuffer buffer, String id, String value) {
+        byte[] bytes = value.getBytes(UTF_8);
+        buffer.put(id.getBytes(UTF_8)).putInt(bytes.length + 1).putShort((short) 0);
+        buffer.put((byte) 3).put(bytes);
+    }
+
+    // Helper method that writes a length-prefixed Vorbis comment.
+    private static void putComment(ByteBuffer buffer, String comment) {
+        byte[] bytes = comment.getBytes(UTF_8);
+        buffer.putInt(Integer.reverseBytes(bytes.length)).put(bytes);
+    }
+}
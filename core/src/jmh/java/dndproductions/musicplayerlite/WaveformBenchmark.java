@@ -0,0 +1,54 @@
+package dndproductions.musicplayerlite;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark for rendering a 1080 columns wide view of a 10 minute song's waveform, from the
+ * whole song down to a few seconds, which should take about as long at every zoom.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class WaveformBenchmark {
+
+    private static final int WIDTH = 1080;
+    private static final long DURATION = 10 * 60 * 1000;
+
+    @Param({"1", "16", "256"})
+    public int zoom;
+
+    private Waveform mWaveform;
+    private final byte[] mMins = new byte[WIDTH];
+    private final byte[] mMaxes = new byte[WIDTH];
+
+    @Setup
+    public void setUp() {
+        WaveformBuilder builder = new WaveformBuilder(44100, 2);
+        float[] samples = new float[44100 * 2];
+        Random random = new Random(42);
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (float) (random.nextGaussian() * 0.2);
+        }
+        for (int second = 0; second < DURATION / 1000; second++) {
+            builder.process(samples, 44100);
+        }
+        mWaveform = builder.build();
+    }
+
+    @Benchmark
+    public byte[] render() {
+        long start = DURATION / 3;
+        mWaveform.render(start, start + DURATION / zoom, WIDTH, mMins, mMaxes);
+        return mMaxes;
+    }
+}
@@ -0,0 +1,189 @@
+package dndproductions.musicplayerlite;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * File of the stores that persist their state as records appended after a header (magic and
+ * version), e.g. the {@link LoudnessStore} and the {@link PlayHistory}.
+ *
+ * <p>Each record is flushed once appended, so that a killed process loses at most the record it
+ * was writing, and the store drops that partial record on open through {@link #truncate(long)}
+ * so that later appends stay aligned. A store that compacts its records replaces the file in
+ * full through a temporary file, which is then renamed over it, so a reader always sees either
+ * the old file or the new one.
+ */
+final class AppendLog {
+
+    // Size of the header, i.e. the magic and the version.
+    static final int HEADER_SIZE = 8;
+
+    /**
+     * Interface of what's written to the file, after the header.
+     */
+    interface Content {
+        void writeTo(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * Interface of a write that's run in the background.
+     */
+    interface Write {
+        void run() throws IOException;
+    }
+
+    private final File mFile;
+    private final int mMagic;
+    private final int mVersion;
+
+    // Stream the records are appended to, opened on the first append.
+    private DataOutputStream mOut;
+
+    // Amount of background writes that failed.
+    private volatile long mFailures;
+
+    /**
+     * Creates an {@link AppendLog} object.
+     *
+     * @param file is the log file.
+     * @param magic is the magic number that identifies the store's files.
+     * @param version is the version of the store's format.
+     */
+    AppendLog(File file, int magic, int version) {
+        mFile = file;
+        mMagic = magic;
+        mVersion = version;
+    }
+
+    /**
+     * Returns the length of the file, or 0 if it doesn't exist.
+     */
+    long length() {
+        return mFile.isFile() ? mFile.length() : 0;
+    }
+
+    /**
+     * Opens the file for reading past its header.
+     *
+     * @return the stream, which the caller closes, or null if the file is missing or was
+     * written by another version of the format.
+     */
+    DataInputStream openForReading() throws IOException {
+        if (length() < HEADER_SIZE) return null;
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(mFile), 64 * 1024));
+        try {
+            if (in.readInt() == mMagic && in.readInt() == mVersion) return in;
+        } catch (EOFException e) {
+            // Handled below, as a file of another format.
+        }
+
+        in.close();
+        return null;
+    }
+
+    /**
+     * Drops what follows the valid part of the file, e.g. the partial record a killed process
+     * may have left.
+     *
+     * @param valid is the length of the valid part, or 0 to start the file over.
+     */
+    void truncate(long valid) throws IOException {
+        if (valid == length()) return;
+
+        RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
+        try {
+            raf.setLength(valid);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Returns the stream that records are appended to, which the caller flushes once a record
+     * is complete. The header is written first if the file is empty.
+     */
+    DataOutputStream append() throws IOException {
+        if (mOut == null) {
+            boolean empty = length() == 0;
+            mOut = new DataOutputStream(new FileOutputStream(mFile, true));
+            if (empty) {
+                mOut.writeInt(mMagic);
+                mOut.writeInt(mVersion);
+                mOut.flush();
+            }
+        }
+
+        return mOut;
+    }
+
+    /**
+     * Replaces the file with a header followed by the content, through a temporary file.
+     *
+     * @param content is the content written after the header.
+     */
+    void replace(Content content) throws IOException {
+        close();
+
+        File tempFile = new File(mFile.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tempFile), 64 * 1024));
+        try {
+            out.writeInt(mMagic);
+            out.writeInt(mVersion);
+            content.writeTo(out);
+        } finally {
+            out.close();
+        }
+
+        if (!tempFile.renameTo(mFile)) {
+            throw new IOException("Unable to replace " + mFile);
+        }
+    }
+
+    /**
+     * Closes the stream records are appended to, which is opened again by the next append.
+     */
+    void close() throws IOException {
+        if (mOut != null) {
+            DataOutputStream out = mOut;
+            mOut = null;
+            out.close();
+        }
+    }
+
+    /**
+     * Returns a task that runs a write, e.g. on a dispatcher's thread, and counts its failure
+     * rather than throwing it.
+     *
+     * @param write is the write.
+     */
+    Runnable newTask(final Write write) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    write.run();
+                } catch (IOException e) {
+                    mFailures++;
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns the amount of writes run through {@link #newTask(Write)} that failed.
+     */
+    long getFailureCount() {
+        return mFailures;
+    }
+}
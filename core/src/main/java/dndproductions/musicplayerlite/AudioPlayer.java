@@ -0,0 +1,121 @@
+package dndproductions.musicplayerlite;
+
+/**
+ * Player of one song at a time, following the state machine of Android's MediaPlayer: a song is
+ * set as the source, prepared asynchronously, and then started, paused and sought until it
+ * completes or the player is reset.
+ *
+ * <p>The {@link PlaybackEngine} only talks to players through this interface, so that it runs on
+ * a device with MediaPlayers and on the JVM with {@link SimulatedPlayer}s. A player's callbacks
+ * are delivered on the thread the engine's commands run on.
+ */
+public interface AudioPlayer {
+
+    /**
+     * Interface that receives the events of a player.
+     */
+    interface Listener {
+
+        /**
+         * Invoked when a player finished preparing its song.
+         *
+         * @param player is the player.
+         */
+        void onPrepared(AudioPlayer player);
+
+        /**
+         * Invoked when a player reached the end of its song.
+         *
+         * @param player is the player.
+         */
+        void onCompletion(AudioPlayer player);
+
+        /**
+         * Invoked when a player that was set via {@link #setNext(AudioPlayer)} started on its
+         * own, which may be reported before the completion of the previous player.
+         *
+         * @param player is the player that started.
+         */
+        void onStartedAsNext(AudioPlayer player);
+
+        /**
+         * Invoked when a player fails, after which it needs to be reset.
+         *
+         * @param player is the player.
+         * @param what is the error, as one of the MediaPlayer.MEDIA_ERROR_* codes.
+         * @param extra is the error's extra code.
+         */
+        void onError(AudioPlayer player, int what, int extra);
+    }
+
+    /**
+     * Interface that creates the players, on the thread their callbacks are delivered on.
+     */
+    interface Factory {
+
+        /**
+         * Creates a player.
+         *
+         * @param listener is the listener that receives the player's events.
+         */
+        AudioPlayer create(Listener listener);
+    }
+
+    /**
+     * Sets a song as the source of a player that was just created or reset.
+     *
+     * @param songId is the song's ID.
+     */
+    void setSource(long songId);
+
+    /**
+     * Starts preparing the song, where {@link Listener#onPrepared(AudioPlayer)} follows once it's
+     * ready.
+     */
+    void prepareAsync();
+
+    /**
+     * Sets the volume the player plays its songs at.
+     *
+     * @param volume is the volume, from 0 for silence to 1 for the song's own level.
+     */
+    void setVolume(float volume);
+
+    // The following methods all apply to standard playback control functions.
+    void start();
+
+    void pause();
+
+    void stop();
+
+    void seekTo(int position);
+
+    void reset();
+
+    void release();
+
+    boolean isPlaying();
+
+    int getDuration();
+
+    int getCurrentPosition();
+
+    /**
+     * Returns the MIME type of the song, or null if unknown.
+     */
+    String getMimeType();
+
+    /**
+     * Returns whether another player can be chained to this one via
+     * {@link #setNext(AudioPlayer)}.
+     */
+    boolean supportsNext();
+
+    /**
+     * Chains a prepared player that starts as soon as this one completes.
+     *
+     * @param next is the player, or null for unchaining the current one.
+     * @throws IllegalStateException if this player's state doesn't allow chaining.
+     */
+    void setNext(AudioPlayer next);
+}
@@ -0,0 +1,13 @@
+package dndproductions.musicplayerlite;
+
+/**
+ * Source of the time used for timestamping playback, which is the device's elapsed realtime in
+ * the app and a virtual time in simulations.
+ */
+public interface Clock {
+
+    /**
+     * Returns the current time in milliseconds, which never goes back.
+     */
+    long elapsedRealtime();
+}
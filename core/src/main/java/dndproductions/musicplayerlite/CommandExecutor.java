@@ -0,0 +1,193 @@
+package dndproductions.musicplayerlite;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Runs commands one at a time on a single thread, in the order they were submitted, while
+ * dropping the ones that were superseded before they got to run.
+ *
+ * <p>A command submitted with a key replaces the pending command with the same key, and takes
+ * its place at the end of the queue. E.g. when the user taps "next" many times in a row, every
+ * tap moves to another song but only the final one gets prepared. A throttled command runs at
+ * most once per window, with whatever was submitted last, e.g. so that dragging the seek bar
+ * doesn't issue a seek per touch event.
+ *
+ * <p>The thread is provided by a {@link Dispatcher}, so that the commands can run on a thread
+ * with a message loop on the device and on a plain executor in tests.
+ */
+public class CommandExecutor {
+
+    // Key of commands that are never superseded.
+    private static final int NO_KEY = Integer.MIN_VALUE;
+
+    private final Dispatcher mDispatcher;
+
+    // Commands waiting to run, the pending command of each key, and the pending throttled
+    // commands, all guarded by this object.
+    private final ArrayDeque<Command> mQueue = new ArrayDeque<>();
+    private final Map<Integer, Command> mPending = new HashMap<>();
+    private final Map<Integer, Throttle> mThrottled = new HashMap<>();
+    private boolean mDrainScheduled;
+
+    // Task that runs the queued commands on the dispatcher's thread.
+    private final Runnable mDrain = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    /**
+     * Interface that runs tasks on the single thread the commands are confined to.
+     */
+    public interface Dispatcher {
+
+        /**
+         * Runs a task on the thread, after the tasks dispatched before it.
+         *
+         * @param task is the task.
+         */
+        void dispatch(Runnable task);
+
+        /**
+         * Runs a task on the thread after a delay.
+         *
+         * @param task is the task.
+         * @param delayMillis is the delay in milliseconds.
+         */
+        void dispatchDelayed(Runnable task, long delayMillis);
+    }
+
+    // Queued command, which is skipped once it's been superseded.
+    private static final class Command {
+        final int mKey;
+        final Runnable mTask;
+        boolean mSuperseded;
+
+        Command(int key, Runnable task) {
+            mKey = key;
+            mTask = task;
+        }
+    }
+
+    // Throttled command, which runs the task that was submitted last once its window ends.
+    private final class Throttle implements Runnable {
+        final int mKey;
+        Runnable mTask;
+
+        Throttle(int key, Runnable task) {
+            mKey = key;
+            mTask = task;
+        }
+
+        @Override
+        public void run() {
+            Runnable task;
+            synchronized (CommandExecutor.this) {
+                mThrottled.remove(mKey);
+                task = mTask;
+            }
+
+            task.run();
+        }
+    }
+
+    /**
+     * Creates a {@link CommandExecutor} object.
+     *
+     * @param dispatcher is the dispatcher whose thread runs the commands.
+     */
+    public CommandExecutor(Dispatcher dispatcher) {
+        mDispatcher = dispatcher;
+    }
+
+    /**
+     * Submits a command that's never superseded.
+     *
+     * @param task is the command.
+     */
+    public void execute(Runnable task) {
+        enqueue(NO_KEY, task);
+    }
+
+    /**
+     * Submits a command that supersedes the pending command with the same key, if any.
+     *
+     * @param key is the key of the command.
+     * @param task is the command.
+     */
+    public void execute(int key, Runnable task) {
+        enqueue(key, task);
+    }
+
+    /**
+     * Submits a command that runs at the end of a window, which starts with the first command
+     * submitted with its key. Commands submitted within the window replace the one that runs.
+     *
+     * @param key is the key of the command.
+     * @param task is the command.
+     * @param windowMillis is the length of the window in milliseconds.
+     */
+    public void executeThrottled(int key, Runnable task, long windowMillis) {
+        Throttle throttle;
+        synchronized (this) {
+            throttle = mThrottled.get(key);
+            if (throttle != null) {
+                throttle.mTask = task;
+                return;
+            }
+
+            throttle = new Throttle(key, task);
+            mThrottled.put(key, throttle);
+        }
+
+        mDispatcher.dispatchDelayed(throttle, windowMillis);
+    }
+
+    // Helper method that queues a command, and schedules the queue to be drained if needed.
+    private void enqueue(int key, Runnable task) {
+        boolean schedule;
+        synchronized (this) {
+            Command command = new Command(key, task);
+            if (key != NO_KEY) {
+                Command previous = mPending.put(key, command);
+                if (previous != null) previous.mSuperseded = true;
+            }
+            mQueue.add(command);
+
+            schedule = !mDrainScheduled;
+            mDrainScheduled = true;
+        }
+
+        if (schedule) mDispatcher.dispatch(mDrain);
+    }
+
+    // Helper method that runs the queued commands, including the ones they submit.
+    private void drain() {
+        while (true) {
+            Command command;
+            synchronized (this) {
+                do {
+                    command = mQueue.poll();
+                } while (command != null && command.mSuperseded);
+
+                if (command == null) {
+                    mDrainScheduled = false;
+                    return;
+                }
+                if (command.mKey != NO_KEY) mPending.remove(command.mKey);
+            }
+
+            // Keeps draining later on if a command throws, so that the queue doesn't get stuck.
+            boolean completed = false;
+            try {
+                command.mTask.run();
+                completed = true;
+            } finally {
+                if (!completed) mDispatcher.dispatch(mDrain);
+            }
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package dndproductions.musicplayerlite;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persistent store of what a {@link DuplicateDetector} learned about the songs' files, by song
+ * ID: the length of their audio payload and, once they were hashed, its hash. Each entry is kept
+ * along with the file's modification time, and only applies while the file isn't modified, so
+ * that a file is only read again once it changed.
+ *
+ * <p>The file is an {@link AppendLog} of fixed-size records that are appended as files are
+ * measured and hashed, where later records of a song replace the earlier ones.
+ */
+public final class ContentHashStore {
+
+    // Header constants used to reject files written by another version of the format.
+    private static final int MAGIC = 0x4d504348;
+    private static final int VERSION = 1;
+
+    // Size of a record: the song ID, the modification time, the payload length and the hash.
+    private static final int RECORD_SIZE = 32;
+
+    // Hash of an entry whose payload wasn't hashed yet.
+    public static final long NO_HASH = 0;
+
+    private final Map<Long, Entry> mEntries = new ConcurrentHashMap<>();
+    private final AppendLog mLog;
+
+    // Immutable entry of a song.
+    private static final class Entry {
+        final long mModified;
+        final long mLength;
+        final long mHash;
+
+        Entry(long modified, long length, long hash) {
+            mModified = modified;
+            mLength = length;
+            mHash = hash;
+        }
+    }
+
+    private ContentHashStore(AppendLog log) {
+        mLog = log;
+    }
+
+    /**
+     * Opens a store file, creating it if it doesn't exist or was written by another version of
+     * the format, and reads the records it holds.
+     *
+     * @param file is the store file.
+     */
+    public static ContentHashStore open(File file) throws IOException {
+        ContentHashStore store = new ContentHashStore(new AppendLog(file, MAGIC, VERSION));
+        store.mLog.truncate(store.read());
+        store.mLog.append();
+
+        return store;
+    }
+
+    /**
+     * Stores what's known about a song's file and appends it to the file.
+     *
+     * @param songId is the song's ID.
+     * @param modified is the file's modification time.
+     * @param length is the length of the file's audio payload in bytes.
+     * @param hash is the payload's hash, or {@link #NO_HASH} if it wasn't hashed.
+     */
+    public synchronized void put(long songId, long modified, long length, long hash)
+            throws IOException {
+        DataOutputStream out = mLog.append();
+        out.writeLong(songId);
+        out.writeLong(modified);
+        out.writeLong(length);
+        out.writeLong(hash);
+        out.flush();
+        mEntries.put(songId, new Entry(modified, length, hash));
+    }
+
+    /**
+     * Returns the length of a song's audio payload.
+     *
+     * @param songId is the song's ID.
+     * @param modified is the file's current modification time.
+     * @return the length, or -1 if it isn't known for that modification time.
+     */
+    public long getLength(long songId, long modified) {
+        Entry entry = mEntries.get(songId);
+        return entry != null && entry.mModified == modified ? entry.mLength : -1;
+    }
+
+    /**
+     * Returns the hash of a song's audio payload.
+     *
+     * @param songId is the song's ID.
+     * @param modified is the file's current modification time.
+     * @return the hash, or {@link #NO_HASH} if it isn't known for that modification time.
+     */
+    public long getHash(long songId, long modified) {
+        Entry entry = mEntries.get(songId);
+        return entry != null && entry.mModified == modified ? entry.mHash : NO_HASH;
+    }
+
+    public int size() {
+        return mEntries.size();
+    }
+
+    public synchronized void close() throws IOException {
+        mLog.close();
+    }
+
+    // Helper method that reads the records of the file, returning the length of its whole
+    // records, or 0 if it's missing or of another format.
+    private long read() throws IOException {
+        DataInputStream in = mLog.openForReading();
+        if (in == null) return 0;
+
+        long count = (mLog.length() - AppendLog.HEADER_SIZE) / RECORD_SIZE;
+        try {
+            for (long i = 0; i < count; i++) {
+                long songId = in.readLong();
+                long modified = in.readLong();
+                long length = in.readLong();
+                long hash = in.readLong();
+                mEntries.put(songId, new Entry(modified, length, hash));
+            }
+        } catch (EOFException e) {
+            mEntries.clear();
+            return 0;
+        } finally {
+            in.close();
+        }
+
+        return AppendLog.HEADER_SIZE + count * RECORD_SIZE;
+    }
+}
@@ -0,0 +1,414 @@
+package dndproductions.musicplayerlite;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Finds the songs whose files hold the same audio, e.g. copies of a song that were tagged
+ * differently, by hashing the audio payload of the files, i.e. the files without their tags.
+ *
+ * <p>The tags at the start are found by a {@link TagParser}, and ID3v1 and APEv2 tags at the end
+ * are skipped as well. Since identical audio has an identical length, the lengths are compared
+ * first, and only the files that share their length with another one are hashed. Payloads are
+ * hashed a chunk at a time through a buffer per worker, so memory doesn't depend on the size of
+ * the files, and the files are fanned out over a fixed amount of workers like the
+ * {@link TagExtractor} does. Lengths and hashes are kept in a {@link ContentHashStore} along with
+ * the files' modification times, so a file is only read again once it changed.
+ */
+public class DuplicateDetector {
+
+    // Size of a read while hashing.
+    static final int CHUNK_BYTES = 64 * 1024;
+
+    // Signatures and sizes of the tags at the end of a file.
+    private static final byte[] ID3V1 = {'T', 'A', 'G'};
+    private static final int ID3V1_SIZE = 128;
+    private static final byte[] APE = {'A', 'P', 'E', 'T', 'A', 'G', 'E', 'X'};
+    private static final int APE_FOOTER_SIZE = 32;
+
+    private final ExecutorService mExecutor;
+    private final int mParallelism;
+
+    /**
+     * Results of a detection.
+     */
+    public static final class Result {
+        int mFiles;
+        int mMeasured;
+        int mHashed;
+        int mCached;
+        int mFailures;
+        long mHashedBytes;
+        long mNanos;
+        List<long[]> mGroups = Collections.emptyList();
+
+        // Getter methods.
+        public int getFiles() {
+            return mFiles;
+        }
+
+        /**
+         * Returns the amount of files whose payload length was read rather than cached.
+         */
+        public int getMeasured() {
+            return mMeasured;
+        }
+
+        /**
+         * Returns the amount of files whose payload was hashed rather than cached.
+         */
+        public int getHashed() {
+            return mHashed;
+        }
+
+        /**
+         * Returns the amount of lengths and hashes that were cached.
+         */
+        public int getCached() {
+            return mCached;
+        }
+
+        public int getFailures() {
+            return mFailures;
+        }
+
+        public long getHashedBytes() {
+            return mHashedBytes;
+        }
+
+        public long getNanos() {
+            return mNanos;
+        }
+
+        /**
+         * Returns the groups of duplicates, as the IDs of the songs in each group in the order
+         * they were passed in. The groups are ordered by their first song.
+         */
+        public List<long[]> getGroups() {
+            return mGroups;
+        }
+
+        // Helper method that adds the results of another worker.
+        void add(Result other) {
+            mFiles += other.mFiles;
+            mMeasured += other.mMeasured;
+            mHashed += other.mHashed;
+            mCached += other.mCached;
+            mFailures += other.mFailures;
+            mHashedBytes += other.mHashedBytes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d files (%d measured, %d hashed, %d cached, %d"
+                            + " failed), %.1f MB hashed in %d ms: %d groups of duplicates",
+                    mFiles, mMeasured, mHashed, mCached, mFailures,
+                    mHashedBytes / (1024.0 * 1024), mNanos / 1000000, mGroups.size());
+        }
+    }
+
+    // Work done on each file of a stage, with a worker's buffer and digest.
+    private interface Stage {
+        void process(int index, Result result, ByteBuffer buffer, MessageDigest digest);
+    }
+
+    /**
+     * Creates a {@link DuplicateDetector} object.
+     *
+     * @param executor is the executor the workers run on.
+     * @param parallelism is the amount of workers.
+     */
+    public DuplicateDetector(ExecutorService executor, int parallelism) {
+        mExecutor = executor;
+        mParallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Finds the songs that are duplicates of each other.
+     *
+     * @param ids is the songs' IDs.
+     * @param paths is the paths of the songs' files, in the same order.
+     * @param modified is the modification times of the songs' files, in the same order.
+     * @param store is the store the lengths and hashes are cached in.
+     */
+    public Result detect(final long[] ids, final String[] paths, final long[] modified,
+                         final ContentHashStore store) throws InterruptedException {
+        long start = System.nanoTime();
+        Result result = new Result();
+        result.mFiles = ids.length;
+
+        // Measures the payload of every file, or looks it up.
+        final long[] lengths = new long[ids.length];
+        int[] all = new int[ids.length];
+        for (int i = 0; i < all.length; i++) {
+            all[i] = i;
+        }
+        run(all, result, new Stage() {
+            @Override
+            public void process(int index, Result result, ByteBuffer buffer,
+                                MessageDigest digest) {
+                long length = store.getLength(ids[index], modified[index]);
+                if (length >= 0) {
+                    result.mCached++;
+                    lengths[index] = length;
+                    return;
+                }
+
+                try {
+                    long[] payload = findPayload(new File(paths[index]));
+                    lengths[index] = payload[1] - payload[0];
+                    result.mMeasured++;
+                    store.put(ids[index], modified[index], lengths[index],
+                            ContentHashStore.NO_HASH);
+                } catch (IOException e) {
+                    lengths[index] = -1;
+                    result.mFailures++;
+                }
+            }
+        });
+
+        // Hashes the files whose length isn't unique, or looks their hash up.
+        int[] candidates = sharedRuns(sortBy(all, lengths, null), lengths, null);
+        final long[] hashes = new long[ids.length];
+        run(candidates, result, new Stage() {
+            @Override
+            public void process(int index, Result result, ByteBuffer buffer,
+                                MessageDigest digest) {
+                long hash = store.getHash(ids[index], modified[index]);
+                if (hash != ContentHashStore.NO_HASH) {
+                    result.mCached++;
+                    hashes[index] = hash;
+                    return;
+                }
+
+                try {
+                    hash = hashPayload(new File(paths[index]), buffer, digest, result);
+                    hashes[index] = hash;
+                    result.mHashed++;
+                    store.put(ids[index], modified[index], lengths[index], hash);
+                } catch (IOException e) {
+                    hashes[index] = ContentHashStore.NO_HASH;
+                    result.mFailures++;
+                }
+            }
+        });
+
+        // Groups the files that share both their length and their hash.
+        int[] sorted = sortBy(candidates, lengths, hashes);
+        List<long[]> groups = new ArrayList<>();
+        for (int from = 0; from < sorted.length; ) {
+            int to = from + 1;
+            while (to < sorted.length && sameKey(sorted[from], sorted[to], lengths, hashes)) {
+                to++;
+            }
+
+            if (to - from > 1 && hashes[sorted[from]] != ContentHashStore.NO_HASH) {
+                int[] members = Arrays.copyOfRange(sorted, from, to);
+                Arrays.sort(members);
+                long[] group = new long[members.length];
+                for (int i = 0; i < members.length; i++) {
+                    group[i] = ids[members[i]];
+                }
+                groups.add(group);
+            }
+            from = to;
+        }
+        sortGroups(groups, ids);
+        result.mGroups = groups;
+
+        result.mNanos = System.nanoTime() - start;
+        return result;
+    }
+
+    /**
+     * Finds the audio payload of a file, i.e. the range between its tags.
+     *
+     * @param file is the music file.
+     * @return the start and the end of the payload.
+     */
+    static long[] findPayload(File file) throws IOException {
+        TrackTags tags = TagExtractor.read(file, false);
+        long start = tags != null ? tags.getTagSize() : 0;
+
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long end = channel.size();
+
+            // Reads the end of the file, which may hold an ID3v1 tag after an APEv2 tag.
+            int tailSize = (int) Math.min(end - start, ID3V1_SIZE + APE_FOOTER_SIZE);
+            ByteBuffer tail = ByteBuffer.allocate(Math.max(0, tailSize));
+            while (tail.hasRemaining()
+                    && channel.read(tail, end - tailSize + tail.position()) > 0) {
+                // Reads until the buffer is full.
+            }
+
+            int tailEnd = tailSize;
+            if (tailEnd >= ID3V1_SIZE && startsWith(tail, tailEnd - ID3V1_SIZE, ID3V1)) {
+                tailEnd -= ID3V1_SIZE;
+                end -= ID3V1_SIZE;
+            }
+            if (tailEnd >= APE_FOOTER_SIZE && startsWith(tail, tailEnd - APE_FOOTER_SIZE, APE)) {
+                tail.order(ByteOrder.LITTLE_ENDIAN);
+                long size = tail.getInt(tailEnd - APE_FOOTER_SIZE + 12) & 0xFFFFFFFFL;
+                int flags = tail.getInt(tailEnd - APE_FOOTER_SIZE + 20);
+                if ((flags & 0x80000000) != 0) size += APE_FOOTER_SIZE; // Header.
+                end -= Math.min(size, end - start);
+            }
+
+            return new long[]{start, Math.max(start, end)};
+        } finally {
+            raf.close();
+        }
+    }
+
+    // Helper method that hashes the payload of a file a chunk at a time.
+    private static long hashPayload(File file, ByteBuffer buffer, MessageDigest digest,
+                                    Result result) throws IOException {
+        long[] payload = findPayload(file);
+
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            digest.reset();
+            long position = payload[0];
+            while (position < payload[1]) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), payload[1] - position));
+                int read = channel.read(buffer, position);
+                if (read <= 0) throw new IOException("Truncated " + file);
+
+                buffer.flip();
+                digest.update(buffer);
+                position += read;
+                result.mHashedBytes += read;
+            }
+        } finally {
+            raf.close();
+        }
+
+        // Keeps 64 bits of the digest, which along with the length make collisions negligible.
+        long hash = ByteBuffer.wrap(digest.digest()).getLong();
+        return hash != ContentHashStore.NO_HASH ? hash : 1;
+    }
+
+    // Helper method that runs a stage over some of the files on the workers.
+    private void run(final int[] indexes, Result total, final Stage stage)
+            throws InterruptedException {
+        final AtomicInteger next = new AtomicInteger();
+        List<Callable<Result>> workers = new ArrayList<>(mParallelism);
+        for (int i = 0; i < mParallelism; i++) {
+            workers.add(new Callable<Result>() {
+                @Override
+                public Result call() throws NoSuchAlgorithmException {
+                    Result result = new Result();
+                    ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK_BYTES);
+                    MessageDigest digest = MessageDigest.getInstance("MD5");
+                    for (int i = next.getAndIncrement(); i < indexes.length
+                            && !Thread.currentThread().isInterrupted();
+                            i = next.getAndIncrement()) {
+                        stage.process(indexes[i], result, buffer, digest);
+                    }
+
+                    return result;
+                }
+            });
+        }
+
+        try {
+            for (Future<Result> future : mExecutor.invokeAll(workers)) {
+                total.add(future.get());
+            }
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    // Helper method that sorts indexes by their length and then their hash, if any. Indexes
+    // whose length is unknown are left out.
+    private static int[] sortBy(int[] indexes, final long[] lengths, final long[] hashes) {
+        List<Integer> sorted = new ArrayList<>(indexes.length);
+        for (int index : indexes) {
+            if (lengths[index] >= 0) sorted.add(index);
+        }
+        Collections.sort(sorted, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                int order = compareLongs(lengths[a], lengths[b]);
+                if (order != 0 || hashes == null) return order;
+
+                return compareLongs(hashes[a], hashes[b]);
+            }
+        });
+
+        int[] result = new int[sorted.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = sorted.get(i);
+        }
+        return result;
+    }
+
+    // Helper method that keeps the sorted indexes whose key is shared with another index.
+    private static int[] sharedRuns(int[] sorted, long[] lengths, long[] hashes) {
+        int[] shared = new int[sorted.length];
+        int count = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            boolean previous = i > 0 && sameKey(sorted[i - 1], sorted[i], lengths, hashes);
+            boolean next = i + 1 < sorted.length
+                    && sameKey(sorted[i], sorted[i + 1], lengths, hashes);
+            if (previous || next) shared[count++] = sorted[i];
+        }
+
+        return Arrays.copyOf(shared, count);
+    }
+
+    // Helper method that orders the groups by the position of their first song.
+    private static void sortGroups(List<long[]> groups, long[] ids) {
+        final Map<Long, Integer> positions = new HashMap<>();
+        for (int i = 0; i < ids.length; i++) {
+            if (!positions.containsKey(ids[i])) positions.put(ids[i], i);
+        }
+        Collections.sort(groups, new Comparator<long[]>() {
+            @Override
+            public int compare(long[] a, long[] b) {
+                return positions.get(a[0]) - positions.get(b[0]);
+            }
+        });
+    }
+
+    private static boolean sameKey(int a, int b, long[] lengths, long[] hashes) {
+        return lengths[a] == lengths[b] && (hashes == null || hashes[a] == hashes[b]);
+    }
+
+    private static int compareLongs(long a, long b) {
+        return a < b ? -1 : a == b ? 0 : 1;
+    }
+
+    private static boolean startsWith(ByteBuffer buffer, int position, byte[] signature) {
+        if (position < 0 || position + signature.length > buffer.limit()) return false;
+
+        for (int i = 0; i < signature.length; i++) {
+            if (buffer.get(position + i) != signature[i]) return false;
+        }
+        return true;
+    }
+}
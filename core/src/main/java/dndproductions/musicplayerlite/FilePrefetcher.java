@@ -0,0 +1,210 @@
+package dndproductions.musicplayerlite;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link PlaybackEngine.Prefetcher} that reads the start and the end of the upcoming songs'
+ * files into the page cache, so that preparing them doesn't wait on slow storage such as SD
+ * cards and USB drives.
+ *
+ * <p>The start holds the header and the first seconds of audio, and the end holds the index of
+ * formats that keep it there (e.g. an MP4 whose moov box was written last). The files are read
+ * with positional reads into a single buffer on the thread of an executor, in the order the
+ * songs play in, until a byte budget is spent. Each new list of upcoming songs cancels the reads
+ * of the previous one between two chunks, and the songs read recently aren't read again.
+ */
+public class FilePrefetcher implements PlaybackEngine.Prefetcher {
+
+    // Bytes read from the start and the end of a file, and the size of a single read.
+    static final int HEAD_BYTES = 512 * 1024;
+    static final int TAIL_BYTES = 64 * 1024;
+    private static final int CHUNK_BYTES = 64 * 1024;
+
+    // Amount of songs that are remembered as read ahead.
+    private static final int READ_AHEAD_SONGS = 64;
+
+    /**
+     * Interface that opens the file of a song for reading.
+     */
+    public interface Opener {
+
+        /**
+         * Opens the file of a song.
+         *
+         * @param songId is the song's ID.
+         * @return the file's channel, which is closed once it's been read.
+         */
+        FileChannel open(long songId) throws IOException;
+    }
+
+    private final Opener mOpener;
+    private final Executor mExecutor;
+    private final long mBudget;
+
+    // Generation of the list of upcoming songs, which cancels the reads of the older ones.
+    private final AtomicInteger mGeneration = new AtomicInteger();
+
+    // Songs read ahead recently, along with the bytes read.
+    private final Map<Long, Long> mReadAhead = Collections.synchronizedMap(
+            new LinkedHashMap<Long, Long>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, Long> eldest) {
+                    return size() > READ_AHEAD_SONGS;
+                }
+            });
+
+    // Buffer the chunks are read into, which is only used on the executor's thread.
+    private final ByteBuffer mBuffer = ByteBuffer.allocateDirect(CHUNK_BYTES);
+
+    // Counters of the songs and bytes read, and of the lists cancelled while being read.
+    private final AtomicLong mSongs = new AtomicLong();
+    private final AtomicLong mBytes = new AtomicLong();
+    private final AtomicLong mCancellations = new AtomicLong();
+    private final AtomicLong mFailures = new AtomicLong();
+
+    /**
+     * Creates a {@link FilePrefetcher} object.
+     *
+     * @param opener is the opener of the songs' files.
+     * @param executor is the executor the files are read on, which should run a single
+     * low-priority thread.
+     * @param budget is the largest amount of bytes read ahead for a list of upcoming songs.
+     */
+    public FilePrefetcher(Opener opener, Executor executor, long budget) {
+        mOpener = opener;
+        mExecutor = executor;
+        mBudget = budget;
+    }
+
+    @Override
+    public void onUpcomingChanged(final long[] songIds) {
+        final int generation = mGeneration.incrementAndGet();
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                readAhead(songIds, generation);
+            }
+        });
+    }
+
+    @Override
+    public boolean isReadAhead(long songId) {
+        return mReadAhead.containsKey(songId);
+    }
+
+    /**
+     * Cancels the reads that are pending or running.
+     */
+    public void cancel() {
+        mGeneration.incrementAndGet();
+    }
+
+    // Getter methods.
+    public long getSongCount() {
+        return mSongs.get();
+    }
+
+    public long getByteCount() {
+        return mBytes.get();
+    }
+
+    public long getCancellationCount() {
+        return mCancellations.get();
+    }
+
+    public long getFailureCount() {
+        return mFailures.get();
+    }
+
+    @Override
+    public String toString() {
+        return "FilePrefetcher{songs=" + mSongs.get() + ", bytes=" + mBytes.get()
+                + ", cancellations=" + mCancellations.get() + ", failures=" + mFailures.get()
+                + "}";
+    }
+
+    // Helper method that reads the files of a list of upcoming songs, within the budget.
+    private void readAhead(long[] songIds, int generation) {
+        long budget = mBudget;
+        for (long songId : songIds) {
+            if (generation != mGeneration.get()) {
+                mCancellations.incrementAndGet();
+                return;
+            }
+
+            // The songs read recently still count against the budget, as they're still cached.
+            Long read = mReadAhead.get(songId);
+            if (read != null) {
+                budget -= read;
+                if (budget <= 0) return;
+                continue;
+            }
+
+            try {
+                long bytes = readFile(songId, budget, generation);
+                if (bytes < 0) {
+                    mCancellations.incrementAndGet();
+                    return;
+                }
+
+                mReadAhead.put(songId, bytes);
+                mSongs.incrementAndGet();
+                budget -= bytes;
+            } catch (IOException | RuntimeException e) {
+                mFailures.incrementAndGet();
+            }
+
+            if (budget <= 0) return;
+        }
+    }
+
+    /**
+     * Reads the start and the end of a song's file.
+     *
+     * @return the amount of bytes read, or -1 if the reads were cancelled.
+     */
+    private long readFile(long songId, long budget, int generation) throws IOException {
+        FileChannel channel = mOpener.open(songId);
+        try {
+            long size = channel.size();
+            long head = Math.min(size, Math.min(HEAD_BYTES, budget));
+            long tail = Math.min(size - head, Math.min(TAIL_BYTES, budget - head));
+
+            long read = readRange(channel, 0, head, generation);
+            if (read < 0 || tail <= 0) return read;
+
+            long tailRead = readRange(channel, size - tail, tail, generation);
+            return tailRead < 0 ? -1 : read + tailRead;
+        } finally {
+            channel.close();
+        }
+    }
+
+    // Helper method that reads a range of a file a chunk at a time, returning -1 if cancelled.
+    private long readRange(FileChannel channel, long start, long length, int generation)
+            throws IOException {
+        long position = start;
+        long end = start + length;
+        while (position < end) {
+            if (generation != mGeneration.get()) return -1;
+
+            mBuffer.clear();
+            mBuffer.limit((int) Math.min(CHUNK_BYTES, end - position));
+            int read = channel.read(mBuffer, position);
+            if (read <= 0) break;
+
+            position += read;
+            mBytes.addAndGet(read);
+        }
+
+        return position - start;
+    }
+}
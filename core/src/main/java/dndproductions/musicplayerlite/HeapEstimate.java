@@ -0,0 +1,74 @@
+package dndproductions.musicplayerlite;
+
+/**
+ * Estimates of the heap that objects retain, for comparing the footprint of data structures
+ * without measuring the heap, which depends on the collector and the machine.
+ *
+ * <p>The layout is that of a 64-bit VM with compressed references: an object has a 12-byte
+ * header and an array a 16-byte one, a reference takes 4 bytes, and every object is aligned to
+ * 8 bytes. Strings are counted with a {@code char[]} of their characters, as Android stores
+ * them.
+ */
+final class HeapEstimate {
+
+    // Sizes of a reference and of the object and array headers, and the object alignment.
+    static final int REFERENCE = 4;
+    private static final int OBJECT_HEADER = 12;
+    private static final int ARRAY_HEADER = 16;
+    private static final int ALIGNMENT = 8;
+
+    // Sizes of a HashMap, of one of its entries and of a boxed Integer, excluding the table.
+    private static final long HASH_MAP = object(4 * REFERENCE + 3 * 4 + 4);
+    private static final long HASH_MAP_ENTRY = object(4 + 3 * REFERENCE);
+    private static final long INTEGER = object(4);
+
+    private HeapEstimate() {
+    }
+
+    /**
+     * Returns the size of an object.
+     *
+     * @param fieldBytes is the total size of its fields.
+     */
+    static long object(int fieldBytes) {
+        return align(OBJECT_HEADER + fieldBytes);
+    }
+
+    /**
+     * Returns the size of an array, or 0 for a null one.
+     *
+     * @param length is the length of the array, or -1 for a null one.
+     * @param elementSize is the size of an element.
+     */
+    static long array(int length, int elementSize) {
+        return length < 0 ? 0 : align(ARRAY_HEADER + (long) length * elementSize);
+    }
+
+    /**
+     * Returns the size of a string along with its characters, or 0 for a null one.
+     */
+    static long string(String value) {
+        return value == null ? 0 : object(REFERENCE + 4) + array(value.length(), 2);
+    }
+
+    /**
+     * Returns the size of a {@code HashMap}, excluding its keys, where the values are
+     * {@code Integer}s that are counted along.
+     *
+     * @param entries is the amount of entries.
+     */
+    static long integerMap(int entries) {
+
+        // The table is a power of two that's kept at most three quarters full.
+        int capacity = 16;
+        while (entries > capacity * 3L / 4) {
+            capacity *= 2;
+        }
+
+        return HASH_MAP + array(capacity, REFERENCE) + entries * (HASH_MAP_ENTRY + INTEGER);
+    }
+
+    private static long align(long bytes) {
+        return (bytes + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+}
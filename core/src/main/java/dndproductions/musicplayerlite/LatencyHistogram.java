@@ -0,0 +1,187 @@
+package dndproductions.musicplayerlite;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies in milliseconds, which can be recorded from any thread without locking
+ * or allocating, so that it can be used on the playback hot paths.
+ *
+ * <p>The buckets are log-linear: values below {@link #SUB_BUCKETS} get a bucket each, and every
+ * power of two above that is split into {@link #SUB_BUCKETS} / 2 equally wide buckets, which keeps
+ * the relative error of a percentile below 12.5% across the whole range.
+ */
+public class LatencyHistogram {
+
+    // Amount of buckets that values below it get each, where it's a power of two.
+    static final int SUB_BUCKETS = 16;
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+
+    // Largest power of two that gets its own buckets, where larger values share the last one.
+    private static final int MAX_EXPONENT = 40;
+
+    // Amount of buckets.
+    static final int BUCKETS =
+            SUB_BUCKETS + (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * HALF_SUB_BUCKETS;
+
+    private final String mName;
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    /**
+     * Creates a {@link LatencyHistogram} object.
+     *
+     * @param name is the name it's dumped with.
+     */
+    public LatencyHistogram(String name) {
+        mName = name;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Records a latency, where negative values count as 0.
+     *
+     * @param value is the latency in milliseconds.
+     */
+    public void record(long value) {
+        if (value < 0) value = 0;
+
+        mCounts.incrementAndGet(bucketOf(value));
+        mSum.addAndGet(value);
+
+        // Raises the maximum unless another thread already raised it further.
+        long max = mMax.get();
+        while (value > max && !mMax.compareAndSet(max, value)) {
+            max = mMax.get();
+        }
+    }
+
+    /**
+     * Returns the amount of recorded values.
+     */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += mCounts.get(i);
+        }
+
+        return count;
+    }
+
+    /**
+     * Returns the mean of the recorded values, or 0 if none.
+     */
+    public double getMean() {
+        long count = getCount();
+        return count == 0 ? 0 : (double) mSum.get() / count;
+    }
+
+    public long getMax() {
+        return mMax.get();
+    }
+
+    /**
+     * Returns the value below which a share of the recorded values falls, as the upper bound of
+     * its bucket, or 0 if nothing was recorded.
+     *
+     * @param percentile is the share, from 0 to 100.
+     */
+    public long getPercentile(double percentile) {
+        long count = getCount();
+        if (count == 0) return 0;
+
+        // Finds the bucket that holds the value of that rank.
+        long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += mCounts.get(i);
+            if (seen >= rank) return Math.min(upperBoundOf(i), mMax.get());
+        }
+
+        return mMax.get();
+    }
+
+    /**
+     * Writes a summary line, followed by the non-empty buckets if requested.
+     *
+     * @param writer is the writer.
+     * @param buckets is whether the buckets are written as well, one "lower upper count" line
+     * each.
+     */
+    public void dump(PrintWriter writer, boolean buckets) {
+        writer.print(mName);
+        writer.print(": count=");
+        writer.print(getCount());
+        writer.print(" mean=");
+        writer.print(Math.round(getMean()));
+        writer.print(" p50=");
+        writer.print(getPercentile(50));
+        writer.print(" p90=");
+        writer.print(getPercentile(90));
+        writer.print(" p99=");
+        writer.print(getPercentile(99));
+        writer.print(" max=");
+        writer.println(getMax());
+
+        if (!buckets) return;
+        for (int i = 0; i < BUCKETS; i++) {
+            long count = mCounts.get(i);
+            if (count == 0) continue;
+
+            writer.print("  ");
+            writer.print(lowerBoundOf(i));
+            writer.print(' ');
+            writer.print(upperBoundOf(i));
+            writer.print(' ');
+            writer.println(count);
+        }
+    }
+
+    /**
+     * Returns the bucket a value falls into.
+     *
+     * @param value is the non-negative value.
+     */
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) return BUCKETS - 1;
+
+        // Keeps the bits right after the leading one, which pick the bucket within the power.
+        int shift = exponent - SUB_BUCKET_BITS + 1;
+        int subBucket = (int) (value >>> shift) - HALF_SUB_BUCKETS;
+
+        return SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * HALF_SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Returns the smallest value of a bucket.
+     *
+     * @param bucket is the bucket.
+     */
+    static long lowerBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+
+        int offset = bucket - SUB_BUCKETS;
+        int exponent = SUB_BUCKET_BITS + offset / HALF_SUB_BUCKETS;
+        long subBucket = HALF_SUB_BUCKETS + offset % HALF_SUB_BUCKETS;
+
+        return subBucket << (exponent - SUB_BUCKET_BITS + 1);
+    }
+
+    /**
+     * Returns the largest value of a bucket.
+     *
+     * @param bucket is the bucket.
+     */
+    static long upperBoundOf(int bucket) {
+        return bucket == BUCKETS - 1 ? Long.MAX_VALUE : lowerBoundOf(bucket + 1) - 1;
+    }
+}
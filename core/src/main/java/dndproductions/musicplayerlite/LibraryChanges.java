@@ -0,0 +1,203 @@
+package dndproductions.musicplayerlite;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Song IDs of the music files that were reported as added, removed or modified, merged into
+ * ranges so that a burst of changes (e.g. a folder of a few thousand songs copied over, whose
+ * IDs are consecutive) is queried with a short selection.
+ *
+ * <p>A range is authoritative for the IDs it covers: the songs that a query of the ranges
+ * returns replace every song of the table within them, and the songs within them that aren't
+ * returned are gone. IDs within a small gap of each other share a range, which only means that
+ * a few unchanged songs are read again. Changes that didn't name a song, or that don't fit in a
+ * bounded amount of ranges, mark the whole library as changed instead.
+ */
+public final class LibraryChanges {
+
+    // Amount of IDs that are buffered before they're merged into the ranges.
+    private static final int BUFFERED_IDS = 256;
+
+    private final int mMaxGap;
+    private final int mMaxRanges;
+
+    // Ranges as (first, last) pairs, and the IDs added since they were last merged.
+    private long[] mRanges = new long[0];
+    private final long[] mIds = new long[BUFFERED_IDS];
+    private int mCount;
+    private boolean mAll;
+
+    /**
+     * Creates a {@link LibraryChanges} object.
+     *
+     * @param maxGap is the largest amount of unchanged IDs between two changed ones that share a
+     * range.
+     * @param maxRanges is the amount of ranges above which the whole library counts as changed.
+     */
+    public LibraryChanges(int maxGap, int maxRanges) {
+        mMaxGap = maxGap;
+        mMaxRanges = maxRanges;
+    }
+
+    /**
+     * Adds a song that was added, removed or modified.
+     *
+     * @param id is the song's ID.
+     */
+    public void add(long id) {
+        if (mAll) return;
+
+        if (mCount == mIds.length) merge();
+        mIds[mCount++] = id;
+    }
+
+    /**
+     * Marks the whole library as changed, e.g. for a change that didn't name a song.
+     */
+    public void addAll() {
+        mAll = true;
+    }
+
+    /**
+     * Returns whether no change was added.
+     */
+    public boolean isEmpty() {
+        return !mAll && mCount == 0 && mRanges.length == 0;
+    }
+
+    /**
+     * Returns whether the whole library counts as changed, in which case there are no ranges.
+     */
+    public boolean isAll() {
+        merge();
+        return mAll;
+    }
+
+    /**
+     * Returns the ranges of changed IDs.
+     *
+     * @return the ranges as (first, last) pairs in ascending order, which are inclusive, or an
+     * empty array if the whole library counts as changed.
+     */
+    public long[] getRanges() {
+        merge();
+        return mAll ? new long[0] : mRanges;
+    }
+
+    /**
+     * Returns whether a song's ID is within one of the ranges.
+     *
+     * @param id is the song's ID.
+     */
+    public boolean covers(long id) {
+        if (mAll) return true;
+
+        long[] ranges = getRanges();
+        int low = 0;
+        int high = ranges.length / 2 - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (ranges[middle * 2 + 1] < id) {
+                low = middle + 1;
+            } else if (ranges[middle * 2] > id) {
+                high = middle - 1;
+            } else {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Builds an SQL selection that matches the IDs within the ranges, e.g.
+     * {@code _id BETWEEN 10 AND 2009 OR _id = 4000}.
+     *
+     * @param column is the name of the ID column.
+     */
+    public String toSelection(String column) {
+        long[] ranges = getRanges();
+
+        StringBuilder selection = new StringBuilder();
+        for (int i = 0; i < ranges.length; i += 2) {
+            if (i > 0) selection.append(" OR ");
+            selection.append(column);
+            if (ranges[i] == ranges[i + 1]) {
+                selection.append(" = ").append(ranges[i]);
+            } else {
+                selection.append(" BETWEEN ").append(ranges[i]).append(" AND ")
+                        .append(ranges[i + 1]);
+            }
+        }
+
+        return selection.toString();
+    }
+
+    /**
+     * Applies the changes to a table, which isn't modified.
+     *
+     * @param table is the table the changes apply to.
+     * @param songs is the current songs within the ranges.
+     * @return a new table with the rows of the table that aren't within the ranges, which keep
+     * their collation keys and their artist and album groups, followed by the songs, or the
+     * table itself if nothing changed.
+     */
+    public SongTable applyTo(SongTable table, List<Song> songs) {
+        int[] rows = new int[table.size()];
+        int count = 0;
+        for (int row = 0; row < table.size(); row++) {
+            if (!covers(table.getId(row))) rows[count++] = row;
+        }
+        if (songs.isEmpty() && count == table.size()) return table;
+
+        SongTable result = new SongTable();
+        result.addRows(table, rows, count);
+        result.addAll(songs);
+        return result;
+    }
+
+    // Helper method that merges the buffered IDs into the ranges, both of which are sorted.
+    private void merge() {
+        if (mAll || mCount == 0) return;
+
+        Arrays.sort(mIds, 0, mCount);
+        long[] ranges = new long[mRanges.length + mCount * 2];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < mRanges.length || j < mCount) {
+            long first;
+            long last;
+            if (j == mCount || (i < mRanges.length && mRanges[i] <= mIds[j])) {
+                first = mRanges[i];
+                last = mRanges[i + 1];
+                i += 2;
+            } else {
+                first = mIds[j];
+                last = mIds[j];
+                j++;
+            }
+
+            if (count > 0 && first - ranges[count - 1] <= mMaxGap + 1) {
+                ranges[count - 1] = Math.max(ranges[count - 1], last);
+            } else {
+                ranges[count++] = first;
+                ranges[count++] = last;
+            }
+        }
+
+        mCount = 0;
+        if (count / 2 > mMaxRanges) {
+            mAll = true;
+            mRanges = new long[0];
+        } else {
+            mRanges = Arrays.copyOf(ranges, count);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return isAll() ? "all" : getRanges().length / 2 + " ranges";
+    }
+}
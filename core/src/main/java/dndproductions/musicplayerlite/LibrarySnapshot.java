@@ -0,0 +1,106 @@
+package dndproductions.musicplayerlite;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Binary on-disk copy of the music library that's written after each scan and read back on the
+ * next launch, so that the song list can be shown before the MediaStore is queried.
+ *
+ * <p>The file consists of a header (magic, version and the highest {@code DATE_MODIFIED} value
+ * seen) followed by the {@link SongTable} columns, including the collation keys and the orders,
+ * so that a library that didn't change doesn't need to be sorted again.
+ */
+public final class LibrarySnapshot {
+
+    // Header constants used to reject files written by another version of the format.
+    private static final int MAGIC = 0x4d504c53;
+    private static final int VERSION = 5;
+    private static final int HEADER_SIZE = 16;
+
+    private final SongTable mTable;
+    private final long mWatermark;
+
+    private LibrarySnapshot(SongTable table, long watermark) {
+        mTable = table;
+        mWatermark = watermark;
+    }
+
+    // Getter methods.
+    public SongTable getTable() {
+        return mTable;
+    }
+
+    public long getWatermark() {
+        return mWatermark;
+    }
+
+    /**
+     * Memory-maps a snapshot file and reads its table.
+     *
+     * @param file is the snapshot file.
+     * @return the snapshot, or null if the file doesn't exist or was written by another version
+     * of the format.
+     * @throws IOException if the file is truncated or corrupt.
+     */
+    public static LibrarySnapshot read(File file) throws IOException {
+        if (!file.isFile()) return null;
+
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+
+            // The mapping stays valid after the channel is closed.
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+
+            if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC
+                    || buffer.getInt() != VERSION) {
+                return null;
+            }
+
+            long watermark = buffer.getLong();
+
+            return new LibrarySnapshot(SongTable.readFrom(buffer), watermark);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException
+                | IllegalArgumentException e) {
+            throw new IOException("Corrupt library snapshot", e);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Writes a snapshot file. The data is written to a temporary file first and then renamed,
+     * so a reader never sees a partially written snapshot.
+     *
+     * @param file is the snapshot file.
+     * @param table is the song table.
+     * @param watermark is the highest {@code DATE_MODIFIED} value among the songs.
+     */
+    public static void write(File file, SongTable table, long watermark) throws IOException {
+        File tempFile = new File(file.getPath() + ".tmp");
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tempFile), 64 * 1024));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(watermark);
+            table.writeTo(out);
+        } finally {
+            out.close();
+        }
+
+        if (!tempFile.renameTo(file)) {
+            throw new IOException("Unable to replace " + file);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package dndproductions.musicplayerlite;
+
+import java.util.Locale;
+
+/**
+ * Immutable loudness of a song, as measured by a {@link LoudnessMeter}.
+ */
+public final class Loudness {
+
+    /**
+     * Loudness that songs are normalized to, in LUFS, which is the ReplayGain 2.0 reference.
+     */
+    public static final float TARGET_LUFS = -18f;
+
+    // Highest true peak in dBTP that a gain may raise a song to.
+    private static final float MAX_PEAK_DBTP = -1f;
+
+    private final float mIntegratedLufs;
+    private final float mTruePeak;
+
+    /**
+     * Creates a {@link Loudness} object.
+     *
+     * @param integratedLufs is the integrated loudness in LUFS.
+     * @param truePeak is the true peak as a linear sample value, where 1 is full scale.
+     */
+    public Loudness(float integratedLufs, float truePeak) {
+        mIntegratedLufs = integratedLufs;
+        mTruePeak = truePeak;
+    }
+
+    // Getter methods.
+    public float getIntegratedLufs() {
+        return mIntegratedLufs;
+    }
+
+    public float getTruePeak() {
+        return mTruePeak;
+    }
+
+    public float getTruePeakDbtp() {
+        return (float) (20 * Math.log10(mTruePeak));
+    }
+
+    /**
+     * Returns the gain in dB that brings the song to a loudness, lowered if needed so that its
+     * true peak stays below -1 dBTP. Silent songs aren't changed.
+     *
+     * @param targetLufs is the loudness to reach in LUFS.
+     */
+    public float getGain(float targetLufs) {
+        if (Float.isInfinite(mIntegratedLufs) || Float.isNaN(mIntegratedLufs)) return 0f;
+
+        float gain = targetLufs - mIntegratedLufs;
+        if (mTruePeak > 0) gain = Math.min(gain, MAX_PEAK_DBTP - getTruePeakDbtp());
+        return gain;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%.1f LUFS, %.1f dBTP", mIntegratedLufs,
+                getTruePeakDbtp());
+    }
+}
@@ -0,0 +1,312 @@
+package dndproductions.musicplayerlite;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Job scheduler that measures the {@link Loudness} of many songs in the background and puts it
+ * into a {@link LoudnessStore}.
+ *
+ * <p>Each song is decoded to PCM a chunk at a time into a buffer that's reused for every song
+ * of a worker, and fed into a {@link LoudnessMeter}. The songs are split into one range per
+ * worker, and a worker that runs out of songs steals from the end of another's range, so that a
+ * few long songs don't leave the other workers idle. The songs already in the store are skipped,
+ * so an analysis that was stopped resumes with the songs that weren't measured, and while a
+ * {@link Throttle} asks for it, e.g. while music plays, a single worker keeps going at a fraction
+ * of the real-time rate.
+ *
+ * <p>If a {@link WaveformCache} is set, the same pass also builds each song's {@link Waveform},
+ * so a song is only decoded once for both.
+ */
+public class LoudnessAnalyzer {
+
+    // Samples decoded at a time, i.e. 4096 stereo frames.
+    private static final int CHUNK_SAMPLES = 8192;
+
+    // While throttled, the working thread sleeps this many times the duration of each chunk,
+    // and the others check again at this interval.
+    private static final int THROTTLE_FACTOR = 3;
+    private static final long THROTTLE_WAIT_MS = 500;
+
+    private final ExecutorService mExecutor;
+    private final int mParallelism;
+    private volatile boolean mStopped;
+    private volatile WaveformCache mWaveformCache;
+
+    /**
+     * Interface for a decoder of a song's audio.
+     */
+    public interface PcmDecoder {
+
+        int getSampleRate();
+
+        int getChannelCount();
+
+        /**
+         * Decodes the next samples.
+         *
+         * @param samples is the buffer filled with interleaved samples, from -1 to 1.
+         * @return the amount of samples decoded, which is a multiple of the channel count, or -1
+         * at the end of the song.
+         */
+        int read(float[] samples) throws IOException;
+
+        void close();
+    }
+
+    /**
+     * Interface that opens decoders for the songs.
+     */
+    public interface DecoderFactory {
+
+        /**
+         * Opens a decoder for a song.
+         *
+         * @param songId is the song's ID.
+         * @return the decoder, or null if the song can't be decoded.
+         */
+        PcmDecoder open(long songId) throws IOException;
+    }
+
+    /**
+     * Interface that's polled for whether the analysis should slow down.
+     */
+    public interface Throttle {
+        boolean shouldThrottle();
+    }
+
+    /**
+     * Results of an analysis.
+     */
+    public static final class Result {
+        int mSongs;
+        int mMeasured;
+        int mFailures;
+        int mSteals;
+        long mFrames;
+        long mNanos;
+
+        // Getter methods.
+        public int getSongs() {
+            return mSongs;
+        }
+
+        public int getMeasured() {
+            return mMeasured;
+        }
+
+        public int getFailures() {
+            return mFailures;
+        }
+
+        public int getSteals() {
+            return mSteals;
+        }
+
+        public long getFrames() {
+            return mFrames;
+        }
+
+        public long getNanos() {
+            return mNanos;
+        }
+
+        // Helper method that adds the results of another worker.
+        void add(Result other) {
+            mSongs += other.mSongs;
+            mMeasured += other.mMeasured;
+            mFailures += other.mFailures;
+            mSteals += other.mSteals;
+            mFrames += other.mFrames;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d songs (%d measured, %d failed, %d stolen), %d"
+                            + " frames in %d ms", mSongs, mMeasured, mFailures, mSteals,
+                    mFrames, mNanos / 1000000);
+        }
+    }
+
+    /**
+     * Range of song indices owned by a worker, taken from the start by the owner and from the
+     * end by thieves.
+     */
+    private static final class WorkRange {
+        private int mStart;
+        private int mEnd;
+
+        WorkRange(int start, int end) {
+            mStart = start;
+            mEnd = end;
+        }
+
+        synchronized int takeFirst() {
+            return mStart < mEnd ? mStart++ : -1;
+        }
+
+        synchronized int takeLast() {
+            return mStart < mEnd ? --mEnd : -1;
+        }
+    }
+
+    /**
+     * Creates a {@link LoudnessAnalyzer} object.
+     *
+     * @param executor is the executor the workers run on.
+     * @param parallelism is the amount of workers.
+     */
+    public LoudnessAnalyzer(ExecutorService executor, int parallelism) {
+        mExecutor = executor;
+        mParallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Sets the cache the songs' waveforms are written to, which makes the songs without one
+     * be analyzed again.
+     *
+     * @param waveformCache is the cache, or null for not building waveforms.
+     */
+    public void setWaveformCache(WaveformCache waveformCache) {
+        mWaveformCache = waveformCache;
+    }
+
+    /**
+     * Measures the songs that aren't in a store yet, and puts them into it. Returns once all
+     * were measured or the analysis was stopped.
+     *
+     * @param ids is the songs' IDs.
+     * @param factory is the factory that opens the songs' decoders.
+     * @param store is the store the loudness is put into.
+     * @param throttle is the throttle that's polled between chunks.
+     */
+    public Result analyze(long[] ids, final DecoderFactory factory, final LoudnessStore store,
+                          final Throttle throttle) throws InterruptedException {
+        mStopped = false;
+
+        // Keeps the songs left to measure.
+        final WaveformCache waveformCache = mWaveformCache;
+        final long[] pending = new long[ids.length];
+        int count = 0;
+        for (long id : ids) {
+            if (!store.contains(id) || (waveformCache != null && !waveformCache.contains(id))) {
+                pending[count++] = id;
+            }
+        }
+
+        final int workerCount = Math.max(1, Math.min(mParallelism, count));
+        final WorkRange[] ranges = new WorkRange[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            ranges[i] = new WorkRange((int) ((long) count * i / workerCount),
+                    (int) ((long) count * (i + 1) / workerCount));
+        }
+
+        List<Callable<Result>> workers = new ArrayList<>(workerCount);
+        for (int i = 0; i < workerCount; i++) {
+            final int worker = i;
+            workers.add(new Callable<Result>() {
+                @Override
+                public Result call() throws Exception {
+                    Result result = new Result();
+                    float[] samples = new float[CHUNK_SAMPLES];
+                    for (int index = ranges[worker].takeFirst(); index >= 0 && !mStopped;
+                            index = ranges[worker].takeFirst()) {
+                        measure(pending[index], factory, store, waveformCache, throttle, worker,
+                                samples, result);
+                    }
+
+                    // Steals from the others, starting with the next worker.
+                    for (int other = 1; other < workerCount && !mStopped; other++) {
+                        WorkRange range = ranges[(worker + other) % workerCount];
+                        for (int index = range.takeLast(); index >= 0 && !mStopped;
+                                index = range.takeLast()) {
+                            result.mSteals++;
+                            measure(pending[index], factory, store, waveformCache, throttle,
+                                    worker, samples, result);
+                        }
+                    }
+
+                    return result;
+                }
+            });
+        }
+
+        long start = System.nanoTime();
+        Result result = new Result();
+        try {
+            for (Future<Result> future : mExecutor.invokeAll(workers)) {
+                result.add(future.get());
+            }
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+        result.mNanos = System.nanoTime() - start;
+
+        return result;
+    }
+
+    /**
+     * Stops the analysis in progress. The song each worker is measuring is dropped, and measured
+     * again by the next analysis.
+     */
+    public void stop() {
+        mStopped = true;
+    }
+
+    // Helper method that measures a song, counting it in a worker's results.
+    private void measure(long songId, DecoderFactory factory, LoudnessStore store,
+                         WaveformCache waveformCache, Throttle throttle, int worker,
+                         float[] samples, Result result)
+            throws InterruptedException {
+        result.mSongs++;
+        PcmDecoder decoder = null;
+        try {
+            decoder = factory.open(songId);
+            if (decoder == null) {
+                result.mFailures++;
+                return;
+            }
+
+            int channels = decoder.getChannelCount();
+            int sampleRate = decoder.getSampleRate();
+            LoudnessMeter meter = new LoudnessMeter(sampleRate, channels);
+            WaveformBuilder waveform = waveformCache != null
+                    ? new WaveformBuilder(sampleRate, channels) : null;
+            int read;
+            while ((read = decoder.read(samples)) >= 0) {
+                if (mStopped) return;
+
+                int frames = read / channels;
+                meter.process(samples, frames);
+                if (waveform != null) waveform.process(samples, frames);
+                result.mFrames += frames;
+
+                // Only the first worker keeps going while throttled, at a fraction of real time.
+                if (throttle != null && throttle.shouldThrottle()) {
+                    if (worker == 0) {
+                        Thread.sleep(THROTTLE_FACTOR * 1000L * frames / sampleRate);
+                    } else {
+                        while (throttle.shouldThrottle() && !mStopped) {
+                            Thread.sleep(THROTTLE_WAIT_MS);
+                        }
+                    }
+                }
+            }
+
+            store.put(songId, new Loudness((float) meter.getIntegratedLoudness(),
+                    meter.getTruePeak()));
+            if (waveform != null) waveformCache.put(songId, waveform.build());
+            result.mMeasured++;
+        } catch (IOException | RuntimeException e) {
+            result.mFailures++;
+        } finally {
+            if (decoder != null) decoder.close();
+        }
+    }
+}
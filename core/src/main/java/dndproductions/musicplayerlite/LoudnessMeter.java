@@ -0,0 +1,235 @@
+package dndproductions.musicplayerlite;
+
+import java.util.Arrays;
+
+/**
+ * Measures the integrated loudness (ITU-R BS.1770-4 / EBU R128) and the true peak of a song,
+ * fed with its decoded PCM a chunk at a time.
+ *
+ * <p>Each channel goes through the K-weighting filter, and the mean square of 400 ms blocks
+ * overlapping by 75% is gated at -70 LUFS and then at 10 LU below the loudness of the blocks
+ * that passed. Instead of keeping every block, the blocks are collected into a histogram of
+ * 0.1 LU bins that also sums their energies, so memory doesn't grow with the song's length and
+ * only the relative gate is rounded to a bin. The true peak is found on a 4x oversampled signal
+ * via the interpolation filter of BS.1770-4 Annex 2.
+ *
+ * <p>All state is allocated up front, so {@link #process(float[], int)} doesn't allocate. The
+ * filters keep their state in doubles, since the low-frequency high-pass isn't stable enough in
+ * single precision.
+ */
+public final class LoudnessMeter {
+
+    // Gates and the offset of the loudness formula, in LUFS.
+    private static final double ABSOLUTE_GATE = -70;
+    private static final double RELATIVE_GATE = -10;
+    private static final double OFFSET = -0.691;
+
+    // Histogram of the block loudness from the absolute gate up, in bins of 0.1 LU.
+    private static final double MAX_LOUDNESS = 10;
+    private static final int BINS_PER_LU = 10;
+    private static final int BIN_COUNT = (int) ((MAX_LOUDNESS - ABSOLUTE_GATE) * BINS_PER_LU);
+
+    // Blocks are made of 4 sub-blocks of 100 ms, which is the hop between them.
+    private static final int SUB_BLOCKS = 4;
+
+    // Weight of the surround channels of 5.1 audio, whose LFE channel doesn't count.
+    private static final float SURROUND_WEIGHT = 1.41f;
+
+    // True peak interpolation filter, as 4 phases of 12 taps.
+    private static final int TAPS = 12;
+    private static final float[][] PHASES = {
+            {0.0017089843750f, 0.0109863281250f, -0.0196533203125f, 0.0332031250000f,
+                    -0.0594482421875f, 0.1373291015625f, 0.9721679687500f, -0.1022949218750f,
+                    0.0476074218750f, -0.0266113281250f, 0.0148925781250f, -0.0083007812500f},
+            {-0.0291748046875f, 0.0292968750000f, -0.0517578125000f, 0.0891113281250f,
+                    -0.1665039062500f, 0.4650878906250f, 0.7797851562500f, -0.2003173828125f,
+                    0.1015625000000f, -0.0582275390625f, 0.0330810546875f, -0.0189208984375f},
+            {-0.0189208984375f, 0.0330810546875f, -0.0582275390625f, 0.1015625000000f,
+                    -0.2003173828125f, 0.7797851562500f, 0.4650878906250f, -0.1665039062500f,
+                    0.0891113281250f, -0.0517578125000f, 0.0292968750000f, -0.0291748046875f},
+            {-0.0083007812500f, 0.0148925781250f, -0.0266113281250f, 0.0476074218750f,
+                    -0.1022949218750f, 0.9721679687500f, 0.1373291015625f, -0.0594482421875f,
+                    0.0332031250000f, -0.0196533203125f, 0.0109863281250f, 0.0017089843750f}
+    };
+
+    private final int mChannels;
+    private final float[] mWeights;
+
+    // Coefficients of the two K-weighting stages (a high shelf and a high-pass), and the two
+    // state variables of each stage per channel.
+    private final double mB0, mB1, mB2, mA1, mA2;
+    private final double mHb0, mHb1, mHb2, mHa1, mHa2;
+    private final double[] mState;
+
+    // Fields used for the sub-blocks: their frames, the weighted energy of the current one and
+    // the energies of the last few.
+    private final int mSubBlockFrames;
+    private int mSubBlockPosition;
+    private double mSubBlockEnergy;
+    private final double[] mSubBlockEnergies = new double[SUB_BLOCKS];
+    private long mSubBlockCount;
+
+    // Histogram of the blocks that passed the absolute gate.
+    private final long[] mBinCounts = new long[BIN_COUNT];
+    private final double[] mBinEnergies = new double[BIN_COUNT];
+
+    // History of each channel for the interpolation filter, written twice so that the last
+    // taps are always contiguous, and the highest absolute value seen.
+    private final float[] mHistory;
+    private int mHistoryPosition;
+    private float mPeak;
+
+    /**
+     * Creates a {@link LoudnessMeter} object.
+     *
+     * @param sampleRate is the sample rate in Hz.
+     * @param channels is the amount of interleaved channels.
+     */
+    public LoudnessMeter(int sampleRate, int channels) {
+        mChannels = channels;
+        mWeights = new float[channels];
+        Arrays.fill(mWeights, 1f);
+        if (channels == 6) {
+            mWeights[3] = 0f;
+            mWeights[4] = SURROUND_WEIGHT;
+            mWeights[5] = SURROUND_WEIGHT;
+        }
+
+        // Stage 1: high shelf modelling the head, for any sample rate.
+        double k = Math.tan(Math.PI * 1681.974450955533 / sampleRate);
+        double q = 0.7071752369554196;
+        double vh = Math.pow(10, 3.999843853973347 / 20);
+        double vb = Math.pow(vh, 0.4996667741545416);
+        double a0 = 1 + k / q + k * k;
+        mB0 = (vh + vb * k / q + k * k) / a0;
+        mB1 = 2 * (k * k - vh) / a0;
+        mB2 = (vh - vb * k / q + k * k) / a0;
+        mA1 = 2 * (k * k - 1) / a0;
+        mA2 = (1 - k / q + k * k) / a0;
+
+        // Stage 2: RLB high-pass.
+        k = Math.tan(Math.PI * 38.13547087602444 / sampleRate);
+        q = 0.5003270373238773;
+        a0 = 1 + k / q + k * k;
+        mHb0 = 1;
+        mHb1 = -2;
+        mHb2 = 1;
+        mHa1 = 2 * (k * k - 1) / a0;
+        mHa2 = (1 - k / q + k * k) / a0;
+
+        mState = new double[channels * 4];
+        mSubBlockFrames = Math.max(1, Math.round(sampleRate / 10f));
+        mHistory = new float[channels * TAPS * 2];
+    }
+
+    /**
+     * Measures a chunk of samples.
+     *
+     * @param samples is the interleaved samples, from -1 to 1.
+     * @param frames is the amount of frames, i.e. samples per channel, in the chunk.
+     */
+    public void process(float[] samples, int frames) {
+        int channels = mChannels;
+        double[] state = mState;
+        float[] history = mHistory;
+        float peak = mPeak;
+
+        for (int frame = 0; frame < frames; frame++) {
+            int offset = frame * channels;
+            double energy = 0;
+            for (int c = 0; c < channels; c++) {
+                float sample = samples[offset + c];
+
+                // K-weighting, as two biquads in transposed direct form II.
+                int s = c * 4;
+                double y = mB0 * sample + state[s];
+                state[s] = mB1 * sample - mA1 * y + state[s + 1];
+                state[s + 1] = mB2 * sample - mA2 * y;
+                double z = mHb0 * y + state[s + 2];
+                state[s + 2] = mHb1 * y - mHa1 * z + state[s + 3];
+                state[s + 3] = mHb2 * y - mHa2 * z;
+                energy += mWeights[c] * z * z;
+
+                // Oversamples the last taps of the channel, and keeps the highest value.
+                int h = c * TAPS * 2 + mHistoryPosition;
+                history[h] = sample;
+                history[h + TAPS] = sample;
+                for (float[] phase : PHASES) {
+                    float value = 0;
+                    for (int t = 0; t < TAPS; t++) {
+                        value += phase[t] * history[h + 1 + t];
+                    }
+                    if (value > peak) {
+                        peak = value;
+                    } else if (-value > peak) {
+                        peak = -value;
+                    }
+                }
+            }
+            mHistoryPosition = mHistoryPosition == TAPS - 1 ? 0 : mHistoryPosition + 1;
+
+            mSubBlockEnergy += energy;
+            if (++mSubBlockPosition == mSubBlockFrames) endSubBlock();
+        }
+
+        mPeak = peak;
+    }
+
+    /**
+     * Returns the integrated loudness in LUFS, or negative infinity if the song is silent.
+     */
+    public double getIntegratedLoudness() {
+        long count = 0;
+        double energy = 0;
+        for (int i = 0; i < BIN_COUNT; i++) {
+            count += mBinCounts[i];
+            energy += mBinEnergies[i];
+        }
+        if (count == 0) return Double.NEGATIVE_INFINITY;
+
+        // Drops the bins below the relative gate, which is rounded to the nearest bin.
+        double gate = toLoudness(energy / count) + RELATIVE_GATE;
+        int first = Math.max(0, (int) Math.round((gate - ABSOLUTE_GATE) * BINS_PER_LU));
+        count = 0;
+        energy = 0;
+        for (int i = first; i < BIN_COUNT; i++) {
+            count += mBinCounts[i];
+            energy += mBinEnergies[i];
+        }
+
+        return count > 0 ? toLoudness(energy / count) : Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * Returns the true peak as a linear sample value, where 1 is full scale.
+     */
+    public float getTruePeak() {
+        return mPeak;
+    }
+
+    // Helper method that closes a sub-block, and gates the block it completes.
+    private void endSubBlock() {
+        mSubBlockEnergies[(int) (mSubBlockCount % SUB_BLOCKS)] = mSubBlockEnergy;
+        mSubBlockCount++;
+        mSubBlockEnergy = 0;
+        mSubBlockPosition = 0;
+        if (mSubBlockCount < SUB_BLOCKS) return;
+
+        double blockEnergy = 0;
+        for (double subBlockEnergy : mSubBlockEnergies) {
+            blockEnergy += subBlockEnergy;
+        }
+        blockEnergy /= SUB_BLOCKS * mSubBlockFrames;
+
+        double loudness = toLoudness(blockEnergy);
+        if (loudness < ABSOLUTE_GATE) return;
+
+        int bin = Math.min(BIN_COUNT - 1, (int) ((loudness - ABSOLUTE_GATE) * BINS_PER_LU));
+        mBinCounts[bin]++;
+        mBinEnergies[bin] += blockEnergy;
+    }
+
+    private static double toLoudness(double energy) {
+        return OFFSET + 10 * Math.log10(energy);
+    }
+}
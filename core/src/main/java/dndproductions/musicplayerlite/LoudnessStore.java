@@ -0,0 +1,107 @@
+package dndproductions.musicplayerlite;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persistent store of the {@link Loudness} of the songs, by song ID, which lets the analysis
+ * resume where it stopped and the playback apply each song's gain without measuring it again.
+ *
+ * <p>The file is an {@link AppendLog} of fixed-size records that are appended as songs are
+ * measured, where later records of a song replace the earlier ones.
+ */
+public final class LoudnessStore {
+
+    // Header constants used to reject files written by another version of the format.
+    private static final int MAGIC = 0x4d504c4c;
+    private static final int VERSION = 1;
+
+    // Size of a record: the song ID, the integrated loudness and the true peak.
+    private static final int RECORD_SIZE = 16;
+
+    private final Map<Long, Loudness> mLoudness = new ConcurrentHashMap<>();
+    private final AppendLog mLog;
+
+    private LoudnessStore(AppendLog log) {
+        mLog = log;
+    }
+
+    /**
+     * Opens a store file, creating it if it doesn't exist or was written by another version of
+     * the format, and reads the records it holds.
+     *
+     * @param file is the store file.
+     */
+    public static LoudnessStore open(File file) throws IOException {
+        LoudnessStore store = new LoudnessStore(new AppendLog(file, MAGIC, VERSION));
+        store.mLog.truncate(store.read());
+        store.mLog.append();
+
+        return store;
+    }
+
+    /**
+     * Stores the loudness of a song and appends it to the file.
+     *
+     * @param songId is the song's ID.
+     * @param loudness is the song's loudness.
+     */
+    public synchronized void put(long songId, Loudness loudness) throws IOException {
+        DataOutputStream out = mLog.append();
+        out.writeLong(songId);
+        out.writeFloat(loudness.getIntegratedLufs());
+        out.writeFloat(loudness.getTruePeak());
+        out.flush();
+        mLoudness.put(songId, loudness);
+    }
+
+    /**
+     * Returns the loudness of a song, or null if it wasn't measured.
+     *
+     * @param songId is the song's ID.
+     */
+    public Loudness get(long songId) {
+        return mLoudness.get(songId);
+    }
+
+    public boolean contains(long songId) {
+        return mLoudness.containsKey(songId);
+    }
+
+    public int size() {
+        return mLoudness.size();
+    }
+
+    public synchronized void close() throws IOException {
+        mLog.close();
+    }
+
+    // Helper method that reads the records of the file, returning the length of its whole
+    // records, or 0 if it's missing or of another format.
+    private long read() throws IOException {
+        DataInputStream in = mLog.openForReading();
+        if (in == null) return 0;
+
+        long count = (mLog.length() - AppendLog.HEADER_SIZE) / RECORD_SIZE;
+        try {
+            for (long i = 0; i < count; i++) {
+                long songId = in.readLong();
+                float lufs = in.readFloat();
+                float peak = in.readFloat();
+                mLoudness.put(songId, new Loudness(lufs, peak));
+            }
+        } catch (EOFException e) {
+            mLoudness.clear();
+            return 0;
+        } finally {
+            in.close();
+        }
+
+        return AppendLog.HEADER_SIZE + count * RECORD_SIZE;
+    }
+}
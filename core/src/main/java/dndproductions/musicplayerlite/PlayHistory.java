@@ -0,0 +1,593 @@
+package dndproductions.musicplayerlite;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Persistent history of the songs played: when each one started, completed, was skipped and
+ * where it was paused, along with a per-song tally of those events.
+ *
+ * <p>The tally is held in primitive arrays, indexed through an open-addressing hash table of the
+ * song IDs, so a song's counters are found in constant time. The songs are also kept ranked by
+ * play count, where a play only swaps the song with the first one of its old count, and linked
+ * in the order they were last started, so the most played and the most recently played songs
+ * are listed without sorting.
+ *
+ * <p>Events are applied to the tally right away, and then written on the thread of a
+ * {@link CommandExecutor.Dispatcher} after {@link #WRITE_DELAY_MS}, so the playback thread never
+ * waits on the disk. The file is an {@link AppendLog} that holds the tally as of the last
+ * compaction, followed by fixed-size event records. Once {@link #MAX_EVENTS} were appended, the
+ * file is replaced by the current tally.
+ */
+public class PlayHistory implements SmartPlaylist.PlayCounts {
+
+    // Header constants used to reject files written by another version of the format.
+    private static final int MAGIC = 0x4d504848;
+    private static final int VERSION = 1;
+
+    // Sizes of a tally record (the song ID, the counts, the position and the time last started)
+    // and of an event record (the type, the song ID, the time and the position).
+    private static final int TALLY_RECORD_SIZE = 32;
+    private static final int EVENT_RECORD_SIZE = 24;
+
+    // Event types.
+    private static final int EVENT_START = 1;
+    private static final int EVENT_COMPLETION = 2;
+    private static final int EVENT_SKIP = 3;
+    private static final int EVENT_POSITION = 4;
+
+    // Amount of event records after which the file is compacted.
+    static final int MAX_EVENTS = 4096;
+
+    // Delay between an event and its write, within which further events are written along.
+    static final long WRITE_DELAY_MS = 1000;
+
+    // Initial capacities of the song columns and of the hash table, whose size is a power of two.
+    private static final int INITIAL_SONGS = 64;
+    private static final int INITIAL_SLOTS = 128;
+
+    // Index of no song, in the recency links.
+    private static final int NONE = -1;
+
+    private final AppendLog mLog;
+    private final CommandExecutor.Dispatcher mDispatcher;
+
+    // Song columns, guarded by this object.
+    private long[] mSongIds = new long[INITIAL_SONGS];
+    private int[] mStarts = new int[INITIAL_SONGS];
+    private int[] mPlays = new int[INITIAL_SONGS];
+    private int[] mSkips = new int[INITIAL_SONGS];
+    private int[] mPositions = new int[INITIAL_SONGS];
+    private long[] mLastStarted = new long[INITIAL_SONGS];
+    private int mSongCount;
+
+    // Hash table from a song ID to its index plus one, where zero marks an empty slot.
+    private long[] mSlotIds = new long[INITIAL_SLOTS];
+    private int[] mSlotIndexes = new int[INITIAL_SLOTS];
+
+    // Songs ranked by play count, the rank of each song, and the first rank and the amount of
+    // songs of each play count.
+    private int[] mRanked = new int[INITIAL_SONGS];
+    private int[] mRanks = new int[INITIAL_SONGS];
+    private int[] mFirstRanks = new int[16];
+    private int[] mCountSizes = new int[16];
+
+    // Songs started at least once, linked from the most recently started one.
+    private int[] mNewer = new int[INITIAL_SONGS];
+    private int[] mOlder = new int[INITIAL_SONGS];
+    private int mNewest = NONE;
+    private int mOldest = NONE;
+
+    // Events not written yet, guarded by this object.
+    private byte[] mPending = new byte[EVENT_RECORD_SIZE * 16];
+    private int mPendingSize;
+    private boolean mWriteScheduled;
+
+    // Fields used on the dispatcher's thread: the amount of events in the file, and whether the
+    // file must be written in full first.
+    private int mEventCount;
+    private boolean mRewrite;
+
+    // Task that writes the pending events on the dispatcher's thread.
+    private final Runnable mWriteTask;
+
+    private PlayHistory(File file, CommandExecutor.Dispatcher dispatcher) {
+        mLog = new AppendLog(file, MAGIC, VERSION);
+        mDispatcher = dispatcher;
+        mWriteTask = mLog.newTask(new AppendLog.Write() {
+            @Override
+            public void run() throws IOException {
+                write();
+            }
+        });
+    }
+
+    /**
+     * Opens a history file and reads the tally and the events it holds. This reads from the
+     * disk, so it's meant to be called on the dispatcher's thread.
+     *
+     * @param file is the history file.
+     * @param dispatcher is the dispatcher whose thread the events are written on.
+     */
+    public static PlayHistory open(File file, CommandExecutor.Dispatcher dispatcher)
+            throws IOException {
+        PlayHistory history = new PlayHistory(file, dispatcher);
+        long valid = history.read();
+        if (valid < 0) {
+
+            // Starts over, writing the file in full with the first events.
+            history = new PlayHistory(file, dispatcher);
+            history.mRewrite = true;
+            return history;
+        }
+
+        history.mLog.truncate(valid);
+        return history;
+    }
+
+    /**
+     * Records that a song started playing.
+     *
+     * @param songId is the song's ID.
+     * @param time is the time in milliseconds since the epoch.
+     */
+    public void recordStart(long songId, long time) {
+        record(EVENT_START, songId, time, 0);
+    }
+
+    /**
+     * Records that a song played until its end.
+     *
+     * @param songId is the song's ID.
+     * @param time is the time in milliseconds since the epoch.
+     */
+    public void recordCompletion(long songId, long time) {
+        record(EVENT_COMPLETION, songId, time, 0);
+    }
+
+    /**
+     * Records that a song was left before its end.
+     *
+     * @param songId is the song's ID.
+     * @param position is the position it was left at in milliseconds.
+     * @param time is the time in milliseconds since the epoch.
+     */
+    public void recordSkip(long songId, int position, long time) {
+        record(EVENT_SKIP, songId, time, position);
+    }
+
+    /**
+     * Records the position of a song, e.g. once it was paused.
+     *
+     * @param songId is the song's ID.
+     * @param position is the position in milliseconds.
+     * @param time is the time in milliseconds since the epoch.
+     */
+    public void recordPosition(long songId, int position, long time) {
+        record(EVENT_POSITION, songId, time, position);
+    }
+
+    /**
+     * Returns how many times a song played until its end.
+     *
+     * @param songId is the song's ID.
+     */
+    @Override
+    public synchronized int getPlayCount(long songId) {
+        int index = indexOf(songId);
+        return index != NONE ? mPlays[index] : 0;
+    }
+
+    public synchronized int getStartCount(long songId) {
+        int index = indexOf(songId);
+        return index != NONE ? mStarts[index] : 0;
+    }
+
+    public synchronized int getSkipCount(long songId) {
+        int index = indexOf(songId);
+        return index != NONE ? mSkips[index] : 0;
+    }
+
+    /**
+     * Returns the last position recorded for a song, which is 0 once it completed.
+     *
+     * @param songId is the song's ID.
+     */
+    public synchronized int getPosition(long songId) {
+        int index = indexOf(songId);
+        return index != NONE ? mPositions[index] : 0;
+    }
+
+    /**
+     * Returns when a song last started playing, in milliseconds since the epoch, or 0 if never.
+     *
+     * @param songId is the song's ID.
+     */
+    public synchronized long getLastStarted(long songId) {
+        int index = indexOf(songId);
+        return index != NONE ? mLastStarted[index] : 0;
+    }
+
+    /**
+     * Returns the most played songs, most played first, leaving out the songs never played until
+     * their end.
+     *
+     * @param count is the largest amount of songs returned.
+     */
+    public synchronized long[] getMostPlayed(int count) {
+        long[] songIds = new long[Math.min(count, mSongCount - mCountSizes[0])];
+        for (int rank = 0; rank < songIds.length; rank++) {
+            songIds[rank] = mSongIds[mRanked[rank]];
+        }
+
+        return songIds;
+    }
+
+    /**
+     * Returns the songs started most recently, the last one first.
+     *
+     * @param count is the largest amount of songs returned.
+     */
+    public synchronized long[] getRecentlyPlayed(int count) {
+        long[] songIds = new long[Math.min(count, mSongCount)];
+        int size = 0;
+        for (int index = mNewest; index != NONE && size < songIds.length;
+                index = mOlder[index]) {
+            songIds[size++] = mSongIds[index];
+        }
+
+        return size == songIds.length ? songIds : Arrays.copyOf(songIds, size);
+    }
+
+    /**
+     * Returns the amount of songs in the history.
+     */
+    public synchronized int size() {
+        return mSongCount;
+    }
+
+    /**
+     * Writes the pending events right away, e.g. before the process exits. Must be called on the
+     * dispatcher's thread.
+     */
+    public void flush() throws IOException {
+        write();
+    }
+
+    /**
+     * Writes the pending events, and then closes the file. Must be called on the dispatcher's
+     * thread.
+     */
+    public void close() throws IOException {
+        try {
+            write();
+        } finally {
+            mLog.close();
+        }
+    }
+
+    /**
+     * Returns the amount of writes that failed in the background.
+     */
+    public long getFailureCount() {
+        return mLog.getFailureCount();
+    }
+
+    // Helper method that applies an event, and then queues it for the write.
+    private synchronized void record(int type, long songId, long time, int position) {
+        apply(type, songId, time, position);
+
+        if (mPendingSize == mPending.length) mPending = Arrays.copyOf(mPending, mPendingSize * 2);
+        ByteBuffer.wrap(mPending, mPendingSize, EVENT_RECORD_SIZE)
+                .putInt(type)
+                .putLong(songId)
+                .putLong(time)
+                .putInt(position);
+        mPendingSize += EVENT_RECORD_SIZE;
+
+        if (!mWriteScheduled) {
+            mWriteScheduled = true;
+            mDispatcher.dispatchDelayed(mWriteTask, WRITE_DELAY_MS);
+        }
+    }
+
+    // Helper method that applies an event to the tally.
+    private void apply(int type, long songId, long time, int position) {
+        int index = indexOf(songId);
+        if (index == NONE) index = addSong(songId);
+
+        switch (type) {
+            case EVENT_START:
+                mStarts[index]++;
+                mLastStarted[index] = time;
+                mPositions[index] = 0;
+                moveToNewest(index);
+                break;
+            case EVENT_COMPLETION:
+                promote(index);
+                mPositions[index] = 0;
+                break;
+            case EVENT_SKIP:
+                mSkips[index]++;
+                mPositions[index] = position;
+                break;
+            case EVENT_POSITION:
+                mPositions[index] = position;
+                break;
+        }
+    }
+
+    // Helper method that writes the pending events on the dispatcher's thread, compacting the
+    // file instead once it holds enough of them.
+    private void write() throws IOException {
+        byte[] events;
+        Tally tally = null;
+        synchronized (this) {
+            events = Arrays.copyOf(mPending, mPendingSize);
+            mPendingSize = 0;
+            mWriteScheduled = false;
+
+            // The tally already holds the pending events, which are then dropped.
+            int eventCount = events.length / EVENT_RECORD_SIZE;
+            if (mRewrite || mEventCount + eventCount > MAX_EVENTS) tally = new Tally();
+        }
+
+        if (tally != null) {
+            rewrite(tally);
+        } else if (events.length > 0) {
+            DataOutputStream out = mLog.append();
+            out.write(events);
+            out.flush();
+            mEventCount += events.length / EVENT_RECORD_SIZE;
+        }
+    }
+
+    // Helper method that replaces the file with a tally.
+    private void rewrite(final Tally tally) throws IOException {
+        mLog.replace(new AppendLog.Content() {
+            @Override
+            public void writeTo(DataOutputStream out) throws IOException {
+                out.writeInt(tally.mSongIds.length);
+                for (int i = 0; i < tally.mSongIds.length; i++) {
+                    out.writeLong(tally.mSongIds[i]);
+                    out.writeInt(tally.mStarts[i]);
+                    out.writeInt(tally.mPlays[i]);
+                    out.writeInt(tally.mSkips[i]);
+                    out.writeInt(tally.mPositions[i]);
+                    out.writeLong(tally.mLastStarted[i]);
+                }
+            }
+        });
+
+        mEventCount = 0;
+        mRewrite = false;
+    }
+
+    /**
+     * Copy of the tally that's written by a compaction, with the songs never started first and
+     * then the others from the least recently started one, so that reading them back in that
+     * order restores the recency links.
+     */
+    private final class Tally {
+        final long[] mSongIds = new long[mSongCount];
+        final int[] mStarts = new int[mSongCount];
+        final int[] mPlays = new int[mSongCount];
+        final int[] mSkips = new int[mSongCount];
+        final int[] mPositions = new int[mSongCount];
+        final long[] mLastStarted = new long[mSongCount];
+
+        // Must be created while holding the history's lock.
+        Tally() {
+            int size = 0;
+            for (int index = 0; index < mSongCount; index++) {
+                if (!isLinked(index)) size = copy(index, size);
+            }
+            for (int index = mOldest; index != NONE; index = mNewer[index]) {
+                size = copy(index, size);
+            }
+        }
+
+        private int copy(int index, int to) {
+            PlayHistory history = PlayHistory.this;
+            mSongIds[to] = history.mSongIds[index];
+            mStarts[to] = history.mStarts[index];
+            mPlays[to] = history.mPlays[index];
+            mSkips[to] = history.mSkips[index];
+            mPositions[to] = history.mPositions[index];
+            mLastStarted[to] = history.mLastStarted[index];
+            return to + 1;
+        }
+    }
+
+    // Helper method that reads the tally and replays the events of the file, returning the
+    // length of its valid part, or -1 if it's missing or corrupt.
+    private long read() throws IOException {
+        long length = mLog.length();
+        DataInputStream in = mLog.openForReading();
+        if (in == null) return -1;
+
+        try {
+            int songCount = in.readInt();
+            long tallyEnd = AppendLog.HEADER_SIZE + 4 + (long) songCount * TALLY_RECORD_SIZE;
+            if (songCount < 0 || tallyEnd > length) return -1;
+
+            for (int i = 0; i < songCount; i++) {
+                int index = addSong(in.readLong());
+                mStarts[index] = in.readInt();
+                mPlays[index] = in.readInt();
+                mSkips[index] = in.readInt();
+                mPositions[index] = in.readInt();
+                mLastStarted[index] = in.readLong();
+                if (mStarts[index] > 0) moveToNewest(index);
+            }
+            rank();
+
+            mEventCount = (int) ((length - tallyEnd) / EVENT_RECORD_SIZE);
+            for (int i = 0; i < mEventCount; i++) {
+                int type = in.readInt();
+                long songId = in.readLong();
+                long time = in.readLong();
+                int position = in.readInt();
+                apply(type, songId, time, position);
+            }
+
+            return tallyEnd + (long) mEventCount * EVENT_RECORD_SIZE;
+        } catch (EOFException e) {
+            return -1;
+        } finally {
+            in.close();
+        }
+    }
+
+    // Helper method that returns the index of a song, or NONE if it isn't in the history.
+    private int indexOf(long songId) {
+        int mask = mSlotIds.length - 1;
+        for (int slot = hash(songId) & mask; mSlotIndexes[slot] != 0;
+                slot = (slot + 1) & mask) {
+            if (mSlotIds[slot] == songId) return mSlotIndexes[slot] - 1;
+        }
+
+        return NONE;
+    }
+
+    // Helper method that adds a song without any events, ranked last.
+    private int addSong(long songId) {
+        if (mSongCount == mSongIds.length) {
+            int capacity = mSongCount * 2;
+            mSongIds = Arrays.copyOf(mSongIds, capacity);
+            mStarts = Arrays.copyOf(mStarts, capacity);
+            mPlays = Arrays.copyOf(mPlays, capacity);
+            mSkips = Arrays.copyOf(mSkips, capacity);
+            mPositions = Arrays.copyOf(mPositions, capacity);
+            mLastStarted = Arrays.copyOf(mLastStarted, capacity);
+            mRanked = Arrays.copyOf(mRanked, capacity);
+            mRanks = Arrays.copyOf(mRanks, capacity);
+            mNewer = Arrays.copyOf(mNewer, capacity);
+            mOlder = Arrays.copyOf(mOlder, capacity);
+        }
+
+        // Keeps the hash table at most half full, so that probe sequences stay short.
+        if ((mSongCount + 1) * 2 > mSlotIds.length) rehash(mSlotIds.length * 2);
+
+        int index = mSongCount++;
+        mSongIds[index] = songId;
+        mNewer[index] = NONE;
+        mOlder[index] = NONE;
+        insert(songId, index);
+
+        if (mCountSizes[0]++ == 0) mFirstRanks[0] = index;
+        mRanked[index] = index;
+        mRanks[index] = index;
+
+        return index;
+    }
+
+    private void insert(long songId, int index) {
+        int mask = mSlotIds.length - 1;
+        int slot = hash(songId) & mask;
+        while (mSlotIndexes[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        mSlotIds[slot] = songId;
+        mSlotIndexes[slot] = index + 1;
+    }
+
+    private void rehash(int slots) {
+        mSlotIds = new long[slots];
+        mSlotIndexes = new int[slots];
+        for (int index = 0; index < mSongCount; index++) {
+            insert(mSongIds[index], index);
+        }
+    }
+
+    // Helper method that adds a play to a song, moving it ahead of the songs of its old count by
+    // swapping it with the first of them.
+    private void promote(int index) {
+        int count = mPlays[index]++;
+        ensureCount(count + 1);
+
+        int first = mFirstRanks[count];
+        int other = mRanked[first];
+        int rank = mRanks[index];
+        mRanked[first] = index;
+        mRanks[index] = first;
+        mRanked[rank] = other;
+        mRanks[other] = rank;
+
+        mCountSizes[count]--;
+        mFirstRanks[count] = first + 1;
+        if (mCountSizes[count + 1]++ == 0) mFirstRanks[count + 1] = first;
+    }
+
+    // Helper method that ranks the songs read from a file, most played first.
+    private void rank() {
+        int maxCount = 0;
+        for (int index = 0; index < mSongCount; index++) {
+            maxCount = Math.max(maxCount, mPlays[index]);
+        }
+        ensureCount(maxCount);
+
+        // Counts the songs of each play count, and then places them by a counting sort.
+        Arrays.fill(mCountSizes, 0);
+        for (int index = 0; index < mSongCount; index++) {
+            mCountSizes[mPlays[index]]++;
+        }
+        int rank = 0;
+        for (int count = maxCount; count >= 0; count--) {
+            mFirstRanks[count] = rank;
+            rank += mCountSizes[count];
+        }
+        int[] next = Arrays.copyOf(mFirstRanks, maxCount + 1);
+        for (int index = 0; index < mSongCount; index++) {
+            int position = next[mPlays[index]]++;
+            mRanked[position] = index;
+            mRanks[index] = position;
+        }
+    }
+
+    private void ensureCount(int count) {
+        if (count < mCountSizes.length) return;
+
+        int capacity = Math.max(count + 1, mCountSizes.length * 2);
+        mCountSizes = Arrays.copyOf(mCountSizes, capacity);
+        mFirstRanks = Arrays.copyOf(mFirstRanks, capacity);
+    }
+
+    // Helper methods that maintain the recency links.
+    private boolean isLinked(int index) {
+        return index == mNewest || mNewer[index] != NONE;
+    }
+
+    private void moveToNewest(int index) {
+        if (index == mNewest) return;
+
+        // Unlinks the song, if it was started before.
+        if (isLinked(index)) {
+            int older = mOlder[index];
+            int newer = mNewer[index];
+            mOlder[newer] = older;
+            if (older != NONE) {
+                mNewer[older] = newer;
+            } else {
+                mOldest = newer;
+            }
+        }
+
+        mOlder[index] = mNewest;
+        mNewer[index] = NONE;
+        if (mNewest != NONE) mNewer[mNewest] = index;
+        mNewest = index;
+        if (mOldest == NONE) mOldest = index;
+    }
+
+    // Helper method that spreads the bits of a song ID, since IDs are mostly sequential.
+    private static int hash(long songId) {
+        long h = songId * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
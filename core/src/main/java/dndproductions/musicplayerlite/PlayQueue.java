@@ -0,0 +1,266 @@
+package dndproductions.musicplayerlite;
+
+import java.util.Random;
+
+/**
+ * Immutable list of song IDs that makes up the play order, where every edit returns a new queue
+ * and leaves the old one untouched. A queue can therefore be handed to the UI as a snapshot
+ * without copying it.
+ *
+ * <p>The IDs are kept in a randomized binary search tree keyed by position, where each node
+ * knows the size of its subtree. Getting, inserting, moving and removing a song take O(log n)
+ * expected time, and only copy the O(log n) nodes on the path that changed. A queue of many songs
+ * is built balanced in O(n) time, and a run of songs is inserted by building it separately and
+ * joining the trees.
+ */
+public final class PlayQueue {
+
+    // Shared empty queue.
+    private static final PlayQueue EMPTY = new PlayQueue(null);
+
+    // Source of randomness for joining trees, which keeps them balanced in expectation.
+    private static final Random RANDOM = new Random();
+
+    private final Node mRoot;
+
+    // Immutable tree node holding one song ID.
+    private static final class Node {
+        final long mId;
+        final Node mLeft;
+        final Node mRight;
+        final int mSize;
+
+        Node(long id, Node left, Node right) {
+            mId = id;
+            mLeft = left;
+            mRight = right;
+            mSize = size(left) + size(right) + 1;
+        }
+    }
+
+    private PlayQueue(Node root) {
+        mRoot = root;
+    }
+
+    /**
+     * Returns the empty queue.
+     */
+    public static PlayQueue empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Creates a queue holding a range of song IDs, in order.
+     *
+     * @param ids is the array of song IDs.
+     * @param from is the index of the first ID.
+     * @param to is the index after the last ID.
+     */
+    public static PlayQueue of(long[] ids, int from, int to) {
+        if (from < 0 || to > ids.length || from > to) {
+            throw new IndexOutOfBoundsException("Range " + from + " to " + to);
+        }
+
+        return from == to ? EMPTY : new PlayQueue(build(ids, from, to));
+    }
+
+    public int size() {
+        return size(mRoot);
+    }
+
+    public boolean isEmpty() {
+        return mRoot == null;
+    }
+
+    /**
+     * Returns the song ID at a position of the queue.
+     *
+     * @param index is the position in the queue.
+     */
+    public long get(int index) {
+        checkIndex(index, size());
+
+        Node node = mRoot;
+        while (true) {
+            int leftSize = size(node.mLeft);
+            if (index < leftSize) {
+                node = node.mLeft;
+            } else if (index > leftSize) {
+                index -= leftSize + 1;
+                node = node.mRight;
+            } else {
+                return node.mId;
+            }
+        }
+    }
+
+    /**
+     * Returns the first position of a song ID in the queue, or -1 if it isn't queued. This walks
+     * the whole queue.
+     *
+     * @param id is the song ID.
+     */
+    public int indexOf(long id) {
+        return indexOf(mRoot, id, 0);
+    }
+
+    /**
+     * Returns a queue with a song ID inserted at a position.
+     *
+     * @param index is the position, where the size of the queue appends the song.
+     * @param id is the song ID.
+     */
+    public PlayQueue insert(int index, long id) {
+        return insertAll(index, new long[]{id}, 0, 1);
+    }
+
+    /**
+     * Returns a queue with a range of song IDs inserted at a position.
+     *
+     * @param index is the position, where the size of the queue appends the songs.
+     * @param ids is the array of song IDs.
+     * @param from is the index of the first ID.
+     * @param to is the index after the last ID.
+     */
+    public PlayQueue insertAll(int index, long[] ids, int from, int to) {
+        checkIndex(index, size() + 1);
+        if (from == to) return this;
+
+        Node[] parts = split(mRoot, index);
+
+        return new PlayQueue(join(join(parts[0], of(ids, from, to).mRoot), parts[1]));
+    }
+
+    /**
+     * Returns a queue with a song appended.
+     *
+     * @param id is the song ID.
+     */
+    public PlayQueue append(long id) {
+        return insert(size(), id);
+    }
+
+    /**
+     * Returns a queue without the song at a position.
+     *
+     * @param index is the position in the queue.
+     */
+    public PlayQueue remove(int index) {
+        checkIndex(index, size());
+
+        Node[] before = split(mRoot, index);
+        Node[] after = split(before[1], 1);
+
+        return new PlayQueue(join(before[0], after[1]));
+    }
+
+    /**
+     * Returns a queue with the song at a position moved to another one.
+     *
+     * @param from is the current position of the song.
+     * @param to is the position of the song afterwards.
+     */
+    public PlayQueue move(int from, int to) {
+        checkIndex(to, size());
+        if (from == to) return this;
+
+        long id = get(from);
+
+        return remove(from).insert(to, id);
+    }
+
+    /**
+     * Copies the song IDs to an array, in order.
+     */
+    public long[] toArray() {
+        long[] ids = new long[size()];
+        copy(mRoot, ids, 0);
+
+        return ids;
+    }
+
+    /**
+     * Returns the height of the tree, which is used for checking its balance.
+     */
+    int height() {
+        return height(mRoot);
+    }
+
+    // Helper method that builds a perfectly balanced tree over a range of IDs.
+    private static Node build(long[] ids, int from, int to) {
+        if (from == to) return null;
+
+        int middle = (from + to) >>> 1;
+
+        return new Node(ids[middle], build(ids, from, middle), build(ids, middle + 1, to));
+    }
+
+    // Helper method that splits a tree into its first count nodes and the rest.
+    private static Node[] split(Node node, int count) {
+        if (node == null) return new Node[2];
+
+        int leftSize = size(node.mLeft);
+        if (count <= leftSize) {
+            Node[] parts = split(node.mLeft, count);
+            parts[1] = new Node(node.mId, parts[1], node.mRight);
+            return parts;
+        }
+
+        Node[] parts = split(node.mRight, count - leftSize - 1);
+        parts[0] = new Node(node.mId, node.mLeft, parts[0]);
+        return parts;
+    }
+
+    // Helper method that joins two trees, picking either root with a probability that's
+    // proportional to the size of its tree.
+    private static Node join(Node left, Node right) {
+        if (left == null) return right;
+        if (right == null) return left;
+
+        if (RANDOM.nextInt(left.mSize + right.mSize) < left.mSize) {
+            return new Node(left.mId, left.mLeft, join(left.mRight, right));
+        }
+
+        return new Node(right.mId, join(left, right.mLeft), right.mRight);
+    }
+
+    // Helper method that copies the IDs of a tree in order, and returns the index after them.
+    private static int copy(Node node, long[] ids, int index) {
+        while (node != null) {
+            index = copy(node.mLeft, ids, index);
+            ids[index++] = node.mId;
+            node = node.mRight;
+        }
+
+        return index;
+    }
+
+    private static int indexOf(Node node, long id, int offset) {
+        while (node != null) {
+            int index = indexOf(node.mLeft, id, offset);
+            if (index != -1) return index;
+
+            offset += size(node.mLeft);
+            if (node.mId == id) return offset;
+
+            offset++;
+            node = node.mRight;
+        }
+
+        return -1;
+    }
+
+    private static int height(Node node) {
+        return node == null ? 0 : 1 + Math.max(height(node.mLeft), height(node.mRight));
+    }
+
+    private static int size(Node node) {
+        return node != null ? node.mSize : 0;
+    }
+
+    private static void checkIndex(int index, int size) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+        }
+    }
+}
@@ -0,0 +1,1068 @@
+package dndproductions.musicplayerlite;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Playback state machine of the app, which plays a {@link PlayQueue} of song IDs on two
+ * {@link AudioPlayer}s without depending on Android, so that it can be driven by
+ * {@code MusicService} on a device and by a {@link SessionSimulator} on the JVM.
+ *
+ * <p>The public methods only submit commands to a {@link CommandExecutor}, which runs them on the
+ * thread of its dispatcher. The players are created on that thread, so their callbacks arrive
+ * there too, and the players and the queue are never touched from any other thread. Superseded
+ * commands are dropped, so rapid skips only prepare the song they end on and dragging the seek
+ * bar only issues a seek per {@link #SEEK_WINDOW_MS}.
+ *
+ * <p>While a song plays, the upcoming one is prepared on the second player and chained via
+ * {@link AudioPlayer#setNext(AudioPlayer)}, so that the transition between songs doesn't wait for
+ * the next one to be prepared. Both players swap roles at each transition.
+ *
+ * <p>Every transition publishes a {@link PlaybackState}, which the UI reads instead of calling
+ * into the players, and latencies and errors are recorded into {@link PlaybackMetrics}.
+ *
+ * <p>Every change to the queue, the current song or the shuffling hands a {@link PlaybackSession}
+ * to a {@link SessionListener}, e.g. for persisting it, and {@link #restore(PlaybackSession)}
+ * prepares a persisted session's song paused at its position. The songs that play next, as far
+ * as a {@link Prefetcher} asks for, are handed to it at the same time, so that their files can
+ * be read ahead of their preparation.
+ */
+public class PlaybackEngine implements AudioPlayer.Listener {
+
+    // Keys of the commands that supersede each other.
+    private static final int COMMAND_PREPARE = 1;
+    private static final int COMMAND_SEEK = 2;
+
+    // Window within which only the last seek is issued, in milliseconds.
+    static final long SEEK_WINDOW_MS = 100;
+
+    /**
+     * Interface that's notified of the engine's transitions, on the thread its commands run on.
+     */
+    public interface Listener {
+
+        /**
+         * Invoked when a song starts playing, either after being prepared or chained.
+         */
+        void onPlaybackStarted();
+
+        /**
+         * Invoked when the song of a restored session is prepared, paused at its position.
+         */
+        void onPlaybackRestored();
+    }
+
+    /**
+     * Interface that reads the files of the upcoming songs ahead, e.g. from slow storage. It's
+     * called on the thread the commands run on, so it shouldn't block.
+     */
+    public interface Prefetcher {
+
+        /**
+         * Invoked when the songs that play after the current one changed, which replace the
+         * ones handed before.
+         *
+         * @param songIds is the IDs of the songs, in the order they play in.
+         */
+        void onUpcomingChanged(long[] songIds);
+
+        /**
+         * Returns whether a song's file was read ahead, for telling apart the prepare times.
+         *
+         * @param songId is the song's ID.
+         */
+        boolean isReadAhead(long songId);
+    }
+
+    /**
+     * Interface that receives the session whenever the queue, the current song or the shuffling
+     * changes. It's called on the thread the commands run on, so it shouldn't block.
+     */
+    public interface SessionListener {
+
+        /**
+         * Invoked when the session changed.
+         *
+         * @param session is the session, whose position is 0.
+         */
+        void onSessionChanged(PlaybackSession session);
+    }
+
+    /**
+     * Interface that's told which songs started, completed or were left before their end, e.g.
+     * for keeping a play history. It's called on the thread the commands run on, so it shouldn't
+     * block.
+     */
+    public interface HistoryListener {
+
+        /**
+         * Invoked when a song starts playing, either after being prepared or chained.
+         *
+         * @param songId is the song's ID.
+         */
+        void onSongStarted(long songId);
+
+        /**
+         * Invoked when a song played until its end.
+         *
+         * @param songId is the song's ID.
+         */
+        void onSongCompleted(long songId);
+
+        /**
+         * Invoked when another song is played before a song's end, e.g. by skipping to the next
+         * one.
+         *
+         * @param songId is the song's ID.
+         * @param position is the position it was left at in milliseconds.
+         */
+        void onSongSkipped(long songId, int position);
+    }
+
+    /**
+     * Interface that provides the volume of each song, e.g. for normalizing their loudness. It's
+     * called on the thread the commands run on, whenever a song is about to be prepared.
+     */
+    public interface GainSource {
+
+        /**
+         * Returns the volume a song plays at.
+         *
+         * @param songId is the song's ID.
+         * @return the volume, from 0 for silence to 1 for the song's own level.
+         */
+        float getVolume(long songId);
+    }
+
+    private final CommandExecutor mCommands;
+    private final Clock mClock;
+    private final Random mRandom;
+    private final Listener mListener;
+
+    // Source of the songs' volumes, or null if they all play at their own level.
+    private volatile GainSource mGainSource;
+
+    // Listener of the session, or null if none.
+    private volatile SessionListener mSessionListener;
+
+    // Listener of the songs played, or null if none.
+    private volatile HistoryListener mHistoryListener;
+
+    // Prefetcher of the upcoming songs, or null if none, and the amount of songs it's handed.
+    private volatile Prefetcher mPrefetcher;
+    private volatile int mPrefetchCount;
+
+    // Players, where the next player is prepared with the upcoming song, and whether the current
+    // player holds a prepared song that can be paused, resumed and sought.
+    private AudioPlayer mPlayer;
+    private AudioPlayer mNextPlayer;
+    private boolean mPrepared;
+
+    // ID of the song the current player holds, which the queue index may have moved away from.
+    private long mPlayerSongId = -1;
+
+    // Fields used for keeping track with the upcoming song, where the index is -1 if the next
+    // player holds no song, and the flag is set once it's been prepared and chained.
+    private int mNextIndex = -1;
+    private long mNextSongId = -1;
+    private boolean mNextChained;
+
+    // Fields used for measuring the gap between the end of a song and the start of the next one.
+    private long mCompletionTime = -1;
+    private long mStartedAsNextTime = -1;
+    private volatile long mLastTransitionGap = -1;
+
+    // Playback metrics, and the times the songs of both players started being prepared.
+    private final PlaybackMetrics mMetrics;
+    private long mPrepareStartTime = -1;
+    private long mNextPrepareStartTime = -1;
+
+    // Whether the songs of both players were read ahead before they started being prepared.
+    private boolean mPrepareReadAhead;
+    private boolean mNextPrepareReadAhead;
+
+    // Latest playback state, which is replaced rather than modified so that it can be read from
+    // any thread without locking, and the amount of states published.
+    private volatile PlaybackState mPlaybackState = PlaybackState.IDLE;
+    private volatile long mTransitionCount;
+
+    // Queue of song IDs being played, the index of the current song, the list IDs the queue was
+    // built from, and whether the queue still mirrors them (i.e. the user didn't queue anything
+    // since picking a song). The queue and the index are published for the UI to read.
+    private volatile PlayQueue mQueue = PlayQueue.empty();
+    private volatile int mQueueIndex;
+    private long[] mQueueIds;
+    private volatile boolean mQueueFromList;
+
+    // Whether the current song was removed from the queue while it plays, in which case the index
+    // is that of the song that followed it, which plays next.
+    private boolean mCurrentRemoved;
+
+    // Shuffler, which exists while shuffling and follows the indexes of the queue.
+    private SongShuffler mShuffler;
+
+    // Position the song being prepared is sought to instead of starting, when restoring a
+    // session, or -1 if it starts once prepared.
+    private int mResumePosition = -1;
+
+    // Whether the queue moved to another song whose preparation hasn't run yet, i.e. within a
+    // burst of moves.
+    private boolean mMovePending;
+
+    // Commands that are submitted repeatedly.
+    private final Runnable mPrepareCommand = new Runnable() {
+        @Override
+        public void run() {
+            prepareCurrent();
+        }
+    };
+
+    /**
+     * Creates a {@link PlaybackEngine} object, whose players are created by its first command.
+     *
+     * @param dispatcher is the dispatcher whose thread runs the commands.
+     * @param factory is the factory of the players.
+     * @param clock is the clock used for timestamping.
+     * @param random is the source of randomness used for shuffling.
+     * @param listener is the listener of the transitions.
+     */
+    public PlaybackEngine(CommandExecutor.Dispatcher dispatcher, final AudioPlayer.Factory factory,
+            Clock clock, Random random, Listener listener) {
+        mCommands = new CommandExecutor(dispatcher);
+        mClock = clock;
+        mRandom = random;
+        mListener = listener;
+        mMetrics = new PlaybackMetrics(clock.elapsedRealtime());
+
+        mCommands.execute(new Runnable() {
+            @Override
+            public void run() {
+                mPlayer = factory.create(PlaybackEngine.this);
+                mNextPlayer = factory.create(PlaybackEngine.this);
+            }
+        });
+    }
+
+    /**
+     * Submits a command that runs after the commands submitted so far, on the same thread.
+     *
+     * @param task is the command.
+     */
+    public void execute(Runnable task) {
+        mCommands.execute(task);
+    }
+
+    /**
+     * Sets the source of the songs' volumes, which applies from the next song prepared on.
+     *
+     * @param gainSource is the source, or null for playing every song at its own level.
+     */
+    public void setGainSource(GainSource gainSource) {
+        mGainSource = gainSource;
+    }
+
+    /**
+     * Sets the listener of the session, which is notified from the next change on.
+     *
+     * @param sessionListener is the listener, or null for none.
+     */
+    public void setSessionListener(SessionListener sessionListener) {
+        mSessionListener = sessionListener;
+    }
+
+    /**
+     * Sets the listener of the songs played, which is notified from the next song on.
+     *
+     * @param historyListener is the listener, or null for none.
+     */
+    public void setHistoryListener(HistoryListener historyListener) {
+        mHistoryListener = historyListener;
+    }
+
+    /**
+     * Sets the prefetcher of the upcoming songs, which is handed them from the next change on.
+     *
+     * @param prefetcher is the prefetcher, or null for none.
+     * @param count is the largest amount of upcoming songs it's handed.
+     */
+    public void setPrefetcher(Prefetcher prefetcher, int count) {
+        mPrefetchCount = count;
+        mPrefetcher = prefetcher;
+    }
+
+    /**
+     * Restores a persisted session, replacing the queue and the shuffling, and then prepares its
+     * current song without starting it and seeks to its position. The queue no longer mirrors
+     * the song list, since the list may have changed since.
+     *
+     * @param session is the session.
+     */
+    public void restore(final PlaybackSession session) {
+        mCommands.execute(new Runnable() {
+            @Override
+            public void run() {
+                mQueue = session.getQueue();
+                mQueueIndex = session.getQueueIndex();
+                mCurrentRemoved = false;
+                mQueueIds = null;
+                mQueueFromList = false;
+                mShuffler = null;
+                if (session.isShuffle()) {
+                    mShuffler = new SongShuffler(mQueue.size(), mRandom);
+                    mShuffler.restore(session.getShuffleHistory(), session.getShuffleIndex());
+                }
+
+                if (mQueue.isEmpty()) return;
+
+                publishUpcoming();
+                invalidateNext();
+                mResumePosition = session.getPosition();
+                mCommands.execute(COMMAND_PREPARE, mPrepareCommand);
+            }
+        });
+    }
+
+    /**
+     * Replaces the song list. A queue that mirrors the list is built again, where the current
+     * song keeps playing at its new position if it's still in the list, while a queue the user
+     * edited stays as it is.
+     *
+     * @param ids is the IDs of the songs in the list, which must not change afterwards.
+     * @param mapping is the new position of each position of the previous list, or -1 if the
+     * song is gone.
+     */
+    public void setList(final long[] ids, final int[] mapping) {
+        if (!mQueueFromList) return;
+
+        mCommands.execute(new Runnable() {
+            @Override
+            public void run() {
+                applyList(ids, mapping);
+            }
+        });
+    }
+
+    /**
+     * Returns whether the queue still mirrors the song list, i.e. whether
+     * {@link #setList(long[], int[])} has any effect.
+     */
+    public boolean isQueueFromList() {
+        return mQueueFromList;
+    }
+
+    /**
+     * Sets the song that plays next via {@link #playSong()}. The queue is replaced with the song
+     * list unless it already mirrors it.
+     *
+     * @param ids is the IDs of the songs in the list, which must not change afterwards.
+     * @param position is the song's position in the list.
+     */
+    public void setSong(final long[] ids, final int position) {
+        mCommands.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!mQueueFromList || mQueueIds != ids) {
+                    mQueue = PlayQueue.of(ids, 0, ids.length);
+                    mQueueIds = ids;
+                    mQueueFromList = true;
+                    if (mShuffler != null) mShuffler = new SongShuffler(ids.length, mRandom);
+                }
+
+                mQueueIndex = position;
+                mCurrentRemoved = false;
+                onQueueChanged();
+            }
+        });
+    }
+
+    /**
+     * Queues a song right after the current one.
+     *
+     * @param songId is the song's ID.
+     */
+    public void enqueueNext(final long songId) {
+        mCommands.execute(new Runnable() {
+            @Override
+            public void run() {
+                int index = mQueue.isEmpty() || mCurrentRemoved ? mQueueIndex : mQueueIndex + 1;
+                insertIntoQueue(index, songId);
+                if (mShuffler != null) mShuffler.setNext(index);
+
+                onQueueChanged();
+                refreshNext();
+            }
+        });
+    }
+
+    /**
+     * Queues a song at the end of the queue.
+     *
+     * @param songId is the song's ID.
+     */
+    public void enqueue(final long songId) {
+        mCommands.execute(new Runnable() {
+            @Override
+            public void run() {
+                insertIntoQueue(mQueue.size(), songId);
+
+                onQueueChanged();
+                refreshNext();
+            }
+        });
+    }
+
+    /**
+     * Removes a song from the queue. If it's the current song, it keeps playing and the song that
+     * followed it plays next.
+     *
+     * @param index is the song's index in the queue, where an index the queue no longer has, e.g.
+     * since the UI showed an older queue, is ignored.
+     */
+    public void removeFromQueue(final int index) {
+        mCommands.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (index < 0 || index >= mQueue.size()) return;
+
+                mQueue = mQueue.remove(index);
+                mQueueFromList = false;
+                if (mShuffler != null) mShuffler.remove(index);
+
+                // The index stays on the song that followed the current one, wrapping around at
+                // the end, rather than moving back to the song before it.
+                if (index < mQueueIndex) {
+                    mQueueIndex--;
+                } else if (index == mQueueIndex) {
+                    mCurrentRemoved = true;
+                    if (mQueueIndex >= mQueue.size()) mQueueIndex = 0;
+                }
+
+                onQueueChanged();
+                refreshNext();
+            }
+        });
+    }
+
+    /**
+     * Moves a song within the queue.
+     *
+     * @param from is the song's current index in the queue.
+     * @param to is the song's index afterwards.
+     */
+    public void moveInQueue(final int from, final int to) {
+        mCommands.execute(new Runnable() {
+            @Override
+            public void run() {
+                int size = mQueue.size();
+                if (from < 0 || from >= size || to < 0 || to >= size) return;
+
+                mQueue = mQueue.move(from, to);
+                mQueueFromList = false;
+                if (mShuffler != null) mShuffler.move(from, to);
+
+                // Keeps track with the current song, which either moved or shifted by one.
+                if (from == mQueueIndex) {
+                    mQueueIndex = to;
+                } else if (from < mQueueIndex && to >= mQueueIndex) {
+                    mQueueIndex--;
+                } else if (from > mQueueIndex && to <= mQueueIndex) {
+                    mQueueIndex++;
+                }
+
+                onQueueChanged();
+                refreshNext();
+            }
+        });
+    }
+
+    /**
+     * Turns shuffling on, starting a new cycle from the current song, or off.
+     *
+     * @param shuffle is whether to shuffle.
+     */
+    public void setShuffle(final boolean shuffle) {
+        mCommands.execute(new Runnable() {
+            @Override
+            public void run() {
+                mShuffler = shuffle ? new SongShuffler(mQueue.size(), mRandom) : null;
+                followShuffler();
+                onQueueChanged();
+
+                // The upcoming song depends on the shuffle flag.
+                invalidateNext();
+                if (mPlayer.isPlaying()) prepareNext();
+            }
+        });
+    }
+
+    /**
+     * Plays the current song of the queue.
+     */
+    public void playSong() {
+        mCommands.execute(new Runnable() {
+            @Override
+            public void run() {
+                playCurrent();
+            }
+        });
+    }
+
+    // The following methods all apply to standard playback control functions that the user will
+    // expect.
+    public void pause() {
+        mCommands.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!mPrepared || !mPlayer.isPlaying()) return;
+
+                mPlayer.pause();
+
+                publish(new PlaybackState(PlaybackState.State.PAUSED, mPlayerSongId,
+                        mPlayer.getDuration(), mPlayer.getCurrentPosition(),
+                        mClock.elapsedRealtime(), 1f));
+            }
+        });
+    }
+
+    public void seek(final int position) {
+        mCommands.executeThrottled(COMMAND_SEEK, new Runnable() {
+            @Override
+            public void run() {
+                if (!mPrepared) return;
+
+                mPlayer.seekTo(position);
+
+                publish(mPlaybackState.withPosition(position, mClock.elapsedRealtime()));
+            }
+        }, SEEK_WINDOW_MS);
+    }
+
+    public void go() {
+        mCommands.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!mPrepared) return;
+
+                mPlayer.start();
+
+                publish(mPlaybackState.withState(PlaybackState.State.PLAYING,
+                        mClock.elapsedRealtime()));
+
+                // A restored song has no upcoming one yet.
+                prepareNext();
+            }
+        });
+    }
+
+    /**
+     * Plays the previous song, going back through the shuffle history when shuffling.
+     */
+    public void playPrevious() {
+        mCommands.execute(new Runnable() {
+            @Override
+            public void run() {
+                moveToPrevious();
+            }
+        });
+    }
+
+    /**
+     * Plays the next song. The upcoming song is used if it's already known, and played right away
+     * if it's already prepared. Like any other move, it's started once the commands submitted
+     * so far have run, so a burst of skips only starts the song it ends on.
+     */
+    public void playNext() {
+        mCommands.execute(new Runnable() {
+            @Override
+            public void run() {
+                moveToNext();
+            }
+        });
+    }
+
+    /**
+     * Releases the players, after which the engine can't be used anymore.
+     */
+    public void release() {
+        mCommands.execute(new Runnable() {
+            @Override
+            public void run() {
+                mPrepared = false;
+                mPlayer.release();
+                mNextPlayer.release();
+                publish(PlaybackState.IDLE);
+            }
+        });
+    }
+
+    /**
+     * Returns the queue, which doesn't change afterwards and can be read from any thread.
+     */
+    public PlayQueue getQueue() {
+        return mQueue;
+    }
+
+    /**
+     * Returns the index of the current song in the queue, or of the song that plays next if the
+     * current one was removed from the queue while it plays.
+     */
+    public int getQueueIndex() {
+        return mQueueIndex;
+    }
+
+    /**
+     * Returns the latest playback state. This is a plain field read, so it's cheap enough to be
+     * called on every frame.
+     */
+    public PlaybackState getPlaybackState() {
+        return mPlaybackState;
+    }
+
+    /**
+     * Returns the amount of playback states published so far.
+     */
+    public long getTransitionCount() {
+        return mTransitionCount;
+    }
+
+    /**
+     * Returns the playback metrics, which can be recorded into from any thread.
+     */
+    public PlaybackMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * Returns the gap between the end of the last song that completed and the start of the next
+     * one in milliseconds, or -1 if no transition was measured yet. A chained transition is
+     * measured from the completion callback to the next player's start callback, which may
+     * arrive first, in which case the gap is 0.
+     */
+    public long getLastTransitionGap() {
+        return mLastTransitionGap;
+    }
+
+    @Override
+    public void onPrepared(AudioPlayer player) {
+
+        // The upcoming song is ready, so it's chained to start as soon as this one ends.
+        if (player == mNextPlayer) {
+            chainNext();
+            recordPrepare(mNextPrepareStartTime, mNextPlayer, mNextPrepareReadAhead);
+            return;
+        }
+
+        // A restored song waits at its position for the user to resume it.
+        if (mResumePosition != -1) {
+            int position = mResumePosition;
+            mResumePosition = -1;
+            if (position > 0) player.seekTo(position);
+            mPrepared = true;
+
+            // The seek completes asynchronously, so the player may not report its target yet.
+            publish(new PlaybackState(PlaybackState.State.PAUSED, mPlayerSongId,
+                    player.getDuration(), position, mClock.elapsedRealtime(), 1f));
+
+            mListener.onPlaybackRestored();
+
+            recordPrepare(mPrepareStartTime, player, mPrepareReadAhead);
+            return;
+        }
+
+        player.start(); // Begins playback
+        mPrepared = true;
+        mMetrics.recordAudioStarted(mClock.elapsedRealtime());
+        onTrackStarted();
+        publishPlaying();
+
+        notifyStarted();
+
+        recordPrepare(mPrepareStartTime, player, mPrepareReadAhead);
+        prepareNext();
+    }
+
+    @Override
+    public void onError(AudioPlayer player, int what, int extra) {
+        mMetrics.recordError(what, extra, player == mNextPlayer);
+
+        // An upcoming song that fails to prepare is simply prepared the usual way later on.
+        if (player == mNextPlayer) {
+            invalidateNext();
+            return;
+        }
+
+        player.reset();
+        mPrepared = false;
+        mResumePosition = -1;
+        publish(PlaybackState.IDLE);
+    }
+
+    @Override
+    public void onStartedAsNext(AudioPlayer player) {
+
+        // The start of a chained player may be reported before the completion.
+        if (mCompletionTime == -1) {
+            mStartedAsNextTime = mClock.elapsedRealtime();
+        } else {
+            onTrackStarted();
+        }
+    }
+
+    @Override
+    public void onCompletion(AudioPlayer player) {
+        if (player != mPlayer) return;
+
+        mCompletionTime = mClock.elapsedRealtime();
+
+        // The chained player already started on its own, so the players only swap roles.
+        if (mNextChained) {
+            if (mStartedAsNextTime != -1) onTrackStarted();
+
+            notifyCompleted();
+            swapPlayers();
+            publishPlaying();
+            notifyStarted();
+            prepareNext();
+            return;
+        }
+
+        if (mPlayer.getCurrentPosition() > 0) {
+            notifyCompleted();
+            player.reset();
+            mPrepared = false;
+            moveToNext();
+        }
+    }
+
+    // Helper method that inserts a song into the queue, which no longer mirrors the list.
+    private void insertIntoQueue(int index, long songId) {
+        mQueue = mQueue.insert(index, songId);
+        mQueueFromList = false;
+        if (mShuffler != null) mShuffler.insert(index, 1);
+
+        if ((index < mQueueIndex || index == mQueueIndex && !mCurrentRemoved)
+                && mQueue.size() > 1) {
+            mQueueIndex++;
+        }
+    }
+
+    // Helper method that rebuilds a queue that mirrors the list.
+    private void applyList(long[] ids, int[] mapping) {
+        if (!mQueueFromList) return;
+
+        // The queue may have been built while the list was shorter.
+        if (mapping.length > mQueue.size()) mapping = Arrays.copyOf(mapping, mQueue.size());
+        int index = mQueueIndex >= 0 && mQueueIndex < mapping.length ? mapping[mQueueIndex] : -1;
+
+        mQueue = PlayQueue.of(ids, 0, ids.length);
+        mQueueIds = ids;
+        mQueueIndex = index != -1 ? index : 0;
+        mCurrentRemoved = false;
+        if (mShuffler != null) mShuffler.remap(mapping, ids.length);
+
+        onQueueChanged();
+        refreshNext();
+    }
+
+    // Helper method that moves to the current song, and then submits its preparation, which
+    // supersedes the preparation of any song moved to before. The upcoming song is kept until
+    // then, in case the moves end on it.
+    private void playCurrent() {
+        followShuffler();
+        onQueueChanged();
+        mResumePosition = -1;
+        mMovePending = true;
+        mCommands.execute(COMMAND_PREPARE, mPrepareCommand);
+    }
+
+    // Helper method that prepares the current song, or starts it right away if it's the
+    // upcoming song and that's already chained.
+    private void prepareCurrent() {
+        mMovePending = false;
+        notifySkipped();
+        if (mNextChained && mNextIndex == mQueueIndex && mNextSongId == getCurrentSongId()) {
+            startNext();
+            return;
+        }
+
+        invalidateNext(); // The upcoming song is picked again once this one starts.
+        mPlayer.reset(); // Used also when the user plays songs progressively.
+        mPrepared = false;
+
+        // Retrieves the respective song's ID, and then prepares it asynchronously.
+        long songId = getCurrentSongId();
+        mPlayerSongId = songId;
+        mCurrentRemoved = false;
+        mPrepareStartTime = mClock.elapsedRealtime();
+        mPrepareReadAhead = isReadAhead(songId);
+        mPlayer.setSource(songId);
+        mPlayer.setVolume(getVolume(songId));
+        mPlayer.prepareAsync();
+
+        publish(new PlaybackState(PlaybackState.State.PREPARING, songId, 0, 0,
+                mClock.elapsedRealtime(), 1f));
+    }
+
+    // Helper method that returns the volume a song plays at.
+    private float getVolume(long songId) {
+        GainSource gainSource = mGainSource;
+        return gainSource != null ? gainSource.getVolume(songId) : 1f;
+    }
+
+    // Helper method that returns whether a song's file was read ahead.
+    private boolean isReadAhead(long songId) {
+        Prefetcher prefetcher = mPrefetcher;
+        return prefetcher != null && prefetcher.isReadAhead(songId);
+    }
+
+    // Helper method that records the time a song took to prepare. The format is looked up only
+    // once the song is ready, so that the lookup doesn't delay it.
+    private void recordPrepare(long startTime, AudioPlayer player, boolean readAhead) {
+        if (startTime == -1) return;
+
+        mMetrics.recordPrepare(mClock.elapsedRealtime() - startTime, player.getMimeType(),
+                readAhead);
+    }
+
+    // Helper method that records the transition gap once the next song starts playing.
+    private void onTrackStarted() {
+        if (mCompletionTime == -1) return;
+
+        long startTime = mStartedAsNextTime != -1
+                ? mStartedAsNextTime : mClock.elapsedRealtime();
+        mLastTransitionGap = Math.max(0, startTime - mCompletionTime);
+        mCompletionTime = -1;
+        mStartedAsNextTime = -1;
+
+        mMetrics.recordTransitionGap(mLastTransitionGap);
+    }
+
+    /**
+     * Prepares the upcoming song on the next player, so that it can be chained to the current
+     * one. Requires players that support chaining, otherwise songs are prepared one at a time.
+     */
+    private void prepareNext() {
+        if (!mPlayer.supportsNext() || mQueue.isEmpty() || mNextIndex != -1) return;
+
+        mNextIndex = pickNextIndex();
+        mNextSongId = mQueue.get(mNextIndex);
+
+        mNextPlayer.reset();
+        mNextPrepareStartTime = mClock.elapsedRealtime();
+        mNextPrepareReadAhead = isReadAhead(mNextSongId);
+        mNextPlayer.setSource(mNextSongId);
+        mNextPlayer.setVolume(getVolume(mNextSongId));
+        mNextPlayer.prepareAsync();
+    }
+
+    // Helper method that chains the prepared next player to the current one.
+    private void chainNext() {
+        try {
+            mPlayer.setNext(mNextPlayer);
+            mNextChained = true;
+        } catch (IllegalStateException e) {
+
+            // The current player isn't in a state that allows chaining (e.g. it was just reset).
+            invalidateNext();
+        }
+    }
+
+    /**
+     * Drops the upcoming song, e.g. when the user picks another song or shuffle is toggled.
+     */
+    private void invalidateNext() {
+        if (mNextIndex == -1) return;
+
+        if (mNextChained) {
+            try {
+                mPlayer.setNext(null);
+            } catch (IllegalStateException e) {
+
+                // The current player was reset already, which unchained it.
+            }
+        }
+
+        mNextPlayer.reset();
+        mNextIndex = -1;
+        mNextSongId = -1;
+        mNextChained = false;
+    }
+
+    /**
+     * Keeps the upcoming song after the queue changed if it's still the one that comes next, and
+     * otherwise prepares the new one.
+     */
+    private void refreshNext() {
+        if (mNextIndex == -1) return;
+
+        int index = mQueue.isEmpty() ? -1 : pickNextIndex();
+        if (index != -1 && mQueue.get(index) == mNextSongId) {
+            mNextIndex = index;
+            return;
+        }
+
+        invalidateNext();
+        if (mPlayer.isPlaying()) prepareNext();
+    }
+
+    // Helper method that makes the chained player the current one.
+    private void swapPlayers() {
+        AudioPlayer finished = mPlayer;
+        mPlayer = mNextPlayer;
+        mNextPlayer = finished;
+        mNextPlayer.reset();
+        mPrepared = true;
+        mPlayerSongId = mNextSongId;
+
+        mQueueIndex = mNextIndex;
+        mCurrentRemoved = false;
+        followShuffler();
+        onQueueChanged();
+        mNextIndex = -1;
+        mNextSongId = -1;
+        mNextChained = false;
+    }
+
+    // Helper method that moves to the previous song.
+    private void moveToPrevious() {
+        if (mQueue.isEmpty()) return;
+
+        // Goes back through the shuffle history, if there's any left in this cycle.
+        if (mShuffler != null) {
+            int index = mShuffler.previous();
+            if (index != -1) {
+                mQueueIndex = index;
+                playCurrent();
+                return;
+            }
+        }
+
+        mQueueIndex--;
+        if (mQueueIndex < 0) mQueueIndex = mQueue.size() - 1;
+        playCurrent();
+    }
+
+    // Helper method that moves to the next song.
+    private void moveToNext() {
+        if (mQueue.isEmpty()) return;
+
+        // Within a burst of moves, the upcoming song is only the first one moved to.
+        mQueueIndex = mNextIndex != -1 && !mMovePending ? mNextIndex : pickNextIndex();
+        playCurrent();
+    }
+
+    // Helper method that stops the current song, and then starts the chained one in its place.
+    private void startNext() {
+        mPlayer.setNext(null);
+        mPlayer.stop();
+        swapPlayers();
+        mPlayer.start();
+        mMetrics.recordAudioStarted(mClock.elapsedRealtime());
+        publishPlaying();
+        notifyStarted();
+        prepareNext();
+    }
+
+    /**
+     * Picks the index of the song that comes after the current one in the queue, which is the
+     * shuffler's next index while shuffling.
+     */
+    private int pickNextIndex() {
+        if (mShuffler != null) return mShuffler.peekNext();
+
+        int index = mCurrentRemoved ? mQueueIndex : mQueueIndex + 1;
+        return index >= mQueue.size() ? 0 : index;
+    }
+
+    // Helper methods that tell the history listener, if any, about the song of the current player.
+    private void notifyStarted() {
+        mListener.onPlaybackStarted();
+
+        HistoryListener historyListener = mHistoryListener;
+        if (historyListener != null) historyListener.onSongStarted(mPlayerSongId);
+    }
+
+    private void notifyCompleted() {
+        HistoryListener historyListener = mHistoryListener;
+        if (historyListener != null) historyListener.onSongCompleted(mPlayerSongId);
+    }
+
+    // Only a prepared song was actually heard, rather than one still being prepared.
+    private void notifySkipped() {
+        HistoryListener historyListener = mHistoryListener;
+        if (historyListener != null && mPrepared) {
+            historyListener.onSongSkipped(mPlayerSongId, mPlayer.getCurrentPosition());
+        }
+    }
+
+    // Helper method that returns the ID of the current song, or -1 if none.
+    private long getCurrentSongId() {
+        if (mQueueIndex < 0 || mQueueIndex >= mQueue.size()) return -1;
+
+        return mQueue.get(mQueueIndex);
+    }
+
+    // Helper method that makes the current song the shuffler's current one when shuffling.
+    private void followShuffler() {
+        if (mShuffler != null && mQueueIndex >= 0 && mQueueIndex < mShuffler.size()) {
+            mShuffler.jumpTo(mQueueIndex);
+        }
+    }
+
+    // Helper method that publishes the state of a song that just started playing, which reads
+    // its duration and position from the player once.
+    private void publishPlaying() {
+        publish(new PlaybackState(PlaybackState.State.PLAYING, mPlayerSongId,
+                mPlayer.getDuration(), mPlayer.getCurrentPosition(), mClock.elapsedRealtime(),
+                1f));
+    }
+
+    // Helper method that hands the session and the upcoming songs to their listeners.
+    private void onQueueChanged() {
+        publishSession();
+        publishUpcoming();
+    }
+
+    // Helper method that hands the upcoming songs to the prefetcher, if any. While shuffling,
+    // they're drawn from the shuffler, which then plays them in that order.
+    private void publishUpcoming() {
+        Prefetcher prefetcher = mPrefetcher;
+        if (prefetcher == null) return;
+
+        int size = mQueue.size();
+        long[] ids;
+        if (mShuffler != null && mShuffler.size() == size) {
+            int[] indexes = mShuffler.peekAhead(mPrefetchCount);
+            ids = new long[indexes.length];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = mQueue.get(indexes[i]);
+            }
+        } else {
+            int first = mCurrentRemoved ? mQueueIndex : mQueueIndex + 1;
+            int upcoming = mCurrentRemoved ? size : size - 1;
+            ids = new long[Math.max(0, Math.min(mPrefetchCount, upcoming))];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = mQueue.get((first + i) % size);
+            }
+        }
+
+        prefetcher.onUpcomingChanged(ids);
+    }
+
+    // Helper method that hands the session to its listener, if any.
+    private void publishSession() {
+        SessionListener sessionListener = mSessionListener;
+        if (sessionListener == null) return;
+
+        boolean shuffle = mShuffler != null;
+        sessionListener.onSessionChanged(new PlaybackSession(mQueue, mQueueIndex, shuffle,
+                shuffle ? mShuffler.getHistory() : null,
+                shuffle ? mShuffler.getHistoryIndex() : -1, 0));
+    }
+
+    // Helper method that publishes a playback state.
+    private void publish(PlaybackState state) {
+        mPlaybackState = state;
+        mTransitionCount++;
+    }
+}
@@ -0,0 +1,235 @@
+package dndproductions.musicplayerlite;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Playback latency metrics, which are recorded on the hot paths of {@code MusicService} and
+ * {@code MainActivity} without locking or allocating, and dumped as text on request.
+ *
+ * <p>Covered are the time from the user asking for a song to its audio starting, the time
+ * MediaPlayer takes to prepare a song per format and with or without its file read ahead, the
+ * gap between two songs, and the errors reported by the players.
+ */
+public class PlaybackMetrics {
+
+    // Formats the prepare times are split by, where the last one catches the rest.
+    private static final String[] FORMATS = {"mpeg", "mp4", "flac", "ogg", "wav", "other"};
+
+    // Errors that are counted separately, mirroring the MediaPlayer.MEDIA_ERROR_* codes so that
+    // this class doesn't depend on the framework.
+    private static final int[] ERROR_CODES = {1, 100, -1004, -1007, -1010, -110};
+    private static final String[] ERROR_NAMES = {
+            "unknown", "server_died", "io", "malformed", "unsupported", "timed_out", "other"
+    };
+
+    private final LatencyHistogram mTapToAudio = new LatencyHistogram("tap_to_audio_ms");
+    private final LatencyHistogram mPrepare = new LatencyHistogram("prepare_ms");
+    private final LatencyHistogram mTransitionGap = new LatencyHistogram("transition_gap_ms");
+    private final LatencyHistogram[] mPrepareByFormat = new LatencyHistogram[FORMATS.length];
+    private final LatencyHistogram mPrepareReadAhead =
+            new LatencyHistogram("prepare_ms[read_ahead]");
+    private final LatencyHistogram mPrepareCold = new LatencyHistogram("prepare_ms[cold]");
+
+    // Error counts of the current and the upcoming player, by error.
+    private final AtomicLongArray mErrors = new AtomicLongArray(ERROR_NAMES.length);
+    private final AtomicLongArray mUpcomingErrors = new AtomicLongArray(ERROR_NAMES.length);
+
+    // Time the user last asked for a song, or -1 if its audio started already.
+    private final AtomicLong mRequestTime = new AtomicLong(-1);
+
+    // Time the metrics started being recorded.
+    private final long mStartTime;
+
+    /**
+     * Creates a {@link PlaybackMetrics} object.
+     *
+     * @param now is the current elapsed realtime in milliseconds.
+     */
+    public PlaybackMetrics(long now) {
+        mStartTime = now;
+
+        for (int i = 0; i < FORMATS.length; i++) {
+            mPrepareByFormat[i] = new LatencyHistogram("prepare_ms[" + FORMATS[i] + "]");
+        }
+    }
+
+    /**
+     * Records the user asking for a song, e.g. by tapping it or skipping to it. Only the last
+     * request counts when several are made before the audio starts.
+     *
+     * @param now is the current elapsed realtime in milliseconds.
+     */
+    public void markRequest(long now) {
+        mRequestTime.set(now);
+    }
+
+    /**
+     * Records a song's audio starting, which completes the pending request if there's any.
+     *
+     * @param now is the current elapsed realtime in milliseconds.
+     */
+    public void recordAudioStarted(long now) {
+        long requestTime = mRequestTime.getAndSet(-1);
+        if (requestTime != -1) mTapToAudio.record(now - requestTime);
+    }
+
+    /**
+     * Records the time a song took to prepare.
+     *
+     * @param millis is the time in milliseconds.
+     * @param mimeType is the song's MIME type, or null if unknown.
+     */
+    public void recordPrepare(long millis, String mimeType) {
+        mPrepare.record(millis);
+        mPrepareByFormat[formatOf(mimeType)].record(millis);
+    }
+
+    /**
+     * Records the time a song took to prepare, split by whether its file was read ahead, so
+     * that the effect of reading ahead shows.
+     *
+     * @param millis is the time in milliseconds.
+     * @param mimeType is the song's MIME type, or null if unknown.
+     * @param readAhead is whether the song's file was read ahead before it was prepared.
+     */
+    public void recordPrepare(long millis, String mimeType, boolean readAhead) {
+        recordPrepare(millis, mimeType);
+        (readAhead ? mPrepareReadAhead : mPrepareCold).record(millis);
+    }
+
+    /**
+     * Records the gap between the end of a song and the start of the next one.
+     *
+     * @param millis is the gap in milliseconds.
+     */
+    public void recordTransitionGap(long millis) {
+        mTransitionGap.record(millis);
+    }
+
+    /**
+     * Records an error reported by a player.
+     *
+     * @param what is the MediaPlayer error.
+     * @param extra is the MediaPlayer error's extra code, which narrows down some errors.
+     * @param upcoming is whether the player was preparing the upcoming song.
+     */
+    public void recordError(int what, int extra, boolean upcoming) {
+        int error = errorOf(what);
+
+        // The extra code tells apart the causes of an unknown error.
+        if (error == 0) {
+            int cause = errorOf(extra);
+            if (cause != ERROR_CODES.length) error = cause;
+        }
+
+        (upcoming ? mUpcomingErrors : mErrors).incrementAndGet(error);
+    }
+
+    // Getter methods.
+    public LatencyHistogram getTapToAudio() {
+        return mTapToAudio;
+    }
+
+    public LatencyHistogram getPrepare() {
+        return mPrepare;
+    }
+
+    /**
+     * Returns the prepare times of the songs whose file was read ahead, or of the rest.
+     *
+     * @param readAhead is whether the songs' file was read ahead.
+     */
+    public LatencyHistogram getPrepare(boolean readAhead) {
+        return readAhead ? mPrepareReadAhead : mPrepareCold;
+    }
+
+    public LatencyHistogram getTransitionGap() {
+        return mTransitionGap;
+    }
+
+    /**
+     * Returns the amount of errors of a player.
+     *
+     * @param upcoming is whether the errors of the player preparing the upcoming song are
+     * counted rather than the current one.
+     */
+    public long getErrorCount(boolean upcoming) {
+        AtomicLongArray errors = upcoming ? mUpcomingErrors : mErrors;
+
+        long count = 0;
+        for (int i = 0; i < errors.length(); i++) {
+            count += errors.get(i);
+        }
+
+        return count;
+    }
+
+    /**
+     * Writes the metrics as text.
+     *
+     * @param writer is the writer.
+     * @param now is the current elapsed realtime in milliseconds.
+     * @param buckets is whether the histograms' buckets are written as well, for analyzing them
+     * offline.
+     */
+    public void dump(PrintWriter writer, long now, boolean buckets) {
+        writer.print("Playback metrics over ");
+        writer.print((now - mStartTime) / 1000);
+        writer.println(" s");
+
+        mTapToAudio.dump(writer, buckets);
+        mPrepare.dump(writer, buckets);
+        for (LatencyHistogram histogram : mPrepareByFormat) {
+            if (histogram.getCount() > 0) histogram.dump(writer, buckets);
+        }
+        if (mPrepareReadAhead.getCount() > 0) mPrepareReadAhead.dump(writer, buckets);
+        if (mPrepareCold.getCount() > 0) mPrepareCold.dump(writer, buckets);
+        mTransitionGap.dump(writer, buckets);
+
+        dumpErrors(writer, "errors", mErrors);
+        dumpErrors(writer, "upcoming_errors", mUpcomingErrors);
+    }
+
+    // Helper method that writes the error counts of a player on one line.
+    private static void dumpErrors(PrintWriter writer, String name, AtomicLongArray errors) {
+        writer.print(name);
+        writer.print(':');
+        for (int i = 0; i < ERROR_NAMES.length; i++) {
+            writer.print(' ');
+            writer.print(ERROR_NAMES[i]);
+            writer.print('=');
+            writer.print(errors.get(i));
+        }
+        writer.println();
+    }
+
+    // Helper method that returns the index of a known error, or the one of the other errors.
+    private static int errorOf(int code) {
+        for (int i = 0; i < ERROR_CODES.length; i++) {
+            if (ERROR_CODES[i] == code) return i;
+        }
+
+        return ERROR_CODES.length;
+    }
+
+    /**
+     * Returns the index of the format a MIME type belongs to.
+     *
+     * @param mimeType is the MIME type, or null if unknown.
+     */
+    static int formatOf(String mimeType) {
+        if (mimeType != null) {
+            if (mimeType.contains("mpeg") || mimeType.contains("mp3")) return 0;
+            if (mimeType.contains("mp4") || mimeType.contains("m4a")
+                    || mimeType.contains("aac")) return 1;
+            if (mimeType.contains("flac")) return 2;
+            if (mimeType.contains("ogg") || mimeType.contains("vorbis")
+                    || mimeType.contains("opus")) return 3;
+            if (mimeType.contains("wav")) return 4;
+        }
+
+        return FORMATS.length - 1;
+    }
+}
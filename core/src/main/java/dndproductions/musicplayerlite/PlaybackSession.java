@@ -0,0 +1,92 @@
+package dndproductions.musicplayerlite;
+
+/**
+ * Immutable snapshot of what the {@link PlaybackEngine} plays: the queue, the index of the
+ * current song, the shuffle history and the position within the current song. It's published by
+ * the engine whenever the queue, the index or the shuffling changes, persisted by a
+ * {@link SessionJournal}, and handed back to the engine on the next launch.
+ */
+public final class PlaybackSession {
+
+    private final PlayQueue mQueue;
+    private final int mQueueIndex;
+    private final boolean mShuffle;
+    private final int[] mShuffleHistory;
+    private final int mShuffleIndex;
+    private final int mPosition;
+
+    /**
+     * Creates a {@link PlaybackSession} object.
+     *
+     * @param queue is the queue.
+     * @param queueIndex is the index of the current song in the queue.
+     * @param shuffle is whether the queue is shuffled.
+     * @param shuffleHistory is the indexes of the songs drawn in the shuffle's current cycle, in
+     * the order they play in, which must not change afterwards. It's ignored if not shuffling.
+     * @param shuffleIndex is the index of the current song within the shuffle history, or -1 if
+     * none.
+     * @param position is the position within the current song in milliseconds.
+     */
+    public PlaybackSession(PlayQueue queue, int queueIndex, boolean shuffle,
+            int[] shuffleHistory, int shuffleIndex, int position) {
+        mQueue = queue;
+        mQueueIndex = queueIndex;
+        mShuffle = shuffle;
+        mShuffleHistory = shuffle ? shuffleHistory : new int[0];
+        mShuffleIndex = shuffle ? shuffleIndex : -1;
+        mPosition = position;
+    }
+
+    /**
+     * Returns a copy of this session at another position within the current song.
+     *
+     * @param position is the position in milliseconds.
+     */
+    public PlaybackSession withPosition(int position) {
+        return new PlaybackSession(mQueue, mQueueIndex, mShuffle, mShuffleHistory, mShuffleIndex,
+                position);
+    }
+
+    // Getter methods.
+    public PlayQueue getQueue() {
+        return mQueue;
+    }
+
+    public int getQueueIndex() {
+        return mQueueIndex;
+    }
+
+    public boolean isShuffle() {
+        return mShuffle;
+    }
+
+    /**
+     * Returns the shuffle history, which must not be modified.
+     */
+    public int[] getShuffleHistory() {
+        return mShuffleHistory;
+    }
+
+    public int getShuffleIndex() {
+        return mShuffleIndex;
+    }
+
+    public int getPosition() {
+        return mPosition;
+    }
+
+    /**
+     * Returns the ID of the current song, or -1 if the queue is empty.
+     */
+    public long getSongId() {
+        if (mQueueIndex < 0 || mQueueIndex >= mQueue.size()) return -1;
+
+        return mQueue.get(mQueueIndex);
+    }
+
+    @Override
+    public String toString() {
+        return "PlaybackSession{" + mQueueIndex + " of " + mQueue.size() + " at " + mPosition
+                + " ms" + (mShuffle ? ", shuffled" : "") + "}";
+    }
+}
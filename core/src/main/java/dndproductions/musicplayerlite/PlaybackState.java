@@ -0,0 +1,117 @@
+package dndproductions.musicplayerlite;
+
+/**
+ * Immutable snapshot of the playback state, which {@code MusicService} publishes on every
+ * transition (e.g. a song starting, pausing or seeking) so that the UI never has to call into
+ * the MediaPlayer.
+ *
+ * <p>Rather than being updated as a song plays, the position is anchored at the time of the
+ * transition and extrapolated from the clock, so reading it is only a matter of arithmetic.
+ */
+public final class PlaybackState {
+
+    /**
+     * States of the player.
+     */
+    public enum State {
+        IDLE, PREPARING, PLAYING, PAUSED
+    }
+
+    /**
+     * State before anything was played.
+     */
+    public static final PlaybackState IDLE = new PlaybackState(State.IDLE, -1, 0, 0, 0, 1f);
+
+    private final State mState;
+    private final long mSongId;
+    private final int mDuration;
+    private final int mPosition;
+    private final long mUpdateTime;
+    private final float mSpeed;
+
+    /**
+     * Creates a {@link PlaybackState} object.
+     *
+     * @param state is the state of the player.
+     * @param songId is the ID of the current song, or -1 if none.
+     * @param duration is the duration of the song in milliseconds, or 0 if unknown.
+     * @param position is the position in milliseconds at the update time.
+     * @param updateTime is the elapsed realtime in milliseconds the position was taken at.
+     * @param speed is the playback rate, where 1 is the normal speed.
+     */
+    public PlaybackState(State state, long songId, int duration, int position, long updateTime,
+            float speed) {
+        mState = state;
+        mSongId = songId;
+        mDuration = duration;
+        mPosition = position;
+        mUpdateTime = updateTime;
+        mSpeed = speed;
+    }
+
+    // Getter methods.
+    public State getState() {
+        return mState;
+    }
+
+    public long getSongId() {
+        return mSongId;
+    }
+
+    public int getDuration() {
+        return mDuration;
+    }
+
+    public long getUpdateTime() {
+        return mUpdateTime;
+    }
+
+    public float getSpeed() {
+        return mSpeed;
+    }
+
+    public boolean isPlaying() {
+        return mState == State.PLAYING;
+    }
+
+    /**
+     * Returns the position at a given time, which keeps moving while playing and is clamped to
+     * the duration when it's known.
+     *
+     * @param now is the current elapsed realtime in milliseconds.
+     */
+    public int getPosition(long now) {
+        if (mState != State.PLAYING) return mPosition;
+
+        long position = mPosition + (long) ((now - mUpdateTime) * mSpeed);
+        if (mDuration > 0 && position > mDuration) return mDuration;
+
+        return (int) Math.max(mPosition, position);
+    }
+
+    /**
+     * Returns a copy of this state with another state, anchored at the position it has at the
+     * given time.
+     *
+     * @param state is the new state.
+     * @param now is the current elapsed realtime in milliseconds.
+     */
+    public PlaybackState withState(State state, long now) {
+        return new PlaybackState(state, mSongId, mDuration, getPosition(now), now, mSpeed);
+    }
+
+    /**
+     * Returns a copy of this state anchored at another position.
+     *
+     * @param position is the new position in milliseconds.
+     * @param now is the current elapsed realtime in milliseconds.
+     */
+    public PlaybackState withPosition(int position, long now) {
+        return new PlaybackState(mState, mSongId, mDuration, position, now, mSpeed);
+    }
+
+    @Override
+    public String toString() {
+        return mState + " " + mSongId + " at " + mPosition + "/" + mDuration + " ms";
+    }
+}
@@ -0,0 +1,417 @@
+package dndproductions.musicplayerlite;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.util.zip.CRC32;
+
+/**
+ * Write-behind journal of the {@link PlaybackSession}, which lets the app resume exactly where
+ * it was after its process was killed.
+ *
+ * <p>Updates only replace the pending session or position in memory, and are written on the
+ * thread of a {@link CommandExecutor.Dispatcher} after {@link #WRITE_DELAY_MS}, so a burst of
+ * updates (e.g. rapid skips, or a position per second) ends up as a single write and the
+ * threads that update the journal never wait on the disk.
+ *
+ * <p>The file is an {@link AppendLog} that holds the last session written in full, with its
+ * length and a checksum, followed by small records: the position within the current song as it
+ * plays, and the moves to another song of the same queue, along with the songs the move added to
+ * the shuffle history. The session is only written in full when its queue or its shuffling
+ * changed, or once enough records were appended.
+ */
+public class SessionJournal {
+
+    // Header constants used to reject files written by another version of the format.
+    private static final int MAGIC = 0x4d505353;
+    private static final int VERSION = 2;
+
+    // Types of the appended records, and their sizes: a position record holds the song ID and
+    // the position, and a move record holds the queue index, the shuffle index and the amount of
+    // songs added to the shuffle history, which follow it.
+    private static final int POSITION_RECORD = 1;
+    private static final int MOVE_RECORD = 2;
+    private static final int POSITION_RECORD_SIZE = 16;
+    private static final int MOVE_RECORD_SIZE = 16;
+
+    // Amount of appended records after which the file is compacted.
+    static final int MAX_RECORDS = 1024;
+
+    // Delay between an update and its write, within which further updates are coalesced.
+    static final long WRITE_DELAY_MS = 1000;
+
+    private final AppendLog mLog;
+    private final CommandExecutor.Dispatcher mDispatcher;
+
+    // Session read from the file when the journal was opened, or null if there was none.
+    private final PlaybackSession mRestoredSession;
+
+    // Pending updates, guarded by this object, where the song ID is -1 if no position is pending.
+    private PlaybackSession mPendingSession;
+    private long mPendingSongId = -1;
+    private int mPendingPosition;
+    private boolean mWriteScheduled;
+
+    // Fields used on the dispatcher's thread: the session in the file, the last position written
+    // for it, and the amount of records appended after it.
+    private PlaybackSession mSession;
+    private long mSongId = -1;
+    private int mPosition;
+    private int mRecordCount;
+
+    // Task that writes the pending updates on the dispatcher's thread.
+    private final Runnable mWriteTask;
+
+    private SessionJournal(AppendLog log, CommandExecutor.Dispatcher dispatcher,
+                           PlaybackSession session, int recordCount) {
+        mLog = log;
+        mDispatcher = dispatcher;
+        mWriteTask = log.newTask(new AppendLog.Write() {
+            @Override
+            public void run() throws IOException {
+                write();
+            }
+        });
+        mRestoredSession = session;
+        mSession = session;
+        mRecordCount = recordCount;
+        if (session != null) {
+            mSongId = session.getSongId();
+            mPosition = session.getPosition();
+        }
+    }
+
+    /**
+     * Opens a journal file and reads the session it holds. This reads from the disk, so it's
+     * meant to be called on the dispatcher's thread.
+     *
+     * @param file is the journal file.
+     * @param dispatcher is the dispatcher whose thread the updates are written on.
+     */
+    public static SessionJournal open(File file, CommandExecutor.Dispatcher dispatcher)
+            throws IOException {
+        AppendLog log = new AppendLog(file, MAGIC, VERSION);
+        long length = log.length();
+        DataInputStream in = log.openForReading();
+        if (in == null) return new SessionJournal(log, dispatcher, null, 0);
+
+        PlaybackSession session;
+        long valid;
+        int recordCount = 0;
+        try {
+            int size = in.readInt();
+            if (size < 0 || AppendLog.HEADER_SIZE + 8L + size > length) {
+                return new SessionJournal(log, dispatcher, null, 0);
+            }
+            byte[] data = new byte[size];
+            in.readFully(data);
+            CRC32 crc = new CRC32();
+            crc.update(data, 0, size);
+            if (in.readInt() != (int) crc.getValue()) {
+                return new SessionJournal(log, dispatcher, null, 0);
+            }
+            session = decode(data);
+            if (session == null) return new SessionJournal(log, dispatcher, null, 0);
+
+            // Replays the moves, and applies the last position recorded for the current song.
+            // Reading stops at the first record that's truncated or doesn't hold together.
+            valid = AppendLog.HEADER_SIZE + 8L + size;
+            while (length - valid >= 4) {
+                int type = in.readInt();
+                if (type == POSITION_RECORD && length - valid >= POSITION_RECORD_SIZE) {
+                    long songId = in.readLong();
+                    int position = in.readInt();
+                    if (songId == session.getSongId()) session = session.withPosition(position);
+                    valid += POSITION_RECORD_SIZE;
+                } else if (type == MOVE_RECORD && length - valid >= MOVE_RECORD_SIZE) {
+                    int queueIndex = in.readInt();
+                    int shuffleIndex = in.readInt();
+                    int added = in.readInt();
+                    int[] history = session.getShuffleHistory();
+                    long recordSize = MOVE_RECORD_SIZE + 4L * added;
+                    if (added < 0 || added > session.getQueue().size() - history.length
+                            || length - valid < recordSize) {
+                        break;
+                    }
+
+                    int[] moved = new int[history.length + added];
+                    System.arraycopy(history, 0, moved, 0, history.length);
+                    for (int i = history.length; i < moved.length; i++) {
+                        moved[i] = in.readInt();
+                    }
+                    PlaybackSession next = move(session, queueIndex, moved, shuffleIndex);
+                    if (next == null) break;
+
+                    session = next;
+                    valid += recordSize;
+                } else {
+                    break;
+                }
+                recordCount++;
+            }
+        } catch (EOFException e) {
+            return new SessionJournal(log, dispatcher, null, 0);
+        } finally {
+            in.close();
+        }
+
+        log.truncate(valid);
+        return new SessionJournal(log, dispatcher, session, recordCount);
+    }
+
+    /**
+     * Returns the session read when the journal was opened, or null if there was none.
+     */
+    public PlaybackSession getRestoredSession() {
+        return mRestoredSession;
+    }
+
+    /**
+     * Replaces the session, which is written after the write delay along with any update that
+     * follows it. The position is the one set by {@link #setPosition(long, int)}, if it's for
+     * the session's current song.
+     *
+     * @param session is the session.
+     */
+    public synchronized void setSession(PlaybackSession session) {
+        mPendingSession = session;
+        scheduleWrite();
+    }
+
+    /**
+     * Replaces the position within the current song, which is appended after the write delay
+     * unless it didn't change.
+     *
+     * @param songId is the ID of the song.
+     * @param position is the position in milliseconds.
+     */
+    public synchronized void setPosition(long songId, int position) {
+        mPendingSongId = songId;
+        mPendingPosition = position;
+        scheduleWrite();
+    }
+
+    /**
+     * Writes the pending updates right away, e.g. before the process exits. Must be called on
+     * the dispatcher's thread.
+     */
+    public void flush() throws IOException {
+        write();
+    }
+
+    /**
+     * Writes the pending updates, and then closes the file. Must be called on the dispatcher's
+     * thread.
+     */
+    public void close() throws IOException {
+        try {
+            write();
+        } finally {
+            mLog.close();
+        }
+    }
+
+    /**
+     * Returns the amount of writes that failed in the background.
+     */
+    public long getFailureCount() {
+        return mLog.getFailureCount();
+    }
+
+    // Helper method that schedules the write of the pending updates, unless it's scheduled.
+    private void scheduleWrite() {
+        if (mWriteScheduled) return;
+
+        mWriteScheduled = true;
+        mDispatcher.dispatchDelayed(mWriteTask, WRITE_DELAY_MS);
+    }
+
+    // Helper method that writes the pending updates on the dispatcher's thread.
+    private void write() throws IOException {
+        PlaybackSession session;
+        long songId;
+        int position;
+        synchronized (this) {
+            session = mPendingSession;
+            songId = mPendingSongId;
+            position = mPendingPosition;
+            mPendingSession = null;
+            mPendingSongId = -1;
+            mWriteScheduled = false;
+        }
+
+        // A position that's for another song is dropped, since that song no longer plays.
+        if (session != null) {
+            if (songId != -1 && songId == session.getSongId()) {
+                session = session.withPosition(position);
+            } else if (session.getSongId() == mSongId) {
+                session = session.withPosition(mPosition);
+            }
+
+            // A move within the same queue is appended, rather than writing the queue again.
+            int added = getAddedHistory(mSession, session);
+            if (added == -1 || mRecordCount >= MAX_RECORDS) {
+                rewrite(session);
+            } else {
+                appendMove(session, added);
+                if (session.getPosition() != 0) {
+                    appendPosition(session.getSongId(), session.getPosition());
+                }
+            }
+        } else if (songId != -1 && mSession != null && songId == mSession.getSongId()
+                && (songId != mSongId || position != mPosition)) {
+            if (mRecordCount >= MAX_RECORDS) {
+                rewrite(mSession.withPosition(position));
+            } else {
+                appendPosition(songId, position);
+            }
+        }
+    }
+
+    // Helper method that returns how many songs a session added to the shuffle history of the
+    // session in the file, or -1 if it doesn't only move within the same queue and shuffling.
+    private static int getAddedHistory(PlaybackSession from, PlaybackSession to) {
+        if (from == null || to.getQueue() != from.getQueue()
+                || to.isShuffle() != from.isShuffle()) {
+            return -1;
+        }
+
+        int[] before = from.getShuffleHistory();
+        int[] after = to.getShuffleHistory();
+        if (after == before) return 0;
+        if (after.length < before.length) return -1;
+        for (int i = 0; i < before.length; i++) {
+            if (after[i] != before[i]) return -1;
+        }
+
+        return after.length - before.length;
+    }
+
+    // Helper method that applies a move to a session, returning null if it doesn't hold together.
+    private static PlaybackSession move(PlaybackSession session, int queueIndex, int[] history,
+                                        int shuffleIndex) {
+        int size = session.getQueue().size();
+        if (queueIndex < 0 || queueIndex >= Math.max(1, size)) return null;
+        if (shuffleIndex < -1 || shuffleIndex >= Math.max(1, history.length)) return null;
+        for (int row : history) {
+            if (row < 0 || row >= size) return null;
+        }
+
+        return new PlaybackSession(session.getQueue(), queueIndex, session.isShuffle(), history,
+                shuffleIndex, 0);
+    }
+
+    // Helper method that replaces the file with a session.
+    private void rewrite(PlaybackSession session) throws IOException {
+        final byte[] data = encode(session);
+        final CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+
+        mLog.replace(new AppendLog.Content() {
+            @Override
+            public void writeTo(DataOutputStream out) throws IOException {
+                out.writeInt(data.length);
+                out.write(data);
+                out.writeInt((int) crc.getValue());
+            }
+        });
+
+        mSession = session;
+        mSongId = session.getSongId();
+        mPosition = session.getPosition();
+        mRecordCount = 0;
+    }
+
+    // Helper method that appends a move record, with the songs added to the shuffle history.
+    private void appendMove(PlaybackSession session, int added) throws IOException {
+        int[] history = session.getShuffleHistory();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(MOVE_RECORD_SIZE + 4 * added);
+        DataOutputStream record = new DataOutputStream(bytes);
+        record.writeInt(MOVE_RECORD);
+        record.writeInt(session.getQueueIndex());
+        record.writeInt(session.getShuffleIndex());
+        record.writeInt(added);
+        for (int i = history.length - added; i < history.length; i++) {
+            record.writeInt(history[i]);
+        }
+        DataOutputStream out = mLog.append();
+        bytes.writeTo(out);
+        out.flush();
+
+        mSession = session.withPosition(0);
+        mSongId = session.getSongId();
+        mPosition = 0;
+        mRecordCount++;
+    }
+
+    // Helper method that appends a position record.
+    private void appendPosition(long songId, int position) throws IOException {
+        DataOutputStream out = mLog.append();
+        out.writeInt(POSITION_RECORD);
+        out.writeLong(songId);
+        out.writeInt(position);
+        out.flush();
+
+        mSongId = songId;
+        mPosition = position;
+        mRecordCount++;
+    }
+
+    // Helper method that encodes a session.
+    private static byte[] encode(PlaybackSession session) throws IOException {
+        long[] ids = session.getQueue().toArray();
+        int[] history = session.getShuffleHistory();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32 + 8 * ids.length
+                + 4 * history.length);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(ids.length);
+        for (long id : ids) {
+            out.writeLong(id);
+        }
+        out.writeInt(session.getQueueIndex());
+        out.writeInt(session.getPosition());
+        out.writeBoolean(session.isShuffle());
+        out.writeInt(history.length);
+        for (int row : history) {
+            out.writeInt(row);
+        }
+        out.writeInt(session.getShuffleIndex());
+        out.close();
+
+        return bytes.toByteArray();
+    }
+
+    // Helper method that decodes a session, returning null if it doesn't hold together.
+    private static PlaybackSession decode(byte[] data) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+
+        int size = in.readInt();
+        if (size < 0 || size > data.length / 8) return null;
+        long[] ids = new long[size];
+        for (int i = 0; i < size; i++) {
+            ids[i] = in.readLong();
+        }
+        int queueIndex = in.readInt();
+        int position = in.readInt();
+        boolean shuffle = in.readBoolean();
+        int historySize = in.readInt();
+        if (historySize < 0 || historySize > size) return null;
+        int[] history = new int[historySize];
+        for (int i = 0; i < historySize; i++) {
+            history[i] = in.readInt();
+            if (history[i] < 0 || history[i] >= size) return null;
+        }
+        int shuffleIndex = in.readInt();
+
+        if (size > 0 && (queueIndex < 0 || queueIndex >= size)) return null;
+        if (shuffleIndex < -1 || shuffleIndex >= Math.max(1, historySize)) return null;
+
+        return new PlaybackSession(PlayQueue.of(ids, 0, size), queueIndex, shuffle, history,
+                shuffleIndex, Math.max(0, position));
+    }
+}
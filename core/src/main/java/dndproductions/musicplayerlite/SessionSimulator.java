@@ -0,0 +1,328 @@
+package dndproductions.musicplayerlite;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Replays simulated user sessions against a {@link PlaybackEngine} with {@link SimulatedPlayer}s
+ * on virtual time, for load testing the playback state machine on the JVM.
+ *
+ * <p>Each session taps songs, skips in bursts, pauses, drags the seek bar, queues songs, toggles
+ * shuffle and lets songs play through, while checking that playback never stalls: a song that
+ * started preparing has to start or fail within the stall timeout, and a playing song has to be
+ * followed by another state within the stall timeout once it's over. Calls that MediaPlayer
+ * wouldn't allow count as failures. Every session is derived from the seed and its index, so
+ * any of them can be replayed.
+ */
+public class SessionSimulator {
+
+    // Time between the checks of a session, in virtual milliseconds.
+    private static final long CHECK_INTERVAL_MS = 1000;
+
+    private final long mSeed;
+    private final long[] mIds;
+    private final int mActions;
+    private final long mMinPrepareMillis;
+    private final long mMaxPrepareMillis;
+    private final double mFailureRate;
+    private final long mStallMillis;
+
+    /**
+     * Results of a run of sessions.
+     */
+    public static final class Result {
+        long mSessions;
+        long mActions;
+        long mTransitions;
+        long mStalls;
+        long mFailures;
+        long mVirtualMillis;
+        String mFirstProblem;
+
+        // Getter methods.
+        public long getSessions() {
+            return mSessions;
+        }
+
+        public long getActions() {
+            return mActions;
+        }
+
+        public long getTransitions() {
+            return mTransitions;
+        }
+
+        public long getStalls() {
+            return mStalls;
+        }
+
+        public long getFailures() {
+            return mFailures;
+        }
+
+        public long getVirtualMillis() {
+            return mVirtualMillis;
+        }
+
+        /**
+         * Returns a description of the first stall or failure, or null if none.
+         */
+        public String getFirstProblem() {
+            return mFirstProblem;
+        }
+
+        // Helper method that adds the results of other sessions.
+        void add(Result other) {
+            mSessions += other.mSessions;
+            mActions += other.mActions;
+            mTransitions += other.mTransitions;
+            mStalls += other.mStalls;
+            mFailures += other.mFailures;
+            mVirtualMillis += other.mVirtualMillis;
+            if (mFirstProblem == null) mFirstProblem = other.mFirstProblem;
+        }
+
+        @Override
+        public String toString() {
+            return mSessions + " sessions, " + mActions + " actions, " + mTransitions
+                    + " transitions, " + mStalls + " stalls, " + mFailures + " failures over "
+                    + mVirtualMillis / 3600000 + " virtual hours";
+        }
+    }
+
+    /**
+     * Creates a {@link SessionSimulator} object.
+     *
+     * @param seed is the seed the sessions are derived from.
+     * @param librarySize is the amount of songs in the library.
+     * @param actions is the amount of user actions per session.
+     * @param minPrepareMillis is the shortest time a song takes to prepare.
+     * @param maxPrepareMillis is the longest time a song takes to prepare.
+     * @param failureRate is the share of the songs that fail to prepare, from 0 to 1.
+     * @param stallMillis is how long a song may take to prepare, or to be followed by another
+     * state once it's over, before it counts as a stall.
+     */
+    public SessionSimulator(long seed, int librarySize, int actions, long minPrepareMillis,
+            long maxPrepareMillis, double failureRate, long stallMillis) {
+        mSeed = seed;
+        mActions = actions;
+        mMinPrepareMillis = minPrepareMillis;
+        mMaxPrepareMillis = maxPrepareMillis;
+        mFailureRate = failureRate;
+        mStallMillis = stallMillis;
+
+        mIds = new long[librarySize];
+        for (int i = 0; i < librarySize; i++) {
+            mIds[i] = i;
+        }
+    }
+
+    /**
+     * Runs a range of sessions on the calling thread.
+     *
+     * @param from is the index of the first session.
+     * @param to is the index after the last session.
+     */
+    public Result run(long from, long to) {
+        Result result = new Result();
+        for (long session = from; session < to; session++) {
+            runSession(session, result);
+        }
+
+        return result;
+    }
+
+    /**
+     * Runs a range of sessions split over several threads, which gives the same results as
+     * running them on one thread.
+     *
+     * @param sessions is the amount of sessions, starting from index 0.
+     * @param threads is the amount of threads.
+     */
+    public Result runParallel(long sessions, int threads) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Result>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                final long from = sessions * i / threads;
+                final long to = sessions * (i + 1) / threads;
+                futures.add(executor.submit(new Callable<Result>() {
+                    @Override
+                    public Result call() {
+                        return run(from, to);
+                    }
+                }));
+            }
+
+            Result result = new Result();
+            for (Future<Result> future : futures) {
+                result.add(future.get());
+            }
+
+            return result;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    // Helper method that runs one session, and adds its results.
+    private void runSession(long session, Result result) {
+        Random random = new Random(mSeed * 0x9E3779B97F4A7C15L + session);
+        SimulatedScheduler scheduler = new SimulatedScheduler();
+        SimulatedPlayer.Factory factory = new SimulatedPlayer.Factory(scheduler,
+                new SimulatedPlayer.Media(random, mMinPrepareMillis, mMaxPrepareMillis,
+                        mFailureRate),
+                random, true);
+        PlaybackEngine engine = new PlaybackEngine(scheduler, factory, scheduler, random,
+                new PlaybackEngine.Listener() {
+                    @Override
+                    public void onPlaybackStarted() {
+                    }
+
+                    @Override
+                    public void onPlaybackRestored() {
+                    }
+                });
+
+        boolean shuffle = false;
+        String problem = null;
+        for (int action = 0; action < mActions && problem == null; action++) {
+            int pick = random.nextInt(100);
+            if (pick < 20) {
+                engine.setSong(mIds, random.nextInt(mIds.length));
+                engine.playSong();
+            } else if (pick < 40) {
+
+                // Skips several songs in a row, faster than they can be prepared.
+                int skips = 1 + random.nextInt(5);
+                for (int i = 0; i < skips; i++) {
+                    engine.playNext();
+                    scheduler.advance(50);
+                }
+            } else if (pick < 48) {
+                engine.playPrevious();
+            } else if (pick < 63) {
+                PlaybackState state = engine.getPlaybackState();
+                if (state.getState() == PlaybackState.State.PLAYING) {
+                    engine.pause();
+                } else if (state.getState() == PlaybackState.State.PAUSED) {
+                    engine.go();
+                }
+            } else if (pick < 73) {
+                dragSeekBar(engine, scheduler, random);
+            } else if (pick < 81) {
+                long songId = mIds[random.nextInt(mIds.length)];
+                if (random.nextBoolean()) {
+                    engine.enqueueNext(songId);
+                } else {
+                    engine.enqueue(songId);
+                }
+            } else if (pick < 85) {
+                shuffle = !shuffle;
+                engine.setShuffle(shuffle);
+            } else {
+
+                // Listens for up to 10 minutes, so that songs play through.
+                problem = wait(engine, scheduler, (long) (random.nextDouble() * 600000));
+                continue;
+            }
+
+            // Thinks for a few seconds before the next action.
+            problem = wait(engine, scheduler, (long) (-Math.log(1 - random.nextDouble()) * 5000));
+        }
+
+        if (problem == null && scheduler.getFailureCount() > 0) {
+            problem = "Failure: " + scheduler.getLastFailure();
+        }
+
+        result.mSessions++;
+        result.mActions += mActions;
+        result.mTransitions += engine.getTransitionCount();
+        result.mFailures += scheduler.getFailureCount();
+        result.mVirtualMillis += scheduler.elapsedRealtime();
+        if (problem != null && !problem.startsWith("Failure")) result.mStalls++;
+        if (problem != null && result.mFirstProblem == null) {
+            result.mFirstProblem = "Session " + session + ": " + problem;
+        }
+    }
+
+    // Helper method that drags the seek bar across a song for a moment.
+    private static void dragSeekBar(PlaybackEngine engine, SimulatedScheduler scheduler,
+            Random random) {
+        PlaybackState state = engine.getPlaybackState();
+        if (state.getDuration() == 0 || (state.getState() != PlaybackState.State.PLAYING
+                && state.getState() != PlaybackState.State.PAUSED)) {
+            return;
+        }
+
+        int moves = 1 + random.nextInt(30);
+        for (int i = 0; i < moves; i++) {
+            engine.seek(random.nextInt(state.getDuration()));
+            scheduler.advance(16);
+        }
+    }
+
+    /**
+     * Lets virtual time pass while checking for stalls.
+     *
+     * @return a description of the stall, or null if none.
+     */
+    private String wait(PlaybackEngine engine, SimulatedScheduler scheduler, long millis) {
+        long end = scheduler.elapsedRealtime() + millis;
+        while (true) {
+            scheduler.runUntil(Math.min(end, scheduler.elapsedRealtime() + CHECK_INTERVAL_MS));
+
+            String stall = checkStall(engine.getPlaybackState(), scheduler.elapsedRealtime());
+            if (stall != null || scheduler.elapsedRealtime() >= end) return stall;
+        }
+    }
+
+    // Helper method that checks whether a state stayed on for longer than it should have.
+    private String checkStall(PlaybackState state, long now) {
+        long age = now - state.getUpdateTime();
+        switch (state.getState()) {
+            case PREPARING:
+                if (age > mStallMillis) {
+                    return "Stuck preparing " + state + " for " + age + " ms";
+                }
+                return null;
+            case PLAYING:
+                long remaining = state.getDuration() - state.getPosition(state.getUpdateTime());
+                if (state.getDuration() > 0 && age > remaining + mStallMillis) {
+                    return "Stuck playing " + state + " for " + age + " ms";
+                }
+                return null;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Runs simulated sessions and prints the results, e.g. via ./gradlew :core:simulate.
+     *
+     * @param args is the amount of sessions, followed by an optional amount of threads.
+     */
+    public static void main(String[] args) throws Exception {
+        long sessions = args.length > 0 ? Long.parseLong(args[0]) : 100000;
+        int threads = args.length > 1
+                ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+        SessionSimulator simulator = new SessionSimulator(1, 10000, 50, 20, 400, 0.01, 2000);
+        long start = System.nanoTime();
+        Result result = simulator.runParallel(sessions, threads);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.println(result);
+        System.out.printf("%.0f sessions/s, %.0f transitions/s%n", result.getSessions() / seconds,
+                result.getTransitions() / seconds);
+        if (result.getFirstProblem() != null) {
+            System.out.println("First problem: " + result.getFirstProblem());
+        }
+        if (result.getStalls() > 0 || result.getFailures() > 0) System.exit(1);
+    }
+}
@@ -0,0 +1,352 @@
+package dndproductions.musicplayerlite;
+
+import java.util.Random;
+
+/**
+ * {@link AudioPlayer} that plays songs on the virtual time of a {@link SimulatedScheduler}, for
+ * exercising the {@link PlaybackEngine} on the JVM.
+ *
+ * <p>It follows the state machine of Android's MediaPlayer, and throws
+ * {@link IllegalStateException} when a method is called in a state MediaPlayer doesn't allow it
+ * in, so that a simulation catches the calls that would fail on a device. Callbacks that were
+ * pending when the player is reset are dropped, as MediaPlayer does.
+ */
+public class SimulatedPlayer implements AudioPlayer {
+
+    // MediaPlayer.MEDIA_ERROR_UNKNOWN and MediaPlayer.MEDIA_ERROR_MALFORMED.
+    private static final int MEDIA_ERROR_UNKNOWN = 1;
+    private static final int MEDIA_ERROR_MALFORMED = -1007;
+
+    // States of MediaPlayer.
+    private enum State {
+        IDLE, INITIALIZED, PREPARING, PREPARED, STARTED, PAUSED, STOPPED, COMPLETED, ERROR, END
+    }
+
+    /**
+     * Songs as seen by the simulated players: how long they take to prepare, how long they are,
+     * and whether they fail to prepare. The same song always has the same duration and either
+     * always or never fails, like a broken file would.
+     */
+    public static class Media {
+        private static final String[] MIME_TYPES = {"audio/mpeg", "audio/mp4", "audio/flac"};
+
+        private final Random mRandom;
+        private final long mMinPrepareMillis;
+        private final long mMaxPrepareMillis;
+        private final double mFailureRate;
+
+        /**
+         * Creates a {@link Media} object.
+         *
+         * @param random is the source of the prepare times.
+         * @param minPrepareMillis is the shortest prepare time in milliseconds.
+         * @param maxPrepareMillis is the longest prepare time in milliseconds.
+         * @param failureRate is the share of the songs that fail to prepare, from 0 to 1.
+         */
+        public Media(Random random, long minPrepareMillis, long maxPrepareMillis,
+                double failureRate) {
+            mRandom = random;
+            mMinPrepareMillis = minPrepareMillis;
+            mMaxPrepareMillis = maxPrepareMillis;
+            mFailureRate = failureRate;
+        }
+
+        long getPrepareMillis() {
+            long range = mMaxPrepareMillis - mMinPrepareMillis;
+            return mMinPrepareMillis + (range > 0 ? (long) (mRandom.nextDouble() * range) : 0);
+        }
+
+        // Durations range from 1.5 to 5.5 minutes.
+        int getDuration(long songId) {
+            return 90000 + (int) (mix(songId) % 240000);
+        }
+
+        boolean fails(long songId) {
+            return (mix(songId ^ 0x5DEECE66DL) % 1000000) < mFailureRate * 1000000;
+        }
+
+        String getMimeType(long songId) {
+            return MIME_TYPES[(int) (mix(songId) % MIME_TYPES.length)];
+        }
+
+        // Helper method that scrambles a song ID into a non-negative number.
+        private static long mix(long value) {
+            value ^= value >>> 33;
+            value *= 0xFF51AFD7ED558CCDL;
+            value ^= value >>> 33;
+            return value & Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Factory of simulated players, which counts the songs they prepare.
+     */
+    public static class Factory implements AudioPlayer.Factory {
+        private final SimulatedScheduler mScheduler;
+        private final Media mMedia;
+        private final Random mRandom;
+        private final boolean mSupportsNext;
+        private long mPrepareCount;
+
+        /**
+         * Creates a {@link Factory} object.
+         *
+         * @param scheduler is the scheduler the players run on.
+         * @param media is the songs.
+         * @param random is the source of the order of callbacks that arrive at the same time.
+         * @param supportsNext is whether the players can be chained, as from API 16 on.
+         */
+        public Factory(SimulatedScheduler scheduler, Media media, Random random,
+                boolean supportsNext) {
+            mScheduler = scheduler;
+            mMedia = media;
+            mRandom = random;
+            mSupportsNext = supportsNext;
+        }
+
+        @Override
+        public AudioPlayer create(Listener listener) {
+            return new SimulatedPlayer(this, listener);
+        }
+
+        /**
+         * Returns the amount of times the players started preparing a song.
+         */
+        public long getPrepareCount() {
+            return mPrepareCount;
+        }
+    }
+
+    private final Factory mFactory;
+    private final Listener mListener;
+
+    private State mState = State.IDLE;
+    private long mSongId = -1;
+    private int mDuration;
+    private SimulatedPlayer mNext;
+    private float mVolume = 1f;
+
+    // Position at the anchor time, which keeps moving from there while started.
+    private int mPosition;
+    private long mAnchorTime;
+
+    // Incremented whenever the scheduled events of the player become stale.
+    private int mGeneration;
+
+    private SimulatedPlayer(Factory factory, Listener listener) {
+        mFactory = factory;
+        mListener = listener;
+    }
+
+    @Override
+    public void setSource(long songId) {
+        check(mState == State.IDLE, "setSource");
+
+        mSongId = songId;
+        mState = State.INITIALIZED;
+    }
+
+    @Override
+    public void prepareAsync() {
+        check(mState == State.INITIALIZED || mState == State.STOPPED, "prepareAsync");
+
+        mState = State.PREPARING;
+        mFactory.mPrepareCount++;
+
+        final int generation = ++mGeneration;
+        mFactory.mScheduler.dispatchDelayed(new Runnable() {
+            @Override
+            public void run() {
+                if (generation != mGeneration) return;
+
+                if (mFactory.mMedia.fails(mSongId)) {
+                    mState = State.ERROR;
+                    mListener.onError(SimulatedPlayer.this, MEDIA_ERROR_UNKNOWN,
+                            MEDIA_ERROR_MALFORMED);
+                    return;
+                }
+
+                mState = State.PREPARED;
+                mDuration = mFactory.mMedia.getDuration(mSongId);
+                mPosition = 0;
+                mListener.onPrepared(SimulatedPlayer.this);
+            }
+        }, mFactory.mMedia.getPrepareMillis());
+    }
+
+    @Override
+    public void start() {
+        check(mState == State.PREPARED || mState == State.STARTED || mState == State.PAUSED
+                || mState == State.COMPLETED, "start");
+        if (mState == State.STARTED) return;
+
+        if (mState == State.COMPLETED) mPosition = 0;
+        play();
+    }
+
+    @Override
+    public void pause() {
+        check(mState == State.STARTED || mState == State.PAUSED || mState == State.COMPLETED,
+                "pause");
+        if (mState != State.STARTED) return;
+
+        mPosition = getCurrentPosition();
+        mState = State.PAUSED;
+        mGeneration++;
+    }
+
+    @Override
+    public void stop() {
+        check(mState == State.PREPARED || mState == State.STARTED || mState == State.PAUSED
+                || mState == State.STOPPED || mState == State.COMPLETED, "stop");
+
+        mState = State.STOPPED;
+        mGeneration++;
+    }
+
+    @Override
+    public void seekTo(int position) {
+        check(mState == State.PREPARED || mState == State.STARTED || mState == State.PAUSED
+                || mState == State.COMPLETED, "seekTo");
+
+        mPosition = Math.max(0, Math.min(position, mDuration));
+        if (mState == State.STARTED) {
+            play();
+        } else if (mState == State.COMPLETED) {
+            mState = State.PAUSED;
+        }
+    }
+
+    @Override
+    public void reset() {
+        check(mState != State.END, "reset");
+
+        mState = State.IDLE;
+        mSongId = -1;
+        mDuration = 0;
+        mPosition = 0;
+        mNext = null;
+        mGeneration++;
+    }
+
+    @Override
+    public void setVolume(float volume) {
+        check(mState != State.ERROR && mState != State.END, "setVolume");
+
+        mVolume = volume;
+    }
+
+    @Override
+    public void release() {
+        mState = State.END;
+        mNext = null;
+        mGeneration++;
+    }
+
+    @Override
+    public boolean isPlaying() {
+        return mState == State.STARTED;
+    }
+
+    @Override
+    public int getDuration() {
+        switch (mState) {
+            case PREPARED:
+            case STARTED:
+            case PAUSED:
+            case STOPPED:
+            case COMPLETED:
+                return mDuration;
+            default:
+                return 0;
+        }
+    }
+
+    @Override
+    public int getCurrentPosition() {
+        if (mState != State.STARTED) return mPosition;
+
+        long elapsed = mFactory.mScheduler.elapsedRealtime() - mAnchorTime;
+        return (int) Math.min(mDuration, mPosition + elapsed);
+    }
+
+    @Override
+    public String getMimeType() {
+        return mSongId != -1 ? mFactory.mMedia.getMimeType(mSongId) : null;
+    }
+
+    @Override
+    public boolean supportsNext() {
+        return mFactory.mSupportsNext;
+    }
+
+    @Override
+    public void setNext(AudioPlayer next) {
+        check(mFactory.mSupportsNext, "setNext");
+        check(mState != State.IDLE && mState != State.ERROR && mState != State.END, "setNext");
+        if (next != null) check(((SimulatedPlayer) next).mState == State.PREPARED, "setNext");
+
+        mNext = (SimulatedPlayer) next;
+    }
+
+    /**
+     * Returns the ID of the song the player holds, or -1 if none.
+     */
+    public long getSongId() {
+        return mSongId;
+    }
+
+    // Helper method that plays from the current position, and schedules the completion.
+    private void play() {
+        mState = State.STARTED;
+        mAnchorTime = mFactory.mScheduler.elapsedRealtime();
+
+        final int generation = ++mGeneration;
+        mFactory.mScheduler.dispatchDelayed(new Runnable() {
+            @Override
+            public void run() {
+                if (generation == mGeneration) complete();
+            }
+        }, mDuration - mPosition);
+    }
+
+    // Helper method that completes the song, and starts the chained player if there's one.
+    private void complete() {
+        mPosition = mDuration;
+        mState = State.COMPLETED;
+        final int generation = ++mGeneration;
+
+        final SimulatedPlayer next = mNext;
+        mNext = null;
+        if (next == null || next.mState != State.PREPARED) {
+            mListener.onCompletion(this);
+            return;
+        }
+
+        next.mPosition = 0;
+        next.play();
+        final int nextGeneration = next.mGeneration;
+
+        // MediaPlayer reports the completion and the start of the next player in either order.
+        Runnable completion = new Runnable() {
+            @Override
+            public void run() {
+                if (generation == mGeneration) mListener.onCompletion(SimulatedPlayer.this);
+            }
+        };
+        Runnable startedAsNext = new Runnable() {
+            @Override
+            public void run() {
+                if (nextGeneration == next.mGeneration) mListener.onStartedAsNext(next);
+            }
+        };
+        boolean completionFirst = mFactory.mRandom.nextBoolean();
+        mFactory.mScheduler.dispatch(completionFirst ? completion : startedAsNext);
+        mFactory.mScheduler.dispatch(completionFirst ? startedAsNext : completion);
+    }
+
+    // Helper method that throws if a method was called in a state that doesn't allow it.
+    private void check(boolean valid, String method) {
+        if (!valid) throw new IllegalStateException(method + "() called in state " + mState);
+    }
+}
@@ -0,0 +1,107 @@
+package dndproductions.musicplayerlite;
+
+import java.util.PriorityQueue;
+
+/**
+ * Virtual clock and single-threaded dispatcher for simulating playback on the JVM. Tasks run on
+ * the calling thread as the time is advanced, in the order of their due times and then of their
+ * submission, so a simulation always replays the same way.
+ */
+public class SimulatedScheduler implements Clock, CommandExecutor.Dispatcher {
+
+    private final PriorityQueue<Task> mTasks = new PriorityQueue<>();
+    private long mNow;
+    private long mSequence;
+    private long mFailures;
+    private RuntimeException mLastFailure;
+
+    // Task due at a point in time.
+    private static final class Task implements Comparable<Task> {
+        final long mTime;
+        final long mSequence;
+        final Runnable mRunnable;
+
+        Task(long time, long sequence, Runnable runnable) {
+            mTime = time;
+            mSequence = sequence;
+            mRunnable = runnable;
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            if (mTime != other.mTime) return mTime < other.mTime ? -1 : 1;
+            if (mSequence != other.mSequence) return mSequence < other.mSequence ? -1 : 1;
+            return 0;
+        }
+    }
+
+    @Override
+    public long elapsedRealtime() {
+        return mNow;
+    }
+
+    @Override
+    public void dispatch(Runnable task) {
+        dispatchDelayed(task, 0);
+    }
+
+    @Override
+    public void dispatchDelayed(Runnable task, long delayMillis) {
+        mTasks.add(new Task(mNow + Math.max(0, delayMillis), mSequence++, task));
+    }
+
+    /**
+     * Runs the tasks due until a point in time, and then moves the clock there.
+     *
+     * @param time is the point in time in milliseconds.
+     */
+    public void runUntil(long time) {
+        while (!mTasks.isEmpty() && mTasks.peek().mTime <= time) {
+            Task task = mTasks.poll();
+            mNow = task.mTime;
+            run(task.mRunnable);
+        }
+
+        mNow = Math.max(mNow, time);
+    }
+
+    /**
+     * Runs the tasks due within a time span from now.
+     *
+     * @param millis is the time span in milliseconds.
+     */
+    public void advance(long millis) {
+        runUntil(mNow + millis);
+    }
+
+    /**
+     * Runs the tasks that are due now, including the ones they submit without a delay.
+     */
+    public void runDue() {
+        runUntil(mNow);
+    }
+
+    /**
+     * Returns the amount of tasks that threw, which a simulation is expected to keep at 0.
+     */
+    public long getFailureCount() {
+        return mFailures;
+    }
+
+    /**
+     * Returns the exception thrown by the last task that threw, or null if none.
+     */
+    public RuntimeException getLastFailure() {
+        return mLastFailure;
+    }
+
+    // Helper method that runs a task, counting it as a failure if it throws.
+    private void run(Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            mFailures++;
+            mLastFailure = e;
+        }
+    }
+}
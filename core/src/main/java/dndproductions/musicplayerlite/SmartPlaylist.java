@@ -0,0 +1,162 @@
+package dndproductions.musicplayerlite;
+
+/**
+ * Immutable rule-based playlist, whose songs are the ones that match all of its rules: an artist
+ * that contains some text, a play count above a threshold, an addition to the library within a
+ * recent period, and a duration within a range. Rules that aren't set match every song.
+ *
+ * <p>A playlist is evaluated against a {@link SongTable} by compiling it into a
+ * {@link SmartPlaylistQuery}.
+ */
+public final class SmartPlaylist {
+
+    // Values of the rules that aren't set.
+    private static final int NO_PLAY_COUNT = -1;
+    private static final long NO_PERIOD = -1;
+
+    /**
+     * Interface that looks up how many times songs were played.
+     */
+    public interface PlayCounts {
+
+        /**
+         * Returns how many times a song was played.
+         *
+         * @param songId is the song's ID.
+         */
+        int getPlayCount(long songId);
+    }
+
+    private final String mName;
+    private final String mArtist;
+    private final int mMinPlayCount;
+    private final long mAddedWithin;
+    private final long mMinDuration;
+    private final long mMaxDuration;
+
+    /**
+     * Creates a {@link SmartPlaylist} object without any rules, which matches every song.
+     *
+     * @param name is the playlist's name.
+     */
+    public SmartPlaylist(String name) {
+        this(name, null, NO_PLAY_COUNT, NO_PERIOD, 0, Long.MAX_VALUE);
+    }
+
+    private SmartPlaylist(String name, String artist, int minPlayCount, long addedWithin,
+                          long minDuration, long maxDuration) {
+        mName = name;
+        mArtist = artist;
+        mMinPlayCount = minPlayCount;
+        mAddedWithin = addedWithin;
+        mMinDuration = minDuration;
+        mMaxDuration = maxDuration;
+    }
+
+    /**
+     * Returns a copy of this playlist that only matches the songs whose artist contains a text,
+     * ignoring case and accents.
+     *
+     * @param text is the text.
+     */
+    public SmartPlaylist withArtistMatching(String text) {
+        return new SmartPlaylist(mName, text, mMinPlayCount, mAddedWithin, mMinDuration,
+                mMaxDuration);
+    }
+
+    /**
+     * Returns a copy of this playlist that only matches the songs played more than a number of
+     * times.
+     *
+     * @param count is the number of plays the songs must exceed.
+     */
+    public SmartPlaylist withPlayCountAbove(int count) {
+        return new SmartPlaylist(mName, mArtist, count, mAddedWithin, mMinDuration,
+                mMaxDuration);
+    }
+
+    /**
+     * Returns a copy of this playlist that only matches the songs added to the library within a
+     * period before the playlist is evaluated.
+     *
+     * @param millis is the period in milliseconds.
+     */
+    public SmartPlaylist withAddedWithin(long millis) {
+        return new SmartPlaylist(mName, mArtist, mMinPlayCount, millis, mMinDuration,
+                mMaxDuration);
+    }
+
+    /**
+     * Returns a copy of this playlist that only matches the songs whose duration is within a
+     * range.
+     *
+     * @param minMillis is the shortest duration in milliseconds.
+     * @param maxMillis is the longest duration in milliseconds.
+     */
+    public SmartPlaylist withDurationBetween(long minMillis, long maxMillis) {
+        if (minMillis > maxMillis) {
+            throw new IllegalArgumentException("Duration " + minMillis + " > " + maxMillis);
+        }
+
+        return new SmartPlaylist(mName, mArtist, mMinPlayCount, mAddedWithin, minMillis,
+                maxMillis);
+    }
+
+    // Getter methods.
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Returns the text the artists must contain, or null if any artist matches.
+     */
+    public String getArtist() {
+        return mArtist;
+    }
+
+    /**
+     * Returns the number of plays the songs must exceed, or -1 if any song matches.
+     */
+    public int getMinPlayCount() {
+        return mMinPlayCount;
+    }
+
+    /**
+     * Returns the period the songs must have been added within, or -1 if any song matches.
+     */
+    public long getAddedWithin() {
+        return mAddedWithin;
+    }
+
+    public long getMinDuration() {
+        return mMinDuration;
+    }
+
+    public long getMaxDuration() {
+        return mMaxDuration;
+    }
+
+    /**
+     * Compiles this playlist into a query over a table, and evaluates it.
+     *
+     * @param table is the song table.
+     * @param playCounts is the lookup of the play counts, which is only needed if the playlist
+     * has a play count rule.
+     * @param now is the current time in milliseconds since the epoch, which the period of the
+     * addition rule ends at.
+     */
+    public SmartPlaylistQuery compile(SongTable table, PlayCounts playCounts, long now) {
+        if (mMinPlayCount != NO_PLAY_COUNT && playCounts == null) {
+            throw new IllegalArgumentException("No play counts for " + this);
+        }
+
+        return new SmartPlaylistQuery(this, table, playCounts, now);
+    }
+
+    @Override
+    public String toString() {
+        return "SmartPlaylist{name='" + mName + "', artist='" + mArtist + "', playCount>"
+                + mMinPlayCount + ", addedWithin=" + mAddedWithin + ", duration="
+                + mMinDuration + ".." + mMaxDuration + "}";
+    }
+}
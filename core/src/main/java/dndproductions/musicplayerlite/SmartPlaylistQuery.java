@@ -0,0 +1,338 @@
+package dndproductions.musicplayerlite;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * {@link SmartPlaylist} compiled into predicates over the columns of a {@link SongTable}, along
+ * with the rows that match them.
+ *
+ * <p>Each rule becomes a clause that reads a single column of a row, e.g. the artist rule is
+ * resolved once per pooled artist string, the first time a row of that artist is evaluated, so
+ * that a row otherwise only costs an array lookup. The clauses
+ * are ordered by how many of a sample of the rows they let through, so that a row is rejected by
+ * the most selective clause first, and the costlier clauses (e.g. the play count lookups) only
+ * run for the rows that passed the others.
+ *
+ * <p>Once evaluated, a query is kept up to date incrementally: {@link #refresh(long[])}
+ * evaluates again the songs whose play counts changed, and {@link #rebase(SongTable,
+ * LibraryChanges, long)} carries the matches over to a table the library changes were applied
+ * to, so that only the songs within the changes are evaluated again.
+ */
+public final class SmartPlaylistQuery {
+
+    // Amount of rows the selectivity of the clauses is estimated on.
+    private static final int SAMPLE_ROWS = 256;
+
+    // Relative costs of a clause that reads a column, and of one that looks a value up.
+    private static final int COLUMN_COST = 1;
+    private static final int LOOKUP_COST = 4;
+
+    // States of a pooled artist for the artist rule, until it's first resolved.
+    private static final byte ARTIST_UNRESOLVED = 0;
+    private static final byte ARTIST_MATCHES = 1;
+    private static final byte ARTIST_DIFFERS = 2;
+
+    private final SmartPlaylist mPlaylist;
+    private final SongTable mTable;
+    private final SmartPlaylist.PlayCounts mPlayCounts;
+    private final long mNow;
+
+    // Clauses, the most selective first.
+    private final Clause[] mClauses;
+
+    // Whether each row matches, and the amount of rows that do.
+    private final boolean[] mMatches;
+    private int mCount;
+
+    // Amount of rows evaluated since the query was compiled.
+    private long mEvaluated;
+
+    /**
+     * Predicate over a row of the table, along with its relative cost and estimated pass rate.
+     */
+    private abstract static class Clause {
+        final String mName;
+        final int mCost;
+        double mPassRate;
+
+        Clause(String name, int cost) {
+            mName = name;
+            mCost = cost;
+        }
+
+        abstract boolean matches(int row);
+    }
+
+    SmartPlaylistQuery(SmartPlaylist playlist, SongTable table,
+                       SmartPlaylist.PlayCounts playCounts, long now) {
+        this(playlist, table, playCounts, now, null, null);
+    }
+
+    // Compiles the playlist for a table, carrying over whether the rows kept from a previous
+    // query's table matched if given, so that only the rest of the rows are evaluated.
+    private SmartPlaylistQuery(SmartPlaylist playlist, SongTable table,
+                               SmartPlaylist.PlayCounts playCounts, long now,
+                               SmartPlaylistQuery previous, LibraryChanges changes) {
+        mPlaylist = playlist;
+        mTable = table;
+        mPlayCounts = playCounts;
+        mNow = now;
+        mClauses = compile(previous == null);
+        mMatches = new boolean[table.size()];
+
+        int row = previous != null ? carryMatches(previous, changes) : 0;
+        for (; row < mMatches.length; row++) {
+            mMatches[row] = evaluate(row);
+            if (mMatches[row]) mCount++;
+        }
+    }
+
+    /**
+     * Carries this query over to the table that {@link LibraryChanges#applyTo(SongTable,
+     * java.util.List)} returned for its table. The rows kept from this query's table keep whether
+     * they matched, so only the songs within the changes are evaluated, unless the changes don't
+     * name their songs.
+     *
+     * @param table is the updated table.
+     * @param changes is the changes that were applied.
+     * @param now is the current time in milliseconds, which the rules on the date a song was
+     * added are relative to.
+     * @return the query over the updated table.
+     */
+    public SmartPlaylistQuery rebase(SongTable table, LibraryChanges changes, long now) {
+
+        // An earlier time could put songs that didn't match back in the playlist.
+        boolean carry = !changes.isAll() && (now >= mNow || mPlaylist.getAddedWithin() < 0);
+
+        return new SmartPlaylistQuery(mPlaylist, table, mPlayCounts, now, carry ? this : null,
+                changes);
+    }
+
+    /**
+     * Evaluates the songs whose play counts changed again.
+     *
+     * @param songIds is the songs' IDs, where songs that aren't in the table are ignored.
+     * @return the amount of songs that were added to or removed from the playlist.
+     */
+    public int refresh(long[] songIds) {
+        int changed = 0;
+        for (long songId : songIds) {
+            int row = mTable.indexOfId(songId);
+            if (row == -1) continue;
+
+            boolean matches = evaluate(row);
+            if (matches == mMatches[row]) continue;
+
+            mMatches[row] = matches;
+            mCount += matches ? 1 : -1;
+            changed++;
+        }
+
+        return changed;
+    }
+
+    /**
+     * Returns whether a song is in the playlist.
+     *
+     * @param songId is the song's ID.
+     */
+    public boolean contains(long songId) {
+        int row = mTable.indexOfId(songId);
+        return row != -1 && mMatches[row];
+    }
+
+    /**
+     * Returns the amount of songs in the playlist.
+     */
+    public int size() {
+        return mCount;
+    }
+
+    /**
+     * Returns the rows of the songs in the playlist, in an order of the table.
+     *
+     * @param order is the song order.
+     */
+    public int[] getRows(SongOrder order) {
+        int[] rows = new int[mCount];
+        int count = 0;
+        for (int position = 0; position < mMatches.length && count < mCount; position++) {
+            int row = mTable.rowAt(order, position);
+            if (mMatches[row]) rows[count++] = row;
+        }
+
+        return rows;
+    }
+
+    // Getter methods.
+    public SmartPlaylist getPlaylist() {
+        return mPlaylist;
+    }
+
+    public SongTable getTable() {
+        return mTable;
+    }
+
+    /**
+     * Returns the amount of rows evaluated since the query was compiled or rebased.
+     */
+    public long getEvaluatedCount() {
+        return mEvaluated;
+    }
+
+    /**
+     * Returns the names of the clauses in the order they're evaluated in.
+     */
+    String[] getClauseNames() {
+        String[] names = new String[mClauses.length];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = mClauses[i].mName;
+        }
+
+        return names;
+    }
+
+    // Helper method that carries over whether each row kept from the previous query's table
+    // matched, and returns the first row that's left to evaluate. The kept rows are in the same
+    // order as in that table, and followed by the songs within the changes.
+    private int carryMatches(SmartPlaylistQuery previous, LibraryChanges changes) {
+        int kept = mTable.size();
+        while (kept > 0 && changes.covers(mTable.getId(kept - 1))) {
+            kept--;
+        }
+
+        // A later time may take songs out of the playlist, but doesn't put any in.
+        boolean recheck = mNow != previous.mNow && mPlaylist.getAddedWithin() >= 0;
+
+        // Walks both tables at once, where the rows that were left out are skipped.
+        SongTable from = previous.mTable;
+        int row = 0;
+        for (int fromRow = 0; fromRow < from.size() && row < kept; fromRow++) {
+            if (from.getId(fromRow) != mTable.getId(row)) continue;
+
+            boolean matches = previous.mMatches[fromRow];
+            mMatches[row] = matches && recheck ? evaluate(row) : matches;
+            if (mMatches[row]) mCount++;
+            row++;
+        }
+
+        return row;
+    }
+
+    // Helper method that evaluates the clauses on a row, stopping at the first that fails.
+    private boolean evaluate(int row) {
+        mEvaluated++;
+        for (Clause clause : mClauses) {
+            if (!clause.matches(row)) return false;
+        }
+
+        return true;
+    }
+
+    // Helper method that compiles the rules that are set into clauses, and orders them.
+    private Clause[] compile(boolean evaluatesAll) {
+        Clause[] clauses = new Clause[4];
+        int count = 0;
+
+        if (mPlaylist.getArtist() != null) clauses[count++] = artistClause(evaluatesAll);
+
+        if (mPlaylist.getMinPlayCount() >= 0) {
+            final int minPlayCount = mPlaylist.getMinPlayCount();
+            clauses[count++] = new Clause("playCount", LOOKUP_COST) {
+                @Override
+                boolean matches(int row) {
+                    return mPlayCounts.getPlayCount(mTable.getId(row)) > minPlayCount;
+                }
+            };
+        }
+
+        if (mPlaylist.getAddedWithin() >= 0) {
+
+            // The dates are in seconds, and songs of unknown date never match.
+            final long since = (mNow - mPlaylist.getAddedWithin()) / 1000;
+            clauses[count++] = new Clause("addedWithin", COLUMN_COST) {
+                @Override
+                boolean matches(int row) {
+                    long dateAdded = mTable.getDateAdded(row);
+                    return dateAdded > 0 && dateAdded >= since;
+                }
+            };
+        }
+
+        if (mPlaylist.getMinDuration() > 0 || mPlaylist.getMaxDuration() < Long.MAX_VALUE) {
+            final long min = mPlaylist.getMinDuration();
+            final long max = mPlaylist.getMaxDuration();
+            clauses[count++] = new Clause("duration", COLUMN_COST) {
+                @Override
+                boolean matches(int row) {
+                    long duration = mTable.getDuration(row);
+                    return duration >= min && duration <= max;
+                }
+            };
+        }
+
+        clauses = Arrays.copyOf(clauses, count);
+        estimate(clauses);
+
+        return clauses;
+    }
+
+    // Helper method that resolves the artist rule once per pooled artist string. Unless every
+    // row is about to be evaluated, an artist is only resolved once a row of it is evaluated, so
+    // that carrying a query over to another table doesn't fold every artist.
+    private Clause artistClause(boolean evaluatesAll) {
+        final StringBuilder folded = new StringBuilder();
+        SongSearchIndex.fold(mPlaylist.getArtist(), folded);
+        final String text = folded.toString();
+
+        final byte[] states = new byte[mTable.getArtistCount()];
+        for (int ref = 0; evaluatesAll && ref < states.length; ref++) {
+            folded.setLength(0);
+            SongSearchIndex.fold(mTable.getPooledArtist(ref), folded);
+            states[ref] = folded.indexOf(text) >= 0 ? ARTIST_MATCHES : ARTIST_DIFFERS;
+        }
+
+        return new Clause("artist", COLUMN_COST) {
+            @Override
+            boolean matches(int row) {
+                int ref = mTable.getArtistRef(row);
+                if (ref < 0) return false;
+
+                if (states[ref] == ARTIST_UNRESOLVED) {
+                    folded.setLength(0);
+                    SongSearchIndex.fold(mTable.getPooledArtist(ref), folded);
+                    states[ref] = folded.indexOf(text) >= 0 ? ARTIST_MATCHES : ARTIST_DIFFERS;
+                }
+
+                return states[ref] == ARTIST_MATCHES;
+            }
+        };
+    }
+
+    // Helper method that estimates the pass rate of each clause on evenly spread rows, and then
+    // orders the clauses by it, the cheapest first among those that are as selective.
+    private void estimate(Clause[] clauses) {
+        int size = mTable.size();
+        int step = Math.max(1, size / SAMPLE_ROWS);
+        for (Clause clause : clauses) {
+            int samples = 0;
+            int passes = 0;
+            for (int row = 0; row < size; row += step) {
+                samples++;
+                if (clause.matches(row)) passes++;
+            }
+
+            // Smoothed, so that clauses that passed none or all of the sample stay comparable.
+            clause.mPassRate = (passes + 1.0) / (samples + 2.0);
+        }
+
+        Arrays.sort(clauses, new Comparator<Clause>() {
+            @Override
+            public int compare(Clause a, Clause b) {
+                int order = Double.compare(a.mPassRate, b.mPassRate);
+                return order != 0 ? order : a.mCost - b.mCost;
+            }
+        });
+    }
+}
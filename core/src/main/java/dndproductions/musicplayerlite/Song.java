@@ -0,0 +1,182 @@
+package dndproductions.musicplayerlite;
+
+/**
+ * Class used to model the data for a single audio file.
+ */
+public class Song {
+
+    // Fields used as data for storing for each track.
+    private long id;
+    private String title;
+    private String artist;
+    private String album;
+    private long albumId;
+    private long artistId;
+    private long duration;
+    private long dateAdded;
+
+    /**
+     * Creates a {@link Song} object.
+     *
+     * @param songID is the ID of the song.
+     * @param songTitle is the title of the song.
+     * @param songArtist is the artist of the song.
+     */
+    public Song(long songID, String songTitle, String songArtist) {
+        this(songID, songTitle, songArtist, null);
+    }
+
+    /**
+     * Creates a {@link Song} object.
+     *
+     * @param songID is the ID of the song.
+     * @param songTitle is the title of the song.
+     * @param songArtist is the artist of the song.
+     * @param songAlbum is the album of the song.
+     */
+    public Song(long songID, String songTitle, String songArtist, String songAlbum) {
+        this(songID, songTitle, songArtist, songAlbum, -1);
+    }
+
+    /**
+     * Creates a {@link Song} object.
+     *
+     * @param songID is the ID of the song.
+     * @param songTitle is the title of the song.
+     * @param songArtist is the artist of the song.
+     * @param songAlbum is the album of the song.
+     * @param songAlbumID is the MediaStore ID of the song's album, or -1 if unknown.
+     */
+    public Song(long songID, String songTitle, String songArtist, String songAlbum,
+            long songAlbumID) {
+        this(songID, songTitle, songArtist, songAlbum, songAlbumID, -1, 0);
+    }
+
+    /**
+     * Creates a {@link Song} object.
+     *
+     * @param songID is the ID of the song.
+     * @param songTitle is the title of the song.
+     * @param songArtist is the artist of the song.
+     * @param songAlbum is the album of the song.
+     * @param songAlbumID is the MediaStore ID of the song's album, or -1 if unknown.
+     * @param songArtistID is the MediaStore ID of the song's artist, or -1 if unknown.
+     * @param songDuration is the duration of the song in milliseconds, or 0 if unknown.
+     */
+    public Song(long songID, String songTitle, String songArtist, String songAlbum,
+            long songAlbumID, long songArtistID, long songDuration) {
+        this(songID, songTitle, songArtist, songAlbum, songAlbumID, songArtistID, songDuration,
+                0);
+    }
+
+    /**
+     * Creates a {@link Song} object.
+     *
+     * @param songID is the ID of the song.
+     * @param songTitle is the title of the song.
+     * @param songArtist is the artist of the song.
+     * @param songAlbum is the album of the song.
+     * @param songAlbumID is the MediaStore ID of the song's album, or -1 if unknown.
+     * @param songArtistID is the MediaStore ID of the song's artist, or -1 if unknown.
+     * @param songDuration is the duration of the song in milliseconds, or 0 if unknown.
+     * @param songDateAdded is when the song was added to the library, in seconds since the
+     * epoch, or 0 if unknown.
+     */
+    public Song(long songID, String songTitle, String songArtist, String songAlbum,
+            long songAlbumID, long songArtistID, long songDuration, long songDateAdded) {
+        id = songID;
+        title = songTitle;
+        artist = songArtist;
+        album = songAlbum;
+        albumId = songAlbumID;
+        artistId = songArtistID;
+        duration = songDuration;
+        dateAdded = songDateAdded;
+    }
+
+    // Getter methods.
+    public long getID() {
+        return id;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public String getArtist() {
+        return artist;
+    }
+
+    public String getAlbum() {
+        return album;
+    }
+
+    public long getAlbumID() {
+        return albumId;
+    }
+
+    public long getArtistID() {
+        return artistId;
+    }
+
+    public long getDuration() {
+        return duration;
+    }
+
+    public long getDateAdded() {
+        return dateAdded;
+    }
+
+    /**
+     * Converts a {@link Song} object to a string.
+     */
+    @Override
+    public String toString() {
+        return "Song{" +
+                "id=" + id +
+                ", title='" + title + '\'' +
+                ", artist='" + artist + '\'' +
+                ", album='" + album + '\'' +
+                '}';
+    }
+
+    /**
+     * Compares two objects - one of them being a {@link Song} object.
+     *
+     * @param o is the other object being compared with.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        Song song = (Song) o;
+
+        if (id != song.id) return false;
+        if (albumId != song.albumId) return false;
+        if (artistId != song.artistId) return false;
+        if (duration != song.duration) return false;
+        if (dateAdded != song.dateAdded) return false;
+        if (title != null ? !title.equals(song.title) : song.title != null) return false;
+        if (artist != null ? !artist.equals(song.artist) : song.artist != null) return false;
+        return album != null ? album.equals(song.album) : song.album == null;
+
+    }
+
+    /**
+     * Returns a hash code consistent with {@link #equals(Object)}, so that songs can be kept in
+     * hash-based collections, e.g. when grouping duplicates.
+     */
+    @Override
+    public int hashCode() {
+        int result = (int) (id ^ (id >>> 32));
+        result = 31 * result + (int) (albumId ^ (albumId >>> 32));
+        result = 31 * result + (int) (artistId ^ (artistId >>> 32));
+        result = 31 * result + (int) (duration ^ (duration >>> 32));
+        result = 31 * result + (int) (dateAdded ^ (dateAdded >>> 32));
+        result = 31 * result + (title != null ? title.hashCode() : 0);
+        result = 31 * result + (artist != null ? artist.hashCode() : 0);
+        result = 31 * result + (album != null ? album.hashCode() : 0);
+        return result;
+    }
+}
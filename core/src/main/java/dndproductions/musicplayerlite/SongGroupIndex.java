@@ -0,0 +1,348 @@
+package dndproductions.musicplayerlite;
+
+import java.util.Arrays;
+
+/**
+ * Aggregation index that groups the rows of a {@link SongTable} by a key column, i.e. the
+ * MediaStore ID of their artist or of their album, for browsing the library by artist or album.
+ *
+ * <p>Each group's song count and total duration are kept in primitive arrays, and updated as each
+ * row is appended to the table, so that they're computed in the same pass that fills the table
+ * in. A table that's brought up to date by copying the unchanged rows of another one takes over
+ * that table's groups, and only takes the rows it left out away from them. The group of a key is
+ * found through an open-addressing hash table, rather than by comparing the key with every
+ * group.
+ *
+ * <p>The rows of each group are listed on demand in a single array, where each group spans a
+ * range, by a counting sort over one of the table's orders. The ranges are kept until the table
+ * changes or another order is asked for.
+ */
+public final class SongGroupIndex {
+
+    // Key of the rows whose artist or album isn't known, which are grouped together.
+    public static final long UNKNOWN_KEY = -1;
+
+    // Initial capacities for the group columns and the hash table, whose size is a power of two.
+    private static final int INITIAL_GROUPS = 16;
+    private static final int INITIAL_SLOTS = 32;
+
+    private final SongTable mTable;
+
+    // Group columns.
+    private long[] mKeys = new long[INITIAL_GROUPS];
+    private int[] mCounts = new int[INITIAL_GROUPS];
+    private long[] mDurations = new long[INITIAL_GROUPS];
+    private int[] mFirstRows = new int[INITIAL_GROUPS];
+    private int mGroupCount;
+
+    // Hash table from a key to its group plus one, where zero marks an empty slot.
+    private long[] mSlotKeys = new long[INITIAL_SLOTS];
+    private int[] mSlotGroups = new int[INITIAL_SLOTS];
+
+    // Group of each row.
+    private int[] mRowGroups = new int[INITIAL_GROUPS];
+    private int mRowCount;
+
+    // Rows of each group, where group i spans mStarts[i] to mStarts[i + 1], and the permutation
+    // they were listed in, or null once rows were added.
+    private int[] mStarts;
+    private int[] mMembers;
+    private int[] mMembersOrder;
+
+    SongGroupIndex(SongTable table) {
+        mTable = table;
+    }
+
+    /**
+     * Returns the amount of groups.
+     */
+    public int size() {
+        return mGroupCount;
+    }
+
+    /**
+     * Returns the group of a key.
+     *
+     * @param key is the artist or album ID.
+     * @return the group, or -1 if no row has that key.
+     */
+    public int groupOf(long key) {
+        int mask = mSlotKeys.length - 1;
+        for (int slot = hash(key) & mask; mSlotGroups[slot] != 0; slot = (slot + 1) & mask) {
+            if (mSlotKeys[slot] == key) return mSlotGroups[slot] - 1;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Returns the group of a row.
+     *
+     * @param row is the row index.
+     */
+    public int getGroup(int row) {
+        checkRow(row);
+
+        return mRowGroups[row];
+    }
+
+    // Group column getter methods.
+    public long getKey(int group) {
+        checkGroup(group);
+
+        return mKeys[group];
+    }
+
+    public int getCount(int group) {
+        checkGroup(group);
+
+        return mCounts[group];
+    }
+
+    /**
+     * Returns the total duration of a group's songs in milliseconds, where songs of unknown
+     * duration count as zero.
+     *
+     * @param group is the group index.
+     */
+    public long getDuration(int group) {
+        checkGroup(group);
+
+        return mDurations[group];
+    }
+
+    /**
+     * Returns the first row of a group in table order, which the group's name can be read from.
+     *
+     * @param group is the group index.
+     */
+    public int getFirstRow(int group) {
+        checkGroup(group);
+
+        return mFirstRows[group];
+    }
+
+    /**
+     * Returns the groups in the order their first row appears in an order of the table, e.g. the
+     * artists by name through {@link SongOrder#ARTIST}.
+     *
+     * @param order is the song order.
+     */
+    public int[] getGroupOrder(SongOrder order) {
+        int[] groups = new int[mGroupCount];
+        boolean[] seen = new boolean[mGroupCount];
+        int count = 0;
+        for (int position = 0; position < mRowCount && count < mGroupCount; position++) {
+            int group = mRowGroups[mTable.rowAt(order, position)];
+            if (seen[group]) continue;
+
+            seen[group] = true;
+            groups[count++] = group;
+        }
+
+        return groups;
+    }
+
+    /**
+     * Returns the rows of a group, in an order of the table. Listing the rows of the first group
+     * lists those of all of the groups at once, so the others are then only copied.
+     *
+     * @param group is the group index.
+     * @param order is the song order.
+     */
+    public int[] getRows(int group, SongOrder order) {
+        checkGroup(group);
+
+        int[] permutation = mTable.getOrder(order);
+        if (mMembers == null || mMembersOrder != permutation) listMembers(order, permutation);
+
+        return Arrays.copyOfRange(mMembers, mStarts[group], mStarts[group + 1]);
+    }
+
+    /**
+     * Adds a row that was appended to the table.
+     *
+     * @param row is the row index, which follows the last row added.
+     * @param key is the row's artist or album ID.
+     * @param duration is the row's duration in milliseconds.
+     */
+    void add(int row, long key, long duration) {
+        int group = groupOf(key);
+        if (group == -1) group = addGroup(key, row);
+
+        if (row == mRowGroups.length) {
+            mRowGroups = Arrays.copyOf(mRowGroups, row + (row >> 1) + 1);
+        }
+        mRowGroups[row] = group;
+        mRowCount = row + 1;
+
+        mCounts[group]++;
+        mDurations[group] += Math.max(0, duration);
+        mMembers = null;
+    }
+
+    /**
+     * Takes over the groups of another table, whose rows were copied to this table in the same
+     * order while leaving some of them out. The rows left out are taken away from their groups,
+     * and the groups left empty are dropped.
+     *
+     * @param source is the index of the table the rows were copied from.
+     * @param rows is the source row of each row of this table, in ascending order.
+     * @param count is the amount of rows.
+     */
+    void copyFrom(SongGroupIndex source, int[] rows, int count) {
+        mKeys = source.mKeys.clone();
+        mCounts = source.mCounts.clone();
+        mDurations = source.mDurations.clone();
+        mFirstRows = source.mFirstRows.clone();
+        mGroupCount = source.mGroupCount;
+        mSlotKeys = source.mSlotKeys.clone();
+        mSlotGroups = source.mSlotGroups.clone();
+        mRowGroups = new int[Math.max(count, INITIAL_GROUPS)];
+        mRowCount = count;
+        mMembers = null;
+
+        // Takes the rows that were left out away from their groups, and finds the first row
+        // of each group among the ones that were kept.
+        Arrays.fill(mFirstRows, 0, mGroupCount, -1);
+        int next = 0;
+        for (int sourceRow = 0; sourceRow < source.mRowCount; sourceRow++) {
+            int group = source.mRowGroups[sourceRow];
+            if (next < count && rows[next] == sourceRow) {
+                if (mFirstRows[group] == -1) mFirstRows[group] = next;
+                mRowGroups[next++] = group;
+            } else {
+                mCounts[group]--;
+                mDurations[group] -= Math.max(0, source.mTable.getDuration(sourceRow));
+            }
+        }
+
+        // Drops the empty groups, keeping the others in the same order.
+        int[] groups = new int[mGroupCount];
+        int groupCount = 0;
+        for (int group = 0; group < mGroupCount; group++) {
+            if (mCounts[group] == 0) continue;
+
+            groups[group] = groupCount;
+            mKeys[groupCount] = mKeys[group];
+            mCounts[groupCount] = mCounts[group];
+            mDurations[groupCount] = mDurations[group];
+            mFirstRows[groupCount] = mFirstRows[group];
+            groupCount++;
+        }
+        if (groupCount == mGroupCount) return;
+
+        for (int row = 0; row < count; row++) {
+            mRowGroups[row] = groups[mRowGroups[row]];
+        }
+        Arrays.fill(mCounts, groupCount, mGroupCount, 0);
+        Arrays.fill(mDurations, groupCount, mGroupCount, 0);
+        mGroupCount = groupCount;
+        rehash(mSlotKeys.length);
+    }
+
+    /**
+     * Estimates the heap retained by the index, i.e. its columns at their current capacity and
+     * the rows of each group if they were listed.
+     *
+     * @return the estimate in bytes, as laid out by {@link HeapEstimate}.
+     */
+    long estimateRetainedSize() {
+        return HeapEstimate.object(11 * HeapEstimate.REFERENCE + 2 * 4)
+                + 2 * HeapEstimate.array(mKeys.length, 8)
+                + 2 * HeapEstimate.array(mKeys.length, 4)
+                + HeapEstimate.array(mSlotKeys.length, 8)
+                + HeapEstimate.array(mSlotGroups.length, 4)
+                + HeapEstimate.array(mRowGroups.length, 4)
+                + (mMembers != null ? HeapEstimate.array(mStarts.length, 4)
+                        + HeapEstimate.array(mMembers.length, 4) : 0);
+    }
+
+    /**
+     * Removes all of the groups, while keeping the allocated columns for reuse.
+     */
+    void clear() {
+        Arrays.fill(mSlotGroups, 0);
+        Arrays.fill(mCounts, 0, mGroupCount, 0);
+        Arrays.fill(mDurations, 0, mGroupCount, 0);
+        mGroupCount = 0;
+        mRowCount = 0;
+        mMembers = null;
+    }
+
+    // Helper method that adds an empty group for a key.
+    private int addGroup(long key, int firstRow) {
+        if (mGroupCount == mKeys.length) {
+            int capacity = mGroupCount * 2;
+            mKeys = Arrays.copyOf(mKeys, capacity);
+            mCounts = Arrays.copyOf(mCounts, capacity);
+            mDurations = Arrays.copyOf(mDurations, capacity);
+            mFirstRows = Arrays.copyOf(mFirstRows, capacity);
+        }
+
+        // Keeps the hash table at most half full, so that probe sequences stay short.
+        if ((mGroupCount + 1) * 2 > mSlotKeys.length) rehash(mSlotKeys.length * 2);
+
+        int group = mGroupCount++;
+        mKeys[group] = key;
+        mFirstRows[group] = firstRow;
+        insert(key, group);
+
+        return group;
+    }
+
+    private void insert(long key, int group) {
+        int mask = mSlotKeys.length - 1;
+        int slot = hash(key) & mask;
+        while (mSlotGroups[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        mSlotKeys[slot] = key;
+        mSlotGroups[slot] = group + 1;
+    }
+
+    private void rehash(int slots) {
+        mSlotKeys = new long[slots];
+        mSlotGroups = new int[slots];
+        for (int group = 0; group < mGroupCount; group++) {
+            insert(mKeys[group], group);
+        }
+    }
+
+    // Helper method that lists the rows of every group by a counting sort over an order.
+    private void listMembers(SongOrder order, int[] permutation) {
+        int[] starts = new int[mGroupCount + 1];
+        for (int group = 0; group < mGroupCount; group++) {
+            starts[group + 1] = starts[group] + mCounts[group];
+        }
+
+        int[] next = Arrays.copyOf(starts, mGroupCount);
+        int[] members = new int[mRowCount];
+        for (int position = 0; position < mRowCount; position++) {
+            int row = mTable.rowAt(order, position);
+            members[next[mRowGroups[row]]++] = row;
+        }
+
+        mStarts = starts;
+        mMembers = members;
+        mMembersOrder = permutation;
+    }
+
+    // Helper method that spreads the bits of a key, since IDs are mostly sequential.
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private void checkGroup(int group) {
+        if (group < 0 || group >= mGroupCount) {
+            throw new IndexOutOfBoundsException("Group " + group + ", size " + mGroupCount);
+        }
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= mRowCount) {
+            throw new IndexOutOfBoundsException("Row " + row + ", size " + mRowCount);
+        }
+    }
+}
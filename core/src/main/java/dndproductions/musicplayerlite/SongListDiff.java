@@ -0,0 +1,255 @@
+package dndproductions.musicplayerlite;
+
+import java.util.Arrays;
+
+/**
+ * Difference between two lists of songs, turned into the removals, insertions and changes that
+ * update the first list into the second one, e.g. for animating a RecyclerView.
+ *
+ * <p>Songs are matched by ID, which is unique within a list, so the diff takes
+ * O(n log n) time instead of the quadratic worst case of a general diff: the matched songs that
+ * keep their relative order are the longest increasing subsequence of their new positions, and
+ * every other song is removed from its old position and inserted at its new one. Consecutive
+ * positions are merged into ranges, and a diff with more than a given amount of ranges (e.g.
+ * after a change of sort order) is reported as too large, since animating it wouldn't be any
+ * better than rebinding the whole list.
+ */
+public final class SongListDiff {
+
+    // Types of the updates.
+    private static final int REMOVED = 0;
+    private static final int INSERTED = 1;
+    private static final int CHANGED = 2;
+
+    /**
+     * Interface that receives the updates, with positions that apply to the list as it is after
+     * the updates received before.
+     */
+    public interface Callback {
+        void onRemoved(int position, int count);
+
+        void onInserted(int position, int count);
+
+        void onChanged(int position, int count);
+    }
+
+    /**
+     * Interface that tells whether a song that's in both lists is shown differently.
+     */
+    public interface ContentComparator {
+
+        /**
+         * Returns whether the song at an old position looks the same at its new position.
+         *
+         * @param oldPosition is the song's position in the old list.
+         * @param newPosition is the song's position in the new list.
+         */
+        boolean areContentsTheSame(int oldPosition, int newPosition);
+    }
+
+    // Updates as (type, position, count) triples, or null if the diff is too large.
+    private final int[] mUpdates;
+    private final int mUpdateCount;
+
+    private SongListDiff(int[] updates, int updateCount) {
+        mUpdates = updates;
+        mUpdateCount = updateCount;
+    }
+
+    /**
+     * Computes the difference between two lists.
+     *
+     * @param oldIds is the song IDs of the old list.
+     * @param newIds is the song IDs of the new list.
+     * @param comparator is the comparator of the songs in both lists, or null if a song never
+     * changes.
+     * @param maxUpdates is the amount of ranges above which the diff is too large.
+     */
+    public static SongListDiff compute(long[] oldIds, long[] newIds,
+            ContentComparator comparator, int maxUpdates) {
+        int[] newPositions = mapPositions(oldIds, newIds);
+        boolean[] kept = keepLongestRun(newPositions);
+
+        Builder builder = new Builder(maxUpdates);
+
+        // Removes the songs that are gone or moved, from the end so that positions don't shift.
+        for (int i = oldIds.length - 1; i >= 0 && !builder.isFull(); i--) {
+            if (!kept[i]) builder.add(REMOVED, i, true);
+        }
+
+        // Inserts the songs that are new or moved, from the start so that each lands in place.
+        boolean[] inserted = new boolean[newIds.length];
+        Arrays.fill(inserted, true);
+        for (int i = 0; i < oldIds.length; i++) {
+            if (kept[i]) inserted[newPositions[i]] = false;
+        }
+        for (int j = 0; j < newIds.length && !builder.isFull(); j++) {
+            if (inserted[j]) builder.add(INSERTED, j, false);
+        }
+
+        // Rebinds the songs that stayed but look different, at their final positions.
+        if (comparator != null) {
+            boolean[] changed = new boolean[newIds.length];
+            for (int i = 0; i < oldIds.length; i++) {
+                if (kept[i] && !comparator.areContentsTheSame(i, newPositions[i])) {
+                    changed[newPositions[i]] = true;
+                }
+            }
+            for (int j = 0; j < newIds.length && !builder.isFull(); j++) {
+                if (changed[j]) builder.add(CHANGED, j, false);
+            }
+        }
+
+        return builder.isFull()
+                ? new SongListDiff(null, -1) : new SongListDiff(builder.mUpdates, builder.mCount);
+    }
+
+    /**
+     * Returns whether the diff has more ranges than allowed, in which case it can't be
+     * dispatched.
+     */
+    public boolean isTooLarge() {
+        return mUpdates == null;
+    }
+
+    /**
+     * Returns the amount of ranges, which is 0 if the lists are the same.
+     */
+    public int getUpdateCount() {
+        return mUpdateCount;
+    }
+
+    /**
+     * Passes the updates to a callback, in the order they apply in.
+     *
+     * @param callback is the callback.
+     */
+    public void dispatchTo(Callback callback) {
+        if (mUpdates == null) throw new IllegalStateException("Diff is too large");
+
+        for (int i = 0; i < mUpdateCount * 3; i += 3) {
+            switch (mUpdates[i]) {
+                case REMOVED:
+                    callback.onRemoved(mUpdates[i + 1], mUpdates[i + 2]);
+                    break;
+                case INSERTED:
+                    callback.onInserted(mUpdates[i + 1], mUpdates[i + 2]);
+                    break;
+                default:
+                    callback.onChanged(mUpdates[i + 1], mUpdates[i + 2]);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Maps each position of the old list to the position of the same song in the new list, the
+     * same way {@link SongTable#mapRows(SongTable)} maps rows.
+     *
+     * @return the new position of each old position, or -1 if the song is gone.
+     */
+    private static int[] mapPositions(long[] oldIds, long[] newIds) {
+        long[] sortedIds = Arrays.copyOf(newIds, newIds.length);
+        Arrays.sort(sortedIds);
+        int[] sortedPositions = new int[newIds.length];
+        for (int j = 0; j < newIds.length; j++) {
+            sortedPositions[Arrays.binarySearch(sortedIds, newIds[j])] = j;
+        }
+
+        int[] newPositions = new int[oldIds.length];
+        for (int i = 0; i < oldIds.length; i++) {
+            int index = Arrays.binarySearch(sortedIds, oldIds[i]);
+            newPositions[i] = index >= 0 ? sortedPositions[index] : -1;
+        }
+
+        return newPositions;
+    }
+
+    /**
+     * Finds the largest set of matched songs that keep their relative order, which is the
+     * longest increasing subsequence of their new positions, via patience sorting.
+     *
+     * @return whether each old position is kept in place.
+     */
+    private static boolean[] keepLongestRun(int[] newPositions) {
+        int n = newPositions.length;
+
+        // Old position of the smallest tail of each run length, and each position's predecessor.
+        int[] tails = new int[n];
+        int[] previous = new int[n];
+        int length = 0;
+        for (int i = 0; i < n; i++) {
+            int value = newPositions[i];
+            if (value == -1) continue;
+
+            int low = 0;
+            int high = length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (newPositions[tails[middle]] < value) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+
+            previous[i] = low > 0 ? tails[low - 1] : -1;
+            tails[low] = i;
+            if (low == length) length++;
+        }
+
+        boolean[] kept = new boolean[n];
+        for (int i = length > 0 ? tails[length - 1] : -1; i != -1; i = previous[i]) {
+            kept[i] = true;
+        }
+
+        return kept;
+    }
+
+    /**
+     * Collects updates, merging each one into the previous range when they're adjacent.
+     */
+    private static final class Builder {
+        private final int mMaxUpdates;
+        private int[] mUpdates = new int[3 * 16];
+        private int mCount;
+        private boolean mFull;
+
+        Builder(int maxUpdates) {
+            mMaxUpdates = maxUpdates;
+        }
+
+        boolean isFull() {
+            return mFull;
+        }
+
+        // Adds a single position, where descending positions extend a range towards its start.
+        void add(int type, int position, boolean descending) {
+            if (mCount > 0) {
+                int last = (mCount - 1) * 3;
+                if (mUpdates[last] == type) {
+                    if (descending && mUpdates[last + 1] == position + 1) {
+                        mUpdates[last + 1] = position;
+                        mUpdates[last + 2]++;
+                        return;
+                    }
+                    if (!descending && mUpdates[last + 1] + mUpdates[last + 2] == position) {
+                        mUpdates[last + 2]++;
+                        return;
+                    }
+                }
+            }
+
+            if (mCount == mMaxUpdates) {
+                mFull = true;
+                return;
+            }
+
+            if (mCount * 3 == mUpdates.length) mUpdates = Arrays.copyOf(mUpdates, mCount * 6);
+            mUpdates[mCount * 3] = type;
+            mUpdates[mCount * 3 + 1] = position;
+            mUpdates[mCount * 3 + 2] = 1;
+            mCount++;
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package dndproductions.musicplayerlite;
+
+/**
+ * Orders the song list can be presented in. Each order is kept as a prebuilt permutation of the
+ * {@link SongTable} rows, so switching between them doesn't sort the songs again.
+ */
+public enum SongOrder {
+    TITLE,
+    ARTIST,
+    ALBUM
+}
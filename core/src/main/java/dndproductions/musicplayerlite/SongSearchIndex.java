@@ -0,0 +1,304 @@
+package dndproductions.musicplayerlite;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+
+/**
+ * In-memory type-ahead index over the titles and artists of a {@link SongTable}.
+ *
+ * <p>Every row's title and artist are folded to lowercase without accents, and every single
+ * character and pair of adjacent characters is mapped to the rows that contain it. A new query
+ * starts from the rows of its rarest character pair, while a query that extends the previous one
+ * (i.e. the user typed one more character) only filters the previous results. Results are kept
+ * in the list's current {@link SongOrder} and written to reused arrays, so the result arrays
+ * aren't allocated again per keystroke.
+ *
+ * <p>The index is built on a background thread and then only used from the UI thread.
+ */
+public class SongSearchIndex {
+
+    // Separator between the title and the artist, so that matches don't span both.
+    private static final char SEPARATOR = '\u0001';
+
+    // Initial capacities of the gram map and of each posting list.
+    private static final int INITIAL_GRAM_CAPACITY = 1024;
+    private static final int INITIAL_POSTING_SIZE = 4;
+
+    private final SongTable mTable;
+    private final int mSize;
+
+    // Folded text of each row, where row i spans mTextOffsets[i] to mTextOffsets[i + 1].
+    private final char[] mText;
+    private final int[] mTextOffsets;
+
+    // Open addressing map from a gram to its posting list, with 0 marking empty slots.
+    private int[] mGramKeys = new int[INITIAL_GRAM_CAPACITY];
+    private int[][] mPostings = new int[INITIAL_GRAM_CAPACITY][];
+    private int[] mPostingSizes = new int[INITIAL_GRAM_CAPACITY];
+    private int mGramCount;
+
+    // Row permutation of the current order, or null for table order.
+    private int[] mOrder;
+
+    // Results of the last query, a scratch array for the next one, and a stamp per row used for
+    // marking candidates without clearing an array each time.
+    private int[] mResults;
+    private int[] mScratch;
+    private int mResultCount;
+    private final int[] mStamps;
+    private int mStamp;
+    private String mLastQuery;
+
+    /**
+     * Creates a {@link SongSearchIndex} object for a table. The table must not change afterwards.
+     *
+     * @param table is the song table.
+     */
+    public SongSearchIndex(SongTable table) {
+        mTable = table;
+        mSize = table.size();
+
+        // Folds the text of each row.
+        StringBuilder text = new StringBuilder(mSize * 32);
+        mTextOffsets = new int[mSize + 1];
+        for (int row = 0; row < mSize; row++) {
+            fold(table.getTitle(row), text);
+            text.append(SEPARATOR);
+            fold(table.getArtist(row), text);
+            mTextOffsets[row + 1] = text.length();
+        }
+        mText = new char[text.length()];
+        text.getChars(0, mText.length, mText, 0);
+
+        for (int row = 0; row < mSize; row++) {
+            int end = mTextOffsets[row + 1];
+            for (int i = mTextOffsets[row]; i < end; i++) {
+                char c = mText[i];
+                if (c == SEPARATOR) continue;
+
+                addPosting(unigram(c), row);
+                if (i + 1 < end && mText[i + 1] != SEPARATOR) {
+                    addPosting(bigram(c, mText[i + 1]), row);
+                }
+            }
+        }
+
+        mResults = new int[mSize];
+        mScratch = new int[mSize];
+        mStamps = new int[mSize];
+        setOrder(SongOrder.TITLE);
+    }
+
+    /**
+     * Returns the table this index was built for.
+     */
+    public SongTable getTable() {
+        return mTable;
+    }
+
+    /**
+     * Sets the order the results are returned in. The next query starts over.
+     *
+     * @param order is the song order.
+     */
+    public void setOrder(SongOrder order) {
+        mOrder = mTable.getOrder(order);
+        mLastQuery = null;
+    }
+
+    /**
+     * Runs a query, reusing the previous results when the query extends the previous one.
+     *
+     * @param query is the text typed by the user.
+     * @return the amount of matching rows, which are available via {@link #getResults()}.
+     */
+    public int search(CharSequence query) {
+        StringBuilder folded = new StringBuilder(query.length());
+        fold(query, folded);
+        String q = folded.toString();
+
+        if (q.isEmpty()) {
+            for (int i = 0; i < mSize; i++) {
+                mResults[i] = mOrder != null ? mOrder[i] : i;
+            }
+            mResultCount = mSize;
+        } else if (mLastQuery != null && !mLastQuery.isEmpty() && q.startsWith(mLastQuery)) {
+            refine(q);
+        } else {
+            lookup(q);
+        }
+
+        mLastQuery = q;
+
+        return mResultCount;
+    }
+
+    /**
+     * Returns the rows matched by the last query, in the current order. Only the first
+     * {@link #getResultCount()} entries are valid, and the array is reused by the next query.
+     */
+    public int[] getResults() {
+        return mResults;
+    }
+
+    public int getResultCount() {
+        return mResultCount;
+    }
+
+    // Helper method that narrows the previous results down to the rows matching the new query.
+    private void refine(String q) {
+        int count = 0;
+        for (int i = 0; i < mResultCount; i++) {
+            int row = mResults[i];
+            if (contains(row, q)) mScratch[count++] = row;
+        }
+
+        int[] previous = mResults;
+        mResults = mScratch;
+        mScratch = previous;
+        mResultCount = count;
+    }
+
+    // Helper method that answers a query from the posting list of its rarest gram.
+    private void lookup(String q) {
+        int slot = -1;
+        if (q.length() == 1) {
+            slot = findSlot(unigram(q.charAt(0)));
+        } else {
+            for (int i = 0; i + 1 < q.length(); i++) {
+                int candidate = findSlot(bigram(q.charAt(i), q.charAt(i + 1)));
+                if (candidate < 0) {
+                    slot = -1;
+                    break;
+                }
+                if (slot < 0 || mPostingSizes[candidate] < mPostingSizes[slot]) slot = candidate;
+            }
+        }
+
+        mResultCount = 0;
+        if (slot < 0) return;
+
+        // Marks the candidates, and then walks the order so that results come out sorted.
+        mStamp++;
+        int[] posting = mPostings[slot];
+        for (int i = 0; i < mPostingSizes[slot]; i++) {
+            mStamps[posting[i]] = mStamp;
+        }
+
+        for (int i = 0; i < mSize; i++) {
+            int row = mOrder != null ? mOrder[i] : i;
+            if (mStamps[row] == mStamp && contains(row, q)) mResults[mResultCount++] = row;
+        }
+    }
+
+    // Helper method that checks whether the folded text of a row contains the query.
+    private boolean contains(int row, String q) {
+        int length = q.length();
+        int last = mTextOffsets[row + 1] - length;
+        char first = q.charAt(0);
+
+        for (int i = mTextOffsets[row]; i <= last; i++) {
+            if (mText[i] != first) continue;
+
+            int j = 1;
+            while (j < length && mText[i + j] == q.charAt(j)) {
+                j++;
+            }
+            if (j == length) return true;
+        }
+
+        return false;
+    }
+
+    // Helper method that appends a row to the posting list of a gram, once per row.
+    private void addPosting(int gram, int row) {
+        int slot = findSlot(gram);
+        if (slot < 0) {
+
+            // Keeps the load factor of the map at most one half.
+            if (mGramCount * 2 >= mGramKeys.length) {
+                rehash();
+                slot = findSlot(gram);
+            }
+
+            slot = ~slot;
+            mGramKeys[slot] = gram;
+            mPostings[slot] = new int[INITIAL_POSTING_SIZE];
+            mGramCount++;
+        }
+
+        int size = mPostingSizes[slot];
+        int[] posting = mPostings[slot];
+        if (size > 0 && posting[size - 1] == row) return;
+
+        if (size == posting.length) {
+            posting = Arrays.copyOf(posting, size * 2);
+            mPostings[slot] = posting;
+        }
+        posting[size] = row;
+        mPostingSizes[slot] = size + 1;
+    }
+
+    // Helper method that doubles the capacity of the gram map.
+    private void rehash() {
+        int[] keys = mGramKeys;
+        int[][] postings = mPostings;
+        int[] sizes = mPostingSizes;
+
+        mGramKeys = new int[keys.length * 2];
+        mPostings = new int[keys.length * 2][];
+        mPostingSizes = new int[keys.length * 2];
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] == 0) continue;
+
+            int slot = ~findSlot(keys[i]);
+            mGramKeys[slot] = keys[i];
+            mPostings[slot] = postings[i];
+            mPostingSizes[slot] = sizes[i];
+        }
+    }
+
+    // Helper method that returns the slot of a gram, or the inverted free slot if it's missing.
+    private int findSlot(int gram) {
+        int mask = mGramKeys.length - 1;
+        int hash = gram * 0x9e3779b9;
+        int slot = (hash ^ hash >>> 16) & mask;
+        while (mGramKeys[slot] != 0) {
+            if (mGramKeys[slot] == gram) return slot;
+            slot = (slot + 1) & mask;
+        }
+
+        return ~slot;
+    }
+
+    // Helper methods that encode grams as map keys. Characters are never 0, so a bigram never
+    // collides with a unigram and 0 stays free for empty slots.
+    private static int unigram(char c) {
+        return c;
+    }
+
+    private static int bigram(char a, char b) {
+        return a << 16 | b;
+    }
+
+    /**
+     * Folds text to lowercase and strips its accents, so that e.g. "Éclair" matches "ecl".
+     *
+     * @param text is the text to fold, or null.
+     * @param out is where the folded text is appended.
+     */
+    static void fold(CharSequence text, StringBuilder out) {
+        if (text == null) return;
+
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+            if (c == 0 || c == SEPARATOR
+                    || Character.getType(c) == Character.NON_SPACING_MARK) {
+                continue;
+            }
+
+            out.append(Character.toLowerCase(c));
+        }
+    }
+}
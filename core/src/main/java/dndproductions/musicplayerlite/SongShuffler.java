@@ -0,0 +1,378 @@
+package dndproductions.musicplayerlite;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Shuffled play order over the rows of a song table, which plays every song once before any of
+ * them repeats.
+ *
+ * <p>The order is a Fisher-Yates permutation that's only drawn as far as it's been played, so
+ * each step draws a single random number no matter how large the library is. The drawn part of
+ * the permutation doubles as the history, which {@link #previous()} walks back through and
+ * {@link #next()} replays before drawing again. Once every song was played, a new cycle starts
+ * without the last song of the previous cycle coming first.
+ *
+ * <p>Slots that weren't touched in the current cycle hold their own index, which is tracked with
+ * a per-cycle stamp so that starting a new cycle doesn't have to reset the arrays.
+ */
+public class SongShuffler {
+
+    private final Random mRandom;
+
+    // Permutation of the rows, where slot i holds mValues[i] if it was written in this cycle and
+    // row i otherwise, and the inverse mapping from a row to its slot.
+    private int[] mValues;
+    private int[] mValueStamps;
+    private int[] mSlots;
+    private int[] mSlotStamps;
+    private int mStamp = 1;
+    private int mSize;
+
+    // Amount of slots drawn in this cycle, and the slot of the current row, or -1 if none.
+    private int mDrawn;
+    private int mCursor = -1;
+
+    // Row that isn't drawn first in a new cycle, or -1 if none.
+    private int mExcluded = -1;
+
+    /**
+     * Creates a {@link SongShuffler} object.
+     *
+     * @param size is the amount of rows.
+     * @param random is the source of randomness.
+     */
+    public SongShuffler(int size, Random random) {
+        mRandom = random;
+        mValues = new int[Math.max(size, 16)];
+        mValueStamps = new int[mValues.length];
+        mSlots = new int[mValues.length];
+        mSlotStamps = new int[mValues.length];
+        mSize = size;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Returns the current row, or -1 if none was played yet.
+     */
+    public int current() {
+        return mCursor >= 0 ? valueAt(mCursor) : -1;
+    }
+
+    /**
+     * Returns the row that {@link #next()} moves to without moving to it, drawing it if needed.
+     * A new cycle is started if every row was played.
+     *
+     * @return the next row, or -1 if there are no rows.
+     */
+    public int peekNext() {
+        if (mSize == 0) return -1;
+
+        // Replays the history before drawing again.
+        if (mCursor + 1 < mDrawn) return valueAt(mCursor + 1);
+
+        if (mDrawn == mSize) startCycle();
+
+        draw();
+        return valueAt(mCursor + 1);
+    }
+
+    /**
+     * Returns the rows that {@link #next()} moves to one after the other, without moving to
+     * them, drawing them if needed, e.g. for reading the upcoming songs ahead. Only the first
+     * row may start a new cycle, so fewer rows are returned near the end of a cycle.
+     *
+     * @param count is the largest amount of rows.
+     * @return the upcoming rows, in the order they play in.
+     */
+    public int[] peekAhead(int count) {
+        if (count <= 0 || peekNext() == -1) return new int[0];
+
+        int[] rows = new int[Math.min(count, mSize - (mCursor + 1))];
+        for (int i = 0; i < rows.length; i++) {
+            int slot = mCursor + 1 + i;
+            if (slot == mDrawn) draw();
+            rows[i] = valueAt(slot);
+        }
+
+        return rows;
+    }
+
+    /**
+     * Moves to the next row.
+     *
+     * @return the next row, or -1 if there are no rows.
+     */
+    public int next() {
+        int row = peekNext();
+        if (row != -1) mCursor++;
+
+        return row;
+    }
+
+    /**
+     * Moves back to the previous row of this cycle.
+     *
+     * @return the previous row, or -1 if the current row is the first one of the cycle.
+     */
+    public int previous() {
+        if (mCursor <= 0) return -1;
+
+        mCursor--;
+
+        return valueAt(mCursor);
+    }
+
+    /**
+     * Makes a row the current one, e.g. when the user picks a song. A row that was already
+     * played in this cycle moves the history back or forward to it, while any other row is
+     * played next and replaces the rows that were played after the current one.
+     *
+     * @param row is the row.
+     */
+    public void jumpTo(int row) {
+        int slot = slotOf(row);
+        if (slot < mDrawn) {
+            mCursor = slot;
+            return;
+        }
+
+        mDrawn = mCursor + 1;
+        swap(mDrawn, slot);
+        mCursor = mDrawn++;
+        mExcluded = -1;
+    }
+
+    /**
+     * Appends a row, which wasn't played yet.
+     */
+    public void add() {
+        ensureCapacity(mSize + 1);
+        write(mSize, mSize);
+        mSize++;
+    }
+
+    /**
+     * Inserts a run of rows that weren't played yet, shifting the rows after them, e.g. when
+     * songs are queued in the middle. Appending is O(1), while inserting elsewhere renumbers the
+     * rows in linear time.
+     *
+     * @param row is the first inserted row.
+     * @param count is the amount of inserted rows.
+     */
+    public void insert(int row, int count) {
+        if (row == mSize) {
+            for (int i = 0; i < count; i++) {
+                add();
+            }
+            return;
+        }
+
+        int[] mapping = new int[mSize];
+        for (int i = 0; i < mSize; i++) {
+            mapping[i] = i < row ? i : i + count;
+        }
+        remap(mapping, mSize + count);
+    }
+
+    /**
+     * Removes a row, shifting the rows after it. The previous row becomes the current one if the
+     * current row is removed.
+     *
+     * @param row is the row.
+     */
+    public void remove(int row) {
+        int[] mapping = new int[mSize];
+        for (int i = 0; i < mSize; i++) {
+            mapping[i] = i < row ? i : i == row ? -1 : i - 1;
+        }
+        remap(mapping, mSize - 1);
+    }
+
+    /**
+     * Moves a row, shifting the rows in between, while keeping its place in the history.
+     *
+     * @param from is the row.
+     * @param to is the row it becomes.
+     */
+    public void move(int from, int to) {
+        int[] mapping = new int[mSize];
+        for (int i = 0; i < mSize; i++) {
+            if (i == from) {
+                mapping[i] = to;
+            } else if (from < to && i > from && i <= to) {
+                mapping[i] = i - 1;
+            } else if (to < from && i >= to && i < from) {
+                mapping[i] = i + 1;
+            } else {
+                mapping[i] = i;
+            }
+        }
+        remap(mapping, mSize);
+    }
+
+    /**
+     * Makes a row that wasn't played yet in this cycle the next one, e.g. when the user asks for
+     * a song to be played next. The rows that were played after the current one are replaced.
+     *
+     * @param row is the row.
+     */
+    public void setNext(int row) {
+        int slot = slotOf(row);
+        if (slot <= mCursor) return;
+
+        if (slot >= mDrawn) mDrawn = mCursor + 2;
+        swap(mCursor + 1, slot);
+        mExcluded = -1;
+    }
+
+    /**
+     * Starts a new cycle, where none of the rows were played yet.
+     */
+    public void reset() {
+        startCycle();
+    }
+
+    /**
+     * Returns the rows drawn in this cycle, in the order they play in, e.g. for persisting the
+     * history along with {@link #getHistoryIndex()}.
+     */
+    public int[] getHistory() {
+        int[] history = new int[mDrawn];
+        for (int slot = 0; slot < mDrawn; slot++) {
+            history[slot] = valueAt(slot);
+        }
+
+        return history;
+    }
+
+    /**
+     * Returns the index of the current row within {@link #getHistory()}, or -1 if none.
+     */
+    public int getHistoryIndex() {
+        return mCursor;
+    }
+
+    /**
+     * Replaces this cycle with a history returned by {@link #getHistory()}, e.g. when a
+     * persisted session is restored.
+     *
+     * @param history is the rows drawn in the cycle, in the order they play in.
+     * @param index is the index of the current row within the history, or -1 if none.
+     * @throws IllegalArgumentException if a row is out of range or drawn twice.
+     */
+    public void restore(int[] history, int index) {
+        if (history.length > mSize || index < -1 || index >= Math.max(1, history.length)) {
+            throw new IllegalArgumentException("Invalid history");
+        }
+
+        startCycle();
+        mExcluded = -1;
+        for (int slot = 0; slot < history.length; slot++) {
+            int row = history[slot];
+            if (row < 0 || row >= mSize || slotOf(row) < slot) {
+                throw new IllegalArgumentException("Invalid row " + row);
+            }
+            swap(slot, slotOf(row));
+        }
+        mDrawn = history.length;
+        mCursor = history.length > 0 ? index : -1;
+    }
+
+    /**
+     * Replaces the rows, e.g. after the library was scanned again. The rows played in this cycle
+     * that are still there keep their place in the history, while the rest aren't played yet.
+     *
+     * @param mapping is the new row of each current row, or -1 if the row was removed.
+     * @param size is the new amount of rows.
+     */
+    public void remap(int[] mapping, int size) {
+
+        // Collects the history that's still valid, along with the slot of the current row.
+        int[] history = new int[mDrawn];
+        int count = 0;
+        int cursor = -1;
+        for (int slot = 0; slot < mDrawn; slot++) {
+            int row = mapping[valueAt(slot)];
+            if (row == -1) continue;
+
+            history[count++] = row;
+            if (slot <= mCursor) cursor = count - 1;
+        }
+
+        ensureCapacity(size);
+        mSize = size;
+        startCycle();
+        mExcluded = -1;
+        for (int slot = 0; slot < count; slot++) {
+            swap(slot, slotOf(history[slot]));
+        }
+        mDrawn = count;
+        mCursor = cursor;
+    }
+
+    // Helper method that draws the next slot among the ones that are left, keeping the excluded
+    // row out of the first draw of a cycle by moving it to the last slot.
+    private void draw() {
+        int bound = mSize - mDrawn;
+        if (mExcluded != -1) {
+            swap(slotOf(mExcluded), mSize - 1);
+            bound--;
+            mExcluded = -1;
+        }
+        swap(mDrawn, mDrawn + mRandom.nextInt(bound));
+        mDrawn++;
+    }
+
+    // Helper method that starts a new cycle, where every slot holds its own row again.
+    private void startCycle() {
+        mExcluded = mCursor >= 0 && mSize > 1 ? current() : -1;
+
+        // Clears the stamps only when the counter wraps around.
+        if (++mStamp == 0) {
+            Arrays.fill(mValueStamps, 0);
+            Arrays.fill(mSlotStamps, 0);
+            mStamp = 1;
+        }
+
+        mDrawn = 0;
+        mCursor = -1;
+    }
+
+    // Helper methods that read and write the permutation.
+    private int valueAt(int slot) {
+        return mValueStamps[slot] == mStamp ? mValues[slot] : slot;
+    }
+
+    private int slotOf(int row) {
+        return mSlotStamps[row] == mStamp ? mSlots[row] : row;
+    }
+
+    private void write(int slot, int row) {
+        mValues[slot] = row;
+        mValueStamps[slot] = mStamp;
+        mSlots[row] = slot;
+        mSlotStamps[row] = mStamp;
+    }
+
+    private void swap(int a, int b) {
+        int rowA = valueAt(a);
+        int rowB = valueAt(b);
+        write(a, rowB);
+        write(b, rowA);
+    }
+
+    // Helper method that grows the arrays.
+    private void ensureCapacity(int size) {
+        if (size <= mValues.length) return;
+
+        int capacity = Math.max(size, mValues.length * 2);
+        mValues = Arrays.copyOf(mValues, capacity);
+        mValueStamps = Arrays.copyOf(mValueStamps, capacity);
+        mSlots = Arrays.copyOf(mSlots, capacity);
+        mSlotStamps = Arrays.copyOf(mSlotStamps, capacity);
+    }
+}
@@ -0,0 +1,334 @@
+package dndproductions.musicplayerlite;
+
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Sorting stage for a {@link SongTable}. Collation keys are computed once per title and once per
+ * pooled artist and album, and kept in the table so that they're persisted along with it. The
+ * keys are then used for building the row permutation of each {@link SongOrder} with a parallel
+ * merge sort.
+ *
+ * <p>This runs on background threads only, and is never invoked from the UI thread.
+ */
+public class SongSorter {
+
+    // Below this amount of rows per chunk, splitting the work isn't worth the overhead.
+    private static final int MIN_CHUNK_SIZE = 4096;
+
+    // Below this amount of rows, merge sort falls back to insertion sort.
+    private static final int INSERTION_SORT_THRESHOLD = 32;
+
+    private final Locale mLocale;
+    private final Collator mCollator;
+    private final ExecutorService mExecutor;
+    private final int mParallelism;
+
+    /**
+     * Interface used for comparing two rows of the table.
+     */
+    private interface RowComparator {
+        int compare(int a, int b);
+    }
+
+    /**
+     * Creates a {@link SongSorter} object.
+     *
+     * @param locale is the locale whose collation rules are used.
+     * @param executor is the executor the work is split across.
+     * @param parallelism is the amount of tasks the work is split into.
+     */
+    public SongSorter(Locale locale, ExecutorService executor, int parallelism) {
+        mLocale = locale;
+        mCollator = Collator.getInstance(locale);
+        mExecutor = executor;
+        mParallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Computes the missing collation keys of a table, and then builds all of its orders. Keys
+     * computed for another locale are discarded first.
+     *
+     * @param table is the table to sort.
+     */
+    public void sort(SongTable table) throws InterruptedException {
+        table.setKeyLocale(mLocale.toString());
+        computeKeys(table);
+
+        for (SongOrder order : SongOrder.values()) {
+            table.setOrder(order, sortRows(table.size(), comparatorFor(table, order)));
+        }
+    }
+
+    /**
+     * Computes the collation keys that the table doesn't have yet. The title keys are split
+     * across the executor, with a copy of the collator per task since collators aren't
+     * thread-safe, while the pooled artists and albums are few enough to be done in place.
+     *
+     * @param table is the table whose keys are computed.
+     */
+    private void computeKeys(final SongTable table) throws InterruptedException {
+        int size = table.size();
+        int chunks = chunkCount(size);
+        List<Callable<Void>> tasks = new ArrayList<>(chunks);
+        for (int i = 0; i < chunks; i++) {
+            final int from = (int) ((long) size * i / chunks);
+            final int to = (int) ((long) size * (i + 1) / chunks);
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    Collator collator = (Collator) mCollator.clone();
+                    for (int row = from; row < to; row++) {
+                        if (table.getTitleKey(row) != null) continue;
+
+                        table.setTitleKey(row, collator.getCollationKey(table.getTitle(row))
+                                .toByteArray());
+                    }
+                    return null;
+                }
+            });
+        }
+        invokeAll(tasks);
+
+        for (int row = 0; row < size; row++) {
+            int artistRef = table.getArtistRef(row);
+            if (artistRef >= 0 && table.getArtistKey(artistRef) == null) {
+                table.setArtistKey(artistRef, key(table.getPooledArtist(artistRef)));
+            }
+
+            int albumRef = table.getAlbumRef(row);
+            if (albumRef >= 0 && table.getAlbumKey(albumRef) == null) {
+                table.setAlbumKey(albumRef, key(table.getPooledAlbum(albumRef)));
+            }
+        }
+    }
+
+    // Helper method that computes a single collation key.
+    private byte[] key(String value) {
+        return mCollator.getCollationKey(value).toByteArray();
+    }
+
+    /**
+     * Creates the row comparator of an order. Artist and album orders fall back to the title,
+     * and the title order falls back to the ID so that the result doesn't depend on the original
+     * row order.
+     *
+     * @param table is the table whose rows are compared.
+     * @param order is the song order.
+     */
+    private static RowComparator comparatorFor(final SongTable table, SongOrder order) {
+        final RowComparator byTitle = new RowComparator() {
+            @Override
+            public int compare(int a, int b) {
+                int result = compareKeys(table.getTitleKey(a), table.getTitleKey(b));
+                if (result != 0) return result;
+
+                long idA = table.getId(a);
+                long idB = table.getId(b);
+                return idA < idB ? -1 : (idA == idB ? 0 : 1);
+            }
+        };
+
+        switch (order) {
+            case ARTIST:
+                return new RowComparator() {
+                    @Override
+                    public int compare(int a, int b) {
+                        int refA = table.getArtistRef(a);
+                        int refB = table.getArtistRef(b);
+                        int result = refA == refB ? 0 : compareKeys(table.getArtistKey(refA),
+                                table.getArtistKey(refB));
+
+                        return result != 0 ? result : byTitle.compare(a, b);
+                    }
+                };
+            case ALBUM:
+                return new RowComparator() {
+                    @Override
+                    public int compare(int a, int b) {
+                        int refA = table.getAlbumRef(a);
+                        int refB = table.getAlbumRef(b);
+                        int result = refA == refB ? 0 : compareKeys(table.getAlbumKey(refA),
+                                table.getAlbumKey(refB));
+
+                        return result != 0 ? result : byTitle.compare(a, b);
+                    }
+                };
+            default:
+                return byTitle;
+        }
+    }
+
+    /**
+     * Compares two collation keys byte by byte as unsigned values, with missing keys first.
+     *
+     * @param a is the first key.
+     * @param b is the second key.
+     */
+    static int compareKeys(byte[] a, byte[] b) {
+        if (a == b) return 0;
+        if (a == null) return -1;
+        if (b == null) return 1;
+
+        int length = Math.min(a.length, b.length);
+        for (int i = 0; i < length; i++) {
+            int result = (a[i] & 0xff) - (b[i] & 0xff);
+            if (result != 0) return result;
+        }
+
+        return a.length - b.length;
+    }
+
+    /**
+     * Sorts the row indexes with a parallel merge sort. The rows are split into chunks that are
+     * sorted concurrently, and the sorted runs are then merged pairwise, also concurrently, until
+     * a single run is left.
+     *
+     * @param size is the amount of rows.
+     * @param comparator is the row comparator.
+     * @return the sorted row permutation.
+     */
+    private int[] sortRows(int size, final RowComparator comparator)
+            throws InterruptedException {
+        int[] rows = new int[size];
+        for (int i = 0; i < size; i++) {
+            rows[i] = i;
+        }
+        int[] scratch = new int[size];
+
+        // Run boundaries, where run i spans bounds[i] to bounds[i + 1].
+        int runs = chunkCount(size);
+        int[] bounds = new int[runs + 1];
+        for (int i = 0; i <= runs; i++) {
+            bounds[i] = (int) ((long) size * i / runs);
+        }
+
+        // Sorts each chunk.
+        final int[] src = rows;
+        final int[] tmp = scratch;
+        List<Callable<Void>> tasks = new ArrayList<>(runs);
+        for (int i = 0; i < runs; i++) {
+            final int from = bounds[i];
+            final int to = bounds[i + 1];
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    mergeSort(src, tmp, from, to, comparator);
+                    return null;
+                }
+            });
+        }
+        invokeAll(tasks);
+
+        // Merges the runs pairwise, alternating between both arrays.
+        while (runs > 1) {
+            final int[] from = rows;
+            final int[] into = scratch;
+            int merged = (runs + 1) / 2;
+            int[] mergedBounds = new int[merged + 1];
+            tasks.clear();
+
+            for (int i = 0; i < runs; i += 2) {
+                final int lo = bounds[i];
+                final int mid = bounds[Math.min(i + 1, runs)];
+                final int hi = bounds[Math.min(i + 2, runs)];
+                mergedBounds[i / 2] = lo;
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        merge(from, into, lo, mid, hi, comparator);
+                        return null;
+                    }
+                });
+            }
+            mergedBounds[merged] = size;
+            invokeAll(tasks);
+
+            rows = into;
+            scratch = from;
+            bounds = mergedBounds;
+            runs = merged;
+        }
+
+        return rows;
+    }
+
+    /**
+     * Stable top-down merge sort of a range, using the scratch array for merging.
+     */
+    private static void mergeSort(int[] a, int[] scratch, int lo, int hi,
+                                  RowComparator comparator) {
+        if (hi - lo <= INSERTION_SORT_THRESHOLD) {
+            for (int i = lo + 1; i < hi; i++) {
+                int row = a[i];
+                int j = i - 1;
+                while (j >= lo && comparator.compare(a[j], row) > 0) {
+                    a[j + 1] = a[j];
+                    j--;
+                }
+                a[j + 1] = row;
+            }
+            return;
+        }
+
+        int mid = (lo + hi) >>> 1;
+        mergeSort(a, scratch, lo, mid, comparator);
+        mergeSort(a, scratch, mid, hi, comparator);
+
+        // Skips the merge when both halves are already in order.
+        if (comparator.compare(a[mid - 1], a[mid]) <= 0) return;
+
+        System.arraycopy(a, lo, scratch, lo, hi - lo);
+        merge(scratch, a, lo, mid, hi, comparator);
+    }
+
+    /**
+     * Merges the sorted ranges [lo, mid) and [mid, hi) of one array into the same range of
+     * another.
+     */
+    private static void merge(int[] from, int[] into, int lo, int mid, int hi,
+                              RowComparator comparator) {
+        int i = lo;
+        int j = mid;
+        for (int k = lo; k < hi; k++) {
+            if (j >= hi || (i < mid && comparator.compare(from[i], from[j]) <= 0)) {
+                into[k] = from[i++];
+            } else {
+                into[k] = from[j++];
+            }
+        }
+    }
+
+    // Helper method that returns the amount of chunks the rows are split into.
+    private int chunkCount(int size) {
+        return Math.max(1, Math.min(mParallelism, size / MIN_CHUNK_SIZE));
+    }
+
+    // Helper method that runs the tasks and waits for them, rethrowing their failures.
+    private void invokeAll(List<Callable<Void>> tasks) throws InterruptedException {
+        if (tasks.size() == 1) {
+            try {
+                tasks.get(0).call();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+            return;
+        }
+
+        for (Future<Void> future : mExecutor.invokeAll(tasks)) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Sorting failed", e.getCause());
+            }
+        }
+    }
+}
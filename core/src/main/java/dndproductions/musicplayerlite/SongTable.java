@@ -0,0 +1,952 @@
+package dndproductions.musicplayerlite;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * Column-oriented storage for the song list. Instead of keeping a {@link Song} object and a few
+ * strings per track, the song and album IDs are kept in {@code long[]}s, the titles are packed
+ * into a single {@code char[]} with an offset per row, and the artists and albums are
+ * deduplicated through string pools, so the heap used grows with the amount of unique strings
+ * rather than with the amount of rows.
+ *
+ * <p>The table also holds the collation keys computed by {@link SongSorter} (one per title, and
+ * one per pooled artist and album), a prebuilt permutation of the rows for each
+ * {@link SongOrder}, and a {@link SongGroupIndex} per artist and per album that's updated as each
+ * row is appended. The position of each row in an order, and the row of each song ID, are
+ * looked up through indexes that are built on first use and dropped once the table changes.
+ *
+ * <p>The table can still be used as a {@code List<Song>}, in which case {@link #get(int)} creates
+ * a short-lived {@link Song}. Code that goes through many rows should use the column getters or a
+ * {@link Row} instead.
+ */
+public class SongTable extends AbstractList<Song> implements RandomAccess {
+
+    // Initial capacities for the row and character columns.
+    private static final int INITIAL_ROWS = 64;
+    private static final int INITIAL_CHARS = INITIAL_ROWS * 24;
+
+    // Pool reference stored for songs that don't have an artist or album.
+    private static final int NO_REF = -1;
+
+    // Charset and null marker used when writing the columns.
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int NULL_LENGTH = -1;
+
+    // Row columns.
+    private long[] mIds = new long[INITIAL_ROWS];
+    private long[] mAlbumIds = new long[INITIAL_ROWS];
+    private long[] mArtistIds = new long[INITIAL_ROWS];
+    private long[] mDurations = new long[INITIAL_ROWS];
+    private long[] mDatesAdded = new long[INITIAL_ROWS];
+    private int[] mArtistRefs = new int[INITIAL_ROWS];
+    private int[] mAlbumRefs = new int[INITIAL_ROWS];
+    private byte[][] mTitleKeys = new byte[INITIAL_ROWS][];
+
+    // Title column, where the title of row i spans mTitleOffsets[i] to mTitleOffsets[i + 1].
+    private char[] mTitleChars = new char[INITIAL_CHARS];
+    private int[] mTitleOffsets = new int[INITIAL_ROWS + 1];
+
+    // Artist and album string pools.
+    private final StringPool mArtists = new StringPool();
+    private final StringPool mAlbums = new StringPool();
+
+    // Locale the collation keys were computed for, and the row permutation of each order.
+    private String mKeyLocale;
+    private final int[][] mOrders = new int[SongOrder.values().length][];
+
+    // Inverse of each order's permutation, i.e. the position of each row, built when first needed.
+    private final int[][] mPositions = new int[SongOrder.values().length][];
+
+    // Song IDs sorted along with their rows, built when first needed. The table may be mapped to
+    // from a background thread, so the index is only published once it's complete.
+    private IdIndex mIdIndex;
+
+    // Aggregation indexes by artist and album ID.
+    private final SongGroupIndex mArtistGroups = new SongGroupIndex(this);
+    private final SongGroupIndex mAlbumGroups = new SongGroupIndex(this);
+
+    private int mSize;
+
+    /**
+     * Creates an empty {@link SongTable} object.
+     */
+    public SongTable() {
+    }
+
+    /**
+     * Creates a {@link SongTable} object holding the given songs.
+     *
+     * @param songs is the song list to copy.
+     */
+    public SongTable(Collection<? extends Song> songs) {
+        addAll(songs);
+    }
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Creates a {@link Song} object for a row.
+     *
+     * @param row is the row index.
+     */
+    @Override
+    public Song get(int row) {
+        checkRow(row);
+
+        return new Song(mIds[row], getTitle(row), getArtist(row), getAlbum(row),
+                mAlbumIds[row], mArtistIds[row], mDurations[row], mDatesAdded[row]);
+    }
+
+    /**
+     * Appends a song to the end of the table. The song has no collation key until the table is
+     * sorted again.
+     *
+     * @param song is the song to append.
+     */
+    @Override
+    public boolean add(Song song) {
+
+        // Titles are appended to the character column, with null ones stored as empty.
+        String title = song.getTitle();
+        int length = title != null ? title.length() : 0;
+        int start = reserveRow(length);
+        if (length > 0) title.getChars(0, length, mTitleChars, start);
+
+        appendRow(song.getID(), song.getAlbumID(), song.getArtistID(), song.getDuration(),
+                song.getDateAdded(), start + length, mArtists.intern(song.getArtist()),
+                mAlbums.intern(song.getAlbum()), null);
+        addToGroups(mSize - 1);
+
+        return true;
+    }
+
+    /**
+     * Appends a row of another table, along with its collation keys.
+     *
+     * @param source is the table the row is copied from.
+     * @param row is the row index in the source table.
+     */
+    public void addRow(SongTable source, int row) {
+        source.checkRow(row);
+
+        copyRow(source, row);
+        addToGroups(mSize - 1);
+    }
+
+    /**
+     * Fills an empty table in with rows of another table, along with their collation keys. The
+     * artist and album indexes are taken over from the other table, and only the rows left out
+     * are taken away from them, rather than adding each row again.
+     *
+     * @param source is the table the rows are copied from.
+     * @param rows is the row indexes in the source table, in ascending order.
+     * @param count is the amount of rows.
+     */
+    public void addRows(SongTable source, int[] rows, int count) {
+        if (mSize != 0) throw new IllegalStateException("Table isn't empty");
+        for (int i = 0; i < count; i++) {
+            source.checkRow(rows[i]);
+            if (i > 0 && rows[i] <= rows[i - 1]) {
+                throw new IllegalArgumentException("Rows aren't in ascending order");
+            }
+        }
+
+        ensureRowCapacity(count);
+        for (int i = 0; i < count; i++) {
+            copyRow(source, rows[i]);
+        }
+        mArtistGroups.copyFrom(source.mArtistGroups, rows, count);
+        mAlbumGroups.copyFrom(source.mAlbumGroups, rows, count);
+    }
+
+    // Helper method that appends a row of another table, without adding it to the groups.
+    private void copyRow(SongTable source, int row) {
+        int sourceStart = source.mTitleOffsets[row];
+        int length = source.mTitleOffsets[row + 1] - sourceStart;
+        int start = reserveRow(length);
+        System.arraycopy(source.mTitleChars, sourceStart, mTitleChars, start, length);
+
+        appendRow(source.mIds[row], source.mAlbumIds[row], source.mArtistIds[row],
+                source.mDurations[row], source.mDatesAdded[row], start + length,
+                mArtists.copy(source.mArtists, source.mArtistRefs[row]),
+                mAlbums.copy(source.mAlbums, source.mAlbumRefs[row]), source.mTitleKeys[row]);
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends Song> songs) {
+        ensureRowCapacity(mSize + songs.size());
+
+        for (Song song : songs) {
+            add(song);
+        }
+
+        return !songs.isEmpty();
+    }
+
+    /**
+     * Removes all of the songs, while keeping the allocated columns for reuse.
+     */
+    @Override
+    public void clear() {
+        Arrays.fill(mTitleKeys, 0, mSize, null);
+        mArtists.clear();
+        mAlbums.clear();
+        mArtistGroups.clear();
+        mAlbumGroups.clear();
+        clearOrders();
+        mIdIndex = null;
+        mSize = 0;
+        modCount++;
+    }
+
+    // Column getter methods.
+    public long getId(int row) {
+        checkRow(row);
+
+        return mIds[row];
+    }
+
+    /**
+     * Returns the MediaStore ID of a row's album, which identifies its artwork, or -1 if unknown.
+     *
+     * @param row is the row index.
+     */
+    public long getAlbumId(int row) {
+        checkRow(row);
+
+        return mAlbumIds[row];
+    }
+
+    /**
+     * Returns the MediaStore ID of a row's artist, or -1 if unknown.
+     *
+     * @param row is the row index.
+     */
+    public long getArtistId(int row) {
+        checkRow(row);
+
+        return mArtistIds[row];
+    }
+
+    /**
+     * Returns the duration of a row's song in milliseconds, or 0 if unknown.
+     *
+     * @param row is the row index.
+     */
+    public long getDuration(int row) {
+        checkRow(row);
+
+        return mDurations[row];
+    }
+
+    /**
+     * Returns when a row's song was added to the library, in seconds since the epoch, or 0 if
+     * unknown.
+     *
+     * @param row is the row index.
+     */
+    public long getDateAdded(int row) {
+        checkRow(row);
+
+        return mDatesAdded[row];
+    }
+
+    public String getTitle(int row) {
+        checkRow(row);
+
+        return new String(mTitleChars, mTitleOffsets[row], getTitleLength(row));
+    }
+
+    /**
+     * Returns the pooled artist string of a row, which is shared with the other rows of the same
+     * artist.
+     *
+     * @param row is the row index.
+     */
+    public String getArtist(int row) {
+        checkRow(row);
+
+        return mArtists.get(mArtistRefs[row]);
+    }
+
+    /**
+     * Returns the pooled album string of a row, which is shared with the other rows of the same
+     * album.
+     *
+     * @param row is the row index.
+     */
+    public String getAlbum(int row) {
+        checkRow(row);
+
+        return mAlbums.get(mAlbumRefs[row]);
+    }
+
+    /**
+     * Returns the character column that holds all of the titles. Together with
+     * {@link #getTitleStart(int)} and {@link #getTitleLength(int)}, it allows titles to be shown
+     * without creating a string, e.g. via {@code TextView.setText(char[], int, int)}.
+     */
+    public char[] getTitleChars() {
+        return mTitleChars;
+    }
+
+    public int getTitleStart(int row) {
+        checkRow(row);
+
+        return mTitleOffsets[row];
+    }
+
+    public int getTitleLength(int row) {
+        checkRow(row);
+
+        return mTitleOffsets[row + 1] - mTitleOffsets[row];
+    }
+
+    /**
+     * Returns the amount of unique artists in the pool.
+     */
+    public int getArtistCount() {
+        return mArtists.mCount;
+    }
+
+    /**
+     * Returns the amount of unique albums in the pool.
+     */
+    public int getAlbumCount() {
+        return mAlbums.mCount;
+    }
+
+    /**
+     * Returns the index that groups the rows by artist ID.
+     */
+    public SongGroupIndex getArtistGroups() {
+        return mArtistGroups;
+    }
+
+    /**
+     * Returns the index that groups the rows by album ID.
+     */
+    public SongGroupIndex getAlbumGroups() {
+        return mAlbumGroups;
+    }
+
+    /**
+     * Returns the row permutation of an order, or null if the table hasn't been sorted since it
+     * was last changed.
+     *
+     * @param order is the song order.
+     */
+    public int[] getOrder(SongOrder order) {
+        return mOrders[order.ordinal()];
+    }
+
+    /**
+     * Returns the row shown at a position of the list, for the given order. Rows are shown in
+     * table order when the table isn't sorted.
+     *
+     * @param order is the song order.
+     * @param position is the position in the list.
+     */
+    public int rowAt(SongOrder order, int position) {
+        int[] permutation = mOrders[order.ordinal()];
+
+        return permutation != null ? permutation[position] : position;
+    }
+
+    /**
+     * Returns the position a row is shown at, for the given order.
+     *
+     * @param order is the song order.
+     * @param row is the row index.
+     */
+    public int positionOf(SongOrder order, int row) {
+        int[] permutation = mOrders[order.ordinal()];
+        if (permutation == null) return row;
+        if (row < 0 || row >= permutation.length) return -1;
+
+        int[] positions = mPositions[order.ordinal()];
+        if (positions == null) {
+            positions = new int[permutation.length];
+            for (int i = 0; i < permutation.length; i++) {
+                positions[permutation[i]] = i;
+            }
+            mPositions[order.ordinal()] = positions;
+        }
+
+        return positions[row];
+    }
+
+    /**
+     * Returns the row of a song ID, or -1 if the song isn't in the table.
+     *
+     * @param id is the song ID.
+     */
+    public int indexOfId(long id) {
+        IdIndex index = getIdIndex();
+        int i = Arrays.binarySearch(index.mIds, id);
+
+        return i >= 0 ? index.mRows[i] : -1;
+    }
+
+    /**
+     * Maps each row of this table to the row of the same song in another table.
+     *
+     * @param target is the other table.
+     * @return the row in the other table of each row, or -1 if the song isn't there.
+     */
+    public int[] mapRows(SongTable target) {
+        IdIndex index = target.getIdIndex();
+        int[] mapping = new int[mSize];
+        for (int row = 0; row < mSize; row++) {
+            int i = Arrays.binarySearch(index.mIds, mIds[row]);
+            mapping[row] = i >= 0 ? index.mRows[i] : -1;
+        }
+
+        return mapping;
+    }
+
+    // Helper method that returns the ID index, sorting the IDs along with their rows if needed.
+    private IdIndex getIdIndex() {
+        IdIndex index = mIdIndex;
+        if (index != null) return index;
+
+        long[] ids = Arrays.copyOf(mIds, mSize);
+        Arrays.sort(ids);
+        int[] rows = new int[mSize];
+        for (int row = 0; row < mSize; row++) {
+            rows[Arrays.binarySearch(ids, mIds[row])] = row;
+        }
+
+        index = new IdIndex(ids, rows);
+        mIdIndex = index;
+        return index;
+    }
+
+    /**
+     * Song IDs in ascending order along with their rows, whose final fields make the index safe
+     * to read from any thread once it's published.
+     */
+    private static final class IdIndex {
+        final long[] mIds;
+        final int[] mRows;
+
+        IdIndex(long[] ids, int[] rows) {
+            mIds = ids;
+            mRows = rows;
+        }
+    }
+
+    /**
+     * Estimates the heap retained by the table, i.e. its columns at their current capacity, the
+     * pooled strings, the collation keys, the orders, and the indexes built so far.
+     *
+     * @return the estimate in bytes, as laid out by {@link HeapEstimate}.
+     */
+    long estimateRetainedSize() {
+        int capacity = mIds.length;
+        long size = HeapEstimate.object(18 * HeapEstimate.REFERENCE + 2 * 4)
+                + 5 * HeapEstimate.array(capacity, 8)
+                + 2 * HeapEstimate.array(capacity, 4)
+                + HeapEstimate.array(capacity, HeapEstimate.REFERENCE)
+                + HeapEstimate.array(mTitleChars.length, 2)
+                + HeapEstimate.array(mTitleOffsets.length, 4)
+                + mArtists.estimateRetainedSize()
+                + mAlbums.estimateRetainedSize()
+                + HeapEstimate.string(mKeyLocale)
+                + mArtistGroups.estimateRetainedSize()
+                + mAlbumGroups.estimateRetainedSize();
+        for (int row = 0; row < mSize; row++) {
+            size += HeapEstimate.array(mTitleKeys[row] != null ? mTitleKeys[row].length : -1, 1);
+        }
+        size += 2 * HeapEstimate.array(mOrders.length, HeapEstimate.REFERENCE);
+        for (int i = 0; i < mOrders.length; i++) {
+            size += HeapEstimate.array(mOrders[i] != null ? mOrders[i].length : -1, 4)
+                    + HeapEstimate.array(mPositions[i] != null ? mPositions[i].length : -1, 4);
+        }
+
+        IdIndex index = mIdIndex;
+        if (index != null) {
+            size += HeapEstimate.object(2 * HeapEstimate.REFERENCE)
+                    + HeapEstimate.array(index.mIds.length, 8)
+                    + HeapEstimate.array(index.mRows.length, 4);
+        }
+
+        return size;
+    }
+
+    /**
+     * Creates a reusable {@link Row} that views this table.
+     */
+    public Row newRow() {
+        return new Row();
+    }
+
+    // The following methods are used by SongSorter for computing keys and storing the orders.
+    String getKeyLocale() {
+        return mKeyLocale;
+    }
+
+    void setKeyLocale(String locale) {
+        if (locale.equals(mKeyLocale)) return;
+
+        // Keys computed for another locale don't compare the same way, so they're dropped.
+        Arrays.fill(mTitleKeys, 0, mSize, null);
+        Arrays.fill(mArtists.mKeys, 0, mArtists.mCount, null);
+        Arrays.fill(mAlbums.mKeys, 0, mAlbums.mCount, null);
+        mKeyLocale = locale;
+    }
+
+    byte[] getTitleKey(int row) {
+        return mTitleKeys[row];
+    }
+
+    void setTitleKey(int row, byte[] key) {
+        mTitleKeys[row] = key;
+    }
+
+    int getArtistRef(int row) {
+        return mArtistRefs[row];
+    }
+
+    int getAlbumRef(int row) {
+        return mAlbumRefs[row];
+    }
+
+    String getPooledArtist(int ref) {
+        return mArtists.get(ref);
+    }
+
+    String getPooledAlbum(int ref) {
+        return mAlbums.get(ref);
+    }
+
+    byte[] getArtistKey(int ref) {
+        return ref == NO_REF ? null : mArtists.mKeys[ref];
+    }
+
+    byte[] getAlbumKey(int ref) {
+        return ref == NO_REF ? null : mAlbums.mKeys[ref];
+    }
+
+    void setArtistKey(int ref, byte[] key) {
+        mArtists.mKeys[ref] = key;
+    }
+
+    void setAlbumKey(int ref, byte[] key) {
+        mAlbums.mKeys[ref] = key;
+    }
+
+    void setOrder(SongOrder order, int[] permutation) {
+        mOrders[order.ordinal()] = permutation;
+        mPositions[order.ordinal()] = null;
+    }
+
+    /**
+     * Writes all of the columns, including the collation keys and the orders.
+     *
+     * @param out is the stream written to.
+     */
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(mSize);
+        for (int i = 0; i < mSize; i++) {
+            out.writeLong(mIds[i]);
+        }
+        for (int i = 0; i < mSize; i++) {
+            out.writeLong(mAlbumIds[i]);
+        }
+        for (int i = 0; i < mSize; i++) {
+            out.writeLong(mArtistIds[i]);
+        }
+        for (int i = 0; i < mSize; i++) {
+            out.writeLong(mDurations[i]);
+        }
+        for (int i = 0; i < mSize; i++) {
+            out.writeLong(mDatesAdded[i]);
+        }
+        for (int i = 0; i <= mSize; i++) {
+            out.writeInt(mTitleOffsets[i]);
+        }
+        for (int i = 0; i < mTitleOffsets[mSize]; i++) {
+            out.writeChar(mTitleChars[i]);
+        }
+
+        mArtists.writeTo(out);
+        mAlbums.writeTo(out);
+        for (int i = 0; i < mSize; i++) {
+            out.writeInt(mArtistRefs[i]);
+        }
+        for (int i = 0; i < mSize; i++) {
+            out.writeInt(mAlbumRefs[i]);
+        }
+        for (int i = 0; i < mSize; i++) {
+            writeBytes(out, mTitleKeys[i]);
+        }
+
+        writeBytes(out, mKeyLocale != null ? mKeyLocale.getBytes(UTF_8) : null);
+        for (int[] permutation : mOrders) {
+            out.writeInt(permutation != null ? permutation.length : NULL_LENGTH);
+            if (permutation == null) continue;
+
+            for (int row : permutation) {
+                out.writeInt(row);
+            }
+        }
+    }
+
+    /**
+     * Reads a table written by {@link #writeTo(DataOutputStream)}. The numeric columns are
+     * copied with bulk reads, so that loading doesn't go through the rows one at a time.
+     *
+     * Every length, count and reference is checked against the buffer and the table before
+     * it's used, so that a corrupt file is rejected rather than allocating or indexing past it.
+     *
+     * @param buffer is the buffer read from, positioned at the start of the columns.
+     * @throws IOException if the columns are truncated or inconsistent.
+     */
+    static SongTable readFrom(ByteBuffer buffer) throws IOException {
+        SongTable table = new SongTable();
+        int size = buffer.getInt();
+
+        // Each row takes at least its five long columns, its title offset, its two references
+        // and the length of its title key.
+        checkRemaining(buffer, size, 5 * 8 + 3 * 4 + 4);
+        table.ensureRowCapacity(size);
+
+        buffer.asLongBuffer().get(table.mIds, 0, size);
+        skip(buffer, size * 8);
+        buffer.asLongBuffer().get(table.mAlbumIds, 0, size);
+        skip(buffer, size * 8);
+        buffer.asLongBuffer().get(table.mArtistIds, 0, size);
+        skip(buffer, size * 8);
+        buffer.asLongBuffer().get(table.mDurations, 0, size);
+        skip(buffer, size * 8);
+        buffer.asLongBuffer().get(table.mDatesAdded, 0, size);
+        skip(buffer, size * 8);
+        buffer.asIntBuffer().get(table.mTitleOffsets, 0, size + 1);
+        skip(buffer, (size + 1) * 4);
+        if (table.mTitleOffsets[0] != 0) throw new IOException("Corrupt title offsets");
+        for (int i = 0; i < size; i++) {
+            if (table.mTitleOffsets[i + 1] < table.mTitleOffsets[i]) {
+                throw new IOException("Corrupt title offsets");
+            }
+        }
+        int chars = table.mTitleOffsets[size];
+        checkRemaining(buffer, chars, 2);
+        table.ensureCharCapacity(chars);
+        buffer.asCharBuffer().get(table.mTitleChars, 0, chars);
+        skip(buffer, chars * 2);
+
+        table.mArtists.readFrom(buffer);
+        table.mAlbums.readFrom(buffer);
+        buffer.asIntBuffer().get(table.mArtistRefs, 0, size);
+        skip(buffer, size * 4);
+        buffer.asIntBuffer().get(table.mAlbumRefs, 0, size);
+        skip(buffer, size * 4);
+        for (int i = 0; i < size; i++) {
+            checkRef(table.mArtistRefs[i], table.mArtists);
+            checkRef(table.mAlbumRefs[i], table.mAlbums);
+            table.mTitleKeys[i] = readBytes(buffer);
+        }
+        table.mSize = size;
+
+        // The groups aren't written, since a single pass over the rows rebuilds them.
+        for (int i = 0; i < size; i++) {
+            table.addToGroups(i);
+        }
+
+        byte[] locale = readBytes(buffer);
+        table.mKeyLocale = locale != null ? new String(locale, UTF_8) : null;
+        for (int i = 0; i < table.mOrders.length; i++) {
+            int length = buffer.getInt();
+            if (length == NULL_LENGTH) continue;
+            if (length != size) throw new IOException("Corrupt order length " + length);
+
+            int[] permutation = new int[length];
+            buffer.asIntBuffer().get(permutation);
+            skip(buffer, length * 4);
+
+            // Each row must appear exactly once, or the order would show some rows twice.
+            boolean[] seen = new boolean[size];
+            for (int row : permutation) {
+                if (row < 0 || row >= size || seen[row]) {
+                    throw new IOException("Corrupt order entry " + row);
+                }
+                seen[row] = true;
+            }
+            table.mOrders[i] = permutation;
+        }
+
+        return table;
+    }
+
+    // Helper method that makes room for one more row, and returns where its title starts.
+    private int reserveRow(int titleLength) {
+        ensureRowCapacity(mSize + 1);
+
+        int start = mTitleOffsets[mSize];
+        ensureCharCapacity(start + titleLength);
+
+        return start;
+    }
+
+    // Helper method that fills in the rest of the row reserved by reserveRow(), which is then
+    // added to the groups by the caller.
+    private void appendRow(long id, long albumId, long artistId, long duration, long dateAdded,
+            int titleEnd, int artistRef, int albumRef, byte[] titleKey) {
+        mIds[mSize] = id;
+        mAlbumIds[mSize] = albumId;
+        mArtistIds[mSize] = artistId;
+        mDurations[mSize] = duration;
+        mDatesAdded[mSize] = dateAdded;
+        mTitleOffsets[mSize + 1] = titleEnd;
+        mArtistRefs[mSize] = artistRef;
+        mAlbumRefs[mSize] = albumRef;
+        mTitleKeys[mSize] = titleKey;
+
+        // The orders and the ID index no longer cover all of the rows.
+        clearOrders();
+        mIdIndex = null;
+
+        mSize++;
+        modCount++;
+    }
+
+    private void addToGroups(int row) {
+        mArtistGroups.add(row, mArtistIds[row], mDurations[row]);
+        mAlbumGroups.add(row, mAlbumIds[row], mDurations[row]);
+    }
+
+    private void clearOrders() {
+        Arrays.fill(mOrders, null);
+        Arrays.fill(mPositions, null);
+    }
+
+    // Helper methods that grow the columns.
+    private void ensureRowCapacity(int rows) {
+        if (rows <= mIds.length) return;
+
+        int capacity = Math.max(rows, mIds.length + (mIds.length >> 1));
+        mIds = Arrays.copyOf(mIds, capacity);
+        mAlbumIds = Arrays.copyOf(mAlbumIds, capacity);
+        mArtistIds = Arrays.copyOf(mArtistIds, capacity);
+        mDurations = Arrays.copyOf(mDurations, capacity);
+        mDatesAdded = Arrays.copyOf(mDatesAdded, capacity);
+        mArtistRefs = Arrays.copyOf(mArtistRefs, capacity);
+        mAlbumRefs = Arrays.copyOf(mAlbumRefs, capacity);
+        mTitleKeys = Arrays.copyOf(mTitleKeys, capacity);
+        mTitleOffsets = Arrays.copyOf(mTitleOffsets, capacity + 1);
+    }
+
+    private void ensureCharCapacity(int chars) {
+        if (chars <= mTitleChars.length) return;
+
+        mTitleChars = Arrays.copyOf(mTitleChars,
+                Math.max(chars, mTitleChars.length + (mTitleChars.length >> 1)));
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= mSize) {
+            throw new IndexOutOfBoundsException("Row " + row + ", size " + mSize);
+        }
+    }
+
+    // Helper methods used for reading and writing length-prefixed byte arrays.
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        if (bytes == null) {
+            out.writeInt(NULL_LENGTH);
+            return;
+        }
+
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(ByteBuffer buffer) throws IOException {
+        int length = buffer.getInt();
+        if (length == NULL_LENGTH) return null;
+        checkRemaining(buffer, length, 1);
+
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+
+        return bytes;
+    }
+
+    private static void skip(ByteBuffer buffer, int bytes) {
+        buffer.position(buffer.position() + bytes);
+    }
+
+    // Helper methods that reject a count the rest of the buffer can't hold, and a reference
+    // outside of its pool, before anything is allocated or indexed with them.
+    private static void checkRemaining(ByteBuffer buffer, int count, int elementSize)
+            throws IOException {
+        if (count < 0 || (long) count * elementSize > buffer.remaining()) {
+            throw new IOException("Corrupt count " + count + ", " + buffer.remaining()
+                    + " bytes left");
+        }
+    }
+
+    private static void checkRef(int ref, StringPool pool) throws IOException {
+        if (ref < NO_REF || ref >= pool.mCount) throw new IOException("Corrupt reference " + ref);
+    }
+
+    /**
+     * Pool of unique strings, each with its collation key.
+     */
+    private static final class StringPool {
+
+        private String[] mValues = new String[16];
+        private byte[][] mKeys = new byte[16][];
+        private final Map<String, Integer> mIndex = new HashMap<>();
+        private int mCount;
+
+        String get(int ref) {
+            return ref == NO_REF ? null : mValues[ref];
+        }
+
+        // Returns the pool index of a string, adding it to the pool if needed.
+        int intern(String value) {
+            if (value == null) return NO_REF;
+
+            Integer ref = mIndex.get(value);
+            if (ref != null) return ref;
+
+            if (mCount == mValues.length) {
+                mValues = Arrays.copyOf(mValues, mCount * 2);
+                mKeys = Arrays.copyOf(mKeys, mCount * 2);
+            }
+            mValues[mCount] = value;
+            mIndex.put(value, mCount);
+
+            return mCount++;
+        }
+
+        // Interns an entry of another pool, keeping its key if this pool has none yet.
+        int copy(StringPool source, int sourceRef) {
+            if (sourceRef == NO_REF) return NO_REF;
+
+            int ref = intern(source.mValues[sourceRef]);
+            if (mKeys[ref] == null) mKeys[ref] = source.mKeys[sourceRef];
+
+            return ref;
+        }
+
+        // Estimates the heap retained by the pool, along with its strings and their keys.
+        long estimateRetainedSize() {
+            long size = HeapEstimate.object(3 * HeapEstimate.REFERENCE + 4)
+                    + HeapEstimate.array(mValues.length, HeapEstimate.REFERENCE)
+                    + HeapEstimate.array(mKeys.length, HeapEstimate.REFERENCE)
+                    + HeapEstimate.integerMap(mCount);
+            for (int i = 0; i < mCount; i++) {
+                size += HeapEstimate.string(mValues[i])
+                        + HeapEstimate.array(mKeys[i] != null ? mKeys[i].length : -1, 1);
+            }
+
+            return size;
+        }
+
+        void clear() {
+            Arrays.fill(mValues, 0, mCount, null);
+            Arrays.fill(mKeys, 0, mCount, null);
+            mIndex.clear();
+            mCount = 0;
+        }
+
+        void writeTo(DataOutputStream out) throws IOException {
+            out.writeInt(mCount);
+            for (int i = 0; i < mCount; i++) {
+                writeBytes(out, mValues[i].getBytes(UTF_8));
+                writeBytes(out, mKeys[i]);
+            }
+        }
+
+        // Each entry takes at least the lengths of its value and of its key, and the values
+        // must be unique, since the rows refer to them by their position.
+        void readFrom(ByteBuffer buffer) throws IOException {
+            int count = buffer.getInt();
+            checkRemaining(buffer, count, 8);
+            for (int i = 0; i < count; i++) {
+                byte[] value = readBytes(buffer);
+                if (value == null) throw new IOException("Corrupt pool entry " + i);
+
+                int ref = intern(new String(value, UTF_8));
+                if (ref != i) throw new IOException("Duplicate pool entry " + i);
+                mKeys[ref] = readBytes(buffer);
+            }
+        }
+    }
+
+    /**
+     * Song-like flyweight that views one row of the table at a time, so that rows can be read
+     * without creating a {@link Song} object for each of them.
+     */
+    public final class Row {
+
+        private int mRow;
+
+        private Row() {
+        }
+
+        /**
+         * Points this view at another row.
+         *
+         * @param row is the row index.
+         * @return this view.
+         */
+        public Row moveTo(int row) {
+            checkRow(row);
+            mRow = row;
+
+            return this;
+        }
+
+        // Getter methods.
+        public int getRow() {
+            return mRow;
+        }
+
+        public long getID() {
+            return mIds[mRow];
+        }
+
+        public String getTitle() {
+            return SongTable.this.getTitle(mRow);
+        }
+
+        public String getArtist() {
+            return SongTable.this.getArtist(mRow);
+        }
+
+        public String getAlbum() {
+            return SongTable.this.getAlbum(mRow);
+        }
+
+        public long getAlbumID() {
+            return mAlbumIds[mRow];
+        }
+
+        public long getArtistID() {
+            return mArtistIds[mRow];
+        }
+
+        public long getDuration() {
+            return mDurations[mRow];
+        }
+
+        public long getDateAdded() {
+            return mDatesAdded[mRow];
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package dndproductions.musicplayerlite;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pipeline that reads the tags of many music files with a {@link TagParser} and feeds them into
+ * a {@link TagStore}.
+ *
+ * <p>Each file is memory-mapped rather than read, so only the pages that hold its tags are ever
+ * loaded, and the files are fanned out over a fixed amount of workers that each take the next
+ * file until none are left, which bounds both the threads and the mappings alive at a time.
+ */
+public class TagExtractor {
+
+    // Largest part of a file that's mapped, which only reserves address space until read.
+    private static final long MAX_MAPPED_BYTES = 16 * 1024 * 1024;
+
+    // File extensions read by the command line benchmark.
+    private static final String[] EXTENSIONS = {".mp3", ".flac", ".ogg", ".oga", ".opus"};
+
+    private final ExecutorService mExecutor;
+    private final int mParallelism;
+
+    /**
+     * Results of an extraction.
+     */
+    public static final class Result {
+        int mFiles;
+        int mTagged;
+        int mFailures;
+        long mTagBytes;
+        long mNanos;
+
+        // Getter methods.
+        public int getFiles() {
+            return mFiles;
+        }
+
+        public int getTagged() {
+            return mTagged;
+        }
+
+        public int getFailures() {
+            return mFailures;
+        }
+
+        /**
+         * Returns the amount of bytes parsed, i.e. the size of the tags read.
+         */
+        public long getTagBytes() {
+            return mTagBytes;
+        }
+
+        public long getNanos() {
+            return mNanos;
+        }
+
+        public double getFilesPerSecond() {
+            return mNanos > 0 ? mFiles * 1e9 / mNanos : 0;
+        }
+
+        public double getMegabytesPerSecond() {
+            return mNanos > 0 ? mTagBytes * 1e9 / mNanos / (1024 * 1024) : 0;
+        }
+
+        // Helper method that adds the results of another worker.
+        void add(Result other) {
+            mFiles += other.mFiles;
+            mTagged += other.mTagged;
+            mFailures += other.mFailures;
+            mTagBytes += other.mTagBytes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d files (%d tagged, %d failed), %.1f MB of tags in"
+                            + " %d ms: %.0f files/s, %.1f MB/s", mFiles, mTagged, mFailures,
+                    mTagBytes / (1024.0 * 1024), mNanos / 1000000, getFilesPerSecond(),
+                    getMegabytesPerSecond());
+        }
+    }
+
+    /**
+     * Creates a {@link TagExtractor} object.
+     *
+     * @param executor is the executor the workers run on.
+     * @param parallelism is the amount of workers.
+     */
+    public TagExtractor(ExecutorService executor, int parallelism) {
+        mExecutor = executor;
+        mParallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Reads the tags of songs into a store. The lyrics are only noted, not kept.
+     *
+     * @param ids is the songs' IDs.
+     * @param modified is the modification times of the songs' files, in the same order.
+     * @param paths is the paths of the songs' files, in the same order.
+     * @param store is the store the tags are put into.
+     */
+    public Result extract(final long[] ids, final long[] modified, final String[] paths,
+                          final TagStore store) throws InterruptedException {
+        final AtomicInteger next = new AtomicInteger();
+        List<Callable<Result>> workers = new ArrayList<>(mParallelism);
+        for (int i = 0; i < mParallelism; i++) {
+            workers.add(new Callable<Result>() {
+                @Override
+                public Result call() {
+                    Result result = new Result();
+                    for (int index = next.getAndIncrement(); index < ids.length
+                            && !Thread.currentThread().isInterrupted();
+                            index = next.getAndIncrement()) {
+                        result.mFiles++;
+                        try {
+                            TrackTags tags = read(new File(paths[index]), false);
+                            if (tags != null) {
+                                store.put(ids[index], modified[index], tags);
+                                result.mTagged++;
+                                result.mTagBytes += tags.getTagSize();
+                            }
+                        } catch (IOException e) {
+                            result.mFailures++;
+                        }
+                    }
+
+                    return result;
+                }
+            });
+        }
+
+        long start = System.nanoTime();
+        Result result = new Result();
+        try {
+            for (Future<Result> future : mExecutor.invokeAll(workers)) {
+                result.add(future.get());
+            }
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+        result.mNanos = System.nanoTime() - start;
+
+        return result;
+    }
+
+    /**
+     * Reads the tags of a file through a read-only mapping of its beginning.
+     *
+     * @param file is the music file.
+     * @param lyrics is whether the lyrics are decoded, e.g. for the song that's playing.
+     * @return the tags, or null if the file has none in a supported format.
+     */
+    public static TrackTags read(File file, boolean lyrics) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            if (size == 0) return null;
+
+            // The mapping stays valid after the channel is closed.
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    Math.min(size, MAX_MAPPED_BYTES));
+            return TagParser.parse(buffer, lyrics);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Reads the tags of a local corpus of music files and prints the throughput of each pass,
+     * where the first pass may read from disk and the following ones from the page cache, e.g.
+     * via ./gradlew :core:extractTags -Pcorpus=/path/to/music.
+     *
+     * @param args is the corpus directory, followed by an optional amount of threads and passes.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.err.println("Usage: TagExtractor <directory> [threads] [passes]");
+            System.exit(2);
+        }
+
+        int threads = args.length > 1
+                ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int passes = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+
+        List<File> files = new ArrayList<>();
+        listMusicFiles(new File(args[0]), files);
+        long[] ids = new long[files.size()];
+        long[] modified = new long[files.size()];
+        String[] paths = new String[files.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = i;
+            modified[i] = files.get(i).lastModified() / 1000;
+            paths[i] = files.get(i).getPath();
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            TagExtractor extractor = new TagExtractor(executor, threads);
+            for (int pass = 1; pass <= passes; pass++) {
+                System.out.println("Pass " + pass + ": "
+                        + extractor.extract(ids, modified, paths, new TagStore()));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    // Helper method that lists the music files under a directory.
+    private static void listMusicFiles(File directory, List<File> files) {
+        File[] children = directory.listFiles();
+        if (children == null) return;
+
+        for (File child : children) {
+            if (child.isDirectory()) {
+                listMusicFiles(child, files);
+                continue;
+            }
+
+            String name = child.getName().toLowerCase(Locale.US);
+            for (String extension : EXTENSIONS) {
+                if (name.endsWith(extension)) {
+                    files.add(child);
+                    break;
+                }
+            }
+        }
+    }
+}
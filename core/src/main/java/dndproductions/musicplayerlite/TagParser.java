@@ -0,0 +1,529 @@
+package dndproductions.musicplayerlite;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Reads the tags embedded in a music file: ID3v2 (2.2 to 2.4, as found in MP3s), FLAC metadata
+ * blocks and the Vorbis comments of Ogg Vorbis and Opus files.
+ *
+ * <p>The file is read straight from a (typically memory-mapped) {@link ByteBuffer} with absolute
+ * reads, without copying it: frames and blocks that aren't needed, such as embedded pictures,
+ * are skipped by their sizes so their pages are never touched, keys are compared as bytes, and
+ * only the values that are kept are decoded into strings. Bytes are only copied for the rare
+ * unsynchronised ID3 frames and for Ogg comment packets that span pages.
+ *
+ * <p>Truncated or corrupt tags don't throw, and the values read up to that point are kept.
+ */
+public final class TagParser {
+
+    // Signatures of the supported formats.
+    private static final byte[] ID3 = {'I', 'D', '3'};
+    private static final byte[] FLAC = {'f', 'L', 'a', 'C'};
+    private static final byte[] OGG = {'O', 'g', 'g', 'S'};
+    private static final byte[] VORBIS_COMMENT = {3, 'v', 'o', 'r', 'b', 'i', 's'};
+    private static final byte[] OPUS_TAGS = {'O', 'p', 'u', 's', 'T', 'a', 'g', 's'};
+
+    // FLAC metadata block type of the Vorbis comments.
+    private static final int FLAC_VORBIS_COMMENT = 4;
+
+    // Sizes of the Ogg page header before the segment table.
+    private static final int OGG_HEADER_SIZE = 27;
+
+    // Largest Ogg comment packet that's copied when it spans pages, since it may carry pictures.
+    private static final int MAX_PACKET_BYTES = 1024 * 1024;
+
+    // ID3v2 frame IDs, as 4 or 3 (ID3v2.2) bytes.
+    private static final int TIT2 = frameId("TIT2");
+    private static final int TPE1 = frameId("TPE1");
+    private static final int TALB = frameId("TALB");
+    private static final int TRCK = frameId("TRCK");
+    private static final int TPOS = frameId("TPOS");
+    private static final int TBPM = frameId("TBPM");
+    private static final int TXXX = frameId("TXXX");
+    private static final int USLT = frameId("USLT");
+    private static final int TT2 = frameId("TT2");
+    private static final int TP1 = frameId("TP1");
+    private static final int TAL = frameId("TAL");
+    private static final int TRK = frameId("TRK");
+    private static final int TPA = frameId("TPA");
+    private static final int TBP = frameId("TBP");
+    private static final int TXX = frameId("TXX");
+    private static final int ULT = frameId("ULT");
+
+    // Text encodings of the ID3v2 frames.
+    private static final int ISO_8859_1 = 0;
+    private static final int UTF_16 = 1;
+    private static final int UTF_16BE = 2;
+    private static final int UTF_8 = 3;
+    private static final Charset[] CHARSETS = {Charset.forName("ISO-8859-1"),
+            Charset.forName("UTF-16"), Charset.forName("UTF-16BE"), Charset.forName("UTF-8")};
+
+    // Keys of the values read from Vorbis comments and ID3v2 user text frames.
+    private static final String TITLE = "TITLE";
+    private static final String ARTIST = "ARTIST";
+    private static final String ALBUM = "ALBUM";
+    private static final String TRACK_NUMBER = "TRACKNUMBER";
+    private static final String DISC_NUMBER = "DISCNUMBER";
+    private static final String BPM = "BPM";
+    private static final String LYRICS = "LYRICS";
+    private static final String UNSYNCED_LYRICS = "UNSYNCEDLYRICS";
+    private static final String TRACK_GAIN = "REPLAYGAIN_TRACK_GAIN";
+    private static final String ALBUM_GAIN = "REPLAYGAIN_ALBUM_GAIN";
+
+    private TagParser() {
+    }
+
+    /**
+     * Reads the tags of a file.
+     *
+     * @param buffer is the beginning of the file, from index 0 up to its limit, which should
+     * include the tags. Its position isn't changed.
+     * @param lyrics is whether the lyrics are decoded, rather than only noted.
+     * @return the tags, or null if the file has none in a supported format.
+     */
+    public static TrackTags parse(ByteBuffer buffer, boolean lyrics) {
+        TrackTags tags = new TrackTags();
+        int end = 0;
+        boolean found = false;
+
+        try {
+
+            // FLAC files sometimes start with an ID3v2 tag as well.
+            if (startsWith(buffer, 0, ID3)) {
+                found = true;
+                end = parseId3(buffer, tags, lyrics);
+            }
+            if (startsWith(buffer, end, FLAC)) {
+                found = true;
+                end = parseFlac(buffer, end + FLAC.length, tags, lyrics);
+            } else if (end == 0 && startsWith(buffer, 0, OGG)) {
+                found = true;
+                end = parseOgg(buffer, tags, lyrics);
+            }
+        } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+
+            // The tags are truncated, so the values read so far are kept.
+            end = buffer.limit();
+        }
+
+        if (!found) return null;
+
+        tags.setTagSize(Math.min(end, buffer.limit()));
+        return tags;
+    }
+
+    /**
+     * Reads an ID3v2 tag.
+     *
+     * @return the index after the tag.
+     */
+    private static int parseId3(ByteBuffer buffer, TrackTags tags, boolean lyrics) {
+        int version = buffer.get(3) & 0xFF;
+        int flags = buffer.get(5) & 0xFF;
+        int end = 10 + syncsafe(buffer, 6);
+        if (version == 4 && (flags & 0x10) != 0) end += 10; // Footer.
+
+        // ID3v2.2 tags flagged as compressed have no defined compression, so they're skipped.
+        if (version < 2 || version > 4 || (version == 2 && (flags & 0x40) != 0)) return end;
+
+        // Before ID3v2.4, unsynchronisation applies to the whole tag, which is then copied.
+        ByteBuffer tag = buffer;
+        int position = 10;
+        int tagEnd = Math.min(end, buffer.limit());
+        if (version < 4 && (flags & 0x80) != 0) {
+            tag = resync(buffer, position, tagEnd);
+            position = 0;
+            tagEnd = tag.limit();
+        }
+
+        // Skips the extended header, whose size includes itself only in ID3v2.4.
+        if (version > 2 && (flags & 0x40) != 0) {
+            position += version == 4 ? syncsafe(tag, position) : 4 + tag.getInt(position);
+        }
+
+        int headerSize = version == 2 ? 6 : 10;
+        while (position + headerSize <= tagEnd && tag.get(position) != 0) {
+            int id;
+            int size;
+            int frameFlags = 0;
+            if (version == 2) {
+                id = getInt24(tag, position);
+                size = getInt24(tag, position + 3);
+            } else {
+                id = tag.getInt(position);
+                size = version == 4 ? syncsafe(tag, position + 4) : tag.getInt(position + 4);
+                frameFlags = tag.get(position + 9) & 0xFF;
+            }
+
+            int start = position + headerSize;
+            int frameEnd = start + size;
+            if (size < 0 || frameEnd > tagEnd) break;
+            position = frameEnd;
+
+            // Frame flags, which differ between versions: compressed and encrypted frames are
+            // skipped, while a grouping byte or data length precede the frame's content.
+            if (version == 3) {
+                if ((frameFlags & 0xC0) != 0) continue;
+                if ((frameFlags & 0x20) != 0) start++;
+            } else if (version == 4) {
+                if ((frameFlags & 0x0C) != 0) continue;
+                if ((frameFlags & 0x40) != 0) start++;
+                if ((frameFlags & 0x01) != 0) start += 4;
+                if ((frameFlags & 0x02) != 0 && start < frameEnd) {
+                    ByteBuffer frame = resync(tag, start, frameEnd);
+                    parseFrame(frame, id, 0, frame.limit(), tags, lyrics);
+                    continue;
+                }
+            }
+            if (start < frameEnd) parseFrame(tag, id, start, frameEnd, tags, lyrics);
+        }
+
+        return end;
+    }
+
+    // Helper method that reads the value of an ID3v2 frame, if it's one of the frames used.
+    private static void parseFrame(ByteBuffer frame, int id, int start, int end, TrackTags tags,
+            boolean lyrics) {
+        if (id == TIT2 || id == TT2) {
+            tags.setTitle(readText(frame, start, end));
+        } else if (id == TPE1 || id == TP1) {
+            tags.setArtist(readText(frame, start, end));
+        } else if (id == TALB || id == TAL) {
+            tags.setAlbum(readText(frame, start, end));
+        } else if (id == TRCK || id == TRK) {
+            tags.setTrackNumber(parseNumber(readText(frame, start, end)));
+        } else if (id == TPOS || id == TPA) {
+            tags.setDiscNumber(parseNumber(readText(frame, start, end)));
+        } else if (id == TBPM || id == TBP) {
+            tags.setBpm(parseNumber(readText(frame, start, end)));
+        } else if (id == TXXX || id == TXX) {
+
+            // User defined text, as a description followed by the value.
+            int encoding = frame.get(start);
+            int descriptionEnd = findTerminator(frame, encoding, start + 1, end);
+            int valueStart = Math.min(end, descriptionEnd + terminatorSize(encoding));
+            String description = decode(frame, encoding, start + 1, descriptionEnd);
+            if (TRACK_GAIN.equalsIgnoreCase(description)) {
+                tags.setTrackGain(parseGain(readString(frame, encoding, valueStart, end)));
+            } else if (ALBUM_GAIN.equalsIgnoreCase(description)) {
+                tags.setAlbumGain(parseGain(readString(frame, encoding, valueStart, end)));
+            }
+        } else if (id == USLT || id == ULT) {
+            if (!lyrics) {
+                tags.setLyrics(null);
+                return;
+            }
+
+            // Unsynchronised lyrics, after a language code and a content description.
+            int encoding = frame.get(start);
+            int descriptionEnd = findTerminator(frame, encoding, start + 4, end);
+            int textStart = Math.min(end, descriptionEnd + terminatorSize(encoding));
+            tags.setLyrics(decode(frame, encoding, textStart, end));
+        }
+    }
+
+    /**
+     * Reads the FLAC metadata blocks, which follow the signature.
+     *
+     * @return the index after the last metadata block.
+     */
+    private static int parseFlac(ByteBuffer buffer, int position, TrackTags tags,
+            boolean lyrics) {
+        while (true) {
+            int header = buffer.get(position) & 0xFF;
+            int size = getInt24(buffer, position + 1);
+            position += 4;
+
+            if ((header & 0x7F) == FLAC_VORBIS_COMMENT) {
+                parseVorbisComments(buffer, position, position + size, tags, lyrics);
+            }
+            position += size;
+
+            // The last block is flagged by the header's top bit.
+            if ((header & 0x80) != 0) return position;
+        }
+    }
+
+    /**
+     * Reads the Vorbis comments of an Ogg Vorbis or Opus file, which are the second packet of
+     * the stream. The comment packet is read in place unless it's split across pages.
+     *
+     * @return the index after the comment packet.
+     */
+    private static int parseOgg(ByteBuffer buffer, TrackTags tags, boolean lyrics) {
+        int page = 0;
+        int packet = 0;
+
+        // Range of the comment packet read so far, and its copy once it's no longer contiguous.
+        int packetStart = -1;
+        int packetEnd = -1;
+        byte[] copy = null;
+        int copySize = 0;
+
+        while (startsWith(buffer, page, OGG)) {
+            int segments = buffer.get(page + OGG_HEADER_SIZE - 1) & 0xFF;
+            int data = page + OGG_HEADER_SIZE + segments;
+            for (int i = 0; i < segments; i++) {
+                int lacing = buffer.get(page + OGG_HEADER_SIZE + i) & 0xFF;
+                if (packet == 1) {
+                    if (packetStart == -1) {
+                        packetStart = data;
+                        packetEnd = data;
+                    }
+
+                    if (copy == null && data == packetEnd) {
+                        packetEnd += lacing;
+                    } else {
+                        if (copy == null) {
+                            copySize = Math.min(packetEnd - packetStart, MAX_PACKET_BYTES);
+                            copy = new byte[MAX_PACKET_BYTES];
+                            get(buffer, packetStart, copy, 0, copySize);
+                        }
+                        int length = Math.min(lacing, MAX_PACKET_BYTES - copySize);
+                        get(buffer, data, copy, copySize, length);
+                        copySize += length;
+                    }
+                }
+                data += lacing;
+
+                // A lacing value below 255 ends the packet.
+                if (lacing < 255 && ++packet == 2) {
+                    if (copy != null) {
+                        parseCommentPacket(ByteBuffer.wrap(copy), 0, copySize, tags, lyrics);
+                    } else if (packetStart != -1) {
+                        parseCommentPacket(buffer, packetStart, packetEnd, tags, lyrics);
+                    }
+                    return data;
+                }
+            }
+            page = data;
+        }
+
+        return page;
+    }
+
+    // Helper method that reads a Vorbis or Opus comment packet.
+    private static void parseCommentPacket(ByteBuffer packet, int start, int end, TrackTags tags,
+            boolean lyrics) {
+        if (startsWith(packet, start, VORBIS_COMMENT)) {
+            parseVorbisComments(packet, start + VORBIS_COMMENT.length, end, tags, lyrics);
+        } else if (startsWith(packet, start, OPUS_TAGS)) {
+            parseVorbisComments(packet, start + OPUS_TAGS.length, end, tags, lyrics);
+        }
+    }
+
+    /**
+     * Reads Vorbis comments, which are little-endian length-prefixed {@code KEY=value} strings
+     * in UTF-8, following a vendor string.
+     */
+    private static void parseVorbisComments(ByteBuffer buffer, int position, int end,
+            TrackTags tags, boolean lyrics) {
+        position += 4 + getIntLE(buffer, position);
+        int count = getIntLE(buffer, position);
+        position += 4;
+
+        for (int i = 0; i < count && position + 4 <= end; i++) {
+            int length = getIntLE(buffer, position);
+            position += 4;
+            if (length < 0 || length > end - position) return;
+
+            int commentEnd = position + length;
+            int separator = position;
+            while (separator < commentEnd && buffer.get(separator) != '=') {
+                separator++;
+            }
+
+            // Only the values of the keys used are decoded.
+            int valueStart = separator + 1;
+            if (separator == commentEnd) {
+                position = commentEnd;
+                continue;
+            } else if (keyEquals(buffer, position, separator, TITLE)) {
+                tags.setTitle(readString(buffer, UTF_8, valueStart, commentEnd));
+            } else if (keyEquals(buffer, position, separator, ARTIST)) {
+                tags.setArtist(readString(buffer, UTF_8, valueStart, commentEnd));
+            } else if (keyEquals(buffer, position, separator, ALBUM)) {
+                tags.setAlbum(readString(buffer, UTF_8, valueStart, commentEnd));
+            } else if (keyEquals(buffer, position, separator, TRACK_NUMBER)) {
+                tags.setTrackNumber(parseNumber(decode(buffer, UTF_8, valueStart, commentEnd)));
+            } else if (keyEquals(buffer, position, separator, DISC_NUMBER)) {
+                tags.setDiscNumber(parseNumber(decode(buffer, UTF_8, valueStart, commentEnd)));
+            } else if (keyEquals(buffer, position, separator, BPM)) {
+                tags.setBpm(parseNumber(decode(buffer, UTF_8, valueStart, commentEnd)));
+            } else if (keyEquals(buffer, position, separator, TRACK_GAIN)) {
+                tags.setTrackGain(parseGain(decode(buffer, UTF_8, valueStart, commentEnd)));
+            } else if (keyEquals(buffer, position, separator, ALBUM_GAIN)) {
+                tags.setAlbumGain(parseGain(decode(buffer, UTF_8, valueStart, commentEnd)));
+            } else if (keyEquals(buffer, position, separator, LYRICS)
+                    || keyEquals(buffer, position, separator, UNSYNCED_LYRICS)) {
+                tags.setLyrics(lyrics ? decode(buffer, UTF_8, valueStart, commentEnd) : null);
+            }
+            position = commentEnd;
+        }
+    }
+
+    // Helper method that reads an ID3v2 text frame, which may hold several values in ID3v2.4,
+    // of which only the first is kept.
+    private static String readText(ByteBuffer frame, int start, int end) {
+        int encoding = frame.get(start);
+        return readString(frame, encoding, start + 1, findTerminator(frame, encoding, start + 1,
+                end));
+    }
+
+    // Helper method that decodes a value, which is null if it's blank.
+    private static String readString(ByteBuffer buffer, int encoding, int start, int end) {
+        String value = decode(buffer, encoding, start, end).trim();
+        return value.isEmpty() ? null : value;
+    }
+
+    // Helper method that decodes a range of the buffer without copying it first.
+    private static String decode(ByteBuffer buffer, int encoding, int start, int end) {
+        if (start >= end) return "";
+
+        // Latin-1 maps each byte to a char, which doesn't need a decoder.
+        if (encoding == ISO_8859_1) {
+            char[] chars = new char[end - start];
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = (char) (buffer.get(start + i) & 0xFF);
+            }
+            return new String(chars);
+        }
+
+        ByteBuffer range = buffer.duplicate();
+        range.limit(end);
+        range.position(start);
+        return CHARSETS[encoding < CHARSETS.length && encoding > 0 ? encoding : UTF_8]
+                .decode(range).toString();
+    }
+
+    // Helper method that returns the index of a string's terminator, or the end if it has none.
+    private static int findTerminator(ByteBuffer buffer, int encoding, int start, int end) {
+        if (encoding == UTF_16 || encoding == UTF_16BE) {
+            for (int i = start; i + 1 < end; i += 2) {
+                if (buffer.get(i) == 0 && buffer.get(i + 1) == 0) return i;
+            }
+            return end;
+        }
+
+        for (int i = start; i < end; i++) {
+            if (buffer.get(i) == 0) return i;
+        }
+        return end;
+    }
+
+    private static int terminatorSize(int encoding) {
+        return encoding == UTF_16 || encoding == UTF_16BE ? 2 : 1;
+    }
+
+    // Helper method that compares an ASCII key with a range of bytes, ignoring case.
+    private static boolean keyEquals(ByteBuffer buffer, int start, int end, String key) {
+        if (end - start != key.length()) return false;
+
+        for (int i = 0; i < key.length(); i++) {
+            int c = buffer.get(start + i);
+            if (c >= 'a' && c <= 'z') c -= 'a' - 'A';
+            if (c != key.charAt(i)) return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Parses the number a value starts with, e.g. 3 for a track number of "3/12".
+     *
+     * @return the number, or {@link TrackTags#NONE} if there's none.
+     */
+    static int parseNumber(String value) {
+        if (value == null) return TrackTags.NONE;
+
+        int number = 0;
+        int i = 0;
+        while (i < value.length() && value.charAt(i) == ' ') {
+            i++;
+        }
+        int start = i;
+        while (i < value.length() && i - start < 9 && value.charAt(i) >= '0'
+                && value.charAt(i) <= '9') {
+            number = number * 10 + value.charAt(i++) - '0';
+        }
+
+        return i > start ? number : TrackTags.NONE;
+    }
+
+    /**
+     * Parses a ReplayGain value, e.g. "-6.50 dB".
+     *
+     * @return the gain in dB, or {@link TrackTags#NO_GAIN} if the value isn't one.
+     */
+    static float parseGain(String value) {
+        if (value == null) return TrackTags.NO_GAIN;
+
+        value = value.trim();
+        if (value.regionMatches(true, Math.max(0, value.length() - 2), "dB", 0, 2)) {
+            value = value.substring(0, value.length() - 2).trim();
+        }
+
+        try {
+            return Float.parseFloat(value);
+        } catch (NumberFormatException e) {
+            return TrackTags.NO_GAIN;
+        }
+    }
+
+    // Helper method that copies a range of the buffer, dropping the zero byte that
+    // unsynchronisation inserts after each 0xFF byte.
+    private static ByteBuffer resync(ByteBuffer buffer, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        int size = 0;
+        for (int i = start; i < end; i++) {
+            byte b = buffer.get(i);
+            bytes[size++] = b;
+            if (b == (byte) 0xFF && i + 1 < end && buffer.get(i + 1) == 0) i++;
+        }
+
+        return ByteBuffer.wrap(bytes, 0, size).slice();
+    }
+
+    // Helper method that copies a range of the buffer into an array.
+    private static void get(ByteBuffer buffer, int start, byte[] bytes, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            bytes[offset + i] = buffer.get(start + i);
+        }
+    }
+
+    private static boolean startsWith(ByteBuffer buffer, int position, byte[] signature) {
+        if (position < 0 || position + signature.length > buffer.limit()) return false;
+
+        for (int i = 0; i < signature.length; i++) {
+            if (buffer.get(position + i) != signature[i]) return false;
+        }
+
+        return true;
+    }
+
+    // Helper method that reads the 28-bit integers ID3v2 stores in 4 bytes of 7 bits.
+    private static int syncsafe(ByteBuffer buffer, int position) {
+        return (buffer.get(position) & 0x7F) << 21 | (buffer.get(position + 1) & 0x7F) << 14
+                | (buffer.get(position + 2) & 0x7F) << 7 | buffer.get(position + 3) & 0x7F;
+    }
+
+    private static int getInt24(ByteBuffer buffer, int position) {
+        return (buffer.get(position) & 0xFF) << 16 | (buffer.get(position + 1) & 0xFF) << 8
+                | buffer.get(position + 2) & 0xFF;
+    }
+
+    private static int getIntLE(ByteBuffer buffer, int position) {
+        return buffer.get(position) & 0xFF | (buffer.get(position + 1) & 0xFF) << 8
+                | (buffer.get(position + 2) & 0xFF) << 16 | (buffer.get(position + 3) & 0xFF) << 24;
+    }
+
+    private static int frameId(String id) {
+        int value = 0;
+        for (int i = 0; i < id.length(); i++) {
+            value = value << 8 | id.charAt(i);
+        }
+
+        return value;
+    }
+}
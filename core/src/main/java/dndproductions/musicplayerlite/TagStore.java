@@ -0,0 +1,76 @@
+package dndproductions.musicplayerlite;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Store of the {@link TrackTags} read from the music files, by song ID, which enriches what the
+ * MediaStore knows about the songs. It's filled in by a {@link TagExtractor}'s workers while
+ * being read from other threads.
+ *
+ * <p>Each entry is kept along with the file's modification time, and only applies while the
+ * file isn't modified, so that the tags of a modified file are read again without the changes
+ * having to name it.
+ */
+public class TagStore {
+
+    private final Map<Long, Entry> mTags = new ConcurrentHashMap<>();
+
+    // Immutable entry of a song.
+    private static final class Entry {
+        final long mModified;
+        final TrackTags mTags;
+
+        Entry(long modified, TrackTags tags) {
+            mModified = modified;
+            mTags = tags;
+        }
+    }
+
+    /**
+     * Stores the tags of a song, replacing the ones read before.
+     *
+     * @param songId is the song's ID.
+     * @param modified is the file's modification time.
+     * @param tags is the song's tags.
+     */
+    public void put(long songId, long modified, TrackTags tags) {
+        mTags.put(songId, new Entry(modified, tags));
+    }
+
+    /**
+     * Returns the tags of a song.
+     *
+     * @param songId is the song's ID.
+     * @param modified is the file's current modification time.
+     * @return the tags, or null if they weren't read for that modification time.
+     */
+    public TrackTags get(long songId, long modified) {
+        Entry entry = mTags.get(songId);
+        return entry != null && entry.mModified == modified ? entry.mTags : null;
+    }
+
+    /**
+     * Returns whether the tags of a song were read for a modification time of its file.
+     *
+     * @param songId is the song's ID.
+     * @param modified is the file's current modification time.
+     */
+    public boolean contains(long songId, long modified) {
+        Entry entry = mTags.get(songId);
+        return entry != null && entry.mModified == modified;
+    }
+
+    /**
+     * Drops the tags of a song, e.g. once its file was removed.
+     *
+     * @param songId is the song's ID.
+     */
+    public void remove(long songId) {
+        mTags.remove(songId);
+    }
+
+    public int size() {
+        return mTags.size();
+    }
+}
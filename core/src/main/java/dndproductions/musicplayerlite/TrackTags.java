@@ -0,0 +1,139 @@
+package dndproductions.musicplayerlite;
+
+/**
+ * Metadata read from the tags embedded in a music file by a {@link TagParser}, which is often
+ * more complete than what the MediaStore knows about the song.
+ *
+ * <p>The lyrics are only kept when asked for, since a library's worth of them would take up a
+ * lot of heap, so {@link #hasLyrics()} tells whether the file has any.
+ */
+public final class TrackTags {
+
+    // Values of the fields the file doesn't have.
+    public static final int NONE = 0;
+    public static final float NO_GAIN = Float.NaN;
+
+    private String mTitle;
+    private String mArtist;
+    private String mAlbum;
+    private int mTrackNumber = NONE;
+    private int mDiscNumber = NONE;
+    private int mBpm = NONE;
+    private float mTrackGain = NO_GAIN;
+    private float mAlbumGain = NO_GAIN;
+    private boolean mHasLyrics;
+    private String mLyrics;
+    private int mTagSize;
+
+    TrackTags() {
+    }
+
+    // Getter methods.
+    public String getTitle() {
+        return mTitle;
+    }
+
+    public String getArtist() {
+        return mArtist;
+    }
+
+    public String getAlbum() {
+        return mAlbum;
+    }
+
+    public int getTrackNumber() {
+        return mTrackNumber;
+    }
+
+    public int getDiscNumber() {
+        return mDiscNumber;
+    }
+
+    /**
+     * Returns the tempo in beats per minute, or {@link #NONE}.
+     */
+    public int getBpm() {
+        return mBpm;
+    }
+
+    /**
+     * Returns the ReplayGain adjustment of the track in dB, or {@link #NO_GAIN}.
+     */
+    public float getTrackGain() {
+        return mTrackGain;
+    }
+
+    /**
+     * Returns the ReplayGain adjustment of the album in dB, or {@link #NO_GAIN}.
+     */
+    public float getAlbumGain() {
+        return mAlbumGain;
+    }
+
+    public boolean hasLyrics() {
+        return mHasLyrics;
+    }
+
+    /**
+     * Returns the embedded lyrics, or null if there are none or they weren't asked for.
+     */
+    public String getLyrics() {
+        return mLyrics;
+    }
+
+    /**
+     * Returns the amount of bytes of the file that hold the tags, which is all that was read.
+     */
+    public int getTagSize() {
+        return mTagSize;
+    }
+
+    // Setter methods used while parsing, where the first value found for a field is kept.
+    void setTitle(String title) {
+        if (mTitle == null) mTitle = title;
+    }
+
+    void setArtist(String artist) {
+        if (mArtist == null) mArtist = artist;
+    }
+
+    void setAlbum(String album) {
+        if (mAlbum == null) mAlbum = album;
+    }
+
+    void setTrackNumber(int trackNumber) {
+        if (mTrackNumber == NONE) mTrackNumber = trackNumber;
+    }
+
+    void setDiscNumber(int discNumber) {
+        if (mDiscNumber == NONE) mDiscNumber = discNumber;
+    }
+
+    void setBpm(int bpm) {
+        if (mBpm == NONE) mBpm = bpm;
+    }
+
+    void setTrackGain(float gain) {
+        if (Float.isNaN(mTrackGain)) mTrackGain = gain;
+    }
+
+    void setAlbumGain(float gain) {
+        if (Float.isNaN(mAlbumGain)) mAlbumGain = gain;
+    }
+
+    void setLyrics(String lyrics) {
+        mHasLyrics = true;
+        if (mLyrics == null) mLyrics = lyrics;
+    }
+
+    void setTagSize(int tagSize) {
+        mTagSize = tagSize;
+    }
+
+    @Override
+    public String toString() {
+        return "TrackTags{" + mArtist + " - " + mTitle + " (" + mAlbum + ", #" + mTrackNumber
+                + "), bpm=" + mBpm + ", gain=" + mTrackGain + "/" + mAlbumGain + ", lyrics="
+                + mHasLyrics + "}";
+    }
+}
@@ -0,0 +1,264 @@
+package dndproductions.musicplayerlite;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Immutable summary of a song's waveform, for drawing it at any zoom without decoding the song.
+ *
+ * <p>The summary consists of levels of peaks, where each peak is the lowest and the highest
+ * sample within its span as signed bytes. The first level has a peak per 100 ms and each
+ * following level merges pairs of peaks of the previous one, so that a view of any width reads
+ * about one peak per pixel. The file is a header (magic, version, sample rate, frames per peak
+ * of the first level, frames and level count) followed by the levels, and is memory-mapped
+ * when read, so only the peaks that are drawn are ever loaded.
+ */
+public final class Waveform {
+
+    // Header constants used to reject files written by another version of the format.
+    private static final int MAGIC = 0x4d505746;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 28;
+
+    // Peaks per second of the first level.
+    static final int PEAKS_PER_SECOND = 10;
+
+    private final ByteBuffer mBuffer;
+    private final int mSampleRate;
+    private final int mFramesPerPeak;
+    private final long mFrames;
+    private final int[] mCounts;
+    private final int[] mOffsets;
+
+    // Creates a waveform from a buffer holding its file, whose header was already read.
+    private Waveform(ByteBuffer buffer, int sampleRate, int framesPerPeak, long frames,
+                     int levelCount) {
+        mBuffer = buffer;
+        mSampleRate = sampleRate;
+        mFramesPerPeak = framesPerPeak;
+        mFrames = frames;
+        mCounts = new int[levelCount];
+        mOffsets = new int[levelCount];
+
+        int count = (int) ((frames + framesPerPeak - 1) / framesPerPeak);
+        int offset = HEADER_SIZE;
+        for (int level = 0; level < levelCount; level++) {
+            mCounts[level] = count;
+            mOffsets[level] = offset;
+            offset += 2 * count;
+            count = (count + 1) / 2;
+        }
+        if (offset > buffer.limit()) throw new IllegalArgumentException("Truncated waveform");
+    }
+
+    /**
+     * Creates a waveform from the peaks of its first level, and merges them into the others.
+     *
+     * @param sampleRate is the song's sample rate in Hz.
+     * @param framesPerPeak is the amount of frames per peak of the first level.
+     * @param frames is the song's amount of frames.
+     * @param peaks is the lowest and highest sample of each peak, one after the other.
+     * @param count is the amount of peaks.
+     */
+    static Waveform create(int sampleRate, int framesPerPeak, long frames, byte[] peaks,
+                           int count) {
+        int levelCount = 1;
+        int size = HEADER_SIZE + 2 * count;
+        for (int levelPeaks = count; levelPeaks > 1; levelCount++) {
+            levelPeaks = (levelPeaks + 1) / 2;
+            size += 2 * levelPeaks;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(sampleRate).putInt(framesPerPeak)
+                .putLong(frames).putInt(levelCount);
+        buffer.put(peaks, 0, 2 * count);
+
+        // Each level is read back from the buffer while the next one is written.
+        int previous = HEADER_SIZE;
+        for (int levelPeaks = count; levelPeaks > 1; ) {
+            int next = buffer.position();
+            for (int i = 0; i < levelPeaks; i += 2) {
+                byte min = buffer.get(previous + 2 * i);
+                byte max = buffer.get(previous + 2 * i + 1);
+                if (i + 1 < levelPeaks) {
+                    min = (byte) Math.min(min, buffer.get(previous + 2 * i + 2));
+                    max = (byte) Math.max(max, buffer.get(previous + 2 * i + 3));
+                }
+                buffer.put(min).put(max);
+            }
+            previous = next;
+            levelPeaks = (levelPeaks + 1) / 2;
+        }
+
+        buffer.clear();
+        return new Waveform(buffer, sampleRate, framesPerPeak, frames, levelCount);
+    }
+
+    /**
+     * Memory-maps a waveform file.
+     *
+     * @param file is the waveform file.
+     * @return the waveform, or null if the file doesn't exist or was written by another version
+     * of the format.
+     * @throws IOException if the file is truncated or corrupt.
+     */
+    public static Waveform read(File file) throws IOException {
+        if (!file.isFile()) return null;
+
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+
+            // The mapping stays valid after the channel is closed.
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+            if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC
+                    || buffer.getInt(4) != VERSION) {
+                return null;
+            }
+
+            int sampleRate = buffer.getInt(8);
+            int framesPerPeak = buffer.getInt(12);
+            long frames = buffer.getLong(16);
+            int levelCount = buffer.getInt(24);
+            if (sampleRate <= 0 || framesPerPeak <= 0 || frames < 0 || levelCount <= 0
+                    || levelCount > 32) {
+                throw new IOException("Corrupt waveform");
+            }
+
+            return new Waveform(buffer, sampleRate, framesPerPeak, frames, levelCount);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Corrupt waveform", e);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Writes the waveform to a file. The data is written to a temporary file first and then
+     * renamed, so a reader never sees a partially written waveform.
+     *
+     * @param file is the waveform file.
+     */
+    public void write(File file) throws IOException {
+        File tempFile = new File(file.getPath() + ".tmp");
+
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(tempFile));
+        try {
+            ByteBuffer buffer = mBuffer.duplicate();
+            buffer.clear();
+            byte[] chunk = new byte[8192];
+            while (buffer.hasRemaining()) {
+                int length = Math.min(chunk.length, buffer.remaining());
+                buffer.get(chunk, 0, length);
+                out.write(chunk, 0, length);
+            }
+        } finally {
+            out.close();
+        }
+
+        if (!tempFile.renameTo(file)) {
+            throw new IOException("Unable to replace " + file);
+        }
+    }
+
+    // Getter methods.
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    public long getFrames() {
+        return mFrames;
+    }
+
+    /**
+     * Returns the song's duration in milliseconds.
+     */
+    public long getDuration() {
+        return mFrames * 1000 / mSampleRate;
+    }
+
+    public int getLevelCount() {
+        return mCounts.length;
+    }
+
+    public int getPeakCount(int level) {
+        return mCounts[level];
+    }
+
+    /**
+     * Returns the amount of frames that each peak of a level spans.
+     *
+     * @param level is the level, where 0 is the finest.
+     */
+    public long getFramesPerPeak(int level) {
+        return (long) mFramesPerPeak << level;
+    }
+
+    /**
+     * Returns the lowest sample within a peak, from -128 to 127.
+     *
+     * @param level is the peak's level.
+     * @param index is the peak's index within its level.
+     */
+    public int getMin(int level, int index) {
+        return mBuffer.get(mOffsets[level] + 2 * index);
+    }
+
+    /**
+     * Returns the highest sample within a peak, from -128 to 127.
+     *
+     * @param level is the peak's level.
+     * @param index is the peak's index within its level.
+     */
+    public int getMax(int level, int index) {
+        return mBuffer.get(mOffsets[level] + 2 * index + 1);
+    }
+
+    /**
+     * Computes the lowest and highest sample of each column of a view of part of the song. The
+     * coarsest level whose peaks are no wider than a column is read, so the cost only depends
+     * on the width of the view, whatever its zoom.
+     *
+     * @param start is the position the view starts at, in milliseconds.
+     * @param end is the position the view ends at, in milliseconds.
+     * @param width is the amount of columns.
+     * @param mins is the array the lowest sample of each column is written to.
+     * @param maxes is the array the highest sample of each column is written to.
+     */
+    public void render(long start, long end, int width, byte[] mins, byte[] maxes) {
+        double framesPerColumn = (double) (end - start) * mSampleRate / 1000 / width;
+        int level = 0;
+        while (level + 1 < mCounts.length && getFramesPerPeak(level + 1) <= framesPerColumn) {
+            level++;
+        }
+
+        double peaksPerColumn = framesPerColumn / getFramesPerPeak(level);
+        double first = (double) start * mSampleRate / 1000 / getFramesPerPeak(level);
+        int count = mCounts[level];
+        int offset = mOffsets[level];
+        for (int column = 0; column < width; column++) {
+            int from = (int) Math.floor(first + column * peaksPerColumn);
+            int to = Math.max(from + 1, (int) Math.floor(first + (column + 1) * peaksPerColumn));
+            from = Math.max(0, from);
+            to = Math.min(count, to);
+
+            int min = 0;
+            int max = 0;
+            for (int i = from; i < to; i++) {
+                min = Math.min(min, mBuffer.get(offset + 2 * i));
+                max = Math.max(max, mBuffer.get(offset + 2 * i + 1));
+            }
+            mins[column] = (byte) min;
+            maxes[column] = (byte) max;
+        }
+    }
+}
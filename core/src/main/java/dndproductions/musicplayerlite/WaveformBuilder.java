@@ -0,0 +1,93 @@
+package dndproductions.musicplayerlite;
+
+import java.util.Arrays;
+
+/**
+ * Builds the {@link Waveform} of a song while it's decoded, fed with its PCM a chunk at a time.
+ * Only the peaks of the first level are kept while the song is decoded, in an array that grows
+ * by doubling, and the other levels are merged from them at the end.
+ */
+public final class WaveformBuilder {
+
+    private final int mSampleRate;
+    private final int mChannels;
+    private final int mFramesPerPeak;
+
+    // Fields used for the peak being built.
+    private int mPeakFrames;
+    private float mMin;
+    private float mMax;
+
+    private byte[] mPeaks = new byte[2 * 1024];
+    private int mCount;
+    private long mFrames;
+
+    /**
+     * Creates a {@link WaveformBuilder} object.
+     *
+     * @param sampleRate is the sample rate in Hz.
+     * @param channels is the amount of interleaved channels.
+     */
+    public WaveformBuilder(int sampleRate, int channels) {
+        mSampleRate = sampleRate;
+        mChannels = channels;
+        mFramesPerPeak = Math.max(1, sampleRate / Waveform.PEAKS_PER_SECOND);
+    }
+
+    /**
+     * Adds a chunk of samples, where the channels are merged into a single waveform.
+     *
+     * @param samples is the interleaved samples, from -1 to 1.
+     * @param frames is the amount of frames, i.e. samples per channel, in the chunk.
+     */
+    public void process(float[] samples, int frames) {
+        int channels = mChannels;
+        float min = mMin;
+        float max = mMax;
+        int peakFrames = mPeakFrames;
+
+        for (int frame = 0; frame < frames; frame++) {
+            int offset = frame * channels;
+            for (int c = 0; c < channels; c++) {
+                float sample = samples[offset + c];
+                if (sample < min) min = sample;
+                if (sample > max) max = sample;
+            }
+
+            if (++peakFrames == mFramesPerPeak) {
+                addPeak(min, max);
+                min = 0;
+                max = 0;
+                peakFrames = 0;
+            }
+        }
+
+        mMin = min;
+        mMax = max;
+        mPeakFrames = peakFrames;
+        mFrames += frames;
+    }
+
+    /**
+     * Returns the waveform of the samples added so far.
+     */
+    public Waveform build() {
+        if (mPeakFrames > 0) {
+            addPeak(mMin, mMax);
+            mMin = 0;
+            mMax = 0;
+            mPeakFrames = 0;
+        }
+
+        return Waveform.create(mSampleRate, mFramesPerPeak, mFrames, mPeaks, mCount);
+    }
+
+    // Helper method that quantizes a peak to bytes, rounding it outwards.
+    private void addPeak(float min, float max) {
+        if (2 * mCount == mPeaks.length) mPeaks = Arrays.copyOf(mPeaks, mPeaks.length * 2);
+
+        mPeaks[2 * mCount] = (byte) Math.max(-128, Math.floor(min * 128));
+        mPeaks[2 * mCount + 1] = (byte) Math.min(127, Math.ceil(max * 127));
+        mCount++;
+    }
+}
@@ -0,0 +1,120 @@
+package dndproductions.musicplayerlite;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Disk cache of the songs' {@link Waveform}s, by song ID, with a file per song. The IDs of the
+ * files are listed once when the cache is created, so that checking for a waveform doesn't touch
+ * the disk, and the last few waveforms read stay mapped. All of the methods are thread-safe.
+ */
+public class WaveformCache {
+
+    private static final String EXTENSION = ".wfm";
+
+    // Amount of waveforms that stay mapped.
+    private static final int MAPPED_WAVEFORMS = 8;
+
+    private final File mDirectory;
+    private final Set<Long> mIds =
+            Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+    private final Map<Long, Waveform> mMapped = new LinkedHashMap<Long, Waveform>(16, 0.75f,
+            true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Waveform> eldest) {
+            return size() > MAPPED_WAVEFORMS;
+        }
+    };
+
+    /**
+     * Creates a {@link WaveformCache} object, listing the waveforms in its directory.
+     *
+     * @param directory is the directory of the cache, which is created once it's written to.
+     */
+    public WaveformCache(File directory) {
+        mDirectory = directory;
+
+        String[] names = directory.list();
+        if (names == null) return;
+
+        for (String name : names) {
+            if (!name.endsWith(EXTENSION)) continue;
+
+            try {
+                mIds.add(Long.parseLong(name.substring(0, name.length() - EXTENSION.length())));
+            } catch (NumberFormatException e) {
+                // Not a waveform of this cache.
+            }
+        }
+    }
+
+    public boolean contains(long songId) {
+        return mIds.contains(songId);
+    }
+
+    /**
+     * Returns the waveform of a song, mapping its file unless it's still mapped.
+     *
+     * @param songId is the song's ID.
+     * @return the waveform, or null if there's none.
+     */
+    public Waveform get(long songId) throws IOException {
+        if (!mIds.contains(songId)) return null;
+
+        synchronized (mMapped) {
+            Waveform waveform = mMapped.get(songId);
+            if (waveform != null) return waveform;
+        }
+
+        Waveform waveform = Waveform.read(getFile(songId));
+        if (waveform == null) {
+            mIds.remove(songId);
+            return null;
+        }
+
+        synchronized (mMapped) {
+            mMapped.put(songId, waveform);
+        }
+        return waveform;
+    }
+
+    /**
+     * Writes the waveform of a song, replacing the one written before.
+     *
+     * @param songId is the song's ID.
+     * @param waveform is the song's waveform.
+     */
+    public void put(long songId, Waveform waveform) throws IOException {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Unable to create " + mDirectory);
+        }
+
+        waveform.write(getFile(songId));
+        synchronized (mMapped) {
+            mMapped.remove(songId);
+        }
+        mIds.add(songId);
+    }
+
+    /**
+     * Deletes the waveform of a song, e.g. once its file was modified or removed.
+     *
+     * @param songId is the song's ID.
+     */
+    public void remove(long songId) {
+        mIds.remove(songId);
+        synchronized (mMapped) {
+            mMapped.remove(songId);
+        }
+        getFile(songId).delete();
+    }
+
+    private File getFile(long songId) {
+        return new File(mDirectory, songId + EXTENSION);
+    }
+}
@@ -0,0 +1,111 @@
+package dndproductions.musicplayerlite;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link AppendLog}.
+ */
+public class AppendLogTest {
+
+    private static final int MAGIC = 0x4d505454;
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mFile = File.createTempFile("append", ".log");
+        mFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+        new File(mFile.getPath() + ".tmp").delete();
+    }
+
+    @Test
+    public void append_writesHeaderOnceThenRecords() throws Exception {
+        AppendLog log = new AppendLog(mFile, MAGIC, 1);
+        assertNull(log.openForReading());
+
+        log.append().writeLong(7);
+        log.append().flush();
+        log.close();
+        AppendLog reopened = new AppendLog(mFile, MAGIC, 1);
+        reopened.append().writeInt(8);
+        reopened.close();
+        assertEquals(AppendLog.HEADER_SIZE + 12, mFile.length());
+
+        DataInputStream in = new AppendLog(mFile, MAGIC, 1).openForReading();
+        assertEquals(7, in.readLong());
+        in.close();
+
+        // Another version of the format isn't read.
+        assertNull(new AppendLog(mFile, MAGIC, 2).openForReading());
+        assertNull(new AppendLog(mFile, MAGIC + 1, 1).openForReading());
+    }
+
+    @Test
+    public void truncate_dropsPartialRecord() throws Exception {
+        AppendLog log = new AppendLog(mFile, MAGIC, 1);
+        log.append().writeLong(7);
+        log.append().writeShort(8);
+        log.close();
+
+        log.truncate(AppendLog.HEADER_SIZE + 8);
+        assertEquals(AppendLog.HEADER_SIZE + 8, log.length());
+        log.append().writeLong(9);
+        log.close();
+
+        DataInputStream in = log.openForReading();
+        assertEquals(7, in.readLong());
+        assertEquals(9, in.readLong());
+        in.close();
+    }
+
+    @Test
+    public void replace_writesContentAfterHeader() throws Exception {
+        AppendLog log = new AppendLog(mFile, MAGIC, 1);
+        log.append().writeLong(7);
+        log.replace(new AppendLog.Content() {
+            @Override
+            public void writeTo(DataOutputStream out) throws IOException {
+                out.writeInt(42);
+            }
+        });
+        assertEquals(AppendLog.HEADER_SIZE + 4, mFile.length());
+        assertFalse(new File(mFile.getPath() + ".tmp").exists());
+
+        // Appends continue after the content that replaced the file.
+        log.append().writeInt(43);
+        log.close();
+        DataInputStream in = log.openForReading();
+        assertEquals(42, in.readInt());
+        assertEquals(43, in.readInt());
+        in.close();
+    }
+
+    @Test
+    public void newTask_countsFailures() throws Exception {
+        AppendLog log = new AppendLog(mFile, MAGIC, 1);
+        Runnable task = log.newTask(new AppendLog.Write() {
+            @Override
+            public void run() throws IOException {
+                throw new IOException("Disk full");
+            }
+        });
+
+        task.run();
+        task.run();
+        assertEquals(2, log.getFailureCount());
+    }
+}
@@ -0,0 +1,227 @@
+package dndproductions.musicplayerlite;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link CommandExecutor}.
+ */
+public class CommandExecutorTest {
+
+    private static final int PREPARE = 1;
+    private static final int SEEK = 2;
+
+    @Test
+    public void rapidPlayNext_preparesOnlyFinalSong() throws Exception {
+        ManualDispatcher dispatcher = new ManualDispatcher();
+        Player player = new Player(new CommandExecutor(dispatcher));
+
+        // The taps arrive faster than the player thread gets to run.
+        for (int i = 0; i < 50; i++) {
+            player.playNext();
+        }
+        dispatcher.runAll();
+
+        assertEquals(50, player.mIndex);
+        assertEquals(1, player.mPrepared.size());
+        assertEquals(Integer.valueOf(50), player.mPrepared.get(0));
+    }
+
+    @Test
+    public void spacedPlayNext_preparesEverySong() throws Exception {
+        ManualDispatcher dispatcher = new ManualDispatcher();
+        Player player = new Player(new CommandExecutor(dispatcher));
+
+        for (int i = 0; i < 5; i++) {
+            player.playNext();
+            dispatcher.runAll();
+        }
+
+        assertEquals(5, player.mPrepared.size());
+        assertEquals(Integer.valueOf(5), player.mPrepared.get(4));
+    }
+
+    @Test
+    public void commands_runInOrder() throws Exception {
+        ManualDispatcher dispatcher = new ManualDispatcher();
+        CommandExecutor executor = new CommandExecutor(dispatcher);
+        final List<String> log = new ArrayList<>();
+
+        executor.execute(record(log, "a"));
+        executor.execute(PREPARE, record(log, "stale"));
+        executor.execute(record(log, "b"));
+        executor.execute(PREPARE, record(log, "prepare"));
+        executor.execute(record(log, "c"));
+        dispatcher.runAll();
+
+        // The superseding command takes the place of the one it replaced at the end of the queue.
+        assertEquals("[a, b, prepare, c]", log.toString());
+    }
+
+    @Test
+    public void throttledSeeks_issueLastSeekPerWindow() throws Exception {
+        ManualDispatcher dispatcher = new ManualDispatcher();
+        CommandExecutor executor = new CommandExecutor(dispatcher);
+        final List<String> log = new ArrayList<>();
+
+        for (int position = 0; position < 20; position++) {
+            executor.executeThrottled(SEEK, record(log, "seek " + position), 100);
+        }
+        dispatcher.runAll();
+        executor.executeThrottled(SEEK, record(log, "seek 30"), 100);
+        dispatcher.runAll();
+
+        assertEquals("[seek 19, seek 30]", log.toString());
+    }
+
+    @Test
+    public void failingCommand_doesNotStopLaterCommands() throws Exception {
+        ManualDispatcher dispatcher = new ManualDispatcher();
+        CommandExecutor executor = new CommandExecutor(dispatcher);
+        final List<String> log = new ArrayList<>();
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException();
+            }
+        });
+        executor.execute(record(log, "after"));
+
+        try {
+            dispatcher.runNext();
+            fail();
+        } catch (IllegalStateException e) {
+            // Expected.
+        }
+        dispatcher.runAll();
+
+        assertEquals("[after]", log.toString());
+    }
+
+    @Test
+    public void commands_runOnDispatcherThread() throws Exception {
+        final ExecutorService thread = Executors.newSingleThreadExecutor();
+        final Thread[] owner = new Thread[1];
+        thread.submit(new Runnable() {
+            @Override
+            public void run() {
+                owner[0] = Thread.currentThread();
+            }
+        }).get();
+
+        final CommandExecutor executor = new CommandExecutor(new CommandExecutor.Dispatcher() {
+            @Override
+            public void dispatch(Runnable task) {
+                thread.execute(task);
+            }
+
+            @Override
+            public void dispatchDelayed(Runnable task, long delayMillis) {
+                thread.execute(task);
+            }
+        });
+
+        // Submits from several threads at once.
+        final CountDownLatch done = new CountDownLatch(400);
+        final boolean[] confined = {true};
+        final Runnable command = new Runnable() {
+            @Override
+            public void run() {
+                if (Thread.currentThread() != owner[0]) confined[0] = false;
+                done.countDown();
+            }
+        };
+        Thread[] submitters = new Thread[4];
+        for (int i = 0; i < submitters.length; i++) {
+            submitters[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 100; j++) {
+                        executor.execute(command);
+                    }
+                }
+            });
+            submitters[i].start();
+        }
+        for (Thread submitter : submitters) {
+            submitter.join();
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertTrue(confined[0]);
+        thread.shutdown();
+    }
+
+    // Helper method that returns a command which records its name.
+    private static Runnable record(final List<String> log, final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                log.add(name);
+            }
+        };
+    }
+
+    // Player that submits its commands the way MusicService does, where moving to the next song
+    // runs right away and submits the preparation of the song it moved to.
+    private static class Player {
+        final CommandExecutor mCommands;
+        final List<Integer> mPrepared = new ArrayList<>();
+        int mIndex;
+
+        final Runnable mPrepare = new Runnable() {
+            @Override
+            public void run() {
+                mPrepared.add(mIndex);
+            }
+        };
+
+        Player(CommandExecutor commands) {
+            mCommands = commands;
+        }
+
+        void playNext() {
+            mCommands.execute(new Runnable() {
+                @Override
+                public void run() {
+                    mIndex++;
+                    mCommands.execute(PREPARE, mPrepare);
+                }
+            });
+        }
+    }
+
+    // Dispatcher whose tasks only run when the test says so, where delays are ignored.
+    private static class ManualDispatcher implements CommandExecutor.Dispatcher {
+        final List<Runnable> mTasks = new ArrayList<>();
+
+        @Override
+        public void dispatch(Runnable task) {
+            mTasks.add(task);
+        }
+
+        @Override
+        public void dispatchDelayed(Runnable task, long delayMillis) {
+            mTasks.add(task);
+        }
+
+        void runNext() {
+            mTasks.remove(0).run();
+        }
+
+        void runAll() {
+            while (!mTasks.isEmpty()) {
+                runNext();
+            }
+        }
+    }
+}
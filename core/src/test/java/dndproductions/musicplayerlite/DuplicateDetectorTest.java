@@ -0,0 +1,173 @@
+package dndproductions.musicplayerlite;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static dndproductions.musicplayerlite.TagParserTest.concat;
+import static dndproductions.musicplayerlite.TagParserTest.frame;
+import static dndproductions.musicplayerlite.TagParserTest.id3;
+import static dndproductions.musicplayerlite.TagParserTest.text;
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link DuplicateDetector}, hashing temporary files.
+ */
+public class DuplicateDetectorTest {
+
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+    private static final long[] IDS = {10, 11, 12, 13, 14};
+    private static final long[] MODIFIED = {1000, 1000, 1000, 1000, 1000};
+
+    private final ExecutorService mExecutor = Executors.newFixedThreadPool(2);
+    private final List<File> mFiles = new ArrayList<>();
+    private String[] mPaths;
+    private File mStoreFile;
+
+    @Before
+    public void setUp() throws Exception {
+        byte[] audio = audio(1, 200 * 1024);
+
+        // The same audio tagged three ways, audio of the same length, and a shorter one.
+        write(concat(id3(3, 0, frame(3, "TIT2", text(0, "Song"))), audio));
+        write(concat(id3(4, 0, frame(4, "TIT2", text(3, "Song (Remastered)")),
+                frame(4, "TPE1", text(3, "Artist"))), audio, id3v1("Song")));
+        write(concat(audio, ape()));
+        write(concat(id3(3, 0, frame(3, "TIT2", text(0, "Song"))), audio(2, 200 * 1024)));
+        write(audio(1, 150 * 1024));
+
+        mPaths = new String[mFiles.size()];
+        for (int i = 0; i < mPaths.length; i++) {
+            mPaths[i] = mFiles.get(i).getPath();
+        }
+        mStoreFile = File.createTempFile("content", ".store");
+        mStoreFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+        for (File file : mFiles) {
+            file.delete();
+        }
+        mStoreFile.delete();
+    }
+
+    @Test
+    public void detect_groupsSameAudioDespiteTags() throws Exception {
+        ContentHashStore store = ContentHashStore.open(mStoreFile);
+
+        DuplicateDetector.Result result = new DuplicateDetector(mExecutor, 2)
+                .detect(IDS, mPaths, MODIFIED, store);
+
+        assertEquals(1, result.getGroups().size());
+        assertArrayEquals(new long[]{10, 11, 12}, result.getGroups().get(0));
+        assertEquals(5, result.getMeasured());
+
+        // The shorter file is never read past its tags.
+        assertEquals(4, result.getHashed());
+        assertEquals(4 * 200 * 1024, result.getHashedBytes());
+        assertEquals(0, result.getFailures());
+        store.close();
+    }
+
+    @Test
+    public void findPayload_skipsTrailingTags() throws Exception {
+        long[] payload = DuplicateDetector.findPayload(mFiles.get(2));
+
+        assertEquals(0, payload[0]);
+        assertEquals(200 * 1024, payload[1]);
+    }
+
+    @Test
+    public void detect_reusesStoreUntilModified() throws Exception {
+        ContentHashStore store = ContentHashStore.open(mStoreFile);
+        new DuplicateDetector(mExecutor, 2).detect(IDS, mPaths, MODIFIED, store);
+        store.close();
+
+        // Nothing is read again with the same modification times, after a restart.
+        store = ContentHashStore.open(mStoreFile);
+        DuplicateDetector.Result result = new DuplicateDetector(mExecutor, 2)
+                .detect(IDS, mPaths, MODIFIED, store);
+        assertEquals(0, result.getMeasured());
+        assertEquals(0, result.getHashed());
+        assertEquals(9, result.getCached());
+        assertArrayEquals(new long[]{10, 11, 12}, result.getGroups().get(0));
+
+        // A modified file is read again.
+        long[] modified = MODIFIED.clone();
+        modified[1] = 2000;
+        result = new DuplicateDetector(mExecutor, 2).detect(IDS, mPaths, modified, store);
+        assertEquals(1, result.getMeasured());
+        assertEquals(1, result.getHashed());
+        assertEquals(1, result.getGroups().size());
+        store.close();
+    }
+
+    @Test
+    public void detect_countsMissingFiles() throws Exception {
+        ContentHashStore store = ContentHashStore.open(mStoreFile);
+        mFiles.get(0).delete();
+
+        DuplicateDetector.Result result = new DuplicateDetector(mExecutor, 2)
+                .detect(IDS, mPaths, MODIFIED, store);
+
+        assertEquals(1, result.getFailures());
+        assertArrayEquals(new long[]{11, 12}, result.getGroups().get(0));
+        store.close();
+    }
+
+    // Helper method that writes a temporary music file.
+    private void write(byte[] content) throws Exception {
+        File file = File.createTempFile("song", ".mp3");
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(content);
+        out.close();
+        mFiles.add(file);
+    }
+
+    // Helper method that builds audio starting with an MPEG frame sync.
+    private static byte[] audio(long seed, int length) {
+        byte[] audio = new byte[length];
+        new Random(seed).nextBytes(audio);
+        audio[0] = (byte) 0xff;
+        audio[1] = (byte) 0xfb;
+        return audio;
+    }
+
+    // Helper methods that build the tags at the end of a file.
+    private static byte[] id3v1(String title) {
+        byte[] tag = new byte[128];
+        System.arraycopy("TAG".getBytes(ISO_8859_1), 0, tag, 0, 3);
+        byte[] bytes = title.getBytes(ISO_8859_1);
+        System.arraycopy(bytes, 0, tag, 3, bytes.length);
+        return tag;
+    }
+
+    private static byte[] ape() {
+        byte[] item = concat(new byte[]{4, 0, 0, 0, 0, 0, 0, 0}, "Title".getBytes(ISO_8859_1),
+                new byte[]{0}, "Song".getBytes(ISO_8859_1));
+        return concat(apeHeader(item.length, true), item, apeHeader(item.length, false));
+    }
+
+    private static byte[] apeHeader(int items, boolean header) {
+        ByteBuffer buffer = ByteBuffer.allocate(32).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put("APETAGEX".getBytes(ISO_8859_1));
+        buffer.putInt(2000);
+        buffer.putInt(items + 32);
+        buffer.putInt(1);
+        buffer.putInt(0x80000000 | (header ? 0x20000000 : 0));
+        return buffer.array();
+    }
+}
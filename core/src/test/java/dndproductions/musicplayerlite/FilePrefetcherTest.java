@@ -0,0 +1,124 @@
+package dndproductions.musicplayerlite;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link FilePrefetcher}, reading temporary files.
+ */
+public class FilePrefetcherTest {
+
+    private final List<File> mFiles = new ArrayList<>();
+    private final List<Long> mOpened = new ArrayList<>();
+    private final ArrayDeque<Runnable> mTasks = new ArrayDeque<>();
+
+    // Executor that runs the tasks when the test asks for it.
+    private final Executor mExecutor = new Executor() {
+        @Override
+        public void execute(Runnable task) {
+            mTasks.add(task);
+        }
+    };
+
+    // Opener of the temporary file of each song, where song i is the i-th file.
+    private final FilePrefetcher.Opener mOpener = new FilePrefetcher.Opener() {
+        @Override
+        public FileChannel open(long songId) throws IOException {
+            mOpened.add(songId);
+            if (songId >= mFiles.size()) throw new IOException("No song " + songId);
+
+            return new RandomAccessFile(mFiles.get((int) songId), "r").getChannel();
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        int[] sizes = {1024 * 1024, 100 * 1024, 3000 * 1024, 10};
+        for (int size : sizes) {
+            File file = File.createTempFile("song", ".mp3");
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            raf.setLength(size);
+            raf.close();
+            mFiles.add(file);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : mFiles) {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void upcoming_readsHeadAndTailWithinBudget() throws Exception {
+        FilePrefetcher prefetcher = new FilePrefetcher(mOpener, mExecutor, 1024 * 1024);
+
+        prefetcher.onUpcomingChanged(new long[]{0, 1, 2, 3});
+        runTasks();
+
+        // The first song takes its head and tail, the second one all of it, and the budget runs
+        // out within the third one.
+        assertEquals(1024 * 1024, prefetcher.getByteCount());
+        assertTrue(prefetcher.isReadAhead(0));
+        assertTrue(prefetcher.isReadAhead(1));
+        assertTrue(prefetcher.isReadAhead(2));
+        assertFalse(prefetcher.isReadAhead(3));
+        assertEquals(3, prefetcher.getSongCount());
+
+        // Songs read recently aren't read again.
+        mOpened.clear();
+        prefetcher.onUpcomingChanged(new long[]{1, 3});
+        runTasks();
+        assertEquals(1, mOpened.size());
+        assertEquals(3, (long) mOpened.get(0));
+        assertEquals(0, prefetcher.getFailureCount());
+    }
+
+    @Test
+    public void newUpcoming_cancelsPendingReads() throws Exception {
+        FilePrefetcher prefetcher = new FilePrefetcher(mOpener, mExecutor, 8 * 1024 * 1024);
+
+        prefetcher.onUpcomingChanged(new long[]{0, 1});
+        prefetcher.onUpcomingChanged(new long[]{2});
+        runTasks();
+
+        assertEquals(1, prefetcher.getCancellationCount());
+        assertFalse(prefetcher.isReadAhead(0));
+        assertTrue(prefetcher.isReadAhead(2));
+        assertEquals(FilePrefetcher.HEAD_BYTES + FilePrefetcher.TAIL_BYTES,
+                prefetcher.getByteCount());
+    }
+
+    @Test
+    public void failedOpen_isCounted() throws Exception {
+        FilePrefetcher prefetcher = new FilePrefetcher(mOpener, mExecutor, 8 * 1024 * 1024);
+
+        prefetcher.onUpcomingChanged(new long[]{7, 3});
+        runTasks();
+
+        assertEquals(1, prefetcher.getFailureCount());
+        assertFalse(prefetcher.isReadAhead(7));
+        assertTrue(prefetcher.isReadAhead(3));
+        assertEquals(10, prefetcher.getByteCount());
+    }
+
+    // Helper method that runs the submitted tasks.
+    private void runTasks() {
+        while (!mTasks.isEmpty()) {
+            mTasks.poll().run();
+        }
+    }
+}
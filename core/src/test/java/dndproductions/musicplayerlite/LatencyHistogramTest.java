@@ -0,0 +1,117 @@
+package dndproductions.musicplayerlite;
+
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link LatencyHistogram}.
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void buckets_coverEveryValueOnce() throws Exception {
+        assertEquals(0, LatencyHistogram.lowerBoundOf(0));
+        for (int bucket = 0; bucket < LatencyHistogram.BUCKETS - 1; bucket++) {
+            long lower = LatencyHistogram.lowerBoundOf(bucket);
+            long upper = LatencyHistogram.upperBoundOf(bucket);
+
+            assertTrue(lower <= upper);
+            assertEquals(bucket, LatencyHistogram.bucketOf(lower));
+            assertEquals(bucket, LatencyHistogram.bucketOf(upper));
+            assertEquals(upper + 1, LatencyHistogram.lowerBoundOf(bucket + 1));
+        }
+
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.bucketOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void buckets_keepRelativeErrorLow() throws Exception {
+        for (int bucket = LatencyHistogram.SUB_BUCKETS; bucket < LatencyHistogram.BUCKETS - 1;
+                bucket++) {
+            long lower = LatencyHistogram.lowerBoundOf(bucket);
+            long upper = LatencyHistogram.upperBoundOf(bucket);
+
+            assertTrue((double) (upper - lower) / lower <= 0.125);
+        }
+    }
+
+    @Test
+    public void percentiles_matchRecordedValues() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram("test");
+        for (int value = 1; value <= 1000; value++) {
+            histogram.record(value);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500.5, histogram.getMean(), 0.001);
+        assertEquals(1000, histogram.getMax());
+        assertEquals(1000, histogram.getPercentile(100));
+
+        // Each percentile is the upper bound of the bucket holding the exact one.
+        assertWithin(500, histogram.getPercentile(50));
+        assertWithin(900, histogram.getPercentile(90));
+        assertWithin(990, histogram.getPercentile(99));
+    }
+
+    @Test
+    public void empty_reportsZero() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram("test");
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(50));
+        assertEquals(0, histogram.getMean(), 0);
+    }
+
+    @Test
+    public void concurrentRecords_areAllCounted() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram("test");
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            final Random random = new Random(i);
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 100000; j++) {
+                        histogram.record(random.nextInt(5000));
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(400000, histogram.getCount());
+        assertTrue(histogram.getMax() < 5000);
+    }
+
+    @Test
+    public void dump_writesBuckets() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram("prepare_ms");
+        histogram.record(3);
+        histogram.record(100);
+
+        StringWriter out = new StringWriter();
+        PrintWriter writer = new PrintWriter(out);
+        histogram.dump(writer, true);
+        writer.flush();
+
+        String[] lines = out.toString().split("\n");
+        assertEquals(3, lines.length);
+        assertTrue(lines[0].startsWith("prepare_ms: count=2"));
+        assertEquals("  3 3 1", lines[1]);
+        assertEquals("  96 103 1", lines[2]);
+    }
+
+    // Helper method that asserts a percentile is at most 12.5% above the exact value.
+    private static void assertWithin(long expected, long actual) {
+        assertTrue("Expected about " + expected + " but was " + actual,
+                actual >= expected && actual <= expected * 1.125);
+    }
+}
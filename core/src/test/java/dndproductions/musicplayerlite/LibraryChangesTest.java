@@ -0,0 +1,90 @@
+package dndproductions.musicplayerlite;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link LibraryChanges}.
+ */
+public class LibraryChangesTest {
+
+    @Test
+    public void burst_mergesIntoOneRange() throws Exception {
+        LibraryChanges changes = new LibraryChanges(4, 16);
+
+        // A few thousand songs copied over, notified out of order and more than once.
+        for (long id = 2999; id >= 1000; id--) {
+            changes.add(id);
+            if (id % 7 == 0) changes.add(id + 1);
+        }
+
+        assertArrayEquals(new long[]{1000, 2999}, changes.getRanges());
+        assertEquals("_id BETWEEN 1000 AND 2999", changes.toSelection("_id"));
+        assertFalse(changes.isAll());
+    }
+
+    @Test
+    public void gaps_splitRanges() throws Exception {
+        LibraryChanges changes = new LibraryChanges(2, 16);
+        changes.add(10);
+        changes.add(13);
+        changes.add(17);
+        changes.add(40);
+
+        assertArrayEquals(new long[]{10, 13, 17, 17, 40, 40}, changes.getRanges());
+        assertEquals("id BETWEEN 10 AND 13 OR id = 17 OR id = 40", changes.toSelection("id"));
+        assertTrue(changes.covers(12));
+        assertFalse(changes.covers(14));
+        assertTrue(changes.covers(40));
+        assertFalse(changes.covers(41));
+    }
+
+    @Test
+    public void tooManyRanges_changeEverything() throws Exception {
+        LibraryChanges changes = new LibraryChanges(0, 3);
+        assertTrue(changes.isEmpty());
+
+        for (long id = 0; id < 8; id += 2) {
+            changes.add(id);
+        }
+
+        assertTrue(changes.isAll());
+        assertEquals(0, changes.getRanges().length);
+        assertTrue(changes.covers(1001));
+    }
+
+    @Test
+    public void applyTo_replacesSongsWithinRanges() throws Exception {
+        SongTable table = new SongTable(Arrays.asList(new Song(1, "One", "A"),
+                new Song(5, "Five", "A"), new Song(6, "Six", "B"), new Song(9, "Nine", "B")));
+        LibraryChanges changes = new LibraryChanges(0, 16);
+        changes.add(5);
+        changes.add(6);
+        changes.add(7);
+
+        // Song 5 is gone, song 6 was modified and song 7 is new.
+        List<Song> songs = new ArrayList<>();
+        songs.add(new Song(6, "Six (Remastered)", "B"));
+        songs.add(new Song(7, "Seven", "C"));
+        SongTable result = changes.applyTo(table, songs);
+
+        assertEquals(Arrays.asList(new Song(1, "One", "A"), new Song(9, "Nine", "B"),
+                new Song(6, "Six (Remastered)", "B"), new Song(7, "Seven", "C")), result);
+        assertEquals(4, table.size());
+    }
+
+    @Test
+    public void applyTo_keepsUnchangedTable() throws Exception {
+        SongTable table = new SongTable(Arrays.asList(new Song(1, "One", "A")));
+        LibraryChanges changes = new LibraryChanges(0, 16);
+        changes.add(2);
+
+        assertSame(table, changes.applyTo(table, Collections.<Song>emptyList()));
+    }
+}
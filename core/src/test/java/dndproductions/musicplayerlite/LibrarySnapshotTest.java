@@ -0,0 +1,91 @@
+package dndproductions.musicplayerlite;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link LibrarySnapshot}, including reads of corrupted files.
+ */
+public class LibrarySnapshotTest {
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mFile = File.createTempFile("library", ".snapshot");
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void read_returnsWrittenTable() throws Exception {
+        SongTable table = createTable(50);
+        LibrarySnapshot.write(mFile, table, 1234);
+
+        LibrarySnapshot snapshot = LibrarySnapshot.read(mFile);
+        assertEquals(1234, snapshot.getWatermark());
+        assertEquals(table.size(), snapshot.getTable().size());
+        for (int row = 0; row < table.size(); row++) {
+            assertEquals(table.get(row), snapshot.getTable().get(row));
+            assertEquals(table.rowAt(SongOrder.TITLE, row),
+                    snapshot.getTable().rowAt(SongOrder.TITLE, row));
+        }
+    }
+
+    @Test
+    public void read_rejectsCorruptFilesWithIOException() throws Exception {
+        LibrarySnapshot.write(mFile, createTable(50), 1234);
+        RandomAccessFile raf = new RandomAccessFile(mFile, "r");
+        byte[] original = new byte[(int) raf.length()];
+        raf.readFully(original);
+        raf.close();
+
+        // Anything but an IOException would crash the scan on every launch.
+        Random random = new Random(1);
+        for (int i = 0; i < 2000; i++) {
+            byte[] corrupt = original.clone();
+            for (int flips = 1 + random.nextInt(3); flips > 0; flips--) {
+                corrupt[random.nextInt(corrupt.length)] ^= 1 << random.nextInt(8);
+            }
+            raf = new RandomAccessFile(mFile, "rw");
+            raf.setLength(0);
+            raf.write(corrupt);
+            raf.close();
+
+            try {
+                LibrarySnapshot.read(mFile);
+            } catch (IOException e) {
+                // Expected for most corruptions.
+            }
+        }
+    }
+
+    // Helper method that creates a sorted table of songs spread over a few artists and albums.
+    private static SongTable createTable(int rows) throws InterruptedException {
+        SongTable table = new SongTable();
+        for (int i = 0; i < rows; i++) {
+            table.add(new Song(i, "Song " + i, i % 3 == 0 ? null : "Artist " + i % 7,
+                    "Album " + i % 5, i % 5, i % 7, 1000 * i, 100 * i));
+        }
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        new SongSorter(Locale.ENGLISH, executor, 1).sort(table);
+        executor.shutdown();
+
+        return table;
+    }
+}
@@ -0,0 +1,187 @@
+package dndproductions.musicplayerlite;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link LoudnessAnalyzer} and {@link LoudnessStore}, on generated songs.
+ */
+public class LoudnessAnalyzerTest {
+
+    private static final int SAMPLE_RATE = 8000;
+
+    private ExecutorService mExecutor;
+    private File mFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mExecutor = Executors.newFixedThreadPool(4);
+        mFile = File.createTempFile("loudness", ".store");
+        mFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+        mFile.delete();
+    }
+
+    @Test
+    public void analyze_measuresAllSongsAndResumes() throws Exception {
+        long[] ids = new long[40];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = i + 1;
+        }
+        SineFactory factory = new SineFactory();
+
+        // Measures the first half, then resumes with the whole library.
+        LoudnessStore store = LoudnessStore.open(mFile);
+        LoudnessAnalyzer analyzer = new LoudnessAnalyzer(mExecutor, 4);
+        long[] half = new long[20];
+        System.arraycopy(ids, 0, half, 0, half.length);
+        assertEquals(20, analyzer.analyze(half, factory, store, null).getMeasured());
+
+        LoudnessAnalyzer.Result result = analyzer.analyze(ids, factory, store, null);
+        assertEquals(20, result.getSongs());
+        assertEquals(20, result.getMeasured());
+        assertEquals(0, result.getFailures());
+        assertEquals(40, factory.mOpened.get());
+        store.close();
+
+        // The songs' levels drop by 1 dB per ID, and the store reads them back.
+        LoudnessStore read = LoudnessStore.open(mFile);
+        assertEquals(40, read.size());
+        for (long id : ids) {
+            assertEquals(-10 - id, read.get(id).getIntegratedLufs(), 0.2);
+        }
+        read.close();
+    }
+
+    @Test
+    public void analyze_countsFailuresAndStealsFromSlowWorkers() throws Exception {
+        SineFactory factory = new SineFactory();
+        LoudnessStore store = LoudnessStore.open(mFile);
+
+        // Songs of the first worker are long, so the others steal them.
+        long[] ids = {100, 100, 100, 100, 100, 100, 1, 2, -1, 3, 4, 5};
+        LoudnessAnalyzer.Result result = new LoudnessAnalyzer(mExecutor, 3)
+                .analyze(ids, factory, store, null);
+
+        assertEquals(1, result.getFailures());
+        assertTrue(result.getSteals() > 0);
+        assertFalse(store.contains(-1));
+        store.close();
+    }
+
+    @Test
+    public void analyze_buildsMissingWaveforms() throws Exception {
+        SineFactory factory = new SineFactory();
+        LoudnessStore store = LoudnessStore.open(mFile);
+        LoudnessAnalyzer analyzer = new LoudnessAnalyzer(mExecutor, 2);
+        analyzer.analyze(new long[]{1, 2}, factory, store, null);
+
+        // Setting a cache analyzes the measured songs again for their waveforms, then skips them.
+        File directory = new File(mFile.getPath() + ".waveforms");
+        WaveformCache cache = new WaveformCache(directory);
+        analyzer.setWaveformCache(cache);
+        try {
+            assertEquals(3, analyzer.analyze(new long[]{1, 2, 3}, factory, store, null)
+                    .getMeasured());
+            assertEquals(0, analyzer.analyze(new long[]{1, 2, 3}, factory, store, null)
+                    .getSongs());
+
+            Waveform waveform = cache.get(2);
+            assertEquals(1000, waveform.getDuration());
+            assertEquals((int) Math.ceil(Math.pow(10, -12 / 20.0) * 127),
+                    waveform.getMax(0, 5));
+        } finally {
+            for (long id = 1; id <= 3; id++) {
+                cache.remove(id);
+            }
+            directory.delete();
+            store.close();
+        }
+    }
+
+    @Test
+    public void store_dropsTruncatedRecord() throws Exception {
+        LoudnessStore store = LoudnessStore.open(mFile);
+        store.put(7, new Loudness(-14.5f, 0.9f));
+        store.put(8, new Loudness(-20f, 0.5f));
+        store.put(7, new Loudness(-15f, 0.8f));
+        store.close();
+
+        RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
+        raf.setLength(raf.length() - 5);
+        raf.close();
+
+        store = LoudnessStore.open(mFile);
+        assertEquals(-20f, store.get(8).getIntegratedLufs(), 0);
+        assertEquals(-14.5f, store.get(7).getIntegratedLufs(), 0);
+        store.put(9, new Loudness(-9f, 1f));
+        store.close();
+
+        store = LoudnessStore.open(mFile);
+        assertEquals(3, store.size());
+        assertEquals(1f, store.get(9).getTruePeak(), 0);
+        store.close();
+    }
+
+    /**
+     * Factory of stereo sines whose level is -10 dB minus the song ID, and a second long, or
+     * ten seconds for ID 100. Negative IDs fail.
+     */
+    private static final class SineFactory implements LoudnessAnalyzer.DecoderFactory {
+        final AtomicInteger mOpened = new AtomicInteger();
+
+        @Override
+        public LoudnessAnalyzer.PcmDecoder open(final long songId) throws IOException {
+            if (songId < 0) throw new IOException("Unreadable song");
+            mOpened.incrementAndGet();
+
+            final double amplitude = Math.pow(10, (-10 - songId) / 20.0);
+            final int frames = SAMPLE_RATE * (songId == 100 ? 10 : 1);
+            return new LoudnessAnalyzer.PcmDecoder() {
+                int mFrame;
+
+                @Override
+                public int getSampleRate() {
+                    return SAMPLE_RATE;
+                }
+
+                @Override
+                public int getChannelCount() {
+                    return 2;
+                }
+
+                @Override
+                public int read(float[] samples) {
+                    if (mFrame == frames) return -1;
+
+                    int count = Math.min(samples.length / 2, frames - mFrame);
+                    for (int i = 0; i < count; i++, mFrame++) {
+                        float sample = (float) (amplitude
+                                * Math.sin(2 * Math.PI * 997 * mFrame / SAMPLE_RATE));
+                        samples[2 * i] = sample;
+                        samples[2 * i + 1] = sample;
+                    }
+                    return count * 2;
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package dndproductions.musicplayerlite;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link LoudnessMeter} and {@link Loudness}, on generated signals.
+ */
+public class LoudnessMeterTest {
+
+    private static final int SAMPLE_RATE = 48000;
+
+    @Test
+    public void sine_measuresReferenceLoudness() {
+
+        // The EBU Tech 3341 reference: a 997 Hz stereo sine at -23 dBFS measures -23 LUFS.
+        LoudnessMeter meter = new LoudnessMeter(SAMPLE_RATE, 2);
+        feed(meter, sine(997, -23, 0), 20);
+
+        assertEquals(-23, meter.getIntegratedLoudness(), 0.1);
+    }
+
+    @Test
+    public void gating_ignoresSilenceAndQuietParts() {
+        LoudnessMeter meter = new LoudnessMeter(SAMPLE_RATE, 2);
+        feed(meter, sine(997, -23, 0), 10);
+        feed(meter, new float[SAMPLE_RATE * 2], 10);
+        feed(meter, sine(997, -60, 0), 10);
+
+        assertEquals(-23, meter.getIntegratedLoudness(), 0.15);
+
+        LoudnessMeter silent = new LoudnessMeter(SAMPLE_RATE, 2);
+        feed(silent, new float[SAMPLE_RATE * 2], 5);
+        assertEquals(Double.NEGATIVE_INFINITY, silent.getIntegratedLoudness(), 0);
+    }
+
+    @Test
+    public void truePeak_findsPeaksBetweenSamples() {
+
+        // A sine at a quarter of the sample rate, sampled 45 degrees off its peaks.
+        LoudnessMeter meter = new LoudnessMeter(SAMPLE_RATE, 2);
+        float[] samples = sine(SAMPLE_RATE / 4, 0, Math.PI / 4);
+        float samplePeak = 0;
+        for (float sample : samples) {
+            samplePeak = Math.max(samplePeak, Math.abs(sample));
+        }
+        feed(meter, samples, 1);
+
+        assertEquals(Math.sqrt(0.5), samplePeak, 1e-3);
+        assertEquals(1, meter.getTruePeak(), 0.05);
+    }
+
+    @Test
+    public void gain_keepsTruePeakHeadroom() {
+        assertEquals(5, new Loudness(-23, 0.25f).getGain(Loudness.TARGET_LUFS), 1e-3);
+        assertEquals(-1 + 20 * Math.log10(2), new Loudness(-30, 0.5f)
+                .getGain(Loudness.TARGET_LUFS), 1e-3);
+        assertEquals(-4, new Loudness(-14, 0.9f).getGain(Loudness.TARGET_LUFS), 1e-3);
+        assertEquals(0, new Loudness(Float.NEGATIVE_INFINITY, 0).getGain(-18), 0);
+    }
+
+    // Helper method that builds a second of a stereo sine.
+    private static float[] sine(double frequency, double dbfs, double phase) {
+        double amplitude = Math.pow(10, dbfs / 20);
+        float[] samples = new float[SAMPLE_RATE * 2];
+        for (int i = 0; i < SAMPLE_RATE; i++) {
+            float sample = (float) (amplitude
+                    * Math.sin(2 * Math.PI * frequency * i / SAMPLE_RATE + phase));
+            samples[2 * i] = sample;
+            samples[2 * i + 1] = sample;
+        }
+        return samples;
+    }
+
+    // Helper method that feeds a second of samples a few times, in chunks.
+    private static void feed(LoudnessMeter meter, float[] samples, int seconds) {
+        float[] chunk = new float[4096 * 2];
+        for (int second = 0; second < seconds; second++) {
+            for (int offset = 0; offset < samples.length; offset += chunk.length) {
+                int length = Math.min(chunk.length, samples.length - offset);
+                System.arraycopy(samples, offset, chunk, 0, length);
+                meter.process(chunk, length / 2);
+            }
+        }
+    }
+}
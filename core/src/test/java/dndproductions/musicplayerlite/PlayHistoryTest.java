@@ -0,0 +1,157 @@
+package dndproductions.musicplayerlite;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link PlayHistory}, written on a {@link SimulatedScheduler}.
+ */
+public class PlayHistoryTest {
+
+    private final SimulatedScheduler mScheduler = new SimulatedScheduler();
+    private File mFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mFile = File.createTempFile("play", ".history");
+        mFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+        new File(mFile.getPath() + ".tmp").delete();
+    }
+
+    @Test
+    public void counts_areKeptPerSongAndReopened() throws Exception {
+        PlayHistory history = PlayHistory.open(mFile, mScheduler);
+        play(history, 10, 3, 1000);
+        play(history, 11, 1, 2000);
+        history.recordStart(12, 3000);
+        history.recordSkip(12, 4500, 3005);
+        history.recordStart(13, 4000);
+        history.recordPosition(13, 700, 4010);
+        history.close();
+
+        history = PlayHistory.open(mFile, mScheduler);
+        assertEquals(4, history.size());
+        assertEquals(3, history.getPlayCount(10));
+        assertEquals(1, history.getPlayCount(11));
+        assertEquals(0, history.getPlayCount(12));
+        assertEquals(1, history.getStartCount(12));
+        assertEquals(1, history.getSkipCount(12));
+        assertEquals(4500, history.getPosition(12));
+        assertEquals(700, history.getPosition(13));
+        assertEquals(0, history.getPlayCount(99));
+        assertEquals(4000, history.getLastStarted(13));
+        assertArrayEquals(new long[]{10, 11}, history.getMostPlayed(5));
+        assertArrayEquals(new long[]{13, 12, 11}, history.getRecentlyPlayed(3));
+        assertEquals(0, history.getFailureCount());
+    }
+
+    @Test
+    public void rankings_followEveryPlay() throws Exception {
+        PlayHistory history = PlayHistory.open(mFile, mScheduler);
+        int[] plays = new int[50];
+        Random random = new Random(1);
+        for (int i = 0; i < 2000; i++) {
+            int song = random.nextInt(plays.length) * random.nextInt(2);
+            history.recordStart(song, i);
+            if (random.nextInt(4) != 0) {
+                history.recordCompletion(song, i);
+                plays[song]++;
+            }
+        }
+
+        // The most played are ranked by count, and the recent ones by their last start.
+        long[] mostPlayed = history.getMostPlayed(plays.length);
+        for (int rank = 0; rank < mostPlayed.length; rank++) {
+            int count = history.getPlayCount(mostPlayed[rank]);
+            assertEquals(plays[(int) mostPlayed[rank]], count);
+            if (rank > 0) assertTrue(history.getPlayCount(mostPlayed[rank - 1]) >= count);
+        }
+        long[] recent = history.getRecentlyPlayed(plays.length);
+        for (int i = 1; i < recent.length; i++) {
+            assertTrue(history.getLastStarted(recent[i - 1]) > history.getLastStarted(recent[i]));
+        }
+
+        // Reopening the compacted file restores both orders.
+        history.close();
+        PlayHistory reopened = PlayHistory.open(mFile, mScheduler);
+        assertArrayEquals(recent, reopened.getRecentlyPlayed(plays.length));
+        for (int rank = 0; rank < mostPlayed.length; rank++) {
+            assertEquals(history.getPlayCount(mostPlayed[rank]),
+                    reopened.getPlayCount(reopened.getMostPlayed(plays.length)[rank]));
+        }
+    }
+
+    @Test
+    public void events_areAppendedThenCompacted() throws Exception {
+        PlayHistory history = PlayHistory.open(mFile, mScheduler);
+
+        // The first write lays out the file, and the later ones only append their events.
+        play(history, 1, 1, 0);
+        mScheduler.advance(PlayHistory.WRITE_DELAY_MS - 1);
+        assertFalse(mFile.exists());
+        mScheduler.advance(1);
+        long compactLength = mFile.length();
+        play(history, 2, 1, 0);
+        mScheduler.advance(PlayHistory.WRITE_DELAY_MS);
+        assertEquals(compactLength + 2 * 24, mFile.length());
+
+        // Once the events outgrow the limit, they're folded into the counts.
+        for (int i = 0; i < PlayHistory.MAX_EVENTS / 2; i++) {
+            play(history, 2, 1, i);
+        }
+        mScheduler.advance(PlayHistory.WRITE_DELAY_MS);
+        assertEquals(compactLength + 32, mFile.length());
+
+        PlayHistory reopened = PlayHistory.open(mFile, mScheduler);
+        assertEquals(PlayHistory.MAX_EVENTS / 2 + 1, reopened.getPlayCount(2));
+        assertEquals(0, history.getFailureCount());
+    }
+
+    @Test
+    public void open_dropsTruncatedEventAndCorruptFile() throws Exception {
+        PlayHistory history = PlayHistory.open(mFile, mScheduler);
+        play(history, 1, 1, 0);
+        history.flush();
+        play(history, 1, 1, 0);
+        history.close();
+
+        long length = mFile.length();
+        FileOutputStream out = new FileOutputStream(mFile, true);
+        out.write(new byte[]{0, 0, 0, 2, 0, 0});
+        out.close();
+
+        history = PlayHistory.open(mFile, mScheduler);
+        assertEquals(2, history.getPlayCount(1));
+        assertEquals(length, mFile.length());
+
+        // A file of another format starts the history over.
+        out = new FileOutputStream(mFile);
+        out.write(new byte[64]);
+        out.close();
+        history = PlayHistory.open(mFile, mScheduler);
+        assertEquals(0, history.size());
+        play(history, 3, 1, 0);
+        history.close();
+        assertEquals(1, PlayHistory.open(mFile, mScheduler).getPlayCount(3));
+    }
+
+    // Helper method that records a song being played until its end a number of times.
+    private static void play(PlayHistory history, long songId, int times, long time) {
+        for (int i = 0; i < times; i++) {
+            history.recordStart(songId, time);
+            history.recordCompletion(songId, time);
+        }
+    }
+}
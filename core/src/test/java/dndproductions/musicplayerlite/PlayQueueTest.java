@@ -0,0 +1,104 @@
+package dndproductions.musicplayerlite;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link PlayQueue}.
+ */
+public class PlayQueueTest {
+
+    @Test
+    public void edits_matchArrayList() throws Exception {
+        Random random = new Random(1);
+        PlayQueue queue = PlayQueue.empty();
+        List<Long> expected = new ArrayList<>();
+
+        for (int i = 0; i < 20000; i++) {
+            int op = random.nextInt(4);
+            if (op <= 1 || expected.isEmpty()) {
+                int index = random.nextInt(expected.size() + 1);
+                queue = queue.insert(index, i);
+                expected.add(index, (long) i);
+            } else if (op == 2) {
+                int index = random.nextInt(expected.size());
+                queue = queue.remove(index);
+                expected.remove(index);
+            } else {
+                int from = random.nextInt(expected.size());
+                int to = random.nextInt(expected.size());
+                queue = queue.move(from, to);
+                expected.add(to, expected.remove(from));
+            }
+        }
+
+        assertEquals(expected.size(), queue.size());
+        long[] ids = queue.toArray();
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals((long) expected.get(i), ids[i]);
+            assertEquals((long) expected.get(i), queue.get(i));
+        }
+    }
+
+    @Test
+    public void edits_leaveSnapshotsUntouched() throws Exception {
+        PlayQueue snapshot = PlayQueue.of(new long[]{1, 2, 3}, 0, 3);
+
+        PlayQueue edited = snapshot.insert(1, 9).remove(0).move(0, 2);
+
+        assertArrayEquals(new long[]{1, 2, 3}, snapshot.toArray());
+        assertArrayEquals(new long[]{2, 3, 9}, edited.toArray());
+    }
+
+    @Test
+    public void insertAll_insertsRunInOrder() throws Exception {
+        PlayQueue queue = PlayQueue.of(new long[]{1, 5}, 0, 2);
+
+        queue = queue.insertAll(1, new long[]{0, 2, 3, 4, 0}, 1, 4);
+
+        assertArrayEquals(new long[]{1, 2, 3, 4, 5}, queue.toArray());
+        assertEquals(3, queue.indexOf(4));
+        assertEquals(-1, queue.indexOf(6));
+    }
+
+    @Test
+    public void bulkBuild_isBalanced() throws Exception {
+        long[] ids = new long[50000];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = i;
+        }
+
+        PlayQueue queue = PlayQueue.of(ids, 0, ids.length);
+
+        assertEquals(50000, queue.size());
+        assertEquals(16, queue.height());
+        assertEquals(31337, queue.get(31337));
+    }
+
+    @Test
+    public void randomEdits_stayLogarithmic() throws Exception {
+        Random random = new Random(2);
+        long[] ids = new long[65536];
+        PlayQueue queue = PlayQueue.of(ids, 0, ids.length);
+
+        // Appends, inserts and removes at random, which would degrade an unbalanced tree.
+        for (int i = 0; i < 65536; i++) {
+            queue = queue.append(i);
+            queue = queue.insert(random.nextInt(queue.size() + 1), i);
+            queue = queue.remove(random.nextInt(queue.size()));
+        }
+
+        assertEquals(131072, queue.size());
+        assertTrue("Height " + queue.height(), queue.height() < 4 * 17);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void get_outOfBounds_throws() throws Exception {
+        PlayQueue.empty().append(1).get(1);
+    }
+}
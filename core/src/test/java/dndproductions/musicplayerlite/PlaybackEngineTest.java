@@ -0,0 +1,426 @@
+package dndproductions.musicplayerlite;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link PlaybackEngine}, driven by {@link SimulatedPlayer}s.
+ */
+public class PlaybackEngineTest {
+
+    private static final long[] IDS = {10, 11, 12, 13, 14, 15, 16, 17, 18, 19};
+
+    private final SimulatedScheduler mScheduler = new SimulatedScheduler();
+
+    @Test
+    public void rapidPlayNext_preparesOnlyFinalSong() throws Exception {
+        SimulatedPlayer.Factory factory = newFactory(0, true);
+        PlaybackEngine engine = newEngine(factory);
+        long[] ids = new long[100];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = i;
+        }
+
+        engine.setSong(ids, 0);
+        for (int i = 0; i < 50; i++) {
+            engine.playNext();
+        }
+        mScheduler.runDue();
+
+        assertEquals(1, factory.getPrepareCount());
+        assertEquals(50, engine.getQueueIndex());
+        assertEquals(PlaybackState.State.PREPARING, engine.getPlaybackState().getState());
+        assertEquals(50, engine.getPlaybackState().getSongId());
+    }
+
+    @Test
+    public void rapidPlayNext_whileChained_startsOnlyFinalSong() throws Exception {
+        SimulatedPlayer.Factory factory = newFactory(0, true);
+        PlaybackEngine engine = newEngine(factory);
+        final List<Long> starts = new ArrayList<>();
+        engine.setHistoryListener(new PlaybackEngine.HistoryListener() {
+            @Override
+            public void onSongStarted(long songId) {
+                starts.add(songId);
+            }
+
+            @Override
+            public void onSongCompleted(long songId) {
+            }
+
+            @Override
+            public void onSongSkipped(long songId, int position) {
+            }
+        });
+        long[] ids = new long[100];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = i;
+        }
+
+        // Plays the first song until the second one is prepared and chained to it.
+        engine.setSong(ids, 0);
+        engine.playSong();
+        mScheduler.advance(200);
+        long prepares = factory.getPrepareCount();
+
+        for (int i = 0; i < 50; i++) {
+            engine.playNext();
+        }
+        mScheduler.runDue();
+
+        assertEquals(prepares + 1, factory.getPrepareCount());
+        assertEquals(50, engine.getQueueIndex());
+        assertEquals(PlaybackState.State.PREPARING, engine.getPlaybackState().getState());
+        mScheduler.advance(100);
+        assertEquals(50, engine.getPlaybackState().getSongId());
+        assertEquals(Arrays.asList(0L, 50L), starts);
+        assertEquals(0, mScheduler.getFailureCount());
+    }
+
+    @Test
+    public void playNext_whileChained_startsWithoutPrepare() throws Exception {
+        SimulatedPlayer.Factory factory = newFactory(0, true);
+        PlaybackEngine engine = newEngine(factory);
+        engine.setSong(IDS, 0);
+        engine.playSong();
+        mScheduler.advance(200);
+        long prepares = factory.getPrepareCount();
+
+        engine.playNext();
+        mScheduler.runDue();
+
+        assertEquals(PlaybackState.State.PLAYING, engine.getPlaybackState().getState());
+        assertEquals(11, engine.getPlaybackState().getSongId());
+
+        // Only the song after it is prepared, to be chained in turn.
+        assertEquals(prepares + 1, factory.getPrepareCount());
+        assertEquals(0, mScheduler.getFailureCount());
+    }
+
+    @Test
+    public void playSong_startsAfterPrepare() throws Exception {
+        PlaybackEngine engine = newEngine(newFactory(0, true));
+
+        engine.setSong(IDS, 3);
+        engine.playSong();
+        mScheduler.advance(100);
+
+        PlaybackState state = engine.getPlaybackState();
+        assertEquals(PlaybackState.State.PLAYING, state.getState());
+        assertEquals(13, state.getSongId());
+        assertTrue(state.getDuration() > 0);
+        assertEquals(0, mScheduler.getFailureCount());
+    }
+
+    @Test
+    public void chainedSongs_playWithoutGap() throws Exception {
+        PlaybackEngine engine = newEngine(newFactory(0, true));
+
+        engine.setSong(IDS, 0);
+        engine.playSong();
+        mScheduler.advance(100);
+        mScheduler.advance(engine.getPlaybackState().getDuration());
+
+        assertEquals(PlaybackState.State.PLAYING, engine.getPlaybackState().getState());
+        assertEquals(11, engine.getPlaybackState().getSongId());
+        assertEquals(0, engine.getLastTransitionGap());
+        assertEquals(0, mScheduler.getFailureCount());
+    }
+
+    @Test
+    public void unchainedSongs_waitForPrepare() throws Exception {
+        PlaybackEngine engine = newEngine(newFactory(0, false));
+
+        engine.setSong(IDS, 0);
+        engine.playSong();
+        mScheduler.advance(50);
+        mScheduler.advance(engine.getPlaybackState().getDuration() + 100);
+
+        assertEquals(11, engine.getPlaybackState().getSongId());
+        assertEquals(50, engine.getLastTransitionGap());
+        assertEquals(0, mScheduler.getFailureCount());
+    }
+
+    @Test
+    public void pauseAndGo_keepPosition() throws Exception {
+        PlaybackEngine engine = newEngine(newFactory(0, true));
+
+        engine.setSong(IDS, 0);
+        engine.playSong();
+        mScheduler.advance(50);
+        mScheduler.advance(5000);
+        engine.pause();
+        mScheduler.runDue();
+        PlaybackState paused = engine.getPlaybackState();
+        mScheduler.advance(60000);
+
+        assertEquals(PlaybackState.State.PAUSED, paused.getState());
+        assertEquals(5000, paused.getPosition(mScheduler.elapsedRealtime()));
+
+        engine.seek(20000);
+        engine.go();
+        mScheduler.advance(PlaybackEngine.SEEK_WINDOW_MS);
+
+        assertEquals(PlaybackState.State.PLAYING, engine.getPlaybackState().getState());
+        assertEquals(20000, engine.getPlaybackState().getPosition(mScheduler.elapsedRealtime()));
+        assertEquals(0, mScheduler.getFailureCount());
+    }
+
+    @Test
+    public void controlsWhilePreparing_areIgnored() throws Exception {
+        PlaybackEngine engine = newEngine(newFactory(0, true));
+
+        engine.setSong(IDS, 0);
+        engine.playSong();
+        engine.pause();
+        engine.seek(1000);
+        engine.go();
+        mScheduler.runDue();
+
+        assertEquals(PlaybackState.State.PREPARING, engine.getPlaybackState().getState());
+        assertEquals(0, mScheduler.getFailureCount());
+    }
+
+    @Test
+    public void failedPrepare_goesIdle() throws Exception {
+        PlaybackEngine engine = newEngine(newFactory(1, true));
+
+        engine.setSong(IDS, 0);
+        engine.playSong();
+        mScheduler.advance(100);
+
+        assertEquals(PlaybackState.State.IDLE, engine.getPlaybackState().getState());
+        assertEquals(0, mScheduler.getFailureCount());
+    }
+
+    @Test
+    public void gainSource_isAskedForEachPreparedSong() throws Exception {
+        PlaybackEngine engine = newEngine(newFactory(0, true));
+        final List<Long> asked = new ArrayList<>();
+        engine.setGainSource(new PlaybackEngine.GainSource() {
+            @Override
+            public float getVolume(long songId) {
+                asked.add(songId);
+                return 0.5f;
+            }
+        });
+
+        engine.setSong(IDS, 0);
+        engine.playSong();
+        mScheduler.advance(100);
+        mScheduler.advance(engine.getPlaybackState().getDuration());
+
+        assertEquals(Arrays.asList(10L, 11L, 12L), asked);
+        assertEquals(0, mScheduler.getFailureCount());
+    }
+
+    @Test
+    public void removeCurrentSong_atStart_keepsPlayingThenPlaysFollowing() throws Exception {
+        PlaybackEngine engine = newEngine(newFactory(0, true));
+        List<PlaybackSession> sessions = recordSessions(engine);
+        engine.setSong(IDS, 0);
+        engine.playSong();
+        mScheduler.advance(100);
+
+        // Indexes past the end of the queue, e.g. from a stale UI, are ignored.
+        engine.removeFromQueue(0);
+        engine.removeFromQueue(IDS.length + 5);
+        engine.pause();
+        mScheduler.runDue();
+
+        PlaybackSession session = sessions.get(sessions.size() - 1);
+        assertEquals(IDS.length - 1, session.getQueue().size());
+        assertEquals(0, session.getQueueIndex());
+        assertEquals(PlaybackState.State.PAUSED, engine.getPlaybackState().getState());
+        assertEquals(10, engine.getPlaybackState().getSongId());
+
+        engine.go();
+        engine.playNext();
+        mScheduler.advance(100);
+        assertEquals(11, engine.getPlaybackState().getSongId());
+        assertEquals(0, mScheduler.getFailureCount());
+    }
+
+    @Test
+    public void removeCurrentSong_atEnd_wrapsAround() throws Exception {
+        PlaybackEngine engine = newEngine(newFactory(0, false));
+        List<PlaybackSession> sessions = recordSessions(engine);
+        engine.setSong(IDS, IDS.length - 1);
+        engine.playSong();
+        mScheduler.advance(100);
+
+        engine.removeFromQueue(IDS.length - 1);
+        mScheduler.runDue();
+        PlaybackSession session = sessions.get(sessions.size() - 1);
+        assertEquals(0, session.getQueueIndex());
+        assertEquals(19, engine.getPlaybackState().getSongId());
+
+        // The song before the removed one is the previous one, and the first is the next one.
+        engine.playPrevious();
+        mScheduler.advance(100);
+        assertEquals(18, engine.getPlaybackState().getSongId());
+        engine.removeFromQueue(IDS.length - 2);
+        engine.playNext();
+        mScheduler.advance(100);
+        assertEquals(10, engine.getPlaybackState().getSongId());
+        assertEquals(0, mScheduler.getFailureCount());
+    }
+
+    @Test
+    public void restore_preparesPausedAtPosition() throws Exception {
+        PlaybackEngine engine = newEngine(newFactory(0, true));
+        final List<PlaybackSession> sessions = new ArrayList<>();
+        engine.setSessionListener(new PlaybackEngine.SessionListener() {
+            @Override
+            public void onSessionChanged(PlaybackSession session) {
+                sessions.add(session);
+            }
+        });
+
+        // Shuffles a few songs, and then restores the last session on a new engine.
+        engine.setShuffle(true);
+        engine.setSong(IDS, 4);
+        engine.playSong();
+        mScheduler.advance(100);
+        engine.playNext();
+        mScheduler.advance(100);
+        PlaybackSession session = sessions.get(sessions.size() - 1).withPosition(30000);
+
+        PlaybackEngine restored = newEngine(newFactory(0, true));
+        restored.restore(session);
+        mScheduler.advance(100);
+
+        PlaybackState state = restored.getPlaybackState();
+        assertEquals(PlaybackState.State.PAUSED, state.getState());
+        assertEquals(engine.getPlaybackState().getSongId(), state.getSongId());
+        assertEquals(30000, state.getPosition(mScheduler.elapsedRealtime()));
+        assertFalse(restored.isQueueFromList());
+
+        // Going back walks the restored shuffle history.
+        restored.go();
+        restored.playPrevious();
+        mScheduler.advance(100);
+        assertEquals(14, restored.getPlaybackState().getSongId());
+        assertEquals(0, mScheduler.getFailureCount());
+    }
+
+    @Test
+    public void prefetcher_isHandedSongsInPlayOrder() throws Exception {
+        PlaybackEngine engine = newEngine(newFactory(0, true));
+        final List<long[]> upcoming = new ArrayList<>();
+        engine.setPrefetcher(new PlaybackEngine.Prefetcher() {
+            @Override
+            public void onUpcomingChanged(long[] songIds) {
+                upcoming.add(songIds);
+            }
+
+            @Override
+            public boolean isReadAhead(long songId) {
+                return songId % 2 == 0;
+            }
+        }, 3);
+
+        engine.setSong(IDS, 8);
+        engine.playSong();
+        mScheduler.advance(100);
+        assertArrayEquals(new long[]{19, 10, 11}, upcoming.get(upcoming.size() - 1));
+
+        // While shuffling, the songs handed are the ones that play next.
+        engine.setShuffle(true);
+        mScheduler.runDue();
+        long[] ahead = upcoming.get(upcoming.size() - 1);
+        assertEquals(3, ahead.length);
+        for (long songId : ahead) {
+            engine.playNext();
+            mScheduler.advance(100);
+            assertEquals(songId, engine.getPlaybackState().getSongId());
+        }
+
+        // The prepare times are split by whether the songs were read ahead.
+        PlaybackMetrics metrics = engine.getMetrics();
+        assertEquals(metrics.getPrepare().getCount(), metrics.getPrepare(true).getCount()
+                + metrics.getPrepare(false).getCount());
+        assertTrue(metrics.getPrepare(true).getCount() > 0);
+        assertEquals(0, mScheduler.getFailureCount());
+    }
+
+    @Test
+    public void historyListener_isToldOfStartsCompletionsAndSkips() throws Exception {
+        PlaybackEngine engine = newEngine(newFactory(0, true));
+        final List<String> events = new ArrayList<>();
+        engine.setHistoryListener(new PlaybackEngine.HistoryListener() {
+            @Override
+            public void onSongStarted(long songId) {
+                events.add("start " + songId);
+            }
+
+            @Override
+            public void onSongCompleted(long songId) {
+                events.add("complete " + songId);
+            }
+
+            @Override
+            public void onSongSkipped(long songId, int position) {
+                events.add("skip " + songId + " at " + position);
+            }
+        });
+
+        engine.setSong(IDS, 0);
+        engine.playSong();
+        mScheduler.advance(100);
+        mScheduler.advance(engine.getPlaybackState().getDuration());
+        mScheduler.advance(1000);
+        int position = engine.getPlaybackState().getPosition(mScheduler.elapsedRealtime());
+
+        // Skipping a chained song, and then picking one while preparing, only skips the heard one.
+        engine.playNext();
+        mScheduler.runDue();
+        engine.setSong(IDS, 5);
+        engine.playSong();
+        mScheduler.advance(100);
+
+        assertEquals(Arrays.asList("start 10", "complete 10", "start 11",
+                "skip 11 at " + position, "start 12", "skip 12 at 0", "start 15"), events);
+        assertEquals(0, mScheduler.getFailureCount());
+    }
+
+    // Helper method that collects the sessions an engine publishes.
+    private static List<PlaybackSession> recordSessions(PlaybackEngine engine) {
+        final List<PlaybackSession> sessions = new ArrayList<>();
+        engine.setSessionListener(new PlaybackEngine.SessionListener() {
+            @Override
+            public void onSessionChanged(PlaybackSession session) {
+                sessions.add(session);
+            }
+        });
+
+        return sessions;
+    }
+
+    // Helper method that creates a factory of players that prepare in 50 ms.
+    private SimulatedPlayer.Factory newFactory(double failureRate, boolean supportsNext) {
+        Random random = new Random(1);
+        return new SimulatedPlayer.Factory(mScheduler,
+                new SimulatedPlayer.Media(random, 50, 50, failureRate), random, supportsNext);
+    }
+
+    // Helper method that creates an engine running on the scheduler.
+    private PlaybackEngine newEngine(SimulatedPlayer.Factory factory) {
+        return new PlaybackEngine(mScheduler, factory, mScheduler, new Random(1),
+                new PlaybackEngine.Listener() {
+                    @Override
+                    public void onPlaybackStarted() {
+                    }
+
+                    @Override
+                    public void onPlaybackRestored() {
+                    }
+                });
+    }
+}
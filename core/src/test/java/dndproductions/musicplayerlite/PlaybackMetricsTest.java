@@ -0,0 +1,76 @@
+package dndproductions.musicplayerlite;
+
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link PlaybackMetrics}.
+ */
+public class PlaybackMetricsTest {
+
+    @Test
+    public void audioStarted_recordsLastRequestOnce() throws Exception {
+        PlaybackMetrics metrics = new PlaybackMetrics(0);
+
+        // Two taps before the audio starts count as one, from the last tap.
+        metrics.markRequest(1000);
+        metrics.markRequest(1200);
+        metrics.recordAudioStarted(1500);
+
+        // A song that starts on its own isn't a response to a tap.
+        metrics.recordAudioStarted(9000);
+
+        assertEquals(1, metrics.getTapToAudio().getCount());
+        assertEquals(300, metrics.getTapToAudio().getMax());
+    }
+
+    @Test
+    public void prepare_isSplitByFormat() throws Exception {
+        PlaybackMetrics metrics = new PlaybackMetrics(0);
+        metrics.recordPrepare(40, "audio/mpeg");
+        metrics.recordPrepare(80, "audio/flac");
+        metrics.recordPrepare(10, null);
+
+        assertEquals(3, metrics.getPrepare().getCount());
+        assertEquals(0, PlaybackMetrics.formatOf("audio/mpeg"));
+        assertEquals(1, PlaybackMetrics.formatOf("audio/mp4"));
+        assertEquals(3, PlaybackMetrics.formatOf("application/ogg"));
+        assertEquals(5, PlaybackMetrics.formatOf("audio/x-ms-wma"));
+
+        String dump = dump(metrics);
+        assertTrue(dump.contains("prepare_ms[mpeg]: count=1"));
+        assertTrue(dump.contains("prepare_ms[flac]: count=1"));
+        assertTrue(dump.contains("prepare_ms[other]: count=1"));
+        assertFalse(dump.contains("prepare_ms[wav]"));
+    }
+
+    @Test
+    public void errors_areCountedByCause() throws Exception {
+        PlaybackMetrics metrics = new PlaybackMetrics(0);
+        metrics.recordError(1, -1004, false);
+        metrics.recordError(100, 0, false);
+        metrics.recordError(1, -1010, true);
+
+        assertEquals(2, metrics.getErrorCount(false));
+        assertEquals(1, metrics.getErrorCount(true));
+
+        String dump = dump(metrics);
+        assertTrue(dump.contains("errors: unknown=0 server_died=1 io=1"));
+        assertTrue(dump.contains("upcoming_errors: unknown=0 server_died=0 io=0 malformed=0"
+                + " unsupported=1"));
+    }
+
+    // Helper method that dumps the metrics into a string.
+    private static String dump(PlaybackMetrics metrics) {
+        StringWriter out = new StringWriter();
+        PrintWriter writer = new PrintWriter(out);
+        metrics.dump(writer, 60000, false);
+        writer.flush();
+
+        return out.toString();
+    }
+}
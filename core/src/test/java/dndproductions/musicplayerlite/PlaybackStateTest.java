@@ -0,0 +1,49 @@
+package dndproductions.musicplayerlite;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link PlaybackState}.
+ */
+public class PlaybackStateTest {
+
+    @Test
+    public void playing_extrapolatesPosition() throws Exception {
+        PlaybackState state = new PlaybackState(PlaybackState.State.PLAYING, 1, 10000, 2000,
+                500, 1f);
+
+        assertEquals(2000, state.getPosition(500));
+        assertEquals(3500, state.getPosition(2000));
+        assertEquals(10000, state.getPosition(60000));
+    }
+
+    @Test
+    public void playing_followsSpeed() throws Exception {
+        PlaybackState state = new PlaybackState(PlaybackState.State.PLAYING, 1, 0, 0, 0, 1.5f);
+
+        assertEquals(3000, state.getPosition(2000));
+    }
+
+    @Test
+    public void paused_keepsPosition() throws Exception {
+        PlaybackState playing = new PlaybackState(PlaybackState.State.PLAYING, 1, 10000, 0, 0,
+                1f);
+
+        PlaybackState paused = playing.withState(PlaybackState.State.PAUSED, 4000);
+        assertEquals(4000, paused.getPosition(9000));
+        assertFalse(paused.isPlaying());
+
+        PlaybackState resumed = paused.withState(PlaybackState.State.PLAYING, 9000);
+        assertEquals(5000, resumed.getPosition(10000));
+    }
+
+    @Test
+    public void seek_movesAnchor() throws Exception {
+        PlaybackState state = new PlaybackState(PlaybackState.State.PLAYING, 1, 10000, 0, 0, 1f)
+                .withPosition(7000, 1000);
+
+        assertEquals(7500, state.getPosition(1500));
+    }
+}
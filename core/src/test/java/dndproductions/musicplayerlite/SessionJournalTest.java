@@ -0,0 +1,184 @@
+package dndproductions.musicplayerlite;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link SessionJournal}, written on a {@link SimulatedScheduler}.
+ */
+public class SessionJournalTest {
+
+    private static final long[] IDS = {10, 11, 12, 13, 14, 15, 16, 17, 18, 19};
+
+    private final SimulatedScheduler mScheduler = new SimulatedScheduler();
+    private File mFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mFile = File.createTempFile("session", ".journal");
+        mFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void open_restoresSessionAndLastPosition() throws Exception {
+        SessionJournal journal = SessionJournal.open(mFile, mScheduler);
+        assertNull(journal.getRestoredSession());
+
+        journal.setSession(new PlaybackSession(PlayQueue.of(IDS, 0, IDS.length), 3, true,
+                new int[]{5, 3, 8}, 1, 0));
+        for (int second = 1; second <= 60; second++) {
+            journal.setPosition(13, second * 1000);
+            mScheduler.advance(1000);
+        }
+        journal.close();
+
+        PlaybackSession session = SessionJournal.open(mFile, mScheduler).getRestoredSession();
+        assertArrayEquals(IDS, session.getQueue().toArray());
+        assertEquals(3, session.getQueueIndex());
+        assertTrue(session.isShuffle());
+        assertArrayEquals(new int[]{5, 3, 8}, session.getShuffleHistory());
+        assertEquals(1, session.getShuffleIndex());
+        assertEquals(60000, session.getPosition());
+        assertEquals(0, journal.getFailureCount());
+    }
+
+    @Test
+    public void updates_areCoalescedIntoDelayedWrites() throws Exception {
+        SessionJournal journal = SessionJournal.open(mFile, mScheduler);
+
+        // Rapid skips only write the session they end on, once the delay has passed.
+        for (int index = 0; index < 5; index++) {
+            journal.setSession(new PlaybackSession(PlayQueue.of(IDS, 0, IDS.length), index,
+                    false, null, -1, 0));
+        }
+        mScheduler.advance(SessionJournal.WRITE_DELAY_MS - 1);
+        assertFalse(mFile.exists());
+        mScheduler.advance(1);
+        long sessionLength = mFile.length();
+        assertEquals(4, SessionJournal.open(mFile, mScheduler).getRestoredSession()
+                .getQueueIndex());
+
+        // Positions within a delay are appended as a single small record.
+        for (int position = 100; position <= 900; position += 100) {
+            journal.setPosition(14, position);
+        }
+        mScheduler.advance(SessionJournal.WRITE_DELAY_MS);
+        assertEquals(sessionLength + 16, mFile.length());
+
+        // An unchanged position, or one of another song, isn't written.
+        journal.setPosition(14, 900);
+        mScheduler.advance(SessionJournal.WRITE_DELAY_MS);
+        journal.setPosition(12, 5000);
+        mScheduler.advance(SessionJournal.WRITE_DELAY_MS);
+        assertEquals(sessionLength + 16, mFile.length());
+        journal.close();
+    }
+
+    @Test
+    public void moves_withinQueue_areAppended() throws Exception {
+        SessionJournal journal = SessionJournal.open(mFile, mScheduler);
+        PlayQueue queue = PlayQueue.of(IDS, 0, IDS.length);
+        journal.setSession(new PlaybackSession(queue, 5, true, new int[]{5}, 0, 0));
+        mScheduler.advance(SessionJournal.WRITE_DELAY_MS);
+        long sessionLength = mFile.length();
+
+        // Moving within the same queue appends the move and the songs added to the history.
+        journal.setSession(new PlaybackSession(queue, 3, true, new int[]{5, 3}, 1, 0));
+        mScheduler.advance(SessionJournal.WRITE_DELAY_MS);
+        assertEquals(sessionLength + 16 + 4, mFile.length());
+        journal.setSession(new PlaybackSession(queue, 8, true, new int[]{5, 3, 8}, 2, 0));
+        journal.setPosition(18, 4000);
+        mScheduler.advance(SessionJournal.WRITE_DELAY_MS);
+        assertEquals(sessionLength + 2 * (16 + 4) + 16, mFile.length());
+        journal.setSession(new PlaybackSession(queue, 3, true, new int[]{5, 3, 8}, 1, 0));
+        mScheduler.advance(SessionJournal.WRITE_DELAY_MS);
+        assertEquals(sessionLength + 2 * (16 + 4) + 16 + 16, mFile.length());
+
+        PlaybackSession session = SessionJournal.open(mFile, mScheduler).getRestoredSession();
+        assertArrayEquals(IDS, session.getQueue().toArray());
+        assertEquals(3, session.getQueueIndex());
+        assertArrayEquals(new int[]{5, 3, 8}, session.getShuffleHistory());
+        assertEquals(1, session.getShuffleIndex());
+        assertEquals(0, session.getPosition());
+
+        // Another queue is written in full again.
+        journal.setSession(new PlaybackSession(PlayQueue.of(IDS, 0, 4), 1, false, null, -1, 0));
+        mScheduler.advance(SessionJournal.WRITE_DELAY_MS);
+        assertTrue(mFile.length() < sessionLength);
+        assertEquals(4, SessionJournal.open(mFile, mScheduler).getRestoredSession().getQueue()
+                .size());
+        assertEquals(0, journal.getFailureCount());
+        journal.close();
+    }
+
+    @Test
+    public void positions_areCompacted() throws Exception {
+        SessionJournal journal = SessionJournal.open(mFile, mScheduler);
+        journal.setSession(new PlaybackSession(PlayQueue.of(IDS, 0, IDS.length), 0, false,
+                null, -1, 0));
+        mScheduler.advance(SessionJournal.WRITE_DELAY_MS);
+        long sessionLength = mFile.length();
+
+        for (int i = 1; i <= SessionJournal.MAX_RECORDS + 1; i++) {
+            journal.setPosition(10, i);
+            mScheduler.advance(SessionJournal.WRITE_DELAY_MS);
+        }
+        assertEquals(sessionLength, mFile.length());
+        assertEquals(SessionJournal.MAX_RECORDS + 1,
+                SessionJournal.open(mFile, mScheduler).getRestoredSession().getPosition());
+        journal.close();
+    }
+
+    @Test
+    public void open_dropsTruncatedPosition() throws Exception {
+        SessionJournal journal = SessionJournal.open(mFile, mScheduler);
+        journal.setSession(new PlaybackSession(PlayQueue.of(IDS, 0, IDS.length), 2, false,
+                null, -1, 0));
+        journal.setPosition(12, 1000);
+        mScheduler.advance(SessionJournal.WRITE_DELAY_MS);
+        journal.setPosition(12, 2000);
+        journal.close();
+
+        // A killed process left half of a record behind.
+        FileOutputStream out = new FileOutputStream(mFile, true);
+        out.write(new byte[]{0, 0, 0, 0, 0});
+        out.close();
+        long length = mFile.length();
+
+        journal = SessionJournal.open(mFile, mScheduler);
+        assertEquals(2000, journal.getRestoredSession().getPosition());
+        assertEquals(length - 5, mFile.length());
+
+        journal.setPosition(12, 3000);
+        journal.close();
+        assertEquals(3000, SessionJournal.open(mFile, mScheduler).getRestoredSession()
+                .getPosition());
+    }
+
+    @Test
+    public void open_rejectsCorruptSession() throws Exception {
+        SessionJournal journal = SessionJournal.open(mFile, mScheduler);
+        journal.setSession(new PlaybackSession(PlayQueue.of(IDS, 0, IDS.length), 2, false,
+                null, -1, 0));
+        journal.close();
+
+        RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
+        raf.seek(20);
+        raf.write(0xff);
+        raf.close();
+
+        assertNull(SessionJournal.open(mFile, mScheduler).getRestoredSession());
+    }
+}
@@ -0,0 +1,47 @@
+package dndproductions.musicplayerlite;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link SessionSimulator}.
+ */
+public class SessionSimulatorTest {
+
+    @Test
+    public void sessions_neitherStallNorFail() throws Exception {
+        SessionSimulator simulator = new SessionSimulator(1, 500, 50, 20, 400, 0.02, 2000);
+
+        SessionSimulator.Result result = simulator.run(0, 500);
+
+        assertEquals(500, result.getSessions());
+        assertTrue(result.getTransitions() > result.getSessions());
+        assertNull(result.getFirstProblem(), result.getFirstProblem());
+        assertEquals(0, result.getStalls());
+        assertEquals(0, result.getFailures());
+    }
+
+    @Test
+    public void threads_giveSameResults() throws Exception {
+        SessionSimulator simulator = new SessionSimulator(7, 100, 20, 20, 400, 0.02, 2000);
+
+        SessionSimulator.Result single = simulator.run(0, 64);
+        SessionSimulator.Result split = simulator.runParallel(64, 4);
+
+        assertEquals(single.getTransitions(), split.getTransitions());
+        assertEquals(single.getVirtualMillis(), split.getVirtualMillis());
+    }
+
+    @Test
+    public void slowPrepares_areStalls() throws Exception {
+
+        // Songs take longer to prepare than the stall timeout.
+        SessionSimulator simulator = new SessionSimulator(1, 100, 50, 5000, 6000, 0, 2000);
+
+        SessionSimulator.Result result = simulator.run(0, 10);
+
+        assertEquals(10, result.getStalls());
+        assertTrue(result.getFirstProblem().contains("preparing"));
+    }
+}
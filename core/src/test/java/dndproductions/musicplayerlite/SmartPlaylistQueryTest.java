@@ -0,0 +1,170 @@
+package dndproductions.musicplayerlite;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link SmartPlaylist} and {@link SmartPlaylistQuery}. The time it takes
+ * to filter a large library is measured by {@code SmartPlaylistQueryBenchmark}.
+ */
+public class SmartPlaylistQueryTest {
+
+    private static final long DAY_MS = 24 * 60 * 60 * 1000L;
+    private static final long NOW = 1500000000000L;
+
+    // Play counts of the songs, where songs that aren't in the map weren't played.
+    private final Map<Long, Integer> mPlays = new HashMap<>();
+    private int mLookups;
+    private final SmartPlaylist.PlayCounts mPlayCounts = new SmartPlaylist.PlayCounts() {
+        @Override
+        public int getPlayCount(long songId) {
+            mLookups++;
+            Integer count = mPlays.get(songId);
+            return count != null ? count : 0;
+        }
+    };
+
+    @Test
+    public void compile_matchesAllRules() throws Exception {
+        SongTable table = new SongTable();
+        table.add(song(1, "Björk", 4 * 60000, 2));
+        table.add(song(2, "Bjork", 4 * 60000, 40));
+        table.add(song(3, "Björk", 12 * 60000, 2));
+        table.add(song(4, "Björk", 3 * 60000, 1));
+        table.add(song(5, "Portishead", 4 * 60000, 1));
+        mPlays.put(1L, 6);
+        mPlays.put(2L, 9);
+        mPlays.put(3L, 7);
+        mPlays.put(5L, 8);
+
+        SmartPlaylistQuery query = new SmartPlaylist("Recent Björk")
+                .withArtistMatching("BJORK")
+                .withPlayCountAbove(5)
+                .withAddedWithin(30 * DAY_MS)
+                .withDurationBetween(2 * 60000, 10 * 60000)
+                .compile(table, mPlayCounts, NOW);
+
+        assertEquals(1, query.size());
+        assertTrue(query.contains(1));
+        assertArrayEquals(new int[]{0}, query.getRows(SongOrder.TITLE));
+
+        // A playlist without rules holds every song.
+        assertEquals(5, new SmartPlaylist("All").compile(table, null, NOW).size());
+    }
+
+    @Test
+    public void clauses_shortCircuitOnMostSelective() throws Exception {
+        SongTable table = new SongTable(createSongs(10000));
+        for (long id = 0; id < table.size(); id++) {
+            mPlays.put(id, 1);
+        }
+
+        SmartPlaylistQuery query = new SmartPlaylist("Artist 7")
+                .withPlayCountAbove(0)
+                .withDurationBetween(0, 10 * 60000)
+                .withArtistMatching("artist 7")
+                .compile(table, mPlayCounts, NOW);
+
+        // About 1 in 9 songs is by an artist containing "artist 7", so that clause is evaluated
+        // first, and the costlier play count lookups last, only for the songs that passed.
+        assertArrayEquals(new String[]{"artist", "duration", "playCount"},
+                query.getClauseNames());
+        assertEquals(1110, query.size());
+        assertTrue(mLookups < 2000);
+    }
+
+    @Test
+    public void refresh_evaluatesOnlyChangedSongs() throws Exception {
+        SongTable table = new SongTable(createSongs(10000));
+        SmartPlaylistQuery query = new SmartPlaylist("Most played")
+                .withPlayCountAbove(2)
+                .compile(table, mPlayCounts, NOW);
+        assertEquals(0, query.size());
+        long evaluated = query.getEvaluatedCount();
+
+        mPlays.put(42L, 3);
+        mPlays.put(43L, 1);
+        assertEquals(1, query.refresh(new long[]{42, 43, 20000}));
+
+        assertEquals(evaluated + 2, query.getEvaluatedCount());
+        assertTrue(query.contains(42));
+        assertFalse(query.contains(43));
+        assertEquals(1, query.size());
+    }
+
+    @Test
+    public void rebase_evaluatesOnlyChangedSongs() throws Exception {
+        SongTable table = new SongTable(createSongs(10000));
+        SmartPlaylist playlist = new SmartPlaylist("Recently added")
+                .withAddedWithin(30 * DAY_MS);
+        SmartPlaylistQuery query = playlist.compile(table, null, NOW);
+
+        // Song 5 was added long ago and is now replaced by a new copy, and song 6 is removed.
+        LibraryChanges changes = new LibraryChanges(0, 16);
+        changes.add(5);
+        changes.add(6);
+        List<Song> changed = new ArrayList<>();
+        changed.add(new Song(5, "Song 5", "Artist 5", "Album 5", 5, 5, 60000, NOW / 1000));
+        SongTable synced = changes.applyTo(table, changed);
+
+        SmartPlaylistQuery rebased = query.rebase(synced, changes, NOW);
+        assertEquals(1, rebased.getEvaluatedCount());
+        assertTrue(rebased.contains(5));
+        assertFalse(rebased.contains(6));
+        assertEquals(playlist.compile(synced, null, NOW).size(), rebased.size());
+        assertArrayEquals(playlist.compile(synced, null, NOW).getRows(SongOrder.TITLE),
+                rebased.getRows(SongOrder.TITLE));
+    }
+
+    @Test
+    public void rebase_laterTime_evaluatesOnlyMatchesAgain() throws Exception {
+        SongTable table = new SongTable(createSongs(10000));
+        SmartPlaylist playlist = new SmartPlaylist("Recently added")
+                .withAddedWithin(30 * DAY_MS);
+        SmartPlaylistQuery query = playlist.compile(table, null, NOW);
+        assertEquals(1000, query.size());
+
+        // A month later, the songs added a few days before no longer count as recent, and
+        // only the songs that matched are evaluated again along with the changed one.
+        LibraryChanges changes = new LibraryChanges(0, 16);
+        changes.add(7);
+        List<Song> changed = new ArrayList<>();
+        changed.add(new Song(7, "Song 7", "Artist 7", "Album 0", 0, 7, 60000, NOW / 1000));
+        SongTable synced = changes.applyTo(table, changed);
+
+        long later = NOW + 28 * DAY_MS;
+        SmartPlaylistQuery rebased = query.rebase(synced, changes, later);
+        assertEquals(1000 + 1, rebased.getEvaluatedCount());
+        assertEquals(1, rebased.size());
+        assertTrue(rebased.contains(7));
+
+        // An earlier time evaluates every song again.
+        assertEquals(synced.size(), query.rebase(synced, changes, NOW - DAY_MS)
+                .getEvaluatedCount());
+    }
+
+    // Helper method that creates a song added some days before now.
+    private static Song song(long id, String artist, long duration, int daysAgo) {
+        return new Song(id, "Song " + id, artist, "Album", 1, artist.hashCode(), duration,
+                (NOW - daysAgo * DAY_MS) / 1000);
+    }
+
+    // Helper method that creates songs of 1000 artists, one in 10 of which was added recently.
+    private static List<Song> createSongs(int count) {
+        List<Song> songs = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int artist = i % 1000;
+            int daysAgo = i % 10 == 0 ? 3 : 300;
+            songs.add(new Song(i, "Song " + i, "Artist " + artist, "Album " + i / 10, i / 10,
+                    artist, 60000 + i % 600000, (NOW - daysAgo * DAY_MS) / 1000));
+        }
+        return songs;
+    }
+}
@@ -0,0 +1,160 @@
+package dndproductions.musicplayerlite;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link SongGroupIndex}, through the indexes of a {@link SongTable}.
+ */
+public class SongGroupIndexTest {
+
+    private final ExecutorService mExecutor = Executors.newFixedThreadPool(2);
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void groups_aggregateAppendedRows() throws Exception {
+        SongTable table = new SongTable();
+        table.add(new Song(1, "Sunrise", "Artist B", "Morning", 20, 200, 180000));
+        table.add(new Song(2, "Anthem", "Artist A", "Live", 21, 100, 240000));
+        table.add(new Song(3, "Dusk", "Artist B", "Evening", 22, 200, 200000));
+        table.add(new Song(4, "Coda", "Artist B", "Morning", 20, 200, 0));
+        table.add(new Song(5, "Untitled", null));
+        new SongSorter(Locale.ENGLISH, mExecutor, 1).sort(table);
+
+        SongGroupIndex artists = table.getArtistGroups();
+        assertEquals(3, artists.size());
+        int artistB = artists.groupOf(200);
+        assertEquals(3, artists.getCount(artistB));
+        assertEquals(380000, artists.getDuration(artistB));
+        assertEquals(0, artists.getFirstRow(artistB));
+        assertEquals(artistB, artists.getGroup(2));
+        assertEquals(-1, artists.groupOf(300));
+        assertEquals(1, artists.getCount(artists.groupOf(SongGroupIndex.UNKNOWN_KEY)));
+
+        // The rows of a group follow the order asked for.
+        assertArrayEquals(new int[]{3, 2, 0}, artists.getRows(artistB, SongOrder.TITLE));
+        assertArrayEquals(new int[]{1}, artists.getRows(artists.groupOf(100), SongOrder.TITLE));
+
+        // The groups are listed in the order of their first row, where unknown artists come
+        // first.
+        assertArrayEquals(new int[]{artists.groupOf(SongGroupIndex.UNKNOWN_KEY),
+                artists.groupOf(100), artistB}, artists.getGroupOrder(SongOrder.ARTIST));
+
+        SongGroupIndex albums = table.getAlbumGroups();
+        assertEquals(4, albums.size());
+        assertEquals(2, albums.getCount(albums.groupOf(20)));
+        assertEquals(180000, albums.getDuration(albums.groupOf(20)));
+    }
+
+    @Test
+    public void changes_keepGroupsInStep() throws Exception {
+        List<Song> songs = createSongs(3000);
+        SongTable table = new SongTable(songs);
+        LibraryChanges changes = new LibraryChanges(0, 16);
+        changes.add(10);
+        changes.add(2000);
+
+        // Song 10 moves to another artist, and song 2000 is removed.
+        List<Song> changed = new ArrayList<>();
+        Song moved = new Song(10, "Moved", "Artist 999", "Album 0", 0, 999, 1000);
+        changed.add(moved);
+        SongTable synced = changes.applyTo(table, changed);
+
+        List<Song> expected = new ArrayList<>(songs);
+        expected.remove(2000);
+        expected.set(10, moved);
+        assertGroupsEqual(new SongTable(expected).getArtistGroups(), synced.getArtistGroups());
+        assertGroupsEqual(new SongTable(expected).getAlbumGroups(), synced.getAlbumGroups());
+        assertEquals(1000, synced.getArtistGroups().getDuration(
+                synced.getArtistGroups().groupOf(999)));
+    }
+
+    @Test
+    public void changes_dropEmptiedGroups() throws Exception {
+        List<Song> songs = createSongs(1000);
+        SongTable table = new SongTable(songs);
+        LibraryChanges changes = new LibraryChanges(0, 16);
+
+        // Every song of artist 0 is removed, along with the first song of artist 1.
+        List<Song> expected = new ArrayList<>();
+        for (Song song : songs) {
+            if (song.getArtistID() == 0 || song.getID() == 1) {
+                changes.add(song.getID());
+            } else {
+                expected.add(song);
+            }
+        }
+        SongTable synced = changes.applyTo(table, new ArrayList<Song>());
+
+        SongGroupIndex artists = synced.getArtistGroups();
+        assertGroupsEqual(new SongTable(expected).getArtistGroups(), artists);
+        assertGroupsEqual(new SongTable(expected).getAlbumGroups(), synced.getAlbumGroups());
+        assertEquals(-1, artists.groupOf(0));
+        for (int row = 0; row < synced.size(); row++) {
+            assertEquals(synced.getArtistId(row), artists.getKey(artists.getGroup(row)));
+        }
+        for (int group = 0; group < artists.size(); group++) {
+            int firstRow = artists.getFirstRow(group);
+            assertEquals(artists.getKey(group), synced.getArtistId(firstRow));
+            for (int row = 0; row < firstRow; row++) {
+                assertNotEquals(group, artists.getGroup(row));
+            }
+        }
+        assertEquals(expected.indexOf(songs.get(251)),
+                artists.getFirstRow(artists.groupOf(1)));
+    }
+
+    @Test
+    public void snapshot_rebuildsGroups() throws Exception {
+        SongTable table = new SongTable(createSongs(2000));
+        new SongSorter(Locale.ENGLISH, mExecutor, 2).sort(table);
+
+        File file = File.createTempFile("library", ".snapshot");
+        try {
+            LibrarySnapshot.write(file, table, 42);
+            SongTable read = LibrarySnapshot.read(file).getTable();
+
+            assertEquals(table, read);
+            assertGroupsEqual(table.getArtistGroups(), read.getArtistGroups());
+            assertGroupsEqual(table.getAlbumGroups(), read.getAlbumGroups());
+        } finally {
+            file.delete();
+        }
+    }
+
+    // Helper method that creates songs of 250 artists, with 4 albums each.
+    private static List<Song> createSongs(int count) {
+        List<Song> songs = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int artist = i % 250;
+            int album = artist * 4 + i % 4;
+            songs.add(new Song(i, "Song " + i, "Artist " + artist, "Album " + album,
+                    album, artist, 60000 + i));
+        }
+        return songs;
+    }
+
+    // Helper method that compares the aggregates of each key, whatever the group indexes are.
+    private static void assertGroupsEqual(SongGroupIndex expected, SongGroupIndex actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int group = 0; group < expected.size(); group++) {
+            long key = expected.getKey(group);
+            int other = actual.groupOf(key);
+            assertEquals(expected.getCount(group), actual.getCount(other));
+            assertEquals(expected.getDuration(group), actual.getDuration(other));
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package dndproductions.musicplayerlite;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link SongListDiff}.
+ */
+public class SongListDiffTest {
+
+    @Test
+    public void sameLists_haveNoUpdates() throws Exception {
+        long[] ids = {5, 3, 9, 1};
+
+        SongListDiff diff = SongListDiff.compute(ids, ids.clone(), null, 10);
+
+        assertFalse(diff.isTooLarge());
+        assertEquals(0, diff.getUpdateCount());
+    }
+
+    @Test
+    public void adjacentUpdates_areMergedIntoRanges() throws Exception {
+        long[] oldIds = {1, 2, 3, 4, 5, 6};
+        long[] newIds = {1, 10, 11, 12, 5, 6};
+
+        SongListDiff diff = SongListDiff.compute(oldIds, newIds, null, 10);
+        List<String> log = new ArrayList<>();
+        diff.dispatchTo(new Recorder(log, null));
+
+        assertEquals("[removed 1+3, inserted 1+3]", log.toString());
+    }
+
+    @Test
+    public void changedSongs_areRebound() throws Exception {
+        long[] oldIds = {1, 2, 3};
+        long[] newIds = {0, 1, 2, 3};
+
+        SongListDiff diff = SongListDiff.compute(oldIds, newIds,
+                new SongListDiff.ContentComparator() {
+                    @Override
+                    public boolean areContentsTheSame(int oldPosition, int newPosition) {
+                        return oldPosition != 1;
+                    }
+                }, 10);
+        List<String> log = new ArrayList<>();
+        diff.dispatchTo(new Recorder(log, null));
+
+        assertEquals("[inserted 0+1, changed 2+1]", log.toString());
+    }
+
+    @Test
+    public void randomEdits_turnOldListIntoNewList() throws Exception {
+        Random random = new Random(3);
+        for (int round = 0; round < 200; round++) {
+            long[] oldIds = randomIds(random, random.nextInt(50));
+            List<Long> edited = toList(oldIds);
+
+            // Removes, inserts and moves a few songs.
+            int edits = random.nextInt(8);
+            for (int i = 0; i < edits && !edited.isEmpty(); i++) {
+                int kind = random.nextInt(3);
+                if (kind == 0) {
+                    edited.remove(random.nextInt(edited.size()));
+                } else if (kind == 1) {
+                    edited.add(random.nextInt(edited.size() + 1), 1000L + round * 10 + i);
+                } else {
+                    Long id = edited.remove(random.nextInt(edited.size()));
+                    edited.add(random.nextInt(edited.size() + 1), id);
+                }
+            }
+            long[] newIds = toArray(edited);
+
+            List<Long> list = toList(oldIds);
+            SongListDiff diff = SongListDiff.compute(oldIds, newIds, null, Integer.MAX_VALUE);
+            diff.dispatchTo(new Recorder(new ArrayList<String>(), list));
+
+            // The songs that weren't inserted are already in place.
+            assertEquals(edited.size(), list.size());
+            for (int j = 0; j < list.size(); j++) {
+                if (list.get(j) != -1) assertEquals(edited.get(j), list.get(j));
+            }
+            assertTrue(diff.getUpdateCount() <= 2 * edits);
+        }
+    }
+
+    @Test
+    public void reorderedList_isTooLarge() throws Exception {
+        long[] oldIds = randomIds(new Random(1), 10000);
+        List<Long> shuffled = toList(oldIds);
+        Collections.shuffle(shuffled, new Random(2));
+
+        SongListDiff diff = SongListDiff.compute(oldIds, toArray(shuffled), null, 100);
+
+        assertTrue(diff.isTooLarge());
+    }
+
+    // Helper method that creates unique IDs in random order.
+    private static long[] randomIds(Random random, int count) {
+        List<Long> ids = new ArrayList<>();
+        for (long id = 0; id < count; id++) {
+            ids.add(id);
+        }
+        Collections.shuffle(ids, random);
+
+        return toArray(ids);
+    }
+
+    private static List<Long> toList(long[] ids) {
+        List<Long> list = new ArrayList<>();
+        for (long id : ids) {
+            list.add(id);
+        }
+
+        return list;
+    }
+
+    private static long[] toArray(List<Long> list) {
+        long[] ids = new long[list.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = list.get(i);
+        }
+
+        return ids;
+    }
+
+    // Callback that logs the updates, and applies them to a list of the IDs if there's one,
+    // where the inserted songs are -1.
+    private static final class Recorder implements SongListDiff.Callback {
+        private final List<String> mLog;
+        private final List<Long> mList;
+
+        Recorder(List<String> log, List<Long> list) {
+            mLog = log;
+            mList = list;
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            mLog.add("removed " + position + "+" + count);
+            if (mList != null) mList.subList(position, position + count).clear();
+        }
+
+        @Override
+        public void onInserted(int position, int count) {
+            mLog.add("inserted " + position + "+" + count);
+            if (mList != null) mList.addAll(position, Collections.nCopies(count, -1L));
+        }
+
+        @Override
+        public void onChanged(int position, int count) {
+            mLog.add("changed " + position + "+" + count);
+        }
+    }
+}
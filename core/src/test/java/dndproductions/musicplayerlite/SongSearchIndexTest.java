@@ -0,0 +1,82 @@
+package dndproductions.musicplayerlite;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link SongSearchIndex}.
+ */
+public class SongSearchIndexTest {
+
+    @Test
+    public void search_matchesTitleAndArtist() throws Exception {
+        SongTable table = new SongTable();
+        table.add(new Song(1, "Éclair de lune", "Debussy"));
+        table.add(new Song(2, "Clair", "Someone"));
+        table.add(new Song(3, "Other", "Claire"));
+        SongSearchIndex index = new SongSearchIndex(table);
+
+        assertEquals(3, index.search("CLAIR"));
+        assertEquals(1, index.search("eclair"));
+        assertEquals(0, index.getResults()[0]);
+        assertEquals(1, index.search("debu"));
+        assertEquals(0, index.search("xyz"));
+
+        // A match can't span the title and the artist.
+        assertEquals(0, index.search("lunedeb"));
+    }
+
+    @Test
+    public void search_followsOrder() throws Exception {
+        SongTable table = new SongTable();
+        table.add(new Song(1, "b song", "Artist"));
+        table.add(new Song(2, "a song", "Artist"));
+        table.add(new Song(3, "c tune", "Artist"));
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        new SongSorter(Locale.ENGLISH, executor, 1).sort(table);
+        executor.shutdown();
+
+        SongSearchIndex index = new SongSearchIndex(table);
+        index.setOrder(SongOrder.TITLE);
+
+        assertEquals(2, index.search("song"));
+        assertArrayEquals(new int[]{1, 0}, Arrays.copyOf(index.getResults(), 2));
+    }
+
+    @Test
+    public void refinedSearch_matchesFreshSearch() throws Exception {
+        SongSearchIndex index = new SongSearchIndex(createTable(20000));
+        SongSearchIndex fresh = new SongSearchIndex(createTable(20000));
+
+        String query = "track 1a";
+        for (int i = 1; i <= query.length(); i++) {
+            String prefix = query.substring(0, i);
+            int count = index.search(prefix);
+
+            // Typing in a fresh index every time starts over from the posting lists.
+            fresh.setOrder(SongOrder.TITLE);
+            assertEquals(prefix, fresh.search(prefix), count);
+            assertArrayEquals(prefix, Arrays.copyOf(fresh.getResults(), count),
+                    Arrays.copyOf(index.getResults(), count));
+        }
+    }
+
+    // Helper method that creates a table of songs with random titles.
+    private static SongTable createTable(int rows) {
+        Random random = new Random(rows);
+        SongTable table = new SongTable();
+        for (int i = 0; i < rows; i++) {
+            table.add(new Song(i, "Track " + Integer.toString(random.nextInt(), 36),
+                    "Artist " + random.nextInt(500)));
+        }
+
+        return table;
+    }
+}
@@ -0,0 +1,317 @@
+package dndproductions.musicplayerlite;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link SongShuffler}.
+ */
+public class SongShufflerTest {
+
+    @Test
+    public void cycle_playsEverySongOnce() throws Exception {
+        SongShuffler shuffler = new SongShuffler(1000, new Random(1));
+
+        for (int cycle = 0; cycle < 3; cycle++) {
+            boolean[] played = new boolean[1000];
+            for (int i = 0; i < 1000; i++) {
+                int row = shuffler.next();
+                assertFalse("Row " + row + " repeated within a cycle", played[row]);
+                played[row] = true;
+            }
+        }
+    }
+
+    @Test
+    public void newCycle_doesNotRepeatLastSong() throws Exception {
+        SongShuffler shuffler = new SongShuffler(2, new Random(2));
+
+        int last = shuffler.next();
+        for (int i = 0; i < 1000; i++) {
+            int row = shuffler.next();
+            assertNotEquals(last, row);
+            last = row;
+        }
+    }
+
+    @Test
+    public void singleSong_repeatsWithoutLooping() throws Exception {
+        SongShuffler shuffler = new SongShuffler(1, new Random(3));
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(0, shuffler.next());
+        }
+    }
+
+    @Test
+    public void restore_replaysHistory() throws Exception {
+        SongShuffler shuffler = new SongShuffler(100, new Random(4));
+        for (int i = 0; i < 10; i++) {
+            shuffler.next();
+        }
+        shuffler.previous();
+        int[] history = shuffler.getHistory();
+        int index = shuffler.getHistoryIndex();
+
+        SongShuffler restored = new SongShuffler(100, new Random(5));
+        restored.restore(history, index);
+
+        assertEquals(shuffler.current(), restored.current());
+        assertEquals(history[index + 1], restored.next());
+        assertEquals(history[index], restored.previous());
+
+        // The rest of the cycle still plays every song once.
+        boolean[] played = new boolean[100];
+        for (int row : history) {
+            played[row] = true;
+        }
+        restored.next();
+        for (int i = history.length; i < 100; i++) {
+            int row = restored.next();
+            assertFalse("Row " + row + " repeated within a cycle", played[row]);
+            played[row] = true;
+        }
+    }
+
+    @Test
+    public void peekAhead_isPlayedInThatOrder() throws Exception {
+        SongShuffler shuffler = new SongShuffler(20, new Random(7));
+        for (int i = 0; i < 15; i++) {
+            shuffler.next();
+        }
+
+        // Only the rest of the cycle is drawn ahead.
+        int[] ahead = shuffler.peekAhead(8);
+        assertEquals(5, ahead.length);
+        for (int row : ahead) {
+            assertEquals(row, shuffler.next());
+        }
+
+        // A new cycle starts with the first row ahead.
+        ahead = shuffler.peekAhead(3);
+        assertEquals(3, ahead.length);
+        assertEquals(ahead[0], shuffler.peekNext());
+        for (int row : ahead) {
+            assertEquals(row, shuffler.next());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void restore_rejectsRepeatedRow() throws Exception {
+        new SongShuffler(10, new Random(6)).restore(new int[]{3, 5, 3}, 0);
+    }
+
+    @Test
+    public void emptyTable_hasNoNextSong() throws Exception {
+        SongShuffler shuffler = new SongShuffler(0, new Random(4));
+
+        assertEquals(-1, shuffler.next());
+        assertEquals(-1, shuffler.previous());
+        assertEquals(-1, shuffler.current());
+    }
+
+    @Test
+    public void previous_walksBackThroughHistory() throws Exception {
+        SongShuffler shuffler = new SongShuffler(100, new Random(5));
+        int first = shuffler.next();
+        int second = shuffler.next();
+        int third = shuffler.next();
+
+        assertEquals(second, shuffler.previous());
+        assertEquals(first, shuffler.previous());
+        assertEquals(-1, shuffler.previous());
+
+        // Going forward again replays the same songs.
+        assertEquals(second, shuffler.next());
+        assertEquals(third, shuffler.next());
+    }
+
+    @Test
+    public void peekNext_doesNotMove() throws Exception {
+        SongShuffler shuffler = new SongShuffler(100, new Random(6));
+        int current = shuffler.next();
+        int upcoming = shuffler.peekNext();
+
+        assertEquals(current, shuffler.current());
+        assertEquals(upcoming, shuffler.peekNext());
+        assertEquals(upcoming, shuffler.next());
+    }
+
+    @Test
+    public void jumpTo_playsPickedSongAndKeepsHistory() throws Exception {
+        SongShuffler shuffler = new SongShuffler(100, new Random(7));
+        int first = shuffler.next();
+        int picked = (first + 1) % 100;
+
+        shuffler.jumpTo(picked);
+        assertEquals(picked, shuffler.current());
+        assertEquals(first, shuffler.previous());
+
+        // The picked song isn't played again within the cycle.
+        shuffler.next();
+        for (int i = 2; i < 100; i++) {
+            int row = shuffler.next();
+            assertNotEquals(first, row);
+            assertNotEquals(picked, row);
+        }
+    }
+
+    @Test
+    public void add_includesNewSongInCycle() throws Exception {
+        SongShuffler shuffler = new SongShuffler(10, new Random(8));
+        for (int i = 0; i < 5; i++) {
+            shuffler.next();
+        }
+        shuffler.add();
+
+        boolean[] played = new boolean[11];
+        for (int i = 0; i < 6; i++) {
+            played[shuffler.next()] = true;
+        }
+        assertTrue(played[10]);
+    }
+
+    @Test
+    public void remap_keepsHistoryOfRemainingSongs() throws Exception {
+        SongShuffler shuffler = new SongShuffler(10, new Random(9));
+        int first = shuffler.next();
+        int second = shuffler.next();
+        int third = shuffler.next();
+
+        // Removes the second song, and moves every other song up by one row.
+        int[] mapping = new int[10];
+        for (int row = 0; row < 10; row++) {
+            mapping[row] = row == second ? -1 : row + 1;
+        }
+        shuffler.remap(mapping, 11);
+
+        assertEquals(third + 1, shuffler.current());
+        assertEquals(first + 1, shuffler.previous());
+        assertEquals(-1, shuffler.previous());
+
+        // The rest of the cycle is everything that wasn't played, including the new row 0.
+        shuffler.next();
+        boolean[] played = new boolean[11];
+        for (int i = 0; i < 9; i++) {
+            int row = shuffler.next();
+            assertFalse(played[row]);
+            assertNotEquals(first + 1, row);
+            assertNotEquals(third + 1, row);
+            played[row] = true;
+        }
+    }
+
+    @Test
+    public void setNext_playsQueuedSongNext() throws Exception {
+        SongShuffler shuffler = new SongShuffler(100, new Random(12));
+        int first = shuffler.next();
+
+        // Queues a new song in the middle, which shifts the rows after it.
+        shuffler.insert(50, 1);
+        shuffler.setNext(50);
+
+        assertEquals(50, shuffler.next());
+        assertEquals(first < 50 ? first : first + 1, shuffler.previous());
+    }
+
+    @Test
+    public void remove_keepsRemainingCycle() throws Exception {
+        SongShuffler shuffler = new SongShuffler(10, new Random(13));
+        int first = shuffler.next();
+        int second = shuffler.next();
+
+        // Removes the current song, so the previous one becomes current.
+        shuffler.remove(second);
+        int current = first < second ? first : first - 1;
+        assertEquals(current, shuffler.current());
+
+        boolean[] played = new boolean[9];
+        played[current] = true;
+        for (int i = 0; i < 8; i++) {
+            int row = shuffler.next();
+            assertFalse(played[row]);
+            played[row] = true;
+        }
+    }
+
+    @Test
+    public void move_keepsHistory() throws Exception {
+        SongShuffler shuffler = new SongShuffler(10, new Random(14));
+        int first = shuffler.next();
+        int other = (first + 5) % 10;
+
+        shuffler.move(first, other);
+
+        assertEquals(other, shuffler.current());
+    }
+
+    @Test
+    public void permutations_areUniform() throws Exception {
+        Random random = new Random(10);
+        int[] counts = new int[24];
+        int samples = 240000;
+
+        // Counts how often each of the 24 orders of 4 songs comes up as the first cycle.
+        for (int i = 0; i < samples; i++) {
+            SongShuffler shuffler = new SongShuffler(4, random);
+            int code = 0;
+            boolean[] used = new boolean[4];
+            for (int k = 0; k < 4; k++) {
+                int row = shuffler.next();
+                int rank = 0;
+                for (int j = 0; j < row; j++) {
+                    if (!used[j]) rank++;
+                }
+                used[row] = true;
+                code = code * (4 - k) + rank;
+            }
+            counts[code]++;
+        }
+
+        // Chi-squared with 23 degrees of freedom, where 49.7 is the 0.999 quantile.
+        double expected = samples / 24.0;
+        double chiSquared = 0;
+        for (int count : counts) {
+            chiSquared += (count - expected) * (count - expected) / expected;
+        }
+        assertTrue("Chi-squared " + chiSquared, chiSquared < 49.7);
+    }
+
+    @Test
+    public void next_drawsOneRandomNumberPerSong() throws Exception {
+        CountingRandom random = new CountingRandom();
+        int size = 1000000;
+        SongShuffler shuffler = new SongShuffler(size, random);
+
+        // Every new song takes exactly one draw, including the first one of a new cycle.
+        for (int i = 0; i < size * 2; i++) {
+            int before = random.mCalls;
+            shuffler.next();
+            assertEquals(before + 1, random.mCalls);
+        }
+
+        // Replaying the history doesn't draw at all.
+        shuffler.previous();
+        int before = random.mCalls;
+        shuffler.next();
+        assertEquals(before, random.mCalls);
+    }
+
+    // Random that counts its bounded draws.
+    private static class CountingRandom extends Random {
+        int mCalls;
+
+        CountingRandom() {
+            super(11);
+        }
+
+        @Override
+        public int nextInt(int bound) {
+            mCalls++;
+            return super.nextInt(bound);
+        }
+    }
+}
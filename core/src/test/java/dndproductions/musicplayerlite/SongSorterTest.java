@@ -0,0 +1,126 @@
+package dndproductions.musicplayerlite;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link SongSorter} and for persisting its results via
+ * {@link LibrarySnapshot}.
+ */
+public class SongSorterTest {
+
+    private final ExecutorService mExecutor = Executors.newFixedThreadPool(4);
+
+    @After
+    public void tearDown() throws Exception {
+        mExecutor.shutdown();
+    }
+
+    @Test
+    public void titleOrder_isLocaleAware() throws Exception {
+        SongTable table = new SongTable();
+        table.add(new Song(1, "zebra", "B"));
+        table.add(new Song(2, "Éclair", "A"));
+        table.add(new Song(3, "apple", "C"));
+        table.add(new Song(4, "Banana", "A"));
+
+        new SongSorter(Locale.ENGLISH, mExecutor, 4).sort(table);
+
+        assertEquals("apple", table.getTitle(table.rowAt(SongOrder.TITLE, 0)));
+        assertEquals("Banana", table.getTitle(table.rowAt(SongOrder.TITLE, 1)));
+        assertEquals("Éclair", table.getTitle(table.rowAt(SongOrder.TITLE, 2)));
+        assertEquals("zebra", table.getTitle(table.rowAt(SongOrder.TITLE, 3)));
+    }
+
+    @Test
+    public void artistOrder_fallsBackToTitle() throws Exception {
+        SongTable table = new SongTable();
+        table.add(new Song(1, "Second", "Artist", "Album"));
+        table.add(new Song(2, "First", "Artist", "Album"));
+        table.add(new Song(3, "Any", "Another", "Album"));
+
+        new SongSorter(Locale.ENGLISH, mExecutor, 4).sort(table);
+
+        assertArrayEquals(new int[]{2, 1, 0}, table.getOrder(SongOrder.ARTIST));
+        assertArrayEquals(new int[]{2, 1, 0}, table.getOrder(SongOrder.ALBUM));
+    }
+
+    @Test
+    public void parallelSort_matchesSequentialSort() throws Exception {
+        SongTable parallel = createTable(50000);
+        SongTable sequential = createTable(50000);
+
+        new SongSorter(Locale.ENGLISH, mExecutor, 4).sort(parallel);
+        new SongSorter(Locale.ENGLISH, mExecutor, 1).sort(sequential);
+
+        for (SongOrder order : SongOrder.values()) {
+            assertArrayEquals(order.name(), sequential.getOrder(order), parallel.getOrder(order));
+            assertSorted(parallel, order);
+        }
+    }
+
+    @Test
+    public void snapshot_keepsKeysAndOrders() throws Exception {
+        SongTable table = createTable(2000);
+        new SongSorter(Locale.ENGLISH, mExecutor, 4).sort(table);
+
+        File file = File.createTempFile("library", ".snapshot");
+        try {
+            LibrarySnapshot.write(file, table, 42);
+            LibrarySnapshot snapshot = LibrarySnapshot.read(file);
+            SongTable read = snapshot.getTable();
+
+            assertEquals(42, snapshot.getWatermark());
+            assertEquals(table, read);
+            assertEquals(Locale.ENGLISH.toString(), read.getKeyLocale());
+            for (SongOrder order : SongOrder.values()) {
+                assertArrayEquals(table.getOrder(order), read.getOrder(order));
+            }
+            assertArrayEquals(table.getTitleKey(7), read.getTitleKey(7));
+        } finally {
+            file.delete();
+        }
+    }
+
+    // Helper method that checks that the order's permutation is sorted by its keys.
+    private static void assertSorted(SongTable table, SongOrder order) {
+        int[] rows = table.getOrder(order);
+        for (int i = 1; i < rows.length; i++) {
+            byte[] previous = keyOf(table, order, rows[i - 1]);
+            byte[] current = keyOf(table, order, rows[i]);
+            assertTrue(SongSorter.compareKeys(previous, current) <= 0);
+        }
+    }
+
+    private static byte[] keyOf(SongTable table, SongOrder order, int row) {
+        switch (order) {
+            case ARTIST:
+                return table.getArtistKey(table.getArtistRef(row));
+            case ALBUM:
+                return table.getAlbumKey(table.getAlbumRef(row));
+            default:
+                return table.getTitleKey(row);
+        }
+    }
+
+    // Helper method that creates a table of songs with random titles.
+    private static SongTable createTable(int rows) {
+        Random random = new Random(rows);
+        SongTable table = new SongTable();
+        for (int i = 0; i < rows; i++) {
+            int album = random.nextInt(2000);
+            table.add(new Song(i, "Track " + Integer.toString(random.nextInt(), 36),
+                    "Artist " + random.nextInt(500), "Album " + album, album));
+        }
+
+        return table;
+    }
+}
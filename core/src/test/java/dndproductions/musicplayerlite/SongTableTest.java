@@ -0,0 +1,169 @@
+package dndproductions.musicplayerlite;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link SongTable}, including its heap footprint against the
+ * {@code List<Song>} it replaces, as estimated by {@link HeapEstimate}.
+ */
+public class SongTableTest {
+
+    // Amount of songs per artist in the synthetic libraries.
+    private static final int SONGS_PER_ARTIST = 12;
+
+    @Test
+    public void rows_matchAddedSongs() throws Exception {
+        List<Song> songs = new ArrayList<>();
+        songs.add(new Song(3, "Intro", "Artist A"));
+        songs.add(new Song(1, "Étude", "Artist B"));
+        songs.add(new Song(7, null, null));
+        songs.add(new Song(2, "Outro", "Artist A"));
+
+        SongTable table = new SongTable(songs);
+
+        assertEquals(4, table.size());
+        assertEquals(new Song(1, "Étude", "Artist B"), table.get(1));
+        assertEquals(7, table.getId(2));
+        assertEquals("", table.getTitle(2));
+        assertNull(table.getArtist(2));
+        assertEquals("Outro", new String(table.getTitleChars(), table.getTitleStart(3),
+                table.getTitleLength(3)));
+
+        SongTable.Row row = table.newRow().moveTo(0);
+        assertEquals(3, row.getID());
+        assertEquals("Intro", row.getTitle());
+    }
+
+    @Test
+    public void artists_arePooled() throws Exception {
+        SongTable table = new SongTable();
+        table.add(new Song(1, "One", new String("Artist")));
+        table.add(new Song(2, "Two", new String("Artist")));
+
+        assertEquals(1, table.getArtistCount());
+        assertSame(table.getArtist(0), table.getArtist(1));
+    }
+
+    @Test
+    public void albumIds_followRows() throws Exception {
+        SongTable table = new SongTable();
+        table.add(new Song(1, "One", "Artist", "Album", 40));
+        table.add(new Song(2, "Two", "Artist", null));
+        SongTable copy = new SongTable();
+        copy.addRow(table, 1);
+        copy.addRow(table, 0);
+
+        assertEquals(40, table.getAlbumId(0));
+        assertEquals(-1, table.getAlbumId(1));
+        assertEquals(40, copy.getAlbumId(1));
+        assertEquals(40, copy.newRow().moveTo(1).getAlbumID());
+        assertEquals(new Song(1, "One", "Artist", "Album", 40), copy.get(1));
+    }
+
+    @Test
+    public void clear_resetsTable() throws Exception {
+        SongTable table = new SongTable(createSongs(1000));
+        table.clear();
+        table.add(new Song(5, "Five", "Artist"));
+
+        assertEquals(1, table.size());
+        assertEquals(new Song(5, "Five", "Artist"), table.get(0));
+        assertEquals(1, table.getArtistCount());
+    }
+
+    @Test
+    public void mapRows_findsSameSongs() throws Exception {
+        SongTable from = new SongTable();
+        from.add(new Song(10, "A", "X"));
+        from.add(new Song(20, "B", "X"));
+        from.add(new Song(30, "C", "X"));
+
+        SongTable to = new SongTable();
+        to.add(new Song(40, "D", "X"));
+        to.add(new Song(30, "C", "X"));
+        to.add(new Song(10, "A", "X"));
+
+        assertArrayEquals(new int[]{2, -1, 1}, from.mapRows(to));
+    }
+
+    @Test
+    public void lookups_followOrdersAndAppends() throws Exception {
+        SongTable table = new SongTable();
+        table.add(new Song(30, "C", "X"));
+        table.add(new Song(10, "A", "X"));
+        table.add(new Song(20, "B", "X"));
+        table.setOrder(SongOrder.TITLE, new int[]{1, 2, 0});
+
+        assertEquals(1, table.indexOfId(10));
+        assertEquals(-1, table.indexOfId(40));
+        assertEquals(0, table.positionOf(SongOrder.TITLE, 1));
+        assertEquals(2, table.positionOf(SongOrder.TITLE, 0));
+        assertEquals(-1, table.positionOf(SongOrder.TITLE, 5));
+
+        // Another permutation, or an appended row, replaces the indexes built so far.
+        table.setOrder(SongOrder.TITLE, new int[]{0, 1, 2});
+        assertEquals(1, table.positionOf(SongOrder.TITLE, 1));
+        table.add(new Song(5, "D", "X"));
+        assertEquals(3, table.indexOfId(5));
+        assertEquals(3, table.positionOf(SongOrder.TITLE, 3));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void get_outOfBounds_throws() throws Exception {
+        new SongTable().getId(0);
+    }
+
+    @Test
+    public void artists_arePooledAcrossLibrary() throws Exception {
+        SongTable table = new SongTable(createSongs(1200));
+
+        // Each row's artist is a new string, but the table keeps one per artist.
+        assertEquals(1200, table.size());
+        assertEquals(1200 / SONGS_PER_ARTIST, table.getArtistCount());
+        assertSame(table.getArtist(0), table.getArtist(SONGS_PER_ARTIST - 1));
+        assertNotSame(table.getArtist(0), table.getArtist(SONGS_PER_ARTIST));
+    }
+
+    @Test
+    public void footprint_isSmallerThanSongList() throws Exception {
+        for (int rows : new int[]{10000, 100000, 500000}) {
+            List<Song> songs = createSongs(rows);
+            SongTable table = new SongTable(songs);
+
+            long tableSize = table.estimateRetainedSize();
+            long listSize = estimateRetainedSize(songs);
+            assertTrue(rows + " rows: " + tableSize + " >= " + listSize, tableSize < listSize);
+        }
+    }
+
+    // Helper method that estimates the heap retained by an ArrayList of songs, with the
+    // strings of each song.
+    private static long estimateRetainedSize(List<Song> songs) {
+        long size = HeapEstimate.object(HeapEstimate.REFERENCE + 2 * 4)
+                + HeapEstimate.array(songs.size(), HeapEstimate.REFERENCE);
+        for (Song song : songs) {
+            size += HeapEstimate.object(5 * 8 + 3 * HeapEstimate.REFERENCE)
+                    + HeapEstimate.string(song.getTitle())
+                    + HeapEstimate.string(song.getArtist())
+                    + HeapEstimate.string(song.getAlbum());
+        }
+
+        return size;
+    }
+
+    // Helper method that creates songs the way the scan does, with a new artist string per row.
+    private static List<Song> createSongs(int rows) {
+        List<Song> songs = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            songs.add(new Song(i, "Track " + i + " of the synthetic library",
+                    new StringBuilder("Artist ").append(i / SONGS_PER_ARTIST).toString()));
+        }
+
+        return songs;
+    }
+}
@@ -0,0 +1,30 @@
+package dndproductions.musicplayerlite;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link Song}.
+ */
+public class SongTest {
+
+    @Test
+    public void equalSongs_haveEqualHashCodes() {
+        Song song = new Song(7, "Title", "Artist", null, 3);
+        Song same = new Song(7, "Title", "Artist", null, 3);
+        Song other = new Song(7, "Title", "Other", null, 3);
+
+        assertEquals(song, same);
+        assertEquals(song.hashCode(), same.hashCode());
+        assertNotEquals(song, other);
+
+        Set<Song> songs = new HashSet<>();
+        songs.add(song);
+        assertTrue(songs.contains(same));
+        assertFalse(songs.contains(other));
+    }
+}
@@ -0,0 +1,249 @@
+package dndproductions.musicplayerlite;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link TagParser}, on tags built in memory.
+ */
+public class TagParserTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Charset UTF_16 = Charset.forName("UTF-16");
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    @Test
+    public void id3v23_readsFramesAndSkipsPictures() throws Exception {
+        byte[] tag = id3(3, 0,
+                frame(3, "TIT2", text(1, "Ça plane pour moi")),
+                frame(3, "APIC", new byte[4096]),
+                frame(3, "TPE1", text(0, "Plastic Bertrand")),
+                frame(3, "TRCK", text(0, "3/12")),
+                frame(3, "TBPM", text(3, "128")),
+                frame(3, "TXXX", concat(new byte[]{0}, bytes("replaygain_track_gain", ISO_8859_1),
+                        new byte[]{0}, bytes("-7.25 dB", ISO_8859_1))),
+                frame(3, "USLT", concat(new byte[]{3}, bytes("eng", ISO_8859_1), new byte[]{0},
+                        bytes("Wam bam", UTF_8))));
+
+        TrackTags tags = TagParser.parse(withAudio(tag), false);
+
+        assertEquals("Ça plane pour moi", tags.getTitle());
+        assertEquals("Plastic Bertrand", tags.getArtist());
+        assertNull(tags.getAlbum());
+        assertEquals(3, tags.getTrackNumber());
+        assertEquals(128, tags.getBpm());
+        assertEquals(-7.25f, tags.getTrackGain(), 0);
+        assertTrue(Float.isNaN(tags.getAlbumGain()));
+        assertTrue(tags.hasLyrics());
+        assertNull(tags.getLyrics());
+        assertEquals(tag.length, tags.getTagSize());
+
+        assertEquals("Wam bam", TagParser.parse(withAudio(tag), true).getLyrics());
+    }
+
+    @Test
+    public void id3v24_readsSyncsafeAndUnsynchronisedFrames() throws Exception {
+        byte[] title = new byte[200];
+        Arrays.fill(title, (byte) 'a');
+        byte[] unsynchronised = concat(new byte[]{0}, bytes("Caf", ISO_8859_1),
+                new byte[]{(byte) 0xFF, 0}, bytes("!", ISO_8859_1));
+
+        byte[] tag = id3(4, 0,
+                frame(4, "TIT2", concat(new byte[]{3}, title)),
+                frame(4, "TALB", unsynchronised, 0x02),
+                frame(4, "TPE1", concat(new byte[]{3}, bytes("One", UTF_8), new byte[]{0},
+                        bytes("Two", UTF_8))));
+
+        TrackTags tags = TagParser.parse(withAudio(tag), false);
+
+        assertEquals(new String(title, ISO_8859_1), tags.getTitle());
+        assertEquals("Cafÿ!", tags.getAlbum());
+        assertEquals("One", tags.getArtist());
+    }
+
+    @Test
+    public void id3v22_readsShortFrames() throws Exception {
+        ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        byte[] content = text(0, "Old Song");
+        frames.write(bytes("TT2", ISO_8859_1));
+        frames.write(new byte[]{0, 0, (byte) content.length});
+        frames.write(content);
+
+        TrackTags tags = TagParser.parse(withAudio(id3(2, 0, frames.toByteArray())), false);
+
+        assertEquals("Old Song", tags.getTitle());
+    }
+
+    @Test
+    public void flac_readsVorbisComments() throws Exception {
+        byte[] comments = vorbisComments("TITLE=Clair de lune", "artist=Debussy",
+                "TRACKNUMBER=9", "REPLAYGAIN_ALBUM_GAIN=+1.5 dB", "UNSYNCEDLYRICS=None");
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        file.write(bytes("fLaC", ISO_8859_1));
+        file.write(flacBlock(0, false, new byte[34]));
+        file.write(flacBlock(6, false, new byte[8192]));
+        file.write(flacBlock(4, true, comments));
+        int tagSize = file.size();
+        file.write(new byte[1000]);
+
+        TrackTags tags = TagParser.parse(ByteBuffer.wrap(file.toByteArray()), true);
+
+        assertEquals("Clair de lune", tags.getTitle());
+        assertEquals("Debussy", tags.getArtist());
+        assertEquals(9, tags.getTrackNumber());
+        assertEquals(1.5f, tags.getAlbumGain(), 0);
+        assertEquals("None", tags.getLyrics());
+        assertEquals(tagSize, tags.getTagSize());
+    }
+
+    @Test
+    public void ogg_readsCommentPacketAcrossPages() throws Exception {
+        byte[] identification = concat(new byte[]{1}, bytes("vorbis", ISO_8859_1), new byte[23]);
+        char[] longTitle = new char[600];
+        Arrays.fill(longTitle, 'x');
+        byte[] comments = concat(new byte[]{3}, bytes("vorbis", ISO_8859_1),
+                vorbisComments("TITLE=" + new String(longTitle), "ALBUM=Ogg"));
+
+        // The comment packet is split so that it continues on the next page.
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        file.write(oggPage(identification));
+        file.write(oggPage(Arrays.copyOf(comments, 510), 255, 255));
+        file.write(oggPage(Arrays.copyOfRange(comments, 510, comments.length)));
+
+        TrackTags tags = TagParser.parse(ByteBuffer.wrap(file.toByteArray()), false);
+
+        assertEquals(new String(longTitle), tags.getTitle());
+        assertEquals("Ogg", tags.getAlbum());
+    }
+
+    @Test
+    public void truncatedTag_keepsValuesReadSoFar() throws Exception {
+
+        // Cuts the tag within the last frame, before its 64 bytes of padding.
+        byte[] tag = id3(3, 0, frame(3, "TIT2", text(0, "Kept")),
+                frame(3, "TPE1", text(0, "Cut off")));
+
+        TrackTags tags = TagParser.parse(ByteBuffer.wrap(Arrays.copyOf(tag, tag.length - 68)),
+                false);
+
+        assertEquals("Kept", tags.getTitle());
+        assertNull(tags.getArtist());
+        assertNull(TagParser.parse(ByteBuffer.wrap(new byte[64]), false));
+    }
+
+    @Test
+    public void values_areParsed() throws Exception {
+        assertEquals(7, TagParser.parseNumber(" 07/10"));
+        assertEquals(120, TagParser.parseNumber("120.5"));
+        assertEquals(TrackTags.NONE, TagParser.parseNumber("n/a"));
+        assertEquals(-3.1f, TagParser.parseGain("-3.10 DB"), 0);
+        assertTrue(Float.isNaN(TagParser.parseGain("loud")));
+    }
+
+    // Helper methods that build the tags.
+    static byte[] id3(int version, int flags, byte[]... frames) throws Exception {
+        byte[] content = concat(frames);
+        int padding = 64;
+        int size = content.length + padding;
+
+        ByteArrayOutputStream tag = new ByteArrayOutputStream();
+        tag.write(bytes("ID3", ISO_8859_1));
+        tag.write(new byte[]{(byte) version, 0, (byte) flags});
+        tag.write(syncsafe(size));
+        tag.write(content);
+        tag.write(new byte[padding]);
+        return tag.toByteArray();
+    }
+
+    static byte[] frame(int version, String id, byte[] content) throws Exception {
+        return frame(version, id, content, 0);
+    }
+
+    static byte[] frame(int version, String id, byte[] content, int formatFlags)
+            throws Exception {
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        frame.write(bytes(id, ISO_8859_1));
+        frame.write(version == 4 ? syncsafe(content.length)
+                : ByteBuffer.allocate(4).putInt(content.length).array());
+        frame.write(new byte[]{0, (byte) formatFlags});
+        frame.write(content);
+        return frame.toByteArray();
+    }
+
+    static byte[] text(int encoding, String value) throws Exception {
+        Charset charset = encoding == 0 ? ISO_8859_1 : encoding == 1 ? UTF_16 : UTF_8;
+        return concat(new byte[]{(byte) encoding}, bytes(value, charset));
+    }
+
+    private static byte[] vorbisComments(String... comments) throws Exception {
+        ByteArrayOutputStream packet = new ByteArrayOutputStream();
+        byte[] vendor = bytes("test", UTF_8);
+        packet.write(intLE(vendor.length));
+        packet.write(vendor);
+        packet.write(intLE(comments.length));
+        for (String comment : comments) {
+            byte[] bytes = bytes(comment, UTF_8);
+            packet.write(intLE(bytes.length));
+            packet.write(bytes);
+        }
+        return packet.toByteArray();
+    }
+
+    private static byte[] flacBlock(int type, boolean last, byte[] content) {
+        byte[] header = {(byte) (type | (last ? 0x80 : 0)), (byte) (content.length >> 16),
+                (byte) (content.length >> 8), (byte) content.length};
+        return concat(header, content);
+    }
+
+    // Builds a page holding one packet, or the given lacing values if any.
+    private static byte[] oggPage(byte[] data, int... lacing) throws Exception {
+        if (lacing.length == 0) {
+            int segments = data.length / 255 + 1;
+            lacing = new int[segments];
+            Arrays.fill(lacing, 255);
+            lacing[segments - 1] = data.length % 255;
+        }
+
+        ByteArrayOutputStream page = new ByteArrayOutputStream();
+        page.write(bytes("OggS", ISO_8859_1));
+        page.write(new byte[22]);
+        page.write(lacing.length);
+        for (int value : lacing) {
+            page.write(value);
+        }
+        page.write(data);
+        return page.toByteArray();
+    }
+
+    private static ByteBuffer withAudio(byte[] tag) {
+        return ByteBuffer.wrap(concat(tag, new byte[]{(byte) 0xFF, (byte) 0xFB, 0, 0}));
+    }
+
+    private static byte[] syncsafe(int value) {
+        return new byte[]{(byte) (value >> 21 & 0x7F), (byte) (value >> 14 & 0x7F),
+                (byte) (value >> 7 & 0x7F), (byte) (value & 0x7F)};
+    }
+
+    private static byte[] intLE(int value) {
+        return new byte[]{(byte) value, (byte) (value >> 8), (byte) (value >> 16),
+                (byte) (value >> 24)};
+    }
+
+    private static byte[] bytes(String value, Charset charset) {
+        return value.getBytes(charset);
+    }
+
+    static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part, 0, part.length);
+        }
+        return out.toByteArray();
+    }
+}
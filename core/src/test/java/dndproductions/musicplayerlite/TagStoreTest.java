@@ -0,0 +1,32 @@
+package dndproductions.musicplayerlite;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link TagStore}.
+ */
+public class TagStoreTest {
+
+    @Test
+    public void tags_applyWhileFileIsUnmodified() throws Exception {
+        TagStore store = new TagStore();
+        TrackTags tags = new TrackTags();
+        store.put(7, 1500000000, tags);
+
+        assertTrue(store.contains(7, 1500000000));
+        assertSame(tags, store.get(7, 1500000000));
+
+        // Once the file is modified, its tags are read again.
+        assertFalse(store.contains(7, 1500000001));
+        assertNull(store.get(7, 1500000001));
+        TrackTags reread = new TrackTags();
+        store.put(7, 1500000001, reread);
+        assertSame(reread, store.get(7, 1500000001));
+        assertEquals(1, store.size());
+
+        store.remove(7);
+        assertFalse(store.contains(7, 1500000001));
+    }
+}
@@ -0,0 +1,151 @@
+package dndproductions.musicplayerlite;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link Waveform}, {@link WaveformBuilder} and {@link WaveformCache}.
+ */
+public class WaveformTest {
+
+    private static final int SAMPLE_RATE = 8000;
+
+    private File mDirectory;
+
+    @Before
+    public void setUp() throws Exception {
+        mDirectory = File.createTempFile("waveforms", "");
+        mDirectory.delete();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    @Test
+    public void builder_mergesChannelsIntoLevels() {
+
+        // 10.05 seconds whose left channel gets louder every second, with a click on the right.
+        WaveformBuilder builder = new WaveformBuilder(SAMPLE_RATE, 2);
+        float[] samples = new float[2 * 400];
+        for (int second = 0; second < 10; second++) {
+            for (int chunk = 0; chunk < SAMPLE_RATE / 400; chunk++) {
+                for (int i = 0; i < 400; i++) {
+                    samples[2 * i] = (i % 2 == 0 ? 1 : -1) * second / 10f;
+                    samples[2 * i + 1] = second == 7 && chunk == 3 && i == 0 ? 1f : 0f;
+                }
+                builder.process(samples, 400);
+            }
+        }
+        builder.process(new float[2 * 400], 400);
+        Waveform waveform = builder.build();
+
+        assertEquals(10050, waveform.getDuration());
+        assertEquals(101, waveform.getPeakCount(0));
+        assertEquals(8, waveform.getLevelCount());
+        assertEquals(1, waveform.getPeakCount(7));
+        assertEquals(800, waveform.getFramesPerPeak(0));
+        assertEquals(-39, waveform.getMin(0, 35));
+        assertEquals(39, waveform.getMax(0, 35));
+        assertEquals(127, waveform.getMax(0, 71));
+        assertEquals(127, waveform.getMax(7, 0));
+        assertEquals(-116, waveform.getMin(7, 0));
+        assertEquals(0, waveform.getMax(0, 100));
+    }
+
+    @Test
+    public void render_readsLevelOfColumnWidth() {
+        Waveform waveform = ramp(600);
+        byte[] mins = new byte[100];
+        byte[] maxes = new byte[100];
+
+        // The whole song, at 6 seconds per column.
+        waveform.render(0, 600000, 100, mins, maxes);
+        assertEquals(1, maxes[0]);
+        assertEquals(127, maxes[99]);
+        for (int i = 1; i < 100; i++) {
+            assertTrue(maxes[i] >= maxes[i - 1]);
+            assertTrue(mins[i] <= mins[i - 1]);
+        }
+
+        // Zoomed into 10 seconds, at a peak of the first level per column.
+        waveform.render(300000, 310000, 100, mins, maxes);
+        assertEquals(64, maxes[0]);
+        assertEquals(66, maxes[99]);
+
+        // Past the end of the song.
+        waveform.render(590000, 610000, 100, mins, maxes);
+        assertEquals(127, maxes[49]);
+        assertEquals(0, maxes[60]);
+    }
+
+    @Test
+    public void cache_writesAndMapsWaveforms() throws Exception {
+        WaveformCache cache = new WaveformCache(mDirectory);
+        assertFalse(cache.contains(5));
+        assertNull(cache.get(5));
+
+        Waveform waveform = ramp(60);
+        cache.put(5, waveform);
+        cache.put(6, ramp(30));
+        assertTrue(cache.contains(5));
+
+        // A new cache lists the files and maps them.
+        WaveformCache read = new WaveformCache(mDirectory);
+        assertTrue(read.contains(6));
+        Waveform mapped = read.get(5);
+        assertSame(mapped, read.get(5));
+        assertEquals(waveform.getDuration(), mapped.getDuration());
+        assertEquals(waveform.getLevelCount(), mapped.getLevelCount());
+        for (int level = 0; level < waveform.getLevelCount(); level++) {
+            for (int i = 0; i < waveform.getPeakCount(level); i++) {
+                assertEquals(waveform.getMax(level, i), mapped.getMax(level, i));
+            }
+        }
+
+        read.remove(6);
+        assertFalse(new WaveformCache(mDirectory).contains(6));
+    }
+
+    @Test(expected = java.io.IOException.class)
+    public void read_rejectsTruncatedFile() throws Exception {
+        File file = new File(mDirectory.getPath() + ".wfm");
+        try {
+            ramp(60).write(file);
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            raf.setLength(raf.length() - 10);
+            raf.close();
+
+            Waveform.read(file);
+        } finally {
+            file.delete();
+        }
+    }
+
+    // Helper method that builds a mono waveform whose level rises steadily to full scale.
+    private static Waveform ramp(int seconds) {
+        WaveformBuilder builder = new WaveformBuilder(SAMPLE_RATE, 1);
+        float[] samples = new float[SAMPLE_RATE];
+        for (int second = 0; second < seconds; second++) {
+            for (int i = 0; i < samples.length; i++) {
+                samples[i] = (i % 2 == 0 ? 1 : -1) * (second + (float) i / samples.length)
+                        / seconds;
+            }
+            builder.process(samples, samples.length);
+        }
+        return builder.build();
+    }
+}